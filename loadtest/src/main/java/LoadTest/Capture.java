@@ -0,0 +1,82 @@
+package LoadTest;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Traffic captures: one JSON object per line with the request's offset from the start of the capture in
+ * milliseconds, its method, path (with query string) and body, eg
+ *
+ *   {"offset_ms":1520,"method":"PATCH","path":"/messages/12","body":"{\"message_text\":\"hi\"}"}
+ *
+ * The recording proxy and the synthetic runner write this format; replay reads it.
+ */
+public class Capture implements Closeable {
+
+    private final BufferedWriter out;
+
+    /**
+     * Opens a capture file for writing, replacing any existing file.
+     */
+    public Capture(Path file) throws IOException {
+        this.out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends one request. Safe to call from several threads.
+     */
+    public synchronized void append(long offsetMs, String method, String path, String body) throws IOException {
+        out.write("{\"offset_ms\":" + offsetMs + ",\"method\":" + Json.quote(method) + ",\"path\":" + Json.quote(path)
+                + ",\"body\":" + Json.quote(body) + "}\n");
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Reads a capture into requests ordered by offset, with offsets divided by the speed-up factor.
+     *
+     * @param file the capture
+     * @param speed 2.0 replays twice as fast as recorded, 0.5 half as fast
+     * @return the requests to replay
+     * @throws IOException if the file cannot be read or a line is not a capture record
+     */
+    public static List<RequestSpec> read(Path file, double speed) throws IOException {
+        List<RequestSpec> requests = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = in.readLine()) != null) {
+                number++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                Map<String, String> fields;
+                try {
+                    fields = Json.parseFlatObject(line);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Line " + number + " of " + file + ": " + e.getMessage());
+                }
+                String method = fields.get("method");
+                String path = fields.get("path");
+                if (method == null || path == null || fields.get("offset_ms") == null) {
+                    throw new IOException("Line " + number + " of " + file + " needs offset_ms, method and path");
+                }
+                long offsetNanos = (long) (Long.parseLong(fields.get("offset_ms")) * 1_000_000L / speed);
+                requests.add(new RequestSpec(offsetNanos, Operation.classify(method, path), method, path, fields.get("body")));
+            }
+        }
+        requests.sort((a, b) -> Long.compare(a.offsetNanos, b.offsetNanos));
+        return requests;
+    }
+}
@@ -0,0 +1,146 @@
+package LoadTest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Command line entry point. Three commands:
+ *
+ *   run     synthetic open-loop load with an operation mix
+ *           -target http://localhost:8080 -rate 200 -duration 60 -warmup 10 -arrivals poisson|constant
+ *           -mix feed=50,user_messages=15,message=15,post=15,edit=3,delete=2 -users 200 -follows 20
+ *           -messages 5 -max-in-flight 1000 -timeout 10 -seed 42 -record capture.jsonl -report report
+ *   replay  replays a capture at its recorded pace, or faster with -speed
+ *           -target http://localhost:8080 -capture capture.jsonl -speed 1 -warmup 0 -max-in-flight 1000
+ *           -timeout 10 -report report
+ *   record  a proxy that captures real traffic while relaying it; stop it with Ctrl-C
+ *           -listen 9090 -target http://localhost:8080 -out capture.jsonl -threads 64
+ *
+ * run and replay print a summary and write report.json and report.html into the -report directory.
+ */
+public class Main {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            usage();
+            return;
+        }
+        Map<String, String> options = parseOptions(args);
+        switch (args[0]) {
+            case "run":
+                run(options);
+                break;
+            case "replay":
+                replay(options);
+                break;
+            case "record":
+                record(options);
+                break;
+            default:
+                usage();
+        }
+    }
+
+    private static void run(Map<String, String> options) throws IOException, InterruptedException {
+        URI target = URI.create(option(options, "target", "http://localhost:8080"));
+        double rate = Double.parseDouble(option(options, "rate", "200"));
+        long duration = Long.parseLong(option(options, "duration", "60"));
+        long warmup = Long.parseLong(option(options, "warmup", "10"));
+        long seed = Long.parseLong(option(options, "seed", "42"));
+        HttpClient client = client();
+
+        System.out.println("Setting up accounts and messages on " + target);
+        Workload workload = Workload.setUp(client, target, Workload.parseMix(option(options, "mix", Workload.DEFAULT_MIX)),
+                Integer.parseInt(option(options, "users", "200")), Integer.parseInt(option(options, "follows", "20")),
+                Integer.parseInt(option(options, "messages", "5")), seed);
+        Iterator<RequestSpec> schedule = OpenLoopRunner.schedule(workload, rate, (warmup + duration) * 1_000_000_000L,
+                option(options, "arrivals", "poisson").equals("poisson"), seed);
+        System.out.printf("Sending %.0f requests/s for %d s after a %d s warm-up%n", rate, duration, warmup);
+
+        Capture record = options.containsKey("record") ? new Capture(Path.of(options.get("record"))) : null;
+        Results results;
+        try {
+            results = runner(client, target, options).run(schedule, warmup * 1_000_000_000L, workload, record);
+        } finally {
+            if (record != null) {
+                record.close();
+            }
+        }
+        report(options, results);
+    }
+
+    private static void replay(Map<String, String> options) throws IOException, InterruptedException {
+        URI target = URI.create(option(options, "target", "http://localhost:8080"));
+        List<RequestSpec> requests = Capture.read(Path.of(option(options, "capture", "capture.jsonl")),
+                Double.parseDouble(option(options, "speed", "1")));
+        long warmup = Long.parseLong(option(options, "warmup", "0"));
+        System.out.println("Replaying " + requests.size() + " requests against " + target);
+        HttpClient client = client();
+        Results results = runner(client, target, options).run(requests.iterator(), warmup * 1_000_000_000L, null, null);
+        report(options, results);
+    }
+
+    private static void record(Map<String, String> options) throws IOException, InterruptedException {
+        int port = Integer.parseInt(option(options, "listen", "9090"));
+        Path out = Path.of(option(options, "out", "capture.jsonl"));
+        RecordingProxy proxy = new RecordingProxy(port, URI.create(option(options, "target", "http://localhost:8080")),
+                new Capture(out), Integer.parseInt(option(options, "threads", "64")));
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                proxy.stop();
+            } catch (IOException e) {
+                System.err.println("Could not close " + out + ": " + e.getMessage());
+            }
+            stopped.countDown();
+        }));
+        proxy.start();
+        System.out.println("Recording traffic on port " + port + " into " + out + "; Ctrl-C to stop");
+        stopped.await();
+    }
+
+    private static OpenLoopRunner runner(HttpClient client, URI target, Map<String, String> options) {
+        return new OpenLoopRunner(client, target, Integer.parseInt(option(options, "max-in-flight", "1000")),
+                Duration.ofSeconds(Long.parseLong(option(options, "timeout", "10"))));
+    }
+
+    private static void report(Map<String, String> options, Results results) throws IOException {
+        Report report = new Report(options, results);
+        System.out.print(report.summary());
+        Path directory = Path.of(option(options, "report", "report"));
+        report.write(directory);
+        System.out.println("Reports written to " + directory.resolve("report.html") + " and report.json");
+    }
+
+    private static HttpClient client() {
+        return HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(Duration.ofSeconds(5)).build();
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("command", args[0]);
+        for (int i = 1; i < args.length; i++) {
+            if (!args[i].startsWith("-") || i + 1 == args.length) {
+                throw new IllegalArgumentException("Expected -name value, got " + args[i]);
+            }
+            options.put(args[i].substring(1), args[++i]);
+        }
+        return options;
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private static void usage() {
+        System.out.println("usage: java -cp target/classes LoadTest.Main run|replay|record [-option value ...]");
+    }
+}
@@ -0,0 +1,245 @@
+package LoadTest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends requests on a fixed schedule, whether or not earlier requests have completed (an open-loop load model).
+ * Every request has a due time, and its latency is measured from that due time, not from when the request actually
+ * left. When the server stalls, requests due during the stall are charged with the time they waited to be sent, so
+ * the percentiles are free of coordinated omission: a closed-loop client would instead wait, send fewer requests,
+ * and report the stall only once.
+ *
+ * Requests are sent with HttpClient.sendAsync, so a slow response occupies no thread. A cap on requests in flight
+ * protects the client: a request due while the cap is reached waits, in order, until a response makes room, and its
+ * latency still counts from its due time, so the wait is charged to it as a stall would be. Requests still waiting
+ * when the run ends are counted as skipped and charged the time from their due time to the end.
+ */
+public class OpenLoopRunner {
+
+    private final HttpClient client;
+    private final URI target;
+    private final int maxInFlight;
+    private final Duration requestTimeout;
+
+    /**
+     * @param client the client to send with
+     * @param target the base URL of the API
+     * @param maxInFlight the largest number of requests outstanding at once
+     * @param requestTimeout how long a request may take before it counts as a failure
+     */
+    public OpenLoopRunner(HttpClient client, URI target, int maxInFlight, Duration requestTimeout) {
+        this.client = client;
+        this.target = target;
+        this.maxInFlight = maxInFlight;
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * Runs a schedule to the end and waits for the requests still in flight or waiting.
+     *
+     * @param schedule requests in order of offset
+     * @param warmupNanos requests due before this offset are sent but not measured
+     * @param workload told about every response so it can learn new ids, or null
+     * @param record where every request sent is captured, or null
+     * @return the measurements
+     */
+    public Results run(Iterator<RequestSpec> schedule, long warmupNanos, Workload workload, Capture record)
+            throws InterruptedException {
+        Dispatch dispatch = new Dispatch(warmupNanos, workload, record);
+        long scheduled = 0;
+        long maxLag = 0;
+        long lastOffset = 0;
+        long start = System.nanoTime();
+        while (schedule.hasNext()) {
+            RequestSpec spec = schedule.next();
+            long due = start + spec.offsetNanos;
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                dispatch.sendWaiting();
+                LockSupport.parkNanos(wait);
+            }
+            dispatch.sendWaiting();
+            maxLag = Math.max(maxLag, System.nanoTime() - due);
+            lastOffset = spec.offsetNanos;
+            if (spec.offsetNanos >= warmupNanos) {
+                scheduled++;
+            }
+            dispatch.submit(spec, due);
+        }
+        long drainDeadline = System.nanoTime() + requestTimeout.toNanos() + TimeUnit.SECONDS.toNanos(1);
+        while (dispatch.outstanding() && System.nanoTime() < drainDeadline) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            dispatch.sendWaiting();
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        dispatch.skipWaiting();
+        Results results = dispatch.results;
+        results.setMeasuredNanos(Math.max(0, lastOffset - warmupNanos));
+        results.setMaxDispatchLagNanos(maxLag);
+        results.setScheduled(scheduled);
+        return results;
+    }
+
+    /**
+     * A synthetic schedule at a fixed mean rate. With poisson arrivals the gaps between requests are exponentially
+     * distributed, as they are for independent users; otherwise they are equal.
+     *
+     * @param workload draws each request
+     * @param ratePerSecond the mean arrival rate
+     * @param durationNanos how long the schedule lasts
+     * @param poisson whether arrivals are random rather than evenly spaced
+     * @param seed seed for the arrival times
+     * @return the schedule, generated lazily
+     */
+    public static Iterator<RequestSpec> schedule(Workload workload, double ratePerSecond, long durationNanos,
+                                                 boolean poisson, long seed) {
+        Random random = new Random(seed);
+        double meanGapNanos = 1e9 / ratePerSecond;
+        return new Iterator<>() {
+            private double offset;
+
+            @Override
+            public boolean hasNext() {
+                return offset < durationNanos;
+            }
+
+            @Override
+            public RequestSpec next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                RequestSpec spec = workload.next((long) offset);
+                offset += poisson ? -Math.log(1 - random.nextDouble()) * meanGapNanos : meanGapNanos;
+                return spec;
+            }
+        };
+    }
+
+    /**
+     * The requests of one run that are in flight or waiting for room. Only the thread running the schedule touches
+     * the waiting queue; response callbacks wake it when they make room.
+     */
+    private class Dispatch {
+        final Results results = new Results();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final Deque<Waiting> waiting = new ArrayDeque<>();
+        final Thread dispatcher = Thread.currentThread();
+        final long warmupNanos;
+        final Workload workload;
+        final Capture record;
+
+        Dispatch(long warmupNanos, Workload workload, Capture record) {
+            this.warmupNanos = warmupNanos;
+            this.workload = workload;
+            this.record = record;
+        }
+
+        /**
+         * Sends a request now, or queues it behind the ones already waiting if the cap is reached.
+         */
+        void submit(RequestSpec spec, long due) {
+            if (waiting.isEmpty() && inFlight.get() < maxInFlight) {
+                send(spec, due);
+            } else {
+                waiting.add(new Waiting(spec, due));
+            }
+        }
+
+        /**
+         * Sends waiting requests, oldest first, while there is room.
+         */
+        void sendWaiting() {
+            while (!waiting.isEmpty() && inFlight.get() < maxInFlight) {
+                Waiting next = waiting.poll();
+                send(next.spec, next.due);
+            }
+        }
+
+        /**
+         * @return whether any request is still in flight or waiting
+         */
+        boolean outstanding() {
+            return inFlight.get() > 0 || !waiting.isEmpty();
+        }
+
+        /**
+         * Gives up on the requests still waiting when the run ends, counting each as skipped and charging it the
+         * time since it was due, which is as long as it would have taken at the least.
+         */
+        void skipWaiting() {
+            long now = System.nanoTime();
+            for (Waiting request : waiting) {
+                if (request.spec.offsetNanos >= warmupNanos) {
+                    Results.OperationResults counters = results.of(request.spec.operation);
+                    counters.skipped.incrementAndGet();
+                    counters.latency.record((now - request.due) / 1000);
+                }
+            }
+            waiting.clear();
+        }
+
+        private void send(RequestSpec spec, long due) {
+            if (record != null) {
+                try {
+                    record.append(spec.offsetNanos / 1_000_000, spec.method, spec.path, spec.body);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            boolean measured = spec.offsetNanos >= warmupNanos;
+            Results.OperationResults counters = results.of(spec.operation);
+            inFlight.incrementAndGet();
+            client.sendAsync(build(spec), HttpResponse.BodyHandlers.ofString()).whenComplete((response, error) -> {
+                long micros = (System.nanoTime() - due) / 1000;
+                if (measured) {
+                    if (error == null) {
+                        counters.latency.record(micros);
+                        counters.status(response.statusCode());
+                    } else {
+                        counters.failures.incrementAndGet();
+                    }
+                }
+                if (workload != null && error == null) {
+                    workload.onResponse(spec, response.statusCode(), response.body());
+                }
+                inFlight.decrementAndGet();
+                LockSupport.unpark(dispatcher);
+            });
+        }
+    }
+
+    private static final class Waiting {
+        final RequestSpec spec;
+        final long due;
+
+        Waiting(RequestSpec spec, long due) {
+            this.spec = spec;
+            this.due = due;
+        }
+    }
+
+    private HttpRequest build(RequestSpec spec) {
+        return HttpRequest.newBuilder(target.resolve(spec.path))
+                .method(spec.method, spec.body == null ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofString(spec.body))
+                .header("Content-Type", "application/json")
+                .timeout(requestTimeout)
+                .build();
+    }
+}
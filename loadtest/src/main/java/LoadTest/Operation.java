@@ -0,0 +1,57 @@
+package LoadTest;
+
+import java.util.regex.Pattern;
+
+/**
+ * The kinds of request the harness sends, named after the route they exercise. Reports are broken down by
+ * operation, and captured traffic is classified into them by method and path.
+ */
+public enum Operation {
+    FEED("GET", "/accounts/\\d+/feed"),
+    USER_MESSAGES("GET", "/accounts/\\d+/messages"),
+    MESSAGE("GET", "/messages/\\d+"),
+    POST("POST", "/messages"),
+    EDIT("PATCH", "/messages/\\d+"),
+    DELETE("DELETE", "/messages/\\d+"),
+    OTHER("", "");
+
+    private final String method;
+    private final Pattern path;
+
+    Operation(String method, String path) {
+        this.method = method;
+        this.path = Pattern.compile(path);
+    }
+
+    /**
+     * @return the lower-case name used in mix specifications and reports, eg "user_messages"
+     */
+    public String key() {
+        return name().toLowerCase();
+    }
+
+    /**
+     * @param method the HTTP method
+     * @param pathAndQuery the request path, with or without a query string
+     * @return the operation the request belongs to, OTHER if none matches
+     */
+    public static Operation classify(String method, String pathAndQuery) {
+        int query = pathAndQuery.indexOf('?');
+        String path = query < 0 ? pathAndQuery : pathAndQuery.substring(0, query);
+        for (Operation operation : values()) {
+            if (operation.method.equals(method) && operation.path.matcher(path).matches()) {
+                return operation;
+            }
+        }
+        return OTHER;
+    }
+
+    /**
+     * @param key an operation key as returned by key()
+     * @return the operation
+     * @throws IllegalArgumentException if no operation has that key
+     */
+    public static Operation fromKey(String key) {
+        return valueOf(key.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,115 @@
+package LoadTest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Captures real traffic: an HTTP proxy that forwards every request to the API unchanged, relays the response, and
+ * appends the request to a capture file with its offset from when the proxy started. Point clients at the proxy
+ * instead of the API for as long as the capture should run.
+ */
+public class RecordingProxy {
+
+    /**
+     * Headers the JDK client sets itself, or that describe one hop rather than the request.
+     */
+    private static final Set<String> HOP_HEADERS = Set.of("connection", "content-length", "expect", "host",
+            "keep-alive", "transfer-encoding", "upgrade", "te", "trailer", "proxy-connection");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final URI target;
+    private final Capture capture;
+    private final long start = System.nanoTime();
+
+    /**
+     * @param port the port to listen on
+     * @param target the base URL of the API
+     * @param capture where requests are recorded
+     * @param threads the number of requests relayed at once
+     */
+    public RecordingProxy(int port, URI target, Capture capture, int threads) throws IOException {
+        this.target = target;
+        this.capture = capture;
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.server.createContext("/", this::relay);
+        this.server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests and closes the capture.
+     */
+    public void stop() throws IOException {
+        server.stop(1);
+        executor.shutdown();
+        capture.close();
+    }
+
+    private void relay(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            long offsetMs = (System.nanoTime() - start) / 1_000_000;
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getRawPath()
+                    + (exchange.getRequestURI().getRawQuery() == null ? "" : "?" + exchange.getRequestURI().getRawQuery());
+            byte[] body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = in.readAllBytes();
+            }
+            capture.append(offsetMs, method, path, body.length == 0 ? null : new String(body, StandardCharsets.UTF_8));
+
+            HttpRequest.Builder request = HttpRequest.newBuilder(target.resolve(path))
+                    .method(method, body.length == 0 ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofByteArray(body));
+            for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+                if (!HOP_HEADERS.contains(header.getKey().toLowerCase())) {
+                    for (String value : header.getValue()) {
+                        request.header(header.getKey(), value);
+                    }
+                }
+            }
+            HttpResponse<byte[]> response;
+            try {
+                response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exchange.sendResponseHeaders(502, -1);
+                return;
+            } catch (IOException e) {
+                exchange.sendResponseHeaders(502, -1);
+                return;
+            }
+            response.headers().map().forEach((name, values) -> {
+                if (!HOP_HEADERS.contains(name.toLowerCase()) && !name.startsWith(":")) {
+                    exchange.getResponseHeaders().put(name, values);
+                }
+            });
+            byte[] responseBody = response.body();
+            exchange.sendResponseHeaders(response.statusCode(), responseBody.length == 0 ? -1 : responseBody.length);
+            if (responseBody.length > 0) {
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(responseBody);
+                }
+            }
+        }
+    }
+}
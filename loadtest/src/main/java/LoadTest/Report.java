@@ -0,0 +1,180 @@
+package LoadTest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes a run's results as report.json, for comparing runs by script, and report.html, for reading. Latencies are
+ * in milliseconds and measured from each request's due time.
+ */
+public class Report {
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private final Map<String, String> settings;
+    private final Results results;
+
+    /**
+     * @param settings the options the run was started with, shown at the top of the report
+     * @param results what it measured
+     */
+    public Report(Map<String, String> settings, Results results) {
+        this.settings = settings;
+        this.results = results;
+    }
+
+    /**
+     * Writes report.json and report.html into a directory, creating it if needed.
+     *
+     * @param directory where the reports go
+     */
+    public void write(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Files.write(directory.resolve("report.json"), json().getBytes(StandardCharsets.UTF_8));
+        Files.write(directory.resolve("report.html"), html().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return a few lines for the console
+     */
+    public String summary() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.ROOT, "%-14s %9s %8s %9s %9s %9s %9s %9s%n",
+                "operation", "requests", "errors", "p50_ms", "p90_ms", "p99_ms", "p99.9_ms", "max_ms"));
+        for (Map.Entry<Operation, Results.OperationResults> entry : results.active().entrySet()) {
+            row(text, entry.getKey().key(), entry.getValue().latency, entry.getValue().errors());
+        }
+        long errors = 0;
+        for (Results.OperationResults operation : results.active().values()) {
+            errors += operation.errors();
+        }
+        row(text, "all", results.overall(), errors);
+        text.append(String.format(Locale.ROOT, "throughput %.1f req/s, max dispatch lag %.2f ms%n",
+                results.throughput(), results.maxDispatchLagNanos() / 1e6));
+        return text.toString();
+    }
+
+    String json() {
+        StringBuilder json = new StringBuilder("{\n  \"generated_at\": ").append(Json.quote(Instant.now().toString()));
+        json.append(",\n  \"settings\": {");
+        String separator = "";
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            json.append(separator).append(Json.quote(setting.getKey())).append(": ").append(Json.quote(setting.getValue()));
+            separator = ", ";
+        }
+        json.append("},\n  \"scheduled\": ").append(results.scheduled());
+        json.append(",\n  \"measured_seconds\": ").append(number(results.measuredNanos() / 1e9));
+        json.append(",\n  \"throughput_per_second\": ").append(number(results.throughput()));
+        json.append(",\n  \"max_dispatch_lag_ms\": ").append(number(results.maxDispatchLagNanos() / 1e6));
+        json.append(",\n  \"overall\": ").append(latencyJson(results.overall()));
+        json.append(",\n  \"operations\": {");
+        separator = "\n";
+        for (Map.Entry<Operation, Results.OperationResults> entry : results.active().entrySet()) {
+            Results.OperationResults operation = entry.getValue();
+            json.append(separator).append("    ").append(Json.quote(entry.getKey().key())).append(": {")
+                    .append("\"latency\": ").append(latencyJson(operation.latency))
+                    .append(", \"failures\": ").append(operation.failures.get())
+                    .append(", \"skipped\": ").append(operation.skipped.get())
+                    .append(", \"statuses\": {");
+            String statusSeparator = "";
+            for (Map.Entry<Integer, Long> status : operation.statuses().entrySet()) {
+                json.append(statusSeparator).append('"').append(status.getKey()).append("\": ").append(status.getValue());
+                statusSeparator = ", ";
+            }
+            json.append("}}");
+            separator = ",\n";
+        }
+        return json.append("\n  }\n}\n").toString();
+    }
+
+    String html() {
+        StringBuilder html = new StringBuilder();
+        html.append("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>Load test report</title>\n")
+                .append("<style>body{font-family:sans-serif;margin:2em}table{border-collapse:collapse;margin-bottom:1.5em}")
+                .append("td,th{border:1px solid #ccc;padding:4px 10px;text-align:right}th{background:#eee}")
+                .append("td:first-child,th:first-child{text-align:left}.bar{background:#4a7ebb;height:10px}</style>\n")
+                .append("</head><body>\n<h1>Load test report</h1>\n<p>Generated ").append(escape(Instant.now().toString()))
+                .append(". Latencies are in milliseconds, measured from each request's scheduled send time.</p>\n");
+
+        html.append("<h2>Settings</h2>\n<table>\n");
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            html.append("<tr><td>").append(escape(setting.getKey())).append("</td><td>")
+                    .append(escape(setting.getValue())).append("</td></tr>\n");
+        }
+        html.append("</table>\n<p>").append(results.scheduled()).append(" requests scheduled over ")
+                .append(number(results.measuredNanos() / 1e9)).append(" s, ")
+                .append(number(results.throughput())).append(" completed per second. Largest dispatch lag ")
+                .append(number(results.maxDispatchLagNanos() / 1e6)).append(" ms.</p>\n");
+
+        html.append("<h2>Latency</h2>\n<table>\n<tr><th>operation</th><th>requests</th><th>errors</th><th>mean</th>");
+        for (double percentile : PERCENTILES) {
+            html.append("<th>p").append(label(percentile)).append("</th>");
+        }
+        html.append("<th>max</th><th>statuses</th></tr>\n");
+        for (Map.Entry<Operation, Results.OperationResults> entry : results.active().entrySet()) {
+            htmlRow(html, entry.getKey().key(), entry.getValue().latency, entry.getValue().errors(),
+                    entry.getValue().statuses().toString());
+        }
+        long errors = 0;
+        for (Results.OperationResults operation : results.active().values()) {
+            errors += operation.errors();
+        }
+        htmlRow(html, "all", results.overall(), errors, "");
+        html.append("</table>\n");
+
+        html.append("<h2>Overall percentile distribution</h2>\n<table>\n<tr><th>percentile</th><th>ms</th><th></th></tr>\n");
+        LatencyHistogram overall = results.overall();
+        double[] curve = { 10, 25, 50, 75, 90, 95, 99, 99.5, 99.9, 99.99, 100 };
+        double max = Math.max(1, overall.max());
+        for (double percentile : curve) {
+            long value = overall.percentile(percentile);
+            html.append("<tr><td>").append(label(percentile)).append("</td><td>").append(number(value / 1000.0))
+                    .append("</td><td style=\"text-align:left;width:400px\"><div class=\"bar\" style=\"width:")
+                    .append(Math.max(1, (int) (400 * value / max))).append("px\"></div></td></tr>\n");
+        }
+        return html.append("</table>\n</body></html>\n").toString();
+    }
+
+    private static void row(StringBuilder text, String name, LatencyHistogram latency, long errors) {
+        text.append(String.format(Locale.ROOT, "%-14s %9d %8d %9.2f %9.2f %9.2f %9.2f %9.2f%n", name, latency.count(),
+                errors, latency.percentile(50) / 1000.0, latency.percentile(90) / 1000.0, latency.percentile(99) / 1000.0,
+                latency.percentile(99.9) / 1000.0, latency.max() / 1000.0));
+    }
+
+    private static void htmlRow(StringBuilder html, String name, LatencyHistogram latency, long errors, String statuses) {
+        html.append("<tr><td>").append(escape(name)).append("</td><td>").append(latency.count()).append("</td><td>")
+                .append(errors).append("</td><td>").append(number(latency.mean() / 1000.0)).append("</td>");
+        for (double percentile : PERCENTILES) {
+            html.append("<td>").append(number(latency.percentile(percentile) / 1000.0)).append("</td>");
+        }
+        html.append("<td>").append(number(latency.max() / 1000.0)).append("</td><td>").append(escape(statuses))
+                .append("</td></tr>\n");
+    }
+
+    private static String latencyJson(LatencyHistogram latency) {
+        StringBuilder json = new StringBuilder("{\"count\": ").append(latency.count())
+                .append(", \"mean_ms\": ").append(number(latency.mean() / 1000.0));
+        for (double percentile : PERCENTILES) {
+            json.append(", \"p").append(label(percentile).replace('.', '_')).append("_ms\": ")
+                    .append(number(latency.percentile(percentile) / 1000.0));
+        }
+        return json.append(", \"max_ms\": ").append(number(latency.max() / 1000.0)).append('}').toString();
+    }
+
+    private static String label(double percentile) {
+        return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
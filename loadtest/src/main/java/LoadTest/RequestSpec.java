@@ -0,0 +1,27 @@
+package LoadTest;
+
+/**
+ * One request to send: what it is, and when relative to the start of the run.
+ */
+public class RequestSpec {
+    public final long offsetNanos;
+    public final Operation operation;
+    public final String method;
+    public final String path;
+    public final String body;
+
+    /**
+     * @param offsetNanos when the request is due, in nanoseconds from the start of the run
+     * @param operation the operation it counts towards in the report
+     * @param method the HTTP method
+     * @param path the path and query string, starting with '/'
+     * @param body the JSON body, or null for none
+     */
+    public RequestSpec(long offsetNanos, Operation operation, String method, String path, String body) {
+        this.offsetNanos = offsetNanos;
+        this.operation = operation;
+        this.method = method;
+        this.path = path;
+        this.body = body;
+    }
+}
@@ -0,0 +1,137 @@
+package LoadTest;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What a run measured, per operation: a latency histogram of the completed requests, response status counts,
+ * transport failures, and requests skipped because they were still waiting for room under the client's cap on
+ * requests in flight when the run ended. Skipped requests are in the histogram too, charged the time they waited.
+ * Only requests due after the warm-up are counted.
+ */
+public class Results {
+
+    /**
+     * The counters of one operation.
+     */
+    public static class OperationResults {
+        public final LatencyHistogram latency = new LatencyHistogram();
+        public final AtomicLong failures = new AtomicLong();
+        public final AtomicLong skipped = new AtomicLong();
+        private final Map<Integer, AtomicLong> statuses = new TreeMap<>();
+
+        void status(int status) {
+            AtomicLong count;
+            synchronized (statuses) {
+                count = statuses.computeIfAbsent(status, s -> new AtomicLong());
+            }
+            count.incrementAndGet();
+        }
+
+        /**
+         * @return response counts by status code
+         */
+        public Map<Integer, Long> statuses() {
+            Map<Integer, Long> copy = new TreeMap<>();
+            synchronized (statuses) {
+                statuses.forEach((status, count) -> copy.put(status, count.get()));
+            }
+            return copy;
+        }
+
+        /**
+         * @return responses with a 5xx status, plus transport failures and skipped requests
+         */
+        public long errors() {
+            long errors = failures.get() + skipped.get();
+            for (Map.Entry<Integer, Long> entry : statuses().entrySet()) {
+                if (entry.getKey() >= 500) {
+                    errors += entry.getValue();
+                }
+            }
+            return errors;
+        }
+    }
+
+    private final Map<Operation, OperationResults> byOperation = new EnumMap<>(Operation.class);
+    private volatile long measuredNanos;
+    private volatile long maxDispatchLagNanos;
+    private volatile long scheduled;
+
+    public Results() {
+        for (Operation operation : Operation.values()) {
+            byOperation.put(operation, new OperationResults());
+        }
+    }
+
+    /**
+     * @return the counters of one operation
+     */
+    public OperationResults of(Operation operation) {
+        return byOperation.get(operation);
+    }
+
+    /**
+     * @return the counters of every operation that saw at least one request
+     */
+    public Map<Operation, OperationResults> active() {
+        Map<Operation, OperationResults> active = new EnumMap<>(Operation.class);
+        byOperation.forEach((operation, results) -> {
+            if (results.latency.count() + results.failures.get() + results.skipped.get() > 0) {
+                active.put(operation, results);
+            }
+        });
+        return active;
+    }
+
+    /**
+     * @return every operation's latencies in one histogram
+     */
+    public LatencyHistogram overall() {
+        LatencyHistogram overall = new LatencyHistogram();
+        for (OperationResults results : byOperation.values()) {
+            overall.add(results.latency);
+        }
+        return overall;
+    }
+
+    /**
+     * @return completed requests per second over the measured part of the run
+     */
+    public double throughput() {
+        return measuredNanos == 0 ? 0 : overall().count() / (measuredNanos / 1e9);
+    }
+
+    public long measuredNanos() {
+        return measuredNanos;
+    }
+
+    void setMeasuredNanos(long measuredNanos) {
+        this.measuredNanos = measuredNanos;
+    }
+
+    /**
+     * @return the furthest the dispatcher fell behind the schedule; large values mean the client, not the server,
+     *         limited the arrival rate
+     */
+    public long maxDispatchLagNanos() {
+        return maxDispatchLagNanos;
+    }
+
+    void setMaxDispatchLagNanos(long maxDispatchLagNanos) {
+        this.maxDispatchLagNanos = maxDispatchLagNanos;
+    }
+
+    /**
+     * @return the number of measured requests the schedule called for
+     */
+    public long scheduled() {
+        return scheduled;
+    }
+
+    void setScheduled(long scheduled) {
+        this.scheduled = scheduled;
+    }
+}
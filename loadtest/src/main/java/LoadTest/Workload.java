@@ -0,0 +1,233 @@
+package LoadTest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Synthetic traffic with a fixed operation mix. set up() registers a population of accounts, makes each follow a
+ * few others and posts some messages, so that feeds, edits and deletes have something to work on. After that next()
+ * draws operations by weight; ids of messages created during the run are learnt from the responses and become
+ * targets for later reads, edits and deletes.
+ *
+ * next() is called from the dispatcher thread only; onResponse() from the HTTP client's threads.
+ */
+public class Workload {
+
+    /**
+     * 80% timeline reads, 15% posts, 5% edits and deletes.
+     */
+    public static final String DEFAULT_MIX = "feed=50,user_messages=15,message=15,post=15,edit=3,delete=2";
+
+    private static final Pattern ACCOUNT_ID = Pattern.compile("\"account_id\"\\s*:\\s*(\\d+)");
+    private static final Pattern MESSAGE_ID = Pattern.compile("\"message_id\"\\s*:\\s*(\\d+)");
+
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+    private final int[] accounts;
+    private final IdPool messages = new IdPool();
+    private final Random random;
+    private long sequence;
+
+    Workload(Map<Operation, Integer> mix, int[] accounts, long seed) {
+        this.operations = mix.keySet().toArray(new Operation[0]);
+        this.cumulativeWeights = new int[operations.length];
+        int total = 0;
+        for (int i = 0; i < operations.length; i++) {
+            total += mix.get(operations[i]);
+            cumulativeWeights[i] = total;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("The mix needs at least one operation with a positive weight");
+        }
+        this.accounts = accounts;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Creates the accounts, follows and messages the mix works on.
+     *
+     * @param client the client to send setup requests with
+     * @param target the base URL of the API
+     * @param mix the operation weights, see parseMix()
+     * @param users the number of accounts to register
+     * @param follows how many other accounts each account follows
+     * @param messagesPerUser how many messages each account posts up front
+     * @param seed seed for every random choice, so runs are repeatable
+     * @return the workload, ready for next()
+     * @throws IOException if the API cannot be reached or rejects a setup request
+     */
+    public static Workload setUp(HttpClient client, URI target, Map<Operation, Integer> mix, int users, int follows,
+                                 int messagesPerUser, long seed) throws IOException, InterruptedException {
+        String prefix = "lt" + Long.toString(System.currentTimeMillis(), 36) + "-";
+        int[] accounts = new int[users];
+        for (int i = 0; i < users; i++) {
+            String body = "{\"username\":\"" + prefix + i + "\",\"password\":\"password\"}";
+            accounts[i] = extractId(ACCOUNT_ID, send(client, target, "POST", "/register", body));
+        }
+        Workload workload = new Workload(mix, accounts, seed);
+        Random random = new Random(seed);
+        for (int account : accounts) {
+            for (int f = 0; f < Math.min(follows, users - 1); f++) {
+                int followee = accounts[random.nextInt(users)];
+                if (followee != account) {
+                    send(client, target, "POST", "/accounts/" + account + "/following/" + followee, null);
+                }
+            }
+            for (int m = 0; m < messagesPerUser; m++) {
+                RequestSpec post = workload.post(0, account);
+                workload.onResponse(post, 200, send(client, target, "POST", post.path, post.body));
+            }
+        }
+        return workload;
+    }
+
+    /**
+     * Parses a mix such as "feed=80,post=15,edit=5". Weights are relative and need not add up to 100.
+     *
+     * @param spec comma-separated operation=weight pairs; operations are the keys of {@link Operation}
+     * @return the weights by operation
+     * @throws IllegalArgumentException if an operation or weight is not valid
+     */
+    public static Map<Operation, Integer> parseMix(String spec) {
+        Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+        for (String pair : spec.split(",")) {
+            String[] parts = pair.split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected operation=weight, got " + pair);
+            }
+            Operation operation = Operation.fromKey(parts[0]);
+            if (operation == Operation.OTHER) {
+                throw new IllegalArgumentException("other is not an operation that can be generated");
+            }
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight for " + parts[0]);
+            }
+            mix.put(operation, weight);
+        }
+        return mix;
+    }
+
+    /**
+     * Draws the next request. Operations that need an existing message fall back to a post while there is none.
+     *
+     * @param offsetNanos when the request is due
+     * @return the request
+     */
+    public RequestSpec next(long offsetNanos) {
+        int draw = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        Operation operation = operations[operations.length - 1];
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (draw < cumulativeWeights[i]) {
+                operation = operations[i];
+                break;
+            }
+        }
+        int account = accounts[random.nextInt(accounts.length)];
+        sequence++;
+        switch (operation) {
+            case FEED:
+                return new RequestSpec(offsetNanos, operation, "GET", "/accounts/" + account + "/feed?limit=20", null);
+            case USER_MESSAGES:
+                return new RequestSpec(offsetNanos, operation, "GET", "/accounts/" + account + "/messages", null);
+            case MESSAGE:
+            case EDIT:
+            case DELETE:
+                int messageId = operation == Operation.DELETE ? messages.take(random) : messages.pick(random);
+                if (messageId < 0) {
+                    return post(offsetNanos, account);
+                }
+                if (operation == Operation.MESSAGE) {
+                    return new RequestSpec(offsetNanos, operation, "GET", "/messages/" + messageId, null);
+                }
+                if (operation == Operation.EDIT) {
+                    return new RequestSpec(offsetNanos, operation, "PATCH", "/messages/" + messageId,
+                            "{\"message_text\":\"edited by load test " + sequence + "\"}");
+                }
+                return new RequestSpec(offsetNanos, operation, "DELETE", "/messages/" + messageId, null);
+            default:
+                return post(offsetNanos, account);
+        }
+    }
+
+    /**
+     * Learns the id of a message created by a successful post.
+     *
+     * @param spec the request that was sent
+     * @param status its response status
+     * @param body its response body
+     */
+    public void onResponse(RequestSpec spec, int status, String body) {
+        if (spec.operation == Operation.POST && status == 200 && body != null) {
+            Matcher matcher = MESSAGE_ID.matcher(body);
+            if (matcher.find()) {
+                messages.add(Integer.parseInt(matcher.group(1)));
+            }
+        }
+    }
+
+    private RequestSpec post(long offsetNanos, int account) {
+        String body = "{\"posted_by\":" + account + ",\"message_text\":\"load test message " + (sequence++)
+                + "\",\"time_posted_epoch\":" + (System.currentTimeMillis() / 1000) + "}";
+        return new RequestSpec(offsetNanos, Operation.POST, "POST", "/messages", body);
+    }
+
+    private static String send(HttpClient client, URI target, String method, String path, String body)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(target.resolve(path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException(method + " " + path + " failed during setup with status " + response.statusCode());
+        }
+        return response.body();
+    }
+
+    private static int extractId(Pattern pattern, String body) throws IOException {
+        Matcher matcher = pattern.matcher(body);
+        if (!matcher.find()) {
+            throw new IOException("No id in setup response " + body);
+        }
+        return Integer.parseInt(matcher.group(1));
+    }
+
+    /**
+     * Ids of live messages, with O(1) random pick and random removal.
+     */
+    private static class IdPool {
+        private int[] ids = new int[1024];
+        private int size;
+
+        synchronized void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        synchronized int pick(Random random) {
+            return size == 0 ? -1 : ids[random.nextInt(size)];
+        }
+
+        synchronized int take(Random random) {
+            if (size == 0) {
+                return -1;
+            }
+            int i = random.nextInt(size);
+            int id = ids[i];
+            ids[i] = ids[--size];
+            return id;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package LoadTest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class LoadTestHarnessTest {
+
+    /**
+     * Recording 1..10000 microseconds once each
+     *
+     * Expected Result:
+     *  Percentiles are within the histogram's 1.6% bucket error and never above the maximum
+     */
+    @Test
+    public void histogramPercentilesAreWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int micros = 1; micros <= 10000; micros++) {
+            histogram.record(micros);
+        }
+        Assert.assertEquals(10000, histogram.count());
+        Assert.assertEquals(5000.5, histogram.mean(), 0.001);
+        for (double percentile : new double[] { 50, 90, 99, 99.9 }) {
+            long exact = (long) (percentile * 100);
+            Assert.assertEquals(exact, histogram.percentile(percentile), exact * 0.016);
+        }
+        Assert.assertEquals(10000, histogram.percentile(100));
+        for (long value = 0; value < 1_000_000; value = value * 2 + 1) {
+            Assert.assertTrue(LatencyHistogram.upperBound(LatencyHistogram.indexOf(value)) >= value);
+        }
+    }
+
+    /**
+     * Writing a capture with awkward bodies and reading it back at double speed
+     *
+     * Expected Result:
+     *  Methods, paths and bodies survive, offsets are halved and requests are classified by route
+     */
+    @Test
+    public void captureRoundTrips() throws IOException {
+        Path file = Files.createTempFile("capture", ".jsonl");
+        String body = "{\"message_text\":\"line\\nbreak \u00e9\"}";
+        try (Capture capture = new Capture(file)) {
+            capture.append(2000, "PATCH", "/messages/12", body);
+            capture.append(1000, "GET", "/accounts/3/feed?limit=20", null);
+        }
+        List<RequestSpec> requests = Capture.read(file, 2.0);
+        Files.delete(file);
+
+        Assert.assertEquals(2, requests.size());
+        Assert.assertEquals(500_000_000L, requests.get(0).offsetNanos);
+        Assert.assertEquals(Operation.FEED, requests.get(0).operation);
+        Assert.assertNull(requests.get(0).body);
+        Assert.assertEquals(Operation.EDIT, requests.get(1).operation);
+        Assert.assertEquals(body, requests.get(1).body);
+    }
+
+    /**
+     * Running five requests due 10 ms apart, with one allowed in flight, against a server taking 200 ms for each
+     *
+     * Expected Result:
+     *  Every request is sent once the one before it is answered and none is skipped; the last one's latency, counted
+     *  from its due time, is the 800 ms it waited behind the others plus its own 200 ms, less its 40 ms offset
+     */
+    @Test
+    public void chargesRequestsWaitingForRoomFromTheirDueTime() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor());
+        server.start();
+        try {
+            List<RequestSpec> schedule = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                schedule.add(new RequestSpec(i * 10_000_000L, Operation.MESSAGE, "GET", "/messages/" + i, null));
+            }
+            OpenLoopRunner runner = new OpenLoopRunner(HttpClient.newHttpClient(),
+                    URI.create("http://127.0.0.1:" + server.getAddress().getPort()), 1, Duration.ofSeconds(10));
+            Results.OperationResults results = runner.run(schedule.iterator(), 0, null, null).of(Operation.MESSAGE);
+
+            Assert.assertEquals(5, results.latency.count());
+            Assert.assertEquals(Long.valueOf(5), results.statuses().get(200));
+            Assert.assertEquals(0, results.skipped.get());
+            Assert.assertTrue(results.latency.max() >= 900_000);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Parsing a mix
+     *
+     * Expected Result:
+     *  Weights are read by operation key, and unknown operations are rejected
+     */
+    @Test
+    public void parsesMix() {
+        Map<Operation, Integer> mix = Workload.parseMix(Workload.DEFAULT_MIX);
+        Assert.assertEquals(Integer.valueOf(50), mix.get(Operation.FEED));
+        Assert.assertEquals(Integer.valueOf(15), mix.get(Operation.USER_MESSAGES));
+        Assert.assertThrows(IllegalArgumentException.class, () -> Workload.parseMix("browse=10"));
+    }
+}
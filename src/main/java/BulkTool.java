@@ -0,0 +1,41 @@
+import Service.AccountService;
+import Service.BulkTransferService;
+import Service.MessageService;
+import Util.AppConfig;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Command line entry point for bulk transfers against the local database:
+ *
+ *   java BulkTool export <file>
+ *   java BulkTool import <file> [batchSize]
+ *
+ * Prints the row counts and the throughput in rows per minute when it finishes.
+ */
+public class BulkTool {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || !(args[0].equals("export") || args[0].equals("import"))) {
+            System.err.println("usage: BulkTool export <file> | import <file> [batchSize]");
+            System.exit(2);
+        }
+        BulkTransferService service = new BulkTransferService(new AccountService(), new MessageService());
+        Map<String, Object> summary;
+        if (args[0].equals("export")) {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1]), 1 << 16)) {
+                summary = service.exportAll(out);
+            }
+        } else {
+            int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : AppConfig.getInt("bulk.batch.size", 1000);
+            try (InputStream in = new BufferedInputStream(new FileInputStream(args[1]), 1 << 16)) {
+                summary = service.importAll(in, batchSize);
+            }
+        }
+        System.out.println(args[0] + " " + summary);
+    }
+}
@@ -1,54 +1,560 @@
 package Controller;
 
 import Service.AccountService;
+import Service.BulkTransferService;
+import Service.ChangeFeedService;
+import Service.CounterService;
+import Service.DbExecutor;
+import Service.FeedService;
+import Service.MessageCompactor;
 import Service.MessageService;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import Model.Account;
 import Model.Message;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
+import io.javalin.http.ForbiddenResponse;
+import io.javalin.http.Handler;
+import io.javalin.http.HandlerType;
+import io.javalin.http.ServiceUnavailableResponse;
+import io.javalin.http.UnauthorizedResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Map;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.eclipse.jetty.server.Request;
+import DAO.CursorExpiredException;
+import DAO.DataAccessException;
+import DAO.DataIntegrityException;
 import DAO.MessageDAO;
+import DAO.TransientDataAccessException;
+import DAO.VersionConflictException;
+import Util.AdaptiveLimiter;
+import Util.AppConfig;
+import Util.ConnectionUtil;
+import Util.FlightEvents;
+import Util.FlightRecording;
+import Util.IdempotencyStore;
+import Util.RequestContext;
+import Util.ServerLifecycle;
+import Util.ShardRouter;
+import Util.StatementCache;
+import Util.StructuredLogger;
 
 public class SocialMediaController {
 
+    private static final ObjectMapper JSON = new ObjectMapper().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
     private final AccountService accountService;
     private final MessageService messageService;
+    private final BulkTransferService bulkTransferService;
+    private final CounterService counterService;
+    private final FeedService feedService;
+    private final ChangeFeedService changeFeedService;
+    private final MessageCompactor messageCompactor;
+    private final ServerLifecycle lifecycle;
+    private final AdaptiveLimiter readLimiter;
+    private final AdaptiveLimiter writeLimiter;
+    private final IdempotencyStore idempotency;
+    private final FlightRecording flightRecording;
 
     public SocialMediaController() {
         this.accountService = new AccountService();
-        this.messageService = new MessageService();
+        this.counterService = new CounterService();
+        this.messageService = new MessageService(counterService);
+        this.bulkTransferService = new BulkTransferService(accountService, messageService);
+        this.feedService = new FeedService(counterService, messageService);
+        this.changeFeedService = new ChangeFeedService();
+        this.messageCompactor = new MessageCompactor();
+        this.lifecycle = new ServerLifecycle();
+        this.readLimiter = AdaptiveLimiter.fromConfig("read");
+        this.writeLimiter = AdaptiveLimiter.fromConfig("write");
+        this.idempotency = new IdempotencyStore(AppConfig.getInt("idempotency.max.entries", 10000),
+                AppConfig.getLong("idempotency.ttl.ms", 24 * 60 * 60 * 1000L));
+        this.flightRecording = new FlightRecording();
     }
 
     public Javalin startAPI() {
         Javalin app = Javalin.create();
+        app.events(events -> events.serverStopped(() -> {
+            messageCompactor.shutdown();
+            counterService.shutdown();
+            flightRecording.close();
+        }));
+        if (AppConfig.getBoolean("jfr.continuous", false)) {
+            flightRecording.start(AppConfig.get("jfr.settings", "default"));
+        }
+
+        app.before(this::trackRequestStart);
+        app.after(this::trackRequestEnd);
+        app.exception(Exception.class, (e, context) -> handleFailure(context, e));
+        app.get("/health/live", context -> context.json(Map.of("live", true)));
+        app.get("/health/ready", this::readinessHandler);
 
-        app.post("/register", this::registerUserHandler);
+        app.post("/register", idempotent(this::registerUserHandler));
         app.post("/login", this::loginUserHandler);
         app.get("/accounts/{username}", this::getAccountHandler);
+        app.post("/accounts/batch", this::getAccountsHandler);
         
-        app.post("/messages", this::createMessageHandler);
+        app.post("/messages", idempotent(this::createMessageHandler));
         app.get("/messages", this::getAllMessagesHandler);
         app.get("/messages/{messageId}", this::getMessageByIdHandler);
-        app.patch("/messages/{messageId}", this::updateMessageTextHandler);
-        app.delete("/messages/{messageId}", this::deleteMessageHandler);
+        app.patch("/messages/{messageId}", idempotent(this::updateMessageTextHandler));
+        app.delete("/messages/{messageId}", idempotent(this::deleteMessageHandler));
+        app.post("/messages/{messageId}/likes", idempotent(this::likeMessageHandler));
+        app.post("/messages/{messageId}/replies", idempotent(this::replyHandler));
         app.get("/accounts/{userId}/messages", this::getAllMessagesForUserHandler);
+        app.get("/accounts/{userId}/mentions", this::mentionsHandler);
+        app.get("/tags/{tag}/messages", this::tagHandler);
+        app.get("/trending", this::trendingHandler);
+
+        app.post("/accounts/{userId}/following/{followeeId}", idempotent(this::followHandler));
+        app.delete("/accounts/{userId}/following/{followeeId}", idempotent(this::unfollowHandler));
+        app.get("/accounts/{userId}/following", context -> context.json(feedService.getFollowing(userIdParam(context))));
+        app.get("/accounts/{userId}/followers", context -> context.json(feedService.getFollowers(userIdParam(context))));
+        app.get("/accounts/{userId}/feed", this::feedHandler);
+        app.get("/changes", this::changesHandler);
+
+        app.before("/admin/*", this::requireAdminToken);
+        app.get("/admin/export", this::exportHandler);
+        app.post("/admin/import", this::importHandler);
+        app.get("/admin/metrics", this::metricsHandler);
+        app.post("/admin/jfr/start", this::startRecordingHandler);
+        app.post("/admin/jfr/stop", this::stopRecordingHandler);
+        app.get("/admin/jfr/dump", this::dumpRecordingHandler);
 
         return app;
     }
 
+    /**
+     * Warms the application before it is reported ready: opens pooled connections, loads recent messages and
+     * exercises every route in startAPI() so class loading and JIT compilation happen ahead of real traffic.
+     * Writes are exercised with requests that fail validation, so warm-up never changes stored data.
+     *
+     * @param port the port the started app is listening on
+     * @param connections the number of pooled connections to open
+     * @param recentMessages the number of recent messages to load
+     * @param iterations the number of passes over the routes
+     */
+    public void warmUp(int port, int connections, int recentMessages, int iterations) {
+        ConnectionUtil.prewarm(connections);
+        messageService.primeRecentMessages(recentMessages);
+
+        HttpClient client = HttpClient.newHttpClient();
+        String base = "http://localhost:" + port;
+        for (int i = 0; i < iterations; i++) {
+            warmUpRequest(client, HttpRequest.newBuilder(URI.create(base + "/messages")).GET());
+            warmUpRequest(client, HttpRequest.newBuilder(URI.create(base + "/messages/0")).GET());
+            warmUpRequest(client, HttpRequest.newBuilder(URI.create(base + "/messages?ids=0")).GET());
+            warmUpRequest(client, HttpRequest.newBuilder(URI.create(base + "/accounts/batch"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"ids\":[0]}")));
+            warmUpRequest(client, HttpRequest.newBuilder(URI.create(base + "/accounts/0/messages")).GET());
+            warmUpRequest(client, HttpRequest.newBuilder(URI.create(base + "/accounts/warmup")).GET());
+            warmUpRequest(client, HttpRequest.newBuilder(URI.create(base + "/accounts/0/feed")).GET());
+            warmUpRequest(client, HttpRequest.newBuilder(URI.create(base + "/accounts/0/following")).GET());
+            warmUpRequest(client, HttpRequest.newBuilder(URI.create(base + "/accounts/0/following/0"))
+                    .POST(HttpRequest.BodyPublishers.noBody()));
+            warmUpRequest(client, HttpRequest.newBuilder(URI.create(base + "/login"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"username\":\"\",\"password\":\"\"}")));
+            warmUpRequest(client, HttpRequest.newBuilder(URI.create(base + "/register"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"username\":\"\",\"password\":\"\"}")));
+            warmUpRequest(client, HttpRequest.newBuilder(URI.create(base + "/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":0,\"message_text\":\"\"}")));
+            warmUpRequest(client, HttpRequest.newBuilder(URI.create(base + "/messages/0"))
+                    .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\":\"\"}")));
+            warmUpRequest(client, HttpRequest.newBuilder(URI.create(base + "/messages/0")).DELETE());
+            warmUpRequest(client, HttpRequest.newBuilder(URI.create(base + "/messages/0/likes"))
+                    .POST(HttpRequest.BodyPublishers.noBody()));
+        }
+        lifecycle.markReady();
+    }
+
+    /**
+     * Stops the app gracefully: the readiness probe turns false, new requests are refused with 503, in-flight
+     * requests get up to drainTimeoutMs to finish, then the server and the connection pool are closed.
+     *
+     * @param app the running app
+     * @param drainTimeoutMs the longest time to wait for in-flight requests
+     * @return true if every in-flight request finished before the timeout
+     */
+    public boolean shutdown(Javalin app, long drainTimeoutMs) {
+        boolean drained = lifecycle.drain(drainTimeoutMs);
+        app.stop();
+        ShardRouter.shutdown();
+        ConnectionUtil.shutdown();
+        StructuredLogger.get().shutdown(drainTimeoutMs);
+        return drained;
+    }
+
+    private void warmUpRequest(HttpClient client, HttpRequest.Builder request) {
+        try {
+            client.send(request.header("Content-Type", "application/json").build(), HttpResponse.BodyHandlers.discarding());
+        } catch (Exception e) {
+            // warm-up is best effort; a failed request only means that path stays cold
+        }
+    }
+
+    /**
+     * Assigns the request id and counts the request as in flight, or refuses it with 503 once the server is draining.
+     * The caller's X-Request-Id is kept when present so ids can be followed across services, and its
+     * X-Consistency-Token carries read-your-writes positions over from earlier responses.
+     *
+     * Requests then take a slot from the concurrency limit of their route group: GETs share the read limit and
+     * every other method the write limit, so a stall in writes cannot use up the room reads need. A request over
+     * its group's limit is refused at once with 503 and Retry-After. Health and admin routes are not limited, nor is
+     * the change feed, whose long polls spend most of their time waiting rather than in the database.
+     *
+     * While a flight recording is running the request is also timed as a {@link FlightEvents.HttpRequest} event.
+     */
+    private void trackRequestStart(Context context) {
+        FlightEvents.HttpRequest flightEvent = new FlightEvents.HttpRequest();
+        if (flightEvent.isEnabled()) {
+            flightEvent.begin();
+            context.attribute("flightEvent", flightEvent);
+        }
+        String requestId = context.header("X-Request-Id");
+        if (requestId == null || requestId.isEmpty()) {
+            requestId = UUID.randomUUID().toString();
+        }
+        context.attribute("requestId", requestId);
+        context.attribute("startNanos", System.nanoTime());
+        context.header("X-Request-Id", requestId);
+        RequestContext.begin(context.header("X-Consistency-Token"));
+        context.attribute("requestContext", RequestContext.current());
+        if (context.path().startsWith("/health")) {
+            lifecycle.requestStarted();
+        } else if (!lifecycle.tryStart()) {
+            context.header("Connection", "close");
+            throw new ServiceUnavailableResponse("Server is shutting down");
+        }
+        context.attribute("inFlight", true);
+        if (context.path().startsWith("/health") || context.path().startsWith("/admin")
+                || context.path().equals("/changes")) {
+            return;
+        }
+        AdaptiveLimiter limiter = context.method() == HandlerType.GET ? readLimiter : writeLimiter;
+        if (!limiter.tryAcquire()) {
+            context.header("Retry-After", "1");
+            throw new ServiceUnavailableResponse("Server is overloaded");
+        }
+        context.attribute("limiter", limiter);
+    }
+
+    /**
+     * Returns the request's consistency token, releases the in-flight and concurrency-limit slots, feeding the
+     * request's database and lock wait time to its limiter, records the response under the request's idempotency key if it
+     * claimed one, and writes the access log line for the request and its flight recorder event. An async request
+     * ends on the thread that completed it, so its tracking is resumed there first.
+     */
+    private void trackRequestEnd(Context context) {
+        RequestContext.resume(context.attribute("requestContext"));
+        String consistencyToken = RequestContext.token();
+        if (consistencyToken != null) {
+            context.header("X-Consistency-Token", consistencyToken);
+        }
+        Long startNanos = context.attribute("startNanos");
+        long latencyNanos = startNanos == null ? 0 : System.nanoTime() - startNanos;
+        AdaptiveLimiter limiter = context.attribute("limiter");
+        long dbNanos = RequestContext.dbNanos();
+        if (limiter != null) {
+            // an idempotent replay makes no database calls, so its wait for the original leaves the limit alone
+            limiter.release(dbNanos + RequestContext.waitNanos());
+        }
+        IdempotencyStore.Claim claim = context.attribute("idempotencyClaim");
+        if (claim != null) {
+            idempotency.complete(claim, new IdempotencyStore.Response(context.statusCode(), context.res().getContentType(),
+                    context.res().getHeader("ETag"), context.result()));
+        }
+        RequestContext.end();
+        if (context.attribute("inFlight") != null) {
+            lifecycle.requestFinished();
+        }
+        String errorClass = context.attribute("errorClass");
+        StructuredLogger.Event event = StructuredLogger.event("access")
+                .field("request_id", (String) context.attribute("requestId"))
+                .field("method", context.method().name())
+                .field("route", routeOf(context))
+                .field("path", context.path())
+                .field("status", context.statusCode())
+                .field("latency_ms", latencyNanos / 1_000_000.0);
+        if (errorClass != null) {
+            event.field("error_class", errorClass);
+        }
+        event.log();
+        FlightEvents.HttpRequest flightEvent = context.attribute("flightEvent");
+        if (flightEvent != null) {
+            flightEvent.end();
+            if (flightEvent.shouldCommit()) {
+                flightEvent.requestId = context.attribute("requestId");
+                flightEvent.method = context.method().name();
+                flightEvent.route = routeOf(context);
+                flightEvent.status = context.statusCode();
+                flightEvent.dbMillis = dbNanos / 1_000_000;
+                flightEvent.commit();
+            }
+        }
+    }
+
+    /**
+     * Makes a write route honor an Idempotency-Key header. The first request with a key runs, and its response is
+     * recorded when it ends (see trackRequestEnd). A retry from the same client address with the same key, method
+     * and path is answered with that response and an Idempotent-Replayed header instead of running again; a retry
+     * that arrives while the first is still running waits for it, up to idempotency.wait.ms, and gets 409 if it is
+     * still not done. A key reused with a different body gets 422. Requests carry no account identity, so keys are
+     * scoped to the client address only; clients behind one proxy or NAT share that scope, and keys must therefore
+     * be unique across clients, eg random UUIDs. Requests without the header are not affected.
+     */
+    private Handler idempotent(Handler handler) {
+        return context -> {
+            String key = context.header("Idempotency-Key");
+            if (key == null || key.isEmpty()) {
+                handler.handle(context);
+                return;
+            }
+            byte[] fingerprint = IdempotencyStore.fingerprint(context.bodyAsBytes());
+            IdempotencyStore.Claim claim = idempotency.claim(context.ip() + " " + context.method() + " " + context.path() + " " + key,
+                    fingerprint);
+            if (claim.isFirst()) {
+                context.attribute("idempotencyClaim", claim);
+                handler.handle(context);
+                return;
+            }
+            if (!claim.matches(fingerprint)) {
+                context.status(422).result("Idempotency-Key was used with a different request");
+                return;
+            }
+            context.future(() -> claim.response()
+                    .orTimeout(AppConfig.getLong("idempotency.wait.ms", 10000), TimeUnit.MILLISECONDS)
+                    .thenAccept(response -> {
+                        context.status(response.status).header("Idempotent-Replayed", "true");
+                        if (response.contentType != null) {
+                            context.contentType(response.contentType);
+                        }
+                        if (response.etag != null) {
+                            context.header("ETag", response.etag);
+                        }
+                        context.result(response.body == null ? "" : response.body);
+                    }).exceptionally(e -> {
+                        context.status(409).result("A request with this Idempotency-Key is still in progress");
+                        return null;
+                    }));
+        };
+    }
+
+    /**
+     * Answers a failure that escaped a handler: version conflicts with 412 and the current ETag, integrity
+     * violations with 400, transient database failures with 503 and Retry-After, and anything else with 500.
+     */
+    private void handleFailure(Context context, Exception e) {
+        if (e instanceof VersionConflictException) {
+            context.status(412).header("ETag", etag(((VersionConflictException) e).getCurrent())).result("");
+        } else if (e instanceof DataIntegrityException) {
+            failRequest(context, e, 400, "");
+        } else if (e instanceof TransientDataAccessException) {
+            context.header("Retry-After", "1");
+            failRequest(context, e, 503, "");
+        } else {
+            failRequest(context, e, 500, "Internal server error");
+        }
+    }
+
+    /**
+     * Completes an async handler's failure. Javalin skips the after-handlers of a request whose future fails, so
+     * async handlers never let it fail: database failures are answered here as handleFailure() answers them for
+     * sync handlers, and any other failure by clientError, or as a server error when there is none.
+     *
+     * @param failure what the future failed with
+     * @param clientError answers failures that are the client's fault, or null if there are none
+     * @return null, for exceptionally()
+     */
+    private Void recover(Context context, Throwable failure, Runnable clientError) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        if (clientError != null && cause instanceof Exception && !(cause instanceof DataAccessException)
+                && !(cause instanceof VersionConflictException)) {
+            clientError.run();
+        } else {
+            handleFailure(context, cause instanceof Exception ? (Exception) cause : new RuntimeException(cause));
+        }
+        return null;
+    }
+
+    /**
+     * Logs a failure that escaped a handler and answers with the given status and body.
+     */
+    private void failRequest(Context context, Exception e, int status, String body) {
+        context.attribute("errorClass", e.getClass().getName());
+        StructuredLogger.event("error")
+                .field("request_id", (String) context.attribute("requestId"))
+                .field("route", routeOf(context))
+                .field("status", status)
+                .error(e)
+                .log();
+        context.status(status).result(body);
+    }
+
+    private String routeOf(Context context) {
+        try {
+            return context.endpointHandlerPath();
+        } catch (Exception e) {
+            return context.path();
+        }
+    }
+
+    /**
+     * Guards the admin endpoints with the X-Admin-Token header. They export every account with its password and
+     * overwrite stored rows, so they are refused with 403 until admin.token is configured, and with 401 when the
+     * header does not match it.
+     */
+    private void requireAdminToken(Context context) {
+        String token = AppConfig.get("admin.token", "");
+        if (token.isEmpty()) {
+            throw new ForbiddenResponse("Admin routes are disabled until admin.token is set");
+        }
+        String given = context.header("X-Admin-Token");
+        if (given == null || !MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                given.getBytes(StandardCharsets.UTF_8))) {
+            throw new UnauthorizedResponse();
+        }
+    }
+
+    /**
+     * Streams every account and message in the bulk export format.
+     */
+    private void exportHandler(Context context) throws IOException {
+        context.contentType("application/octet-stream");
+        context.header("Content-Disposition", "attachment; filename=\"socialmedia.smbx\"");
+        Map<String, Object> summary = bulkTransferService.exportAll(context.outputStream());
+        StructuredLogger.event("bulk_export")
+                .field("request_id", (String) context.attribute("requestId"))
+                .field("summary", summary.toString())
+                .log();
+    }
+
+    /**
+     * Imports a bulk export from the request body and answers with row counts and throughput.
+     */
+    private void importHandler(Context context) {
+        try {
+            int batchSize = Integer.parseInt(context.queryParam("batch") == null
+                    ? String.valueOf(AppConfig.getInt("bulk.batch.size", 1000)) : context.queryParam("batch"));
+            context.json(bulkTransferService.importAll(context.bodyInputStream(), batchSize));
+        } catch (IOException | IllegalArgumentException e) {
+            context.status(400).result(e.getMessage() == null ? "" : e.getMessage());
+        }
+    }
+
+    /**
+     * Reports process-wide counters: prepared-statement cache effectiveness, replica lag, dropped log events, message
+     * cache and load coalescing counts, the messages currently hot, the database executor's load and the read and
+     * write concurrency limits, the requests answered from the idempotency store and its entries evicted before they
+     * expired, and the list query cache's effectiveness and size.
+     */
+    private void metricsHandler(Context context) {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("statement_cache_hits", StatementCache.hits());
+        metrics.put("statement_cache_misses", StatementCache.misses());
+        metrics.put("statement_cache_evictions", StatementCache.evictions());
+        metrics.put("statement_cache_hit_rate", StatementCache.hitRate());
+        metrics.put("replica_lag", ShardRouter.replicaLag());
+        metrics.put("log_dropped_events", StructuredLogger.get().droppedEvents());
+        for (Map.Entry<String, Long> stat : messageService.loadStats().entrySet()) {
+            metrics.put("message_" + stat.getKey(), stat.getValue());
+        }
+        metrics.put("hot_messages", messageService.hotMessages());
+        metrics.put("db_executor_active", DbExecutor.active());
+        metrics.put("db_executor_queued", DbExecutor.queued());
+        putLimiterMetrics(metrics, "read", readLimiter);
+        putLimiterMetrics(metrics, "write", writeLimiter);
+        metrics.put("idempotency_replays", idempotency.replays());
+        metrics.put("idempotency_evictions", idempotency.evictions());
+        metrics.put("query_cache_hits", MessageDAO.queryCache().hits());
+        metrics.put("query_cache_misses", MessageDAO.queryCache().misses());
+        metrics.put("query_cache_evictions", MessageDAO.queryCache().evictions());
+        metrics.put("query_cache_bytes", MessageDAO.queryCache().weight());
+        context.json(metrics);
+    }
+
+    /**
+     * Starts a flight recording with the JDK settings named by the settings query parameter, "default" unless given.
+     * Answers with the recording's status, or 409 if one is already running.
+     */
+    private void startRecordingHandler(Context context) {
+        String settings = context.queryParam("settings") == null ? "default" : context.queryParam("settings");
+        try {
+            context.json(flightRecording.start(settings));
+        } catch (IllegalStateException e) {
+            context.status(409).result(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            context.status(400).result(e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the running flight recording, keeping its data for /admin/jfr/dump. Answers with its status, or 409 if
+     * none is running.
+     */
+    private void stopRecordingHandler(Context context) {
+        try {
+            context.json(flightRecording.stop());
+        } catch (IllegalStateException e) {
+            context.status(409).result(e.getMessage());
+        }
+    }
+
+    /**
+     * Streams the flight recording's data so far as a .jfr file, or answers 404 if none has been started.
+     */
+    private void dumpRecordingHandler(Context context) throws IOException {
+        if (flightRecording.status().get("state").equals("none")) {
+            context.status(404).result("No recording has been started");
+            return;
+        }
+        context.contentType("application/octet-stream");
+        context.header("Content-Disposition", "attachment; filename=\"socialmedia.jfr\"");
+        flightRecording.dump(context.outputStream());
+    }
+
+    private void putLimiterMetrics(Map<String, Object> metrics, String group, AdaptiveLimiter limiter) {
+        metrics.put("limiter_" + group + "_limit", limiter.limit());
+        metrics.put("limiter_" + group + "_in_flight", limiter.inFlight());
+        metrics.put("limiter_" + group + "_shed", limiter.shed());
+    }
+
+    /**
+     * Reports 200 once warm-up has finished, and 503 before that or while draining.
+     */
+    private void readinessHandler(Context context) {
+        boolean ready = lifecycle.isReady();
+        context.status(ready ? 200 : 503).json(Map.of("ready", ready));
+    }
+
     /**
      * Handles user login requests.
      */
     private void loginUserHandler(Context context) {
         try {
             Account account = context.bodyAsClass(Account.class);
-            Account loggedInAccount = accountService.login(account);
-            if (loggedInAccount != null) {
-                context.status(200).json(loggedInAccount);
-            } else {
-                context.status(401).result("");
-            }
+            context.future(() -> accountService.loginAsync(account).thenAccept(loggedInAccount -> {
+                if (loggedInAccount != null) {
+                    context.status(200).json(loggedInAccount);
+                } else {
+                    context.status(401).result("");
+                }
+            }).exceptionally(e -> recover(context, e, () -> context.status(401).json(""))));
         } catch (Exception e) {
             context.status(401).json("");
         }
@@ -60,10 +566,9 @@ public class SocialMediaController {
     private void registerUserHandler(Context context) {
         try {
             Account account = context.bodyAsClass(Account.class);
-            Account createdAccount = accountService.registerUser(account);
-            context.status(200).json(createdAccount);
-        } catch (IllegalArgumentException e) {
-            context.status(400).result("");
+            context.future(() -> accountService.registerUserAsync(account)
+                    .thenAccept(createdAccount -> context.status(200).json(createdAccount))
+                    .exceptionally(e -> recover(context, e, () -> context.status(400).result(""))));
         } catch (Exception e) {
             context.status(400).result("");
         }
@@ -75,8 +580,10 @@ public class SocialMediaController {
     private void createMessageHandler(Context context) {
         try {
             Message message = context.bodyAsClass(Message.class);
-            Message createdMessage = messageService.createMessage(message);
-            context.status(200).json(createdMessage);
+            context.future(() -> messageService.createMessageAsync(message).thenAccept(createdMessage -> {
+                feedService.onMessagePosted(createdMessage);
+                context.status(200).json(createdMessage);
+            }).exceptionally(e -> recover(context, e, () -> context.status(400).json(""))));
         } catch (Exception e) {
             context.status(400).json("");
         }
@@ -96,97 +603,422 @@ public class SocialMediaController {
             }
         } catch (NumberFormatException e) {
             context.status(400).result("Invalid message ID format");
-        } catch (Exception e) {
-            context.status(500).result("Internal server error");
         }
     }
 
     /**
-     * Retrieves all messages in the system.
+     * Retrieves all messages in the system, or with an ids query parameter (eg ids=1,2,3) just those messages, in
+     * the order asked for and with null in place of any that do not exist.
      */
     private void getAllMessagesHandler(Context context) {
+        String ids = context.queryParam("ids");
+        if (ids != null) {
+            try {
+                List<Integer> messageIds = new ArrayList<>();
+                for (String id : ids.split(",")) {
+                    messageIds.add(Integer.parseInt(id.trim()));
+                }
+                if (messageIds.size() > AppConfig.getInt("multiget.max.ids", 100)) {
+                    context.status(400).result("Too many ids");
+                    return;
+                }
+                context.json(messageService.getMessagesByIds(messageIds));
+            } catch (NumberFormatException e) {
+                context.status(400).result("Invalid message id");
+            }
+            return;
+        }
+        context.future(() -> messageService.getAllMessagesAsync()
+                .thenAccept(context::json)
+                .exceptionally(e -> recover(context, e, null)));
+    }
+
+    /**
+     * Retrieves several accounts at once. The body is either {"usernames": [...]} or {"ids": [...]}; the answer
+     * lists the accounts in the same order, with null in place of any that do not exist.
+     */
+    @SuppressWarnings("unchecked")
+    private void getAccountsHandler(Context context) {
         try {
-            List<Message> messages = messageService.getAllMessages();
-            context.json(messages);
+            Map<String, List<Object>> body = context.bodyAsClass(Map.class);
+            List<Object> usernames = body.get("usernames");
+            List<Object> ids = body.get("ids");
+            List<Object> keys = usernames != null ? usernames : ids;
+            if ((usernames == null) == (ids == null) || keys.size() > AppConfig.getInt("multiget.max.ids", 100)) {
+                context.status(400).result("");
+                return;
+            }
+            if (usernames != null) {
+                List<String> names = new ArrayList<>();
+                for (Object username : usernames) {
+                    names.add((String) username);
+                }
+                context.json(accountService.getAccountsByUsernames(names));
+            } else {
+                List<Integer> accountIds = new ArrayList<>();
+                for (Object id : ids) {
+                    accountIds.add((Integer) id);
+                }
+                context.json(accountService.getAccountsByIds(accountIds));
+            }
+        } catch (DataAccessException e) {
+            throw e;
         } catch (Exception e) {
-            context.status(500).json("Error fetching messages.");
+            context.status(400).result("");
         }
     }
 
     /**
-     * Retrieves all messages for a given user.
+     * Streams the messages of a given user as a JSON array, newest first, writing each message as the database
+     * returns it, so neither memory use nor the time to the first byte grows with the number of messages. Every
+     * message is returned unless the limit query parameter, at most stream.max.messages (1000), caps the page; the
+     * next page starts below the before query parameter, the message_id of the last message on the previous page.
+     * The messages are read stream.max.messages at a time, so no query scans an unbounded range. A failure after
+     * the first message was sent can no longer change the status, so the connection is aborted instead, and the
+     * client sees a truncated body rather than a complete-looking array.
      */
     private void getAllMessagesForUserHandler(Context context) {
         try {
             int userId = Integer.parseInt(context.pathParam("userId"));
-            List<Message> messages = messageService.getMessagesByUserId(userId);
-            context.json(messages); 
+            String limitParam = context.queryParam("limit");
+            int maxLimit = AppConfig.getInt("stream.max.messages", 1000);
+            int limit = limitParam == null ? Integer.MAX_VALUE : Integer.parseInt(limitParam);
+            if (limit < 1 || (limitParam != null && limit > maxLimit)) {
+                throw new NumberFormatException("limit out of range: " + limit);
+            }
+            int before = pageBefore(context);
+            JsonArrayWriter writer = new JsonArrayWriter(context);
+            context.contentType(ContentType.APPLICATION_JSON);
+            context.future(() -> messageService.streamMessagesByUserIdAsync(userId, before, limit, maxLimit, writer)
+                    .thenAccept(streamed -> writer.finish())
+                    .exceptionally(e -> writer.isStarted() ? abortStream(context, e) : recover(context, e, null)));
         } catch (NumberFormatException e) {
             context.status(400).json("Invalid user ID format");
-        } catch (Exception e) {
-            e.printStackTrace();
-            context.status(500).json("Unexpected error: " + e.getMessage());
         }
     }
 
     /**
-     * Retrieves an account by username.
+     * Logs a failure that happened after part of a streamed response was sent and aborts the connection, so the
+     * client cannot mistake the part it got for the whole response.
      */
-    private void getAccountHandler(Context context) {
+    private Void abortStream(Context context, Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        context.attribute("errorClass", cause.getClass().getName());
+        StructuredLogger.event("error")
+                .field("request_id", (String) context.attribute("requestId"))
+                .field("route", routeOf(context))
+                .field("status", context.statusCode())
+                .error(cause)
+                .log();
+        Request.getBaseRequest(context.req()).getHttpChannel().abort(cause);
+        return null;
+    }
+
+    /**
+     * Writes messages to the response as one JSON array, element by element. Nothing is written before the first
+     * message, so a request that fails before then can still be answered with an error status; the first message
+     * is flushed at once so the client sees it without waiting for the rest.
+     */
+    private static class JsonArrayWriter implements Consumer<Message> {
+        private final Context context;
+        private JsonGenerator generator;
+
+        JsonArrayWriter(Context context) {
+            this.context = context;
+        }
+
+        @Override
+        public void accept(Message message) {
+            try {
+                if (generator == null) {
+                    generator = JSON.getFactory().createGenerator(context.outputStream());
+                    generator.writeStartArray();
+                    generator.writeObject(message);
+                    generator.flush();
+                } else {
+                    generator.writeObject(message);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        boolean isStarted() {
+            return generator != null;
+        }
+
+        void finish() {
+            if (generator == null) {
+                context.result("[]");
+                return;
+            }
+            try {
+                generator.writeEndArray();
+                generator.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Likes a message and answers with its updated counts.
+     */
+    private void likeMessageHandler(Context context) {
         try {
-            String username = context.pathParam("username");
-            Account account = accountService.getAccountByUsername(username);
-            context.json(account);
+            int messageId = Integer.parseInt(context.pathParam("messageId"));
+            Message liked = messageService.likeMessage(messageId);
+            if (liked == null) {
+                context.status(400).result("");
+            } else {
+                context.json(liked);
+            }
+        } catch (NumberFormatException e) {
+            context.status(400).result("Invalid message id");
+        }
+    }
+
+    /**
+     * Creates a reply to the message in the path.
+     */
+    private void replyHandler(Context context) {
+        try {
+            int messageId = Integer.parseInt(context.pathParam("messageId"));
+            Message body = context.bodyAsClass(Message.class);
+            context.future(() -> messageService.createReplyAsync(messageId, body).thenAccept(reply -> {
+                feedService.onMessagePosted(reply);
+                context.json(reply);
+            }).exceptionally(e -> recover(context, e, () -> context.status(400).result(""))));
         } catch (Exception e) {
-            context.status(500).json("Error fetching account.");
+            context.status(400).result("");
+        }
+    }
+
+    /**
+     * Makes the account in the path follow another account.
+     */
+    private void followHandler(Context context) {
+        try {
+            int userId = userIdParam(context);
+            int followeeId = Integer.parseInt(context.pathParam("followeeId"));
+            feedService.follow(userId, followeeId);
+            context.json(Map.of("follower_id", userId, "followee_id", followeeId));
+        } catch (IllegalArgumentException e) {
+            context.status(400).result("");
+        }
+    }
+
+    /**
+     * Makes the account in the path stop following another account.
+     */
+    private void unfollowHandler(Context context) {
+        try {
+            int userId = userIdParam(context);
+            int followeeId = Integer.parseInt(context.pathParam("followeeId"));
+            if (feedService.unfollow(userId, followeeId)) {
+                context.json(Map.of("follower_id", userId, "followee_id", followeeId));
+            } else {
+                context.result("");
+            }
+        } catch (NumberFormatException e) {
+            context.status(400).result("");
+        }
+    }
+
+    /**
+     * Retrieves the home timeline of an account, newest first. The page size comes from the limit query parameter.
+     */
+    private void feedHandler(Context context) {
+        try {
+            int userId = userIdParam(context);
+            String limitParam = context.queryParam("limit");
+            int limit = limitParam == null ? 20 : Integer.parseInt(limitParam);
+            if (limit < 1 || limit > 100) {
+                context.status(400).result("");
+                return;
+            }
+            context.json(feedService.getFeed(userId, limit));
+        } catch (NumberFormatException e) {
+            context.status(400).result("");
+        }
+    }
+
+    /**
+     * Retrieves a page of the messages carrying the hashtag in the path, newest first. The page size comes from the
+     * limit query parameter, and the next page starts below the before query parameter, the message_id of the last
+     * message on the previous page.
+     */
+    private void tagHandler(Context context) {
+        try {
+            String tag = context.pathParam("tag");
+            int limit = pageLimit(context);
+            int before = pageBefore(context);
+            context.future(() -> messageService.getMessagesByTagAsync(tag, before, limit)
+                    .thenAccept(context::json)
+                    .exceptionally(e -> recover(context, e, null)));
+        } catch (NumberFormatException e) {
+            context.status(400).result("");
+        }
+    }
+
+    /**
+     * Retrieves a page of the messages mentioning the account in the path, newest first, paged like tagHandler.
+     */
+    private void mentionsHandler(Context context) {
+        try {
+            int userId = userIdParam(context);
+            int limit = pageLimit(context);
+            int before = pageBefore(context);
+            context.future(() -> messageService.getMentionsAsync(userId, before, limit)
+                    .thenAccept(context::json)
+                    .exceptionally(e -> recover(context, e, null)));
+        } catch (NumberFormatException e) {
+            context.status(400).result("");
+        }
+    }
+
+    /**
+     * Reports the trending hashtags: with a window query parameter (5m, 1h or 24h) just that window's, otherwise
+     * every window's, keyed by window name.
+     */
+    private void trendingHandler(Context context) {
+        String window = context.queryParam("window");
+        if (window == null) {
+            context.json(messageService.trendingTags());
+            return;
+        }
+        Map<String, Integer> top = messageService.trendingTags(window);
+        if (top == null) {
+            context.status(400).result("Unknown window");
+        } else {
+            context.json(top);
         }
     }
 
+    /**
+     * Retrieves the change feed after the since query parameter, the "next" cursor of the previous page, waiting up
+     * to wait_ms for a change when there are none yet. Up to limit events are returned, 100 by default. A cursor
+     * whose next events have been purged is answered with 410, telling the consumer to start over without since.
+     */
+    private void changesHandler(Context context) {
+        try {
+            String since = context.queryParam("since");
+            String limitParam = context.queryParam("limit");
+            int limit = limitParam == null ? 100 : Integer.parseInt(limitParam);
+            String waitParam = context.queryParam("wait_ms");
+            long waitMs = waitParam == null ? AppConfig.getLong("changes.poll.ms", 20000) : Long.parseLong(waitParam);
+            if (limit < 1 || limit > 1000 || waitMs < 0) {
+                throw new NumberFormatException("limit or wait_ms out of range");
+            }
+            long cappedWaitMs = Math.min(waitMs, 25000);
+            context.future(() -> changeFeedService.poll(since, limit, cappedWaitMs)
+                    .thenAccept(context::json)
+                    .exceptionally(e -> recover(context, e, () -> context.status(
+                            e.getCause() instanceof CursorExpiredException ? 410 : 400).result(""))));
+        } catch (NumberFormatException e) {
+            context.status(400).result("");
+        }
+    }
+
+    private int pageLimit(Context context) {
+        String limitParam = context.queryParam("limit");
+        int limit = limitParam == null ? 20 : Integer.parseInt(limitParam);
+        if (limit < 1 || limit > 100) {
+            throw new NumberFormatException("limit out of range: " + limit);
+        }
+        return limit;
+    }
+
+    private int pageBefore(Context context) {
+        String beforeParam = context.queryParam("before");
+        return beforeParam == null ? Integer.MAX_VALUE : Integer.parseInt(beforeParam);
+    }
+
+    private int userIdParam(Context context) {
+        try {
+            return Integer.parseInt(context.pathParam("userId"));
+        } catch (NumberFormatException e) {
+            throw new BadRequestResponse("Invalid user ID format");
+        }
+    }
+
+    /**
+     * Retrieves an account by username.
+     */
+    private void getAccountHandler(Context context) {
+        String username = context.pathParam("username");
+        context.future(() -> accountService.getAccountByUsernameAsync(username)
+                .thenAccept(context::json)
+                .exceptionally(e -> recover(context, e, null)));
+    }
+
     /**
      * Retrieves a message by its ID.
      */
     private void getMessageByIdHandler(Context context) {
         try {
             int messageId = Integer.parseInt(context.pathParam("messageId"));
-            Message message = MessageDAO.getMessageById(messageId);
-            if (message == null) {
-                context.result("");
-            } else {
-                context.json(message);
-            }
+            context.future(() -> messageService.getMessageByIdAsync(messageId).thenAccept(message -> {
+                if (message == null) {
+                    context.result("");
+                } else {
+                    context.header("ETag", etag(message)).json(message);
+                }
+            }).exceptionally(e -> recover(context, e, null)));
         } catch (NumberFormatException e) {
             context.status(400).result("Invalid message id");
-        } catch (Exception e) {
-            e.printStackTrace();
-            context.status(500).result("Internal server error");
         }
     }
 
     /**
-     * Updates the text of a message by its ID.
+     * Updates the text of a message by its ID. With an If-Match header the update only happens if the message is
+     * still at that ETag, and a 412 carrying the current ETag is returned otherwise.
      */
+    @SuppressWarnings("unchecked")
     private void updateMessageTextHandler(Context context) {
         try {
             int messageId = Integer.parseInt(context.pathParam("messageId"));
             Map<String, String> body = context.bodyAsClass(Map.class);
             String newText = body.get("message_text");
 
-            if (newText == null || newText.trim().isEmpty() || newText.length() >= 255) {
-                context.status(400).result("");
-                return;
-            }
-
-            Message updated = messageService.updateMessageText(messageId, newText);
+            Message updated = messageService.updateMessageText(messageId, newText, expectedVersion(context));
             if (updated == null) {
                 context.status(400).result("");
             } else {
-                context.status(200).json(updated);
+                context.status(200).header("ETag", etag(updated)).json(updated);
             }
         } catch (NumberFormatException e) {
             context.status(400).result("Invalid message id");
-        } catch (Exception e) {
-            e.printStackTrace();
-            context.status(500).result("Internal server error");
+        } catch (IllegalArgumentException e) {
+            context.status(400).result("");
+        }
+    }
+
+    /**
+     * @return the strong ETag of a message, its version in quotes
+     */
+    private static String etag(Message message) {
+        return "\"" + message.getVersion() + "\"";
+    }
+
+    /**
+     * Reads the version a PATCH is conditional on from a single-tag If-Match header. No header or "*" means
+     * unconditional (-1). Anything that is not one of our ETags, weak tags included, maps to version 0, which is
+     * never assigned and so never matches.
+     */
+    private static long expectedVersion(Context context) {
+        String ifMatch = context.header("If-Match");
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return -1;
+        }
+        String tag = ifMatch.trim();
+        if (tag.length() < 3 || tag.charAt(0) != '"' || tag.charAt(tag.length() - 1) != '"') {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(tag.substring(1, tag.length() - 1)));
+        } catch (NumberFormatException e) {
+            return 0;
         }
     }
-}
\ No newline at end of file
+}
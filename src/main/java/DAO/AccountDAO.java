@@ -1,11 +1,29 @@
 package DAO;
 
 import Model.Account;
-import Util.ConnectionUtil;
+import Model.ChangeEvent;
+import Util.ShardRouter;
 import java.sql.*;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
 
+/**
+ * Data access for the account table. Every method throws a {@link DataAccessException}, or one of its subclasses,
+ * when the database call fails.
+ *
+ * An account lives on the shard chosen from a hash of its username, and its account_id encodes that shard (see
+ * {@link ShardRouter}). Lookups by id go to one shard; lookups by username ask each shard in turn. Lookups may be
+ * served by a read follower, and account inserts are recorded for the followers to replay.
+ */
 public class AccountDAO {
 
+    private static final int MAX_ID_ATTEMPTS = 10;
+
     /**
      * Retrieves an account by its username.
      * 
@@ -15,25 +33,82 @@ public class AccountDAO {
     public static Account getAccountByUsername(String username) {
         Account account = null;
         String sql = "SELECT account_id, username, password FROM account WHERE username = ?";
-        try (Connection conn = ConnectionUtil.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+        for (int shard = 0; shard < ShardRouter.shardCount() && account == null; shard++) {
+            try (Connection conn = ShardRouter.getReadConnection(shard);
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
 
-            ps.setString(1, username);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    account = new Account(
-                        rs.getInt("account_id"),
-                        rs.getString("username"),
-                        rs.getString("password")
-                    );
+                ps.setString(1, username);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        account = new Account(
+                            rs.getInt("account_id"),
+                            rs.getString("username"),
+                            rs.getString("password")
+                        );
+                    }
                 }
+            } catch (SQLException e) {
+                throw DataAccessException.from("AccountDAO.getAccountByUsername", e);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
         return account;
     }
 
+    /**
+     * Retrieves several accounts by username, asking each shard in turn for the usernames not found yet. Each shard
+     * is asked once, with the usernames bound as a single array parameter.
+     * 
+     * @param usernames the usernames to search for
+     * @return the accounts found, keyed by username; missing usernames have no entry
+     */
+    public static Map<String, Account> getAccountsByUsernames(Collection<String> usernames) {
+        Map<String, Account> found = new HashMap<>();
+        Set<String> remaining = new LinkedHashSet<>(usernames);
+        String sql = "SELECT account_id, username, password FROM account WHERE username = ANY(?)";
+        for (int shard = 0; shard < ShardRouter.shardCount() && !remaining.isEmpty(); shard++) {
+            try (Connection conn = ShardRouter.getReadConnection(shard);
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setArray(1, conn.createArrayOf("VARCHAR", remaining.toArray()));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Account account = mapAccount(rs);
+                        found.put(account.getUsername(), account);
+                        remaining.remove(account.getUsername());
+                    }
+                }
+            } catch (SQLException e) {
+                throw DataAccessException.from("AccountDAO.getAccountsByUsernames", e);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Retrieves several accounts by ID with one query per shard involved.
+     * 
+     * @param accountIds the IDs of the accounts to retrieve
+     * @return the accounts found, keyed by ID; missing IDs have no entry
+     */
+    public static Map<Integer, Account> getAccountsByIds(Collection<Integer> accountIds) {
+        Map<Integer, Account> found = new HashMap<>();
+        String sql = "SELECT account_id, username, password FROM account WHERE account_id = ANY(?)";
+        for (Map.Entry<Integer, List<Integer>> shard : ShardRouter.groupByShard(accountIds).entrySet()) {
+            try (Connection conn = ShardRouter.getReadConnection(shard.getKey());
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setArray(1, conn.createArrayOf("INTEGER", shard.getValue().toArray()));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Account account = mapAccount(rs);
+                        found.put(account.getAccount_id(), account);
+                    }
+                }
+            } catch (SQLException e) {
+                throw DataAccessException.from("AccountDAO.getAccountsByIds", e);
+            }
+        }
+        return found;
+    }
+
     /**
      * Validates user login credentials.
      * 
@@ -49,46 +124,51 @@ public class AccountDAO {
     }
 
     /**
-     * Creates a new account with an auto-incremented account ID.
+     * Creates a new account with an auto-incremented account ID. The id is allocated on the shard picked for the
+     * username by the insert itself, one past the shard's current maximum; inserts on a shard take the shard's
+     * write lock, and if another process claims the same id first the insert is retried. The change feed event is
+     * appended in the same transaction.
      * 
      * @param account the account object to be created
      * @return the created account object with the assigned ID
      */
     public static Account createAccount(Account account) {
-        int newId = getMaxAccountId() + 1;
-        account.setAccount_id(newId);
-        String sql = "INSERT INTO account (account_id, username, password) VALUES (?, ?, ?)";
-        try (Connection conn = ConnectionUtil.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-
-             ps.setInt(1, newId);
-             ps.setString(2, account.username);
-             ps.setString(3, account.password);
-             ps.executeUpdate();
-
-        } catch (SQLException e) {
-             e.printStackTrace();
-        }
-        return account;
-    }
+        int shard = ShardRouter.shardForUsername(account.username);
+        String sql = "SELECT account_id FROM FINAL TABLE (INSERT INTO account (account_id, username, password) "
+                + "SELECT COALESCE(MAX(account_id) + ?, ?), ?, ? FROM account)";
+        for (int attempt = 1; ; attempt++) {
+            Lock writeLock = ShardRouter.writeLock(shard);
+            writeLock.lock();
+            try (Connection conn = ShardRouter.getConnection(shard)) {
+                 conn.setAutoCommit(false);
+                 try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                     ps.setInt(1, ShardRouter.shardCount());
+                     ps.setInt(2, ShardRouter.firstId(shard));
+                     ps.setString(3, account.username);
+                     ps.setString(4, account.password);
+                     try (ResultSet rs = ps.executeQuery()) {
+                         rs.next();
+                         account.setAccount_id(rs.getInt("account_id"));
+                     }
+                 }
+                 ChangeEvent event = ChangeEventDAO.accountEvent(shard, "create", account);
+                 ChangeEventDAO.append(conn, event);
+                 conn.commit();
+                 ShardRouter.recordWrite(shard, "INSERT INTO account (account_id, username, password) VALUES (?, ?, ?)",
+                         account.getAccount_id(), account.username, account.password);
+                 ChangeEventDAO.published(event);
+                 return account;
 
-    /**
-     * Retrieves the maximum account ID from the database.
-     * 
-     * @return the maximum account ID or 0 if no records are found
-     */
-    private static int getMaxAccountId() {
-        String sql = "SELECT COALESCE(MAX(account_id), 0) as maxId FROM account";
-        try (Connection conn = ConnectionUtil.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
-            if (rs.next()) {
-                return rs.getInt("maxId");
+            } catch (SQLException e) {
+                 DataAccessException translated = DataAccessException.from("AccountDAO.createAccount", e);
+                 if (!(translated instanceof DuplicateKeyException) || attempt == MAX_ID_ATTEMPTS
+                         || getAccountByUsername(account.username) != null) {
+                     throw translated;
+                 }
+            } finally {
+                writeLock.unlock();
             }
-        } catch (SQLException e) {
-             e.printStackTrace();
         }
-        return 0;
     }
 
     /**
@@ -99,7 +179,7 @@ public class AccountDAO {
      */
     public static Account getAccountById(int account_id) {
         String sql = "SELECT account_id, username, password FROM account WHERE account_id = ?";
-        try (Connection conn = ConnectionUtil.getConnection();
+        try (Connection conn = ShardRouter.getReadConnection(ShardRouter.shardFor(account_id));
              PreparedStatement ps = conn.prepareStatement(sql)) {
              ps.setInt(1, account_id);
              try (ResultSet rs = ps.executeQuery()){
@@ -108,8 +188,12 @@ public class AccountDAO {
                  }
              }
         } catch (SQLException e){
-             e.printStackTrace();
+             throw DataAccessException.from("AccountDAO.getAccountById", e);
         }
         return null;
     }
-}
\ No newline at end of file
+
+    private static Account mapAccount(ResultSet rs) throws SQLException {
+        return new Account(rs.getInt("account_id"), rs.getString("username"), rs.getString("password"));
+    }
+}
@@ -0,0 +1,347 @@
+package DAO;
+
+import Model.Account;
+import Model.ChangeEvent;
+import Model.Message;
+import Util.BulkFormat;
+import Util.ShardRouter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Streams the account and message tables to and from the bulk export format. Exports read forward-only result sets
+ * and write each row as it arrives; imports upsert rows in JDBC batches, committing once per batch together with
+ * an "upsert" change event per row, so change feed consumers see imported rows like any other write. Memory use
+ * stays flat whatever the size of the file.
+ */
+public class BulkTransferDAO {
+
+    private static final int FETCH_SIZE = 1000;
+
+    /**
+     * Row counts from one export or import.
+     */
+    public static class Result {
+        public final long accounts;
+        public final long messages;
+        public final long rejectedMessages;
+
+        public Result(long accounts, long messages) {
+            this(accounts, messages, 0);
+        }
+
+        public Result(long accounts, long messages, long rejectedMessages) {
+            this.accounts = accounts;
+            this.messages = messages;
+            this.rejectedMessages = rejectedMessages;
+        }
+    }
+
+    /**
+     * The hashtags and mentioned accounts of an imported message, indexed with it as they are for a created one.
+     */
+    public static class MessageIndex {
+        public final Collection<String> tags;
+        public final Collection<Integer> mentions;
+
+        /**
+         * @param tags the hashtags in the text, lower-cased and without the '#'
+         * @param mentions the ids of the accounts mentioned in the text
+         */
+        public MessageIndex(Collection<String> tags, Collection<Integer> mentions) {
+            this.tags = tags;
+            this.mentions = mentions;
+        }
+    }
+
+    /**
+     * Writes every account, then every message, to the stream. Rows are written shard by shard, ordered by id
+     * within each shard.
+     *
+     * @param out where the export is written; it is flushed but not closed
+     * @return the number of rows written
+     * @throws IOException if writing to the stream fails
+     */
+    public static Result exportAll(OutputStream out) throws IOException {
+        BulkFormat.Writer writer = new BulkFormat.Writer(out);
+        long accounts = 0;
+        long messages = 0;
+        try {
+            writer.beginSection(BulkFormat.ACCOUNT_SECTION);
+            for (int shard = 0; shard < ShardRouter.shardCount(); shard++) {
+                try (Connection conn = ShardRouter.getConnection(shard);
+                     PreparedStatement ps = conn.prepareStatement(
+                        "SELECT account_id, username, password FROM account ORDER BY account_id",
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                    ps.setFetchSize(FETCH_SIZE);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            writer.writeAccount(rs.getInt(1), rs.getString(2), rs.getString(3));
+                            accounts++;
+                        }
+                    }
+                }
+            }
+            writer.endSection();
+
+            writer.beginSection(BulkFormat.MESSAGE_SECTION);
+            for (int shard = 0; shard < ShardRouter.shardCount(); shard++) {
+                try (Connection conn = ShardRouter.getConnection(shard);
+                     PreparedStatement ps = conn.prepareStatement(
+                        "SELECT message_id, posted_by, message_text, time_posted_epoch FROM message WHERE deleted = FALSE ORDER BY message_id",
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                    ps.setFetchSize(FETCH_SIZE);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            writer.writeMessage(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getLong(4));
+                            messages++;
+                        }
+                    }
+                }
+            }
+            writer.endSection();
+        } catch (SQLException e) {
+            throw DataAccessException.from("BulkTransferDAO.exportAll", e);
+        }
+        writer.finish();
+        return new Result(accounts, messages);
+    }
+
+    /**
+     * Reads an export from the stream and upserts its rows by primary key, so a partly applied import can simply be
+     * run again. Each row goes to the shard that owns its id, so an export taken with one shard count can be
+     * imported into another. A message whose text the messageText check rejects is skipped and counted, not
+     * imported. Each imported message's tag and mention index entries are replaced in its batch's transaction, like an
+     * edit's. Every cached message list is dropped afterwards, since an import can touch any of them.
+     *
+     * @param in the export to read
+     * @param batchSize the number of rows sent and committed per JDBC batch
+     * @param messageText returns the text to store for a message, or throws IllegalArgumentException to reject it
+     * @param index returns the hashtags and mentions of a stored text
+     * @return the number of rows imported and rejected
+     * @throws IOException if the stream is not a valid export
+     */
+    public static Result importAll(InputStream in, int batchSize, UnaryOperator<String> messageText,
+            Function<String, MessageIndex> index) throws IOException {
+        BulkFormat.Reader reader = new BulkFormat.Reader(in);
+        long accounts = 0;
+        long messages = 0;
+        long rejected = 0;
+        try {
+            int section;
+            while ((section = reader.nextSection()) != -1) {
+                if (section == BulkFormat.ACCOUNT_SECTION) {
+                    try (ShardBatches batches = new AccountBatches(batchSize)) {
+                        while (reader.nextAccount()) {
+                            batches.add(reader.getId(), reader.getId(), reader.getUsername(), reader.getPassword());
+                            accounts++;
+                        }
+                        batches.flush();
+                    }
+                } else if (section == BulkFormat.MESSAGE_SECTION) {
+                    try (MessageBatches batches = new MessageBatches(batchSize)) {
+                        while (reader.nextMessage()) {
+                            String text;
+                            try {
+                                text = messageText.apply(reader.getMessageText());
+                            } catch (IllegalArgumentException e) {
+                                rejected++;
+                                continue;
+                            }
+                            batches.addMessage(reader.getId(), reader.getPostedBy(), text, reader.getTimePostedEpoch(),
+                                    index.apply(text));
+                            ShardRouter.messageIdAllocated(reader.getId());
+                            messages++;
+                        }
+                        batches.flush();
+                    }
+                } else {
+                    throw new IOException("Unknown section " + section);
+                }
+            }
+        } catch (SQLException e) {
+            throw DataAccessException.from("BulkTransferDAO.importAll", e);
+        } finally {
+            MessageDAO.clearQueries();
+        }
+        return new Result(accounts, messages, rejected);
+    }
+
+    /**
+     * One open connection and batched statement per shard, each committed when its batch fills up along with a
+     * change event per row. Committed rows are recorded for the shard's read followers.
+     */
+    private abstract static class ShardBatches implements AutoCloseable {
+        private final String sql;
+        private final int batchSize;
+        private final Connection[] connections = new Connection[ShardRouter.shardCount()];
+        private final PreparedStatement[] statements = new PreparedStatement[ShardRouter.shardCount()];
+        private final List<List<Object[]>> pending = new ArrayList<>();
+
+        ShardBatches(String sql, int batchSize) {
+            this.sql = sql;
+            this.batchSize = batchSize;
+            for (int shard = 0; shard < ShardRouter.shardCount(); shard++) {
+                pending.add(new ArrayList<>());
+            }
+        }
+
+        void add(int key, Object... row) throws SQLException {
+            int shard = ShardRouter.shardFor(key);
+            if (statements[shard] == null) {
+                connections[shard] = ShardRouter.getConnection(shard);
+                connections[shard].setAutoCommit(false);
+                statements[shard] = connections[shard].prepareStatement(sql);
+            }
+            for (int i = 0; i < row.length; i++) {
+                statements[shard].setObject(i + 1, row[i]);
+            }
+            statements[shard].addBatch();
+            pending.get(shard).add(row);
+            if (pending.get(shard).size() == batchSize) {
+                commit(shard);
+            }
+        }
+
+        void flush() throws SQLException {
+            for (int shard = 0; shard < statements.length; shard++) {
+                if (!pending.get(shard).isEmpty()) {
+                    commit(shard);
+                }
+            }
+        }
+
+        private void commit(int shard) throws SQLException {
+            Lock writeLock = ShardRouter.writeLock(shard);
+            writeLock.lock();
+            try {
+                statements[shard].executeBatch();
+                List<ChangeEvent> events = written(connections[shard], shard, pending.get(shard));
+                ChangeEventDAO.appendAll(connections[shard], events);
+                connections[shard].commit();
+                for (Object[] row : pending.get(shard)) {
+                    ShardRouter.recordWrite(shard, sql, row);
+                }
+                committed(shard, pending.get(shard));
+                for (ChangeEvent appended : events) {
+                    ChangeEventDAO.published(appended);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            pending.get(shard).clear();
+        }
+
+        /**
+         * Called in the batch's transaction once its rows are written.
+         *
+         * @return the change events for the rows
+         */
+        abstract List<ChangeEvent> written(Connection conn, int shard, List<Object[]> rows) throws SQLException;
+
+        /**
+         * Called once the batch is committed and its rows recorded for the read followers, to record anything else
+         * written() wrote.
+         */
+        void committed(int shard, List<Object[]> rows) {
+        }
+
+        @Override
+        public void close() throws SQLException {
+            for (int shard = 0; shard < statements.length; shard++) {
+                if (statements[shard] != null) {
+                    statements[shard].close();
+                    connections[shard].close();
+                }
+            }
+        }
+    }
+
+    private static class AccountBatches extends ShardBatches {
+
+        AccountBatches(int batchSize) {
+            super("MERGE INTO account (account_id, username, password) KEY (account_id) VALUES (?, ?, ?)", batchSize);
+        }
+
+        @Override
+        List<ChangeEvent> written(Connection conn, int shard, List<Object[]> rows) {
+            List<ChangeEvent> events = new ArrayList<>();
+            for (Object[] row : rows) {
+                events.add(ChangeEventDAO.accountEvent(shard, "upsert",
+                        new Account((Integer) row[0], (String) row[1], (String) row[2])));
+            }
+            return events;
+        }
+    }
+
+    /**
+     * Upserts messages. A message that already exists moves to its next version, like an edit, so an ETag taken
+     * before the import no longer matches; its change event carries the version it now has. The batch's old tag and
+     * mention entries are deleted and its new ones inserted in the same transaction.
+     */
+    private static class MessageBatches extends ShardBatches {
+        private final Map<Integer, MessageIndex> indexes = new HashMap<>();
+
+        MessageBatches(int batchSize) {
+            super("MERGE INTO message m USING (SELECT CAST(? AS INT) AS message_id, CAST(? AS INT) AS posted_by, "
+                    + "CAST(? AS VARCHAR) AS message_text, CAST(? AS BIGINT) AS time_posted_epoch) r ON m.message_id = r.message_id "
+                    + "WHEN MATCHED THEN UPDATE SET posted_by = r.posted_by, message_text = r.message_text, "
+                    + "time_posted_epoch = r.time_posted_epoch, deleted = FALSE, deleted_at = NULL, version = m.version + 1 "
+                    + "WHEN NOT MATCHED THEN INSERT (message_id, posted_by, message_text, time_posted_epoch) "
+                    + "VALUES (r.message_id, r.posted_by, r.message_text, r.time_posted_epoch)", batchSize);
+        }
+
+        void addMessage(int messageId, int postedBy, String text, long timePostedEpoch, MessageIndex index) throws SQLException {
+            indexes.put(messageId, index);
+            add(postedBy, messageId, postedBy, text, timePostedEpoch);
+        }
+
+        @Override
+        List<ChangeEvent> written(Connection conn, int shard, List<Object[]> rows) throws SQLException {
+            Integer[] ids = new Integer[rows.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = (Integer) rows.get(i)[0];
+            }
+            MessageDAO.deleteIndex(conn, ids);
+            for (Object[] row : rows) {
+                MessageIndex index = indexes.get((Integer) row[0]);
+                MessageDAO.insertIndex(conn, (Integer) row[0], index.tags, index.mentions);
+            }
+            Map<Integer, Long> versions = new HashMap<>();
+            try (PreparedStatement ps = conn.prepareStatement("SELECT message_id, version FROM message WHERE message_id = ANY(?)")) {
+                ps.setArray(1, conn.createArrayOf("INTEGER", ids));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        versions.put(rs.getInt(1), rs.getLong(2));
+                    }
+                }
+            }
+            List<ChangeEvent> events = new ArrayList<>();
+            for (Object[] row : rows) {
+                Message message = new Message((Integer) row[0], (Integer) row[1], (String) row[2], (Long) row[3]);
+                message.setVersion(versions.get(message.getMessage_id()));
+                events.add(ChangeEventDAO.messageEvent(shard, "upsert", message));
+            }
+            return events;
+        }
+
+        @Override
+        void committed(int shard, List<Object[]> rows) {
+            for (Object[] row : rows) {
+                int messageId = (Integer) row[0];
+                MessageIndex index = indexes.remove(messageId);
+                MessageDAO.recordIndexReplaced(shard, messageId, index.tags, index.mentions);
+            }
+        }
+    }
+}
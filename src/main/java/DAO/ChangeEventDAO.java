@@ -0,0 +1,245 @@
+package DAO;
+
+import Model.Account;
+import Model.ChangeEvent;
+import Model.Message;
+import Util.ShardRouter;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Data access for the change_event outbox. MessageDAO and AccountDAO append an event in the same transaction as
+ * every create, update and delete, so an event exists exactly when its change was committed. Events are numbered
+ * per shard, one past the shard's last, which is safe because every write on a shard holds its write lock.
+ *
+ * Readers page through the events after a position per shard. nextAppend() lets a reader that is caught up wait
+ * for the next event instead of polling the table.
+ */
+public class ChangeEventDAO {
+
+    private static final String INSERT = "INSERT INTO change_event (seq, entity, entity_id, operation, changed_at, "
+            + "posted_by, message_text, time_posted_epoch, version, username) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String APPEND = "SELECT seq FROM FINAL TABLE (INSERT INTO change_event (seq, entity, "
+            + "entity_id, operation, changed_at, posted_by, message_text, time_posted_epoch, version, username) "
+            + "SELECT COALESCE(MAX(seq), 0) + 1, ?, ?, ?, ?, ?, ?, ?, ?, ? FROM change_event)";
+    private static final AtomicReference<CompletableFuture<Void>> NEXT_APPEND = new AtomicReference<>(new CompletableFuture<>());
+
+    /**
+     * @param shard the shard the message lives on
+     * @param operation "create", "update" or "delete"
+     * @param message the message as written
+     * @return the event describing the change, not yet numbered
+     */
+    static ChangeEvent messageEvent(int shard, String operation, Message message) {
+        ChangeEvent event = new ChangeEvent(shard, "message", message.getMessage_id(), operation, System.currentTimeMillis());
+        event.setPosted_by(message.getPosted_by());
+        event.setMessage_text(message.getMessage_text());
+        event.setTime_posted_epoch(message.getTime_posted_epoch());
+        event.setVersion(message.getVersion());
+        return event;
+    }
+
+    /**
+     * @param shard the shard the account lives on
+     * @param operation "create", "update" or "delete"
+     * @param account the account as written
+     * @return the event describing the change, not yet numbered; it leaves out the password
+     */
+    static ChangeEvent accountEvent(int shard, String operation, Account account) {
+        ChangeEvent event = new ChangeEvent(shard, "account", account.getAccount_id(), operation, System.currentTimeMillis());
+        event.setUsername(account.getUsername());
+        return event;
+    }
+
+    /**
+     * Numbers an event and inserts it on the caller's connection, inside the caller's transaction, with one
+     * statement that takes the number from the shard's last event. The caller must hold the shard's write lock, and
+     * call published() once the transaction has committed.
+     *
+     * @param conn a connection to the event's shard
+     * @param event the event to append
+     */
+    static void append(Connection conn, ChangeEvent event) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(APPEND)) {
+            Object[] values = values(event);
+            for (int i = 1; i < values.length; i++) {
+                ps.setObject(i, values[i]);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                event.setSeq(rs.getLong(1));
+            }
+        }
+    }
+
+    /**
+     * Numbers a batch of events one past the shard's last and inserts them on the caller's connection, inside the
+     * caller's transaction, as one JDBC batch. The caller must hold the shard's write lock, and call published() for
+     * each event once the transaction has committed.
+     *
+     * @param conn a connection to the events' shard
+     * @param events the events to append, in order
+     */
+    static void appendAll(Connection conn, List<ChangeEvent> events) throws SQLException {
+        long seq;
+        try (PreparedStatement ps = conn.prepareStatement("SELECT COALESCE(MAX(seq), 0) FROM change_event");
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            seq = rs.getLong(1);
+        }
+        try (PreparedStatement ps = conn.prepareStatement(INSERT)) {
+            for (ChangeEvent event : events) {
+                event.setSeq(++seq);
+                Object[] values = values(event);
+                for (int i = 0; i < values.length; i++) {
+                    ps.setObject(i + 1, values[i]);
+                }
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    /**
+     * Records a committed event for the read followers and wakes readers waiting in nextAppend().
+     *
+     * @param event an event appended by a transaction that has committed
+     */
+    static void published(ChangeEvent event) {
+        ShardRouter.recordWrite(event.getShard(), INSERT, values(event));
+        NEXT_APPEND.getAndSet(new CompletableFuture<>()).complete(null);
+    }
+
+    /**
+     * @return a future completed when the next event is published; take it before reading, so an event published
+     *         in between is not missed
+     */
+    public static CompletableFuture<Void> nextAppend() {
+        return NEXT_APPEND.get();
+    }
+
+    /**
+     * Retrieves the events after a position on each shard, oldest first. Each shard returns up to limit events from
+     * its primary key and the shards are merged by commit time, keeping every shard's own order, so the events
+     * returned from each shard always follow on from its position.
+     *
+     * Events are numbered without gaps, so a shard whose first event after a position is not the next number has had
+     * events after that position purged; the reader has missed them and must start over.
+     *
+     * @param since the last position read on each shard, 0 for the oldest event kept; shards past its length start
+     *        at 0
+     * @param limit the maximum number of events to return
+     * @return at most limit events
+     * @throws CursorExpiredException if events after a shard's position have been purged
+     */
+    public static List<ChangeEvent> getChangesSince(long[] since, int limit) {
+        String sql = "SELECT seq, entity, entity_id, operation, changed_at, posted_by, message_text, time_posted_epoch, "
+                + "version, username FROM change_event WHERE seq > ? ORDER BY seq LIMIT ?";
+        List<List<ChangeEvent>> perShard = new ArrayList<>();
+        for (int shard = 0; shard < ShardRouter.shardCount(); shard++) {
+            List<ChangeEvent> events = new ArrayList<>();
+            long position = shard < since.length ? since[shard] : 0;
+            try (Connection conn = ShardRouter.getReadConnection(shard);
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+                 ps.setLong(1, position);
+                 ps.setInt(2, limit);
+                 try (ResultSet rs = ps.executeQuery()) {
+                     while (rs.next()) {
+                         events.add(mapEvent(rs, shard));
+                     }
+                 }
+            } catch (SQLException e) {
+                throw DataAccessException.from("ChangeEventDAO.getChangesSince", e);
+            }
+            if (position > 0 && !events.isEmpty() && events.get(0).getSeq() > position + 1) {
+                throw new CursorExpiredException(shard, position, events.get(0).getSeq());
+            }
+            perShard.add(events);
+        }
+        if (perShard.size() == 1) {
+            return perShard.get(0);
+        }
+        List<ChangeEvent> merged = new ArrayList<>();
+        PriorityQueue<int[]> heads = new PriorityQueue<>((a, b) -> Long.compare(
+                perShard.get(a[0]).get(a[1]).getChanged_at(), perShard.get(b[0]).get(b[1]).getChanged_at()));
+        for (int i = 0; i < perShard.size(); i++) {
+            if (!perShard.get(i).isEmpty()) {
+                heads.add(new int[] { i, 0 });
+            }
+        }
+        while (!heads.isEmpty() && merged.size() < limit) {
+            int[] head = heads.poll();
+            List<ChangeEvent> events = perShard.get(head[0]);
+            merged.add(events.get(head[1]));
+            if (++head[1] < events.size()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Removes up to batchSize of a shard's events committed before the cutoff, oldest first. The shard's last event is
+     * always kept, since the next event is numbered from it.
+     *
+     * @param shard the shard to prune
+     * @param changedBefore only events with changed_at before this epoch millisecond are removed
+     * @param batchSize the maximum number of events to remove
+     * @return the number of events removed
+     */
+    public static int purgeBefore(int shard, long changedBefore, int batchSize) {
+        String select = "SELECT MAX(seq) FROM (SELECT seq FROM change_event WHERE changed_at < ? "
+                + "AND seq < (SELECT MAX(seq) FROM change_event) ORDER BY seq LIMIT ?)";
+        String delete = "DELETE FROM change_event WHERE seq <= ?";
+        Lock writeLock = ShardRouter.writeLock(shard);
+        writeLock.lock();
+        try (Connection conn = ShardRouter.getConnection(shard)) {
+            long upTo;
+            try (PreparedStatement ps = conn.prepareStatement(select)) {
+                ps.setLong(1, changedBefore);
+                ps.setInt(2, batchSize);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    upTo = rs.getLong(1);
+                }
+            }
+            if (upTo == 0) {
+                return 0;
+            }
+            int removed;
+            try (PreparedStatement ps = conn.prepareStatement(delete)) {
+                ps.setLong(1, upTo);
+                removed = ps.executeUpdate();
+            }
+            ShardRouter.recordWrite(shard, delete, upTo);
+            return removed;
+        } catch (SQLException e) {
+            throw DataAccessException.from("ChangeEventDAO.purgeBefore", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static Object[] values(ChangeEvent event) {
+        return new Object[] { event.getSeq(), event.getEntity(), event.getEntity_id(), event.getOperation(),
+                event.getChanged_at(), event.getPosted_by(), event.getMessage_text(), event.getTime_posted_epoch(),
+                event.getVersion(), event.getUsername() };
+    }
+
+    private static ChangeEvent mapEvent(ResultSet rs, int shard) throws SQLException {
+        ChangeEvent event = new ChangeEvent(shard, rs.getString("entity"), rs.getInt("entity_id"),
+                rs.getString("operation"), rs.getLong("changed_at"));
+        event.setSeq(rs.getLong("seq"));
+        event.setPosted_by(rs.getObject("posted_by", Integer.class));
+        event.setMessage_text(rs.getString("message_text"));
+        event.setTime_posted_epoch(rs.getObject("time_posted_epoch", Long.class));
+        event.setVersion(rs.getObject("version", Long.class));
+        event.setUsername(rs.getString("username"));
+        return event;
+    }
+}
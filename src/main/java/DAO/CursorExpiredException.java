@@ -0,0 +1,19 @@
+package DAO;
+
+/**
+ * Thrown when a change feed cursor points before the oldest event still kept on a shard, ie events the reader has
+ * not seen were purged. Like VersionConflictException nothing failed in the database, so it carries no SQLException.
+ */
+public class CursorExpiredException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param shard the shard whose events were purged
+     * @param since the cursor's position on that shard
+     * @param oldest the oldest event still kept on that shard
+     */
+    public CursorExpiredException(int shard, long since, long oldest) {
+        super("Cursor position " + since + " on shard " + shard + " is before the oldest kept event " + oldest);
+    }
+}
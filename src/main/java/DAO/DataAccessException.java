@@ -0,0 +1,53 @@
+package DAO;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+
+/**
+ * Thrown by the DAO classes when a database operation fails. Handlers map the subclasses to status codes instead of
+ * the DAO hiding the failure behind a null or an empty list.
+ */
+public class DataAccessException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String operation;
+
+    /**
+     * @param operation the DAO operation that failed, eg "MessageDAO.createMessage"
+     * @param cause the underlying SQL failure
+     */
+    public DataAccessException(String operation, SQLException cause) {
+        super(operation + " failed: " + cause.getMessage(), cause);
+        this.operation = operation;
+    }
+
+    /**
+     * @return the DAO operation that failed
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * Wraps a SQLException in the most specific DataAccessException for its SQL state.
+     * 
+     * @param operation the DAO operation that failed
+     * @param e the underlying SQL failure
+     * @return the translated exception, ready to be thrown
+     */
+    public static DataAccessException from(String operation, SQLException e) {
+        String state = e.getSQLState() == null ? "" : e.getSQLState();
+        if (state.equals("23505")) {
+            return new DuplicateKeyException(operation, e);
+        }
+        if (state.startsWith("23")) {
+            return new DataIntegrityException(operation, e);
+        }
+        if (e instanceof SQLTransientException || state.startsWith("08") || state.equals("40001")
+                || state.equals("HYT00")) {
+            return new TransientDataAccessException(operation, e);
+        }
+        return new DataAccessException(operation, e);
+    }
+}
@@ -0,0 +1,15 @@
+package DAO;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown when a write violates a constraint, eg a message whose posted_by does not reference an account.
+ */
+public class DataIntegrityException extends DataAccessException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DataIntegrityException(String operation, SQLException cause) {
+        super(operation, cause);
+    }
+}
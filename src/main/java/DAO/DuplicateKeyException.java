@@ -0,0 +1,15 @@
+package DAO;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown when an insert or update collides with a unique key, eg registering a username that already exists.
+ */
+public class DuplicateKeyException extends DataIntegrityException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DuplicateKeyException(String operation, SQLException cause) {
+        super(operation, cause);
+    }
+}
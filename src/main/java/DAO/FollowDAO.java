@@ -0,0 +1,103 @@
+package DAO;
+
+import Util.ShardRouter;
+import java.sql.*;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Data access for the follow table. A follow row lives on the shard of its follower, so the accounts a user follows
+ * are on the user's own shard. Every method throws a {@link DataAccessException} when the database call fails.
+ */
+public class FollowDAO {
+
+    /**
+     * Receives edges from {@link #forEachFollow(EdgeVisitor)} without boxing them.
+     */
+    public interface EdgeVisitor {
+        void visit(int followerId, int followeeId);
+    }
+
+    /**
+     * Records that one account follows another.
+     * 
+     * @param followerId the account that follows
+     * @param followeeId the account being followed
+     * @return false if the follow already existed
+     */
+    public static boolean follow(int followerId, int followeeId) {
+        int shard = ShardRouter.shardFor(followerId);
+        String sql = "INSERT INTO follow (follower_id, followee_id) VALUES (?, ?)";
+        Lock writeLock = ShardRouter.writeLock(shard);
+        writeLock.lock();
+        try (Connection conn = ShardRouter.getConnection(shard);
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, followerId);
+            ps.setInt(2, followeeId);
+            ps.executeUpdate();
+            ShardRouter.recordWrite(shard, sql, followerId, followeeId);
+            return true;
+        } catch (SQLException e) {
+            DataAccessException translated = DataAccessException.from("FollowDAO.follow", e);
+            if (translated instanceof DuplicateKeyException) {
+                return false;
+            }
+            throw translated;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Removes a follow.
+     * 
+     * @param followerId the account that follows
+     * @param followeeId the account being followed
+     * @return false if there was no such follow
+     */
+    public static boolean unfollow(int followerId, int followeeId) {
+        int shard = ShardRouter.shardFor(followerId);
+        String sql = "DELETE FROM follow WHERE follower_id = ? AND followee_id = ?";
+        Lock writeLock = ShardRouter.writeLock(shard);
+        writeLock.lock();
+        try (Connection conn = ShardRouter.getConnection(shard);
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, followerId);
+            ps.setInt(2, followeeId);
+            if (ps.executeUpdate() == 0) {
+                return false;
+            }
+            ShardRouter.recordWrite(shard, sql, followerId, followeeId);
+            return true;
+        } catch (SQLException e) {
+            throw DataAccessException.from("FollowDAO.unfollow", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Streams every follow on every shard to the visitor.
+     * 
+     * @param visitor receives each edge
+     * @return the number of edges visited
+     */
+    public static long forEachFollow(EdgeVisitor visitor) {
+        long count = 0;
+        String sql = "SELECT follower_id, followee_id FROM follow";
+        for (int shard = 0; shard < ShardRouter.shardCount(); shard++) {
+            try (Connection conn = ShardRouter.getReadConnection(shard);
+                 PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                ps.setFetchSize(1000);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        visitor.visit(rs.getInt(1), rs.getInt(2));
+                        count++;
+                    }
+                }
+            } catch (SQLException e) {
+                throw DataAccessException.from("FollowDAO.forEachFollow", e);
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,62 @@
+package DAO;
+
+import Util.ShardRouter;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Data access for the message_counter table, which holds the persisted like and reply counts of each message on the
+ * message's shard. Counts only ever move by adding deltas, so concurrent flushers never overwrite each other.
+ */
+public class MessageCounterDAO {
+
+    /**
+     * Adds a batch of count deltas to one shard in a single JDBC batch and transaction. Rows are created on first
+     * use. The cached lists of the messages' authors are invalidated once the counts are committed.
+     * 
+     * @param shard the shard the messages live on
+     * @param deltas message_id mapped to { like delta, reply delta }, all owned by the shard
+     */
+    public static void addCounts(int shard, Map<Integer, long[]> deltas) {
+        String sql = "MERGE INTO message_counter t "
+                + "USING (SELECT CAST(? AS INT) AS message_id, CAST(? AS BIGINT) AS likes, CAST(? AS BIGINT) AS replies) d "
+                + "ON t.message_id = d.message_id "
+                + "WHEN MATCHED THEN UPDATE SET like_count = t.like_count + d.likes, reply_count = t.reply_count + d.replies "
+                + "WHEN NOT MATCHED THEN INSERT (message_id, like_count, reply_count) VALUES (d.message_id, d.likes, d.replies)";
+        Lock writeLock = ShardRouter.writeLock(shard);
+        writeLock.lock();
+        try (Connection conn = ShardRouter.getConnection(shard);
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            conn.setAutoCommit(false);
+            for (Map.Entry<Integer, long[]> delta : deltas.entrySet()) {
+                ps.setInt(1, delta.getKey());
+                ps.setLong(2, delta.getValue()[0]);
+                ps.setLong(3, delta.getValue()[1]);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            List<Integer> authors = new ArrayList<>();
+            try (PreparedStatement select = conn.prepareStatement(
+                    "SELECT DISTINCT posted_by FROM message WHERE message_id = ANY(?)")) {
+                select.setArray(1, conn.createArrayOf("INTEGER", deltas.keySet().toArray()));
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        authors.add(rs.getInt(1));
+                    }
+                }
+            }
+            conn.commit();
+            for (Map.Entry<Integer, long[]> delta : deltas.entrySet()) {
+                ShardRouter.recordWrite(shard, sql, delta.getKey(), delta.getValue()[0], delta.getValue()[1]);
+            }
+            MessageDAO.invalidateQueries(authors);
+        } catch (SQLException e) {
+            throw DataAccessException.from("MessageCounterDAO.addCounts", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
@@ -1,101 +1,211 @@
 package DAO;
 
+import Model.ChangeEvent;
 import Model.Message;
+import Util.AppConfig;
 import Util.ConnectionUtil;
+import Util.QueryCache;
+import Util.RequestContext;
+import Util.ShardRouter;
 import java.sql.*;
+import java.util.concurrent.locks.Lock;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
+/**
+ * Data access for the message table. Every method throws a {@link DataAccessException}, or one of its subclasses,
+ * when the database call fails.
+ *
+ * Messages live on the shard of their posted_by account (see {@link ShardRouter}). Lookups by id or user go to one
+ * shard; full scans query every shard and merge the per-shard results by message_id.
+ *
+ * Messages are read together with their persisted like and reply counts from message_counter. Deleted messages
+ * stay behind as tombstones that every read skips until purgeDeleted() removes them.
+ *
+ * Hashtags and mentions are indexed in message_tag and message_mention, on the message's shard. Creates and edits
+ * rewrite a message's index entries in the same transaction, so the indexes never miss an edit. A delete leaves
+ * them for purgeDeleted() to remove with the tombstone; index pages skip entries of tombstoned messages. Creates, edits and deletes also append to the change feed in that transaction (see
+ * {@link ChangeEventDAO}).
+ *
+ * Read-only lookups may be served by a read follower (see {@link ShardRouter#getReadConnection(int)}). Writes hold
+ * the shard's write lock and record an equivalent statement for the followers to replay.
+ *
+ * The list queries cache their results in a {@link QueryCache}, tagged with the message table and with the posted_by
+ * value they were filtered on. After committing, a write invalidates the table tag and its own author's tag, so
+ * every other account's timeline stays cached. Requests that must read their own writes bypass the cache.
+ */
 public class MessageDAO {
 
+    private static final int MAX_ID_ATTEMPTS = 10;
+    private static final int STREAM_FETCH_SIZE = 100;
+    private static final int STREAM_CACHE_MAX = 1000;
+    private static final String MESSAGE_TAG = "message";
+    private static final QueryCache<List<Message>> QUERIES = new QueryCache<>(
+            AppConfig.getLong("cache.queries.max.bytes", 32L * 1024 * 1024), AppConfig.getLong("cache.ttl.ms", 10000));
+
+    static {
+        ConnectionUtil.onReset(QUERIES::clear);
+    }
+    private static final String SELECT_MESSAGE = "SELECT m.message_id, m.posted_by, m.message_text, m.time_posted_epoch, m.version, "
+            + "COALESCE(c.like_count, 0) AS like_count, COALESCE(c.reply_count, 0) AS reply_count "
+            + "FROM message m LEFT JOIN message_counter c ON c.message_id = m.message_id WHERE m.deleted = FALSE";
+    private static final String INSERT_TAG = "INSERT INTO message_tag (tag, message_id) VALUES (?, ?)";
+    private static final String INSERT_MENTION = "INSERT INTO message_mention (account_id, message_id) VALUES (?, ?)";
+    private static final String DELETE_TAGS = "DELETE FROM message_tag WHERE message_id = ?";
+    private static final String DELETE_MENTIONS = "DELETE FROM message_mention WHERE message_id = ?";
+    private static final String NOT_TOMBSTONED =
+            "AND NOT EXISTS (SELECT 1 FROM message m WHERE m.message_id = t.message_id AND m.deleted = TRUE)";
+
     /**
      * Retrieves all messages from the database.
      * 
-     * @return a list of all messages
+     * @return a list of all messages, ordered by message_id
      */
     public static List<Message> getAllMessages() {
-        List<Message> messages = new ArrayList<>();
-        String sql = "SELECT message_id, posted_by, message_text, time_posted_epoch FROM message";
-        try (Connection conn = ConnectionUtil.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
-
-            while (rs.next()) {
-                Message m = new Message(
-                    rs.getInt("message_id"),
-                    rs.getInt("posted_by"),
-                    rs.getString("message_text"),
-                    rs.getLong("time_posted_epoch")
-                );
-                messages.add(m);
+        return cachedQuery("all", List.of(MESSAGE_TAG), allShardsCacheable(), MessageDAO::selectAllMessages);
+    }
+
+    private static List<Message> selectAllMessages(long[] minSeqs) {
+        String sql = SELECT_MESSAGE + " ORDER BY m.message_id";
+        List<List<Message>> perShard = new ArrayList<>();
+        for (int shard = 0; shard < ShardRouter.shardCount(); shard++) {
+            List<Message> messages = new ArrayList<>();
+            try (Connection conn = ShardRouter.getReadConnection(shard, minSeqs[shard]);
+                 PreparedStatement ps = conn.prepareStatement(sql);
+                 ResultSet rs = ps.executeQuery()) {
+
+                while (rs.next()) {
+                    messages.add(mapMessage(rs));
+                }
+            } catch (SQLException e) {
+                throw DataAccessException.from("MessageDAO.getAllMessages", e);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            perShard.add(messages);
         }
-        return messages;
+        return mergeById(perShard, Comparator.comparingInt(Message::getMessage_id), Integer.MAX_VALUE);
     }
 
     /**
-     * Creates a new message entry in the database.
+     * Creates a new message entry in the database, with no tags or mentions.
      * 
      * @param message the message object to be created
      * @return the created message object
      */
     public static Message createMessage(Message message) {
-        int newId = getMaxMessageId() + 1;
-        message.setMessage_id(newId);
-        String sql = "INSERT INTO message (message_id, posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?, ?)";
-        try (Connection conn = ConnectionUtil.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-             ps.setInt(1, newId);
-             ps.setInt(2, message.getPosted_by());
-             ps.setString(3, message.getMessage_text());
-             ps.setLong(4, message.getTime_posted_epoch());
-             ps.executeUpdate();
-        } catch (SQLException e) {
-             e.printStackTrace();
-        }
-        return message;
+        return createMessage(message, List.of(), List.of());
     }
 
     /**
-     * Retrieves the maximum message ID from the database.
+     * Creates a new message entry in the database. The id is allocated on the shard of the posting account by the
+     * insert itself, the next of the shard's ids above both the shard's current maximum and
+     * ShardRouter.messageIdFloor(), so ids follow posting order across shards; inserts on a shard take the shard's
+     * write lock, and if another process claims the same id first the insert is retried. The message's tags and mentions are indexed
+     * in the same transaction.
      * 
-     * @return the maximum message ID or 0 if no records are found
-     */
-    private static int getMaxMessageId() {
-        String sql = "SELECT COALESCE(MAX(message_id), 0) AS maxId FROM message";
-        try (Connection conn = ConnectionUtil.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()){
-             if(rs.next()){
-                 return rs.getInt("maxId");
-             }
-        } catch (SQLException e) {
-             e.printStackTrace();
+     * @param message the message object to be created
+     * @param tags the hashtags in the text, lower-cased and without the '#'
+     * @param mentions the ids of the accounts mentioned in the text
+     * @return the created message object
+     */
+    public static Message createMessage(Message message, Collection<String> tags, Collection<Integer> mentions) {
+        int shard = ShardRouter.shardFor(message.getPosted_by());
+        String sql = "SELECT message_id FROM FINAL TABLE (INSERT INTO message (message_id, posted_by, message_text, time_posted_epoch) "
+                + "SELECT GREATEST(COALESCE(MAX(message_id) + ?, ?), ?), ?, ?, ? FROM message)";
+        for (int attempt = 1; ; attempt++) {
+            Lock writeLock = ShardRouter.writeLock(shard);
+            writeLock.lock();
+            try (Connection conn = ShardRouter.getConnection(shard)) {
+                 conn.setAutoCommit(false);
+                 try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                     ps.setInt(1, ShardRouter.shardCount());
+                     ps.setInt(2, ShardRouter.firstId(shard));
+                     ps.setInt(3, ShardRouter.messageIdFloor(shard));
+                     ps.setInt(4, message.getPosted_by());
+                     ps.setString(5, message.getMessage_text());
+                     ps.setLong(6, message.getTime_posted_epoch());
+                     try (ResultSet rs = ps.executeQuery()) {
+                         rs.next();
+                         message.setMessage_id(rs.getInt("message_id"));
+                     }
+                 }
+                 insertIndex(conn, message.getMessage_id(), tags, mentions);
+                 message.setVersion(1);
+                 ChangeEvent event = ChangeEventDAO.messageEvent(shard, "create", message);
+                 ChangeEventDAO.append(conn, event);
+                 conn.commit();
+                 ShardRouter.messageIdAllocated(message.getMessage_id());
+                 ShardRouter.recordWrite(shard,
+                         "INSERT INTO message (message_id, posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?, ?)",
+                         message.getMessage_id(), message.getPosted_by(), message.getMessage_text(),
+                         message.getTime_posted_epoch());
+                 recordIndex(shard, message.getMessage_id(), tags, mentions);
+                 ChangeEventDAO.published(event);
+                 invalidateQueries(List.of(message.getPosted_by()));
+                 return message;
+            } catch (SQLException e) {
+                 DataAccessException translated = DataAccessException.from("MessageDAO.createMessage", e);
+                 if (!(translated instanceof DuplicateKeyException) || attempt == MAX_ID_ATTEMPTS) {
+                     throw translated;
+                 }
+            } finally {
+                writeLock.unlock();
+            }
         }
-        return 0;
     }
 
     /**
-     * Deletes a message from the database by its ID.
+     * Deletes a message by writing a tombstone: the row is flagged deleted with the current time in deleted_at
+     * (epoch milliseconds) and disappears from every read. purgeDeleted() removes it later, together with its tag
+     * and mention index entries.
+     *
+     * The tombstone is written and the message read back by one statement, a select over the rows the update
+     * changed, so a delete costs that statement and the change event under the shard's write lock.
      * 
      * @param messageId the ID of the message to be deleted
      * @return the deleted message object if found, otherwise null
      */
     public static Message deleteMessage(int messageId) {
-        Message deleted = getMessageById(messageId);
-        if (deleted != null) {
-            String sql = "DELETE FROM message WHERE message_id = ?";
-            try (Connection conn = ConnectionUtil.getConnection();
-                 PreparedStatement ps = conn.prepareStatement(sql)) {
-                ps.setInt(1, messageId);
-                ps.executeUpdate();
-            } catch (SQLException e) {
-                e.printStackTrace();
+        int shard = ShardRouter.shardFor(messageId);
+        String update = "UPDATE message SET deleted = TRUE, deleted_at = ? WHERE message_id = ? AND deleted = FALSE";
+        String sql = "SELECT m.message_id, m.posted_by, m.message_text, m.time_posted_epoch, m.version, "
+                + "COALESCE(c.like_count, 0) AS like_count, COALESCE(c.reply_count, 0) AS reply_count "
+                + "FROM OLD TABLE (" + update + ") m LEFT JOIN message_counter c ON c.message_id = m.message_id";
+        Lock writeLock = ShardRouter.writeLock(shard);
+        writeLock.lock();
+        try (Connection conn = ShardRouter.getConnection(shard)) {
+            long deletedAt = System.currentTimeMillis();
+            conn.setAutoCommit(false);
+            Message deleted;
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setLong(1, deletedAt);
+                ps.setInt(2, messageId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    deleted = rs.next() ? mapMessage(rs) : null;
+                }
             }
+            if (deleted == null) {
+                conn.rollback();
+                return null;
+            }
+            ChangeEvent event = ChangeEventDAO.messageEvent(shard, "delete", deleted);
+            ChangeEventDAO.append(conn, event);
+            conn.commit();
+            ShardRouter.recordWrite(shard, update, deletedAt, messageId);
+            ChangeEventDAO.published(event);
+            invalidateQueries(List.of(deleted.getPosted_by()));
+            return deleted;
+        } catch (SQLException e) {
+            throw DataAccessException.from("MessageDAO.deleteMessage", e);
+        } finally {
+            writeLock.unlock();
         }
-        return deleted;
     }
 
     /**
@@ -105,25 +215,65 @@ public class MessageDAO {
      * @return the message object if found, otherwise null
      */
     public static Message getMessageById(int messageId) {
-        Message message = null;
-        String sql = "SELECT message_id, posted_by, message_text, time_posted_epoch FROM message WHERE message_id = ?";
-        try (Connection conn = ConnectionUtil.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, messageId);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    message = new Message(
-                        rs.getInt("message_id"),
-                        rs.getInt("posted_by"),
-                        rs.getString("message_text"),
-                        rs.getLong("time_posted_epoch")
-                    );
+        try (Connection conn = ShardRouter.getReadConnection(ShardRouter.shardFor(messageId))) {
+            return selectMessage(conn, messageId);
+        } catch (SQLException e) {
+            throw DataAccessException.from("MessageDAO.getMessageById", e);
+        }
+    }
+
+    /**
+     * Retrieves several messages by ID with one query per shard involved, binding the ids as a single array
+     * parameter so the statement text is the same for any number of ids.
+     * 
+     * @param messageIds the IDs of the messages to retrieve
+     * @return the messages found, keyed by ID; missing IDs have no entry
+     */
+    public static Map<Integer, Message> getMessagesByIds(Collection<Integer> messageIds) {
+        Map<Integer, Message> found = new HashMap<>();
+        String sql = SELECT_MESSAGE + " AND m.message_id = ANY(?)";
+        for (Map.Entry<Integer, List<Integer>> shard : ShardRouter.groupByShard(messageIds).entrySet()) {
+            try (Connection conn = ShardRouter.getReadConnection(shard.getKey());
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setArray(1, conn.createArrayOf("INTEGER", shard.getValue().toArray()));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Message message = mapMessage(rs);
+                        found.put(message.getMessage_id(), message);
+                    }
                 }
+            } catch (SQLException e) {
+                throw DataAccessException.from("MessageDAO.getMessagesByIds", e);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
-        return message;
+        return found;
+    }
+
+    /**
+     * Retrieves the most recently created messages, newest first.
+     * 
+     * @param limit the maximum number of messages to return
+     * @return a list of at most limit messages
+     */
+    public static List<Message> getRecentMessages(int limit) {
+        String sql = SELECT_MESSAGE + " ORDER BY m.message_id DESC LIMIT ?";
+        List<List<Message>> perShard = new ArrayList<>();
+        for (int shard = 0; shard < ShardRouter.shardCount(); shard++) {
+            List<Message> messages = new ArrayList<>();
+            try (Connection conn = ShardRouter.getConnection(shard);
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+                 ps.setInt(1, limit);
+                 try (ResultSet rs = ps.executeQuery()) {
+                     while (rs.next()) {
+                         messages.add(mapMessage(rs));
+                     }
+                 }
+            } catch (SQLException e) {
+                throw DataAccessException.from("MessageDAO.getRecentMessages", e);
+            }
+            perShard.add(messages);
+        }
+        return mergeById(perShard, Comparator.comparingInt(Message::getMessage_id).reversed(), limit);
     }
 
     /**
@@ -133,48 +283,524 @@ public class MessageDAO {
      * @return a list of messages posted by the user
      */
     public static List<Message> getMessagesByUserId(int userId) {
+        return cachedQuery("user:" + userId, List.of(postedByTag(userId)), shardCacheable(ShardRouter.shardFor(userId)),
+                minSeqs -> selectMessagesByUserId(userId, minSeqs));
+    }
+
+    private static List<Message> selectMessagesByUserId(int userId, long[] minSeqs) {
+        List<Message> messages = new ArrayList<>();
+        String sql = SELECT_MESSAGE + " AND m.posted_by = ?";
+        int shard = ShardRouter.shardFor(userId);
+        try (Connection conn = ShardRouter.getReadConnection(shard, minSeqs[shard]);
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+             ps.setInt(1, userId);
+             try (ResultSet rs = ps.executeQuery()) {
+                 while (rs.next()) {
+                     messages.add(mapMessage(rs));
+                 }
+             }
+        } catch (SQLException e) {
+            throw DataAccessException.from("MessageDAO.getMessagesByUserId", e);
+        }
+        return messages;
+    }
+
+    /**
+     * Streams the messages posted by a specific user to the visitor as they are read, newest first. The query runs
+     * lazily from a forward-only result set along the (posted_by, message_id) index, so the first message arrives
+     * without the rest being read or sorted and memory use stays flat however many messages the user has. The
+     * connection is held until the visitor has seen the last message. Pages of up to STREAM_CACHE_MAX messages are
+     * kept in the query cache and replayed from it; like cachedQuery(), a page that may be cached is read at or past
+     * the shard's latest write.
+     *
+     * @param userId the ID of the user whose messages are to be streamed
+     * @param beforeId only messages with a lower message_id are streamed, Integer.MAX_VALUE for all
+     * @param limit the maximum number of messages to stream
+     * @param visitor receives each message; an unchecked exception it throws ends the stream
+     * @return the number of messages streamed
+     */
+    public static long forEachMessageByUserId(int userId, int beforeId, int limit, Consumer<Message> visitor) {
+        String key = "user_page:" + userId + ":" + beforeId + ":" + limit;
+        boolean cacheable = shardCacheable(ShardRouter.shardFor(userId));
+        List<Message> cached = cacheable ? QUERIES.get(key) : null;
+        if (cached != null) {
+            for (Message message : cached) {
+                visitor.accept(copyOf(message));
+            }
+            return cached.size();
+        }
+        int shard = ShardRouter.shardFor(userId);
+        long stamp = QUERIES.stamp();
+        long minSeq = cacheable ? ShardRouter.lastSeq(shard) : 0;
+        List<Message> page = cacheable ? new ArrayList<>() : null;
+        String sql = SELECT_MESSAGE + " AND m.posted_by = ? AND m.message_id < ? ORDER BY m.posted_by, m.message_id DESC LIMIT ?";
+        long count = 0;
+        try (Connection conn = ShardRouter.getReadConnection(shard, minSeq);
+             PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setInt(1, userId);
+            ps.setInt(2, beforeId);
+            ps.setInt(3, limit);
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            setLazy(conn, true);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Message message = mapMessage(rs);
+                    if (page != null && page.size() < STREAM_CACHE_MAX) {
+                        page.add(copyOf(message));
+                    }
+                    visitor.accept(message);
+                    count++;
+                }
+            } finally {
+                setLazy(conn, false);
+            }
+        } catch (SQLException e) {
+            throw DataAccessException.from("MessageDAO.forEachMessageByUserId", e);
+        }
+        if (page != null && page.size() == count) {
+            QUERIES.put(key, page, weigh(page), List.of(postedByTag(userId)), stamp);
+        }
+        return count;
+    }
+
+    /**
+     * Retrieves the most recent messages posted by a specific user, newest first.
+     * 
+     * @param userId the ID of the user whose messages are to be retrieved
+     * @param limit the maximum number of messages to return
+     * @return a list of at most limit messages
+     */
+    public static List<Message> getRecentMessagesByUserId(int userId, int limit) {
         List<Message> messages = new ArrayList<>();
-        String sql = "SELECT message_id, posted_by, message_text, time_posted_epoch FROM message WHERE posted_by = ?";
-        try (Connection conn = ConnectionUtil.getConnection();
+        String sql = SELECT_MESSAGE + " AND m.posted_by = ? ORDER BY m.message_id DESC LIMIT ?";
+        try (Connection conn = ShardRouter.getReadConnection(ShardRouter.shardFor(userId));
              PreparedStatement ps = conn.prepareStatement(sql)) {
              ps.setInt(1, userId);
+             ps.setInt(2, limit);
              try (ResultSet rs = ps.executeQuery()) {
                  while (rs.next()) {
-                     Message m = new Message(
-                         rs.getInt("message_id"),
-                         rs.getInt("posted_by"),
-                         rs.getString("message_text"),
-                         rs.getLong("time_posted_epoch")
-                     );
-                     messages.add(m);
+                     messages.add(mapMessage(rs));
                  }
              }
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw DataAccessException.from("MessageDAO.getRecentMessagesByUserId", e);
         }
         return messages;
     }
 
     /**
-     * Updates the text content of a specific message.
+     * Updates the text content of a specific message and moves it to the next version.
      * 
      * @param messageId the ID of the message to be updated
      * @param newText the new message text
      * @return the updated message object if found, otherwise null
      */
     public static Message updateMessageText(int messageId, String newText) {
-        String sql = "UPDATE message SET message_text = ? WHERE message_id = ?";
-        try (Connection conn = ConnectionUtil.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-             ps.setString(1, newText);
-             ps.setInt(2, messageId);
-             int rowsUpdated = ps.executeUpdate();
+        return updateMessageText(messageId, newText, -1, List.of(), List.of());
+    }
+
+    /**
+     * Updates the text content of a message only if it is still at the expected version. The check and the write
+     * are a single UPDATE ... WHERE message_id = ? AND version = ?, so no row is locked while the caller decides
+     * what to write. The message's tag and mention index entries are replaced in the same transaction.
+     * 
+     * @param messageId the ID of the message to be updated
+     * @param newText the new message text
+     * @param expectedVersion the version the caller last read, or -1 to update whatever the current version is
+     * @param tags the hashtags in the new text, lower-cased and without the '#'
+     * @param mentions the ids of the accounts mentioned in the new text
+     * @return the updated message object if found, otherwise null
+     * @throws VersionConflictException if the message exists but is no longer at expectedVersion
+     */
+    public static Message updateMessageText(int messageId, String newText, long expectedVersion,
+            Collection<String> tags, Collection<Integer> mentions) {
+        int shard = ShardRouter.shardFor(messageId);
+        String sql = "UPDATE message SET message_text = ?, version = version + 1 WHERE message_id = ? AND deleted = FALSE"
+                + (expectedVersion < 0 ? "" : " AND version = ?");
+        Lock writeLock = ShardRouter.writeLock(shard);
+        writeLock.lock();
+        try (Connection conn = ShardRouter.getConnection(shard)) {
+             conn.setAutoCommit(false);
+             int rowsUpdated;
+             try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                 ps.setString(1, newText);
+                 ps.setInt(2, messageId);
+                 if (expectedVersion >= 0) {
+                     ps.setLong(3, expectedVersion);
+                 }
+                 rowsUpdated = ps.executeUpdate();
+             }
+             Message current = selectMessage(conn, messageId);
              if (rowsUpdated > 0) {
-                 return getMessageById(messageId);
+                 deleteIndex(conn, messageId);
+                 insertIndex(conn, messageId, tags, mentions);
+                 ChangeEvent event = ChangeEventDAO.messageEvent(shard, "update", current);
+                 ChangeEventDAO.append(conn, event);
+                 conn.commit();
+                 ShardRouter.recordWrite(shard, "UPDATE message SET message_text = ?, version = ? WHERE message_id = ?",
+                         newText, current.getVersion(), messageId);
+                 recordIndexReplaced(shard, messageId, tags, mentions);
+                 ChangeEventDAO.published(event);
+                 invalidateQueries(List.of(current.getPosted_by()));
+                 return current;
+             }
+             if (current != null) {
+                 throw new VersionConflictException(current);
              }
         } catch (SQLException e) {
-             e.printStackTrace();
+             throw DataAccessException.from("MessageDAO.updateMessageText", e);
+        } finally {
+             writeLock.unlock();
         }
         return null;
     }
+
+    /**
+     * Physically removes up to batchSize tombstones older than the cutoff from one shard, together with their
+     * message_counter rows and any index entries left behind, in a single transaction.
+     * 
+     * @param shard the shard to compact
+     * @param deletedBefore only tombstones with deleted_at before this epoch millisecond are purged
+     * @param batchSize the maximum number of messages to purge
+     * @return the ids of the purged messages
+     */
+    public static List<Integer> purgeDeleted(int shard, long deletedBefore, int batchSize) {
+        List<Integer> purged = new ArrayList<>();
+        Lock writeLock = ShardRouter.writeLock(shard);
+        writeLock.lock();
+        try (Connection conn = ShardRouter.getConnection(shard)) {
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "SELECT message_id FROM message WHERE deleted = TRUE AND deleted_at < ? ORDER BY deleted_at LIMIT ?")) {
+                ps.setLong(1, deletedBefore);
+                ps.setInt(2, batchSize);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        purged.add(rs.getInt(1));
+                    }
+                }
+            }
+            if (purged.isEmpty()) {
+                return purged;
+            }
+            String deleteCounters = "DELETE FROM message_counter WHERE message_id = ?";
+            String deleteMessage = "DELETE FROM message WHERE message_id = ? AND deleted = TRUE";
+            conn.setAutoCommit(false);
+            try (PreparedStatement counters = conn.prepareStatement(deleteCounters);
+                 PreparedStatement tags = conn.prepareStatement(DELETE_TAGS);
+                 PreparedStatement mentions = conn.prepareStatement(DELETE_MENTIONS);
+                 PreparedStatement messages = conn.prepareStatement(deleteMessage)) {
+                for (int messageId : purged) {
+                    counters.setInt(1, messageId);
+                    counters.addBatch();
+                    tags.setInt(1, messageId);
+                    tags.addBatch();
+                    mentions.setInt(1, messageId);
+                    mentions.addBatch();
+                    messages.setInt(1, messageId);
+                    messages.addBatch();
+                }
+                counters.executeBatch();
+                tags.executeBatch();
+                mentions.executeBatch();
+                messages.executeBatch();
+            }
+            conn.commit();
+            for (int messageId : purged) {
+                ShardRouter.recordWrite(shard, deleteCounters, messageId);
+                ShardRouter.recordWrite(shard, DELETE_TAGS, messageId);
+                ShardRouter.recordWrite(shard, DELETE_MENTIONS, messageId);
+                ShardRouter.recordWrite(shard, deleteMessage, messageId);
+            }
+            return purged;
+        } catch (SQLException e) {
+            throw DataAccessException.from("MessageDAO.purgeDeleted", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Pages through the messages carrying a hashtag, newest first, reading the tag index: each shard returns its
+     * next ids below the cursor from the index's primary key, skipping entries whose message is a tombstone waiting
+     * for purgeDeleted(), and the per-shard pages are merged.
+     * 
+     * @param tag the hashtag, lower-cased and without the '#'
+     * @param beforeId only ids below this are returned; Integer.MAX_VALUE for the first page
+     * @param limit the maximum number of ids to return
+     * @return at most limit message ids, in descending order
+     */
+    public static List<Integer> getMessageIdsByTag(String tag, int beforeId, int limit) {
+        return indexPage("MessageDAO.getMessageIdsByTag",
+                "SELECT t.message_id FROM message_tag t WHERE t.tag = ? AND t.message_id < ? " + NOT_TOMBSTONED
+                        + " ORDER BY t.message_id DESC LIMIT ?",
+                tag, beforeId, limit);
+    }
+
+    /**
+     * Pages through the messages mentioning an account, newest first, reading the mention index as
+     * getMessageIdsByTag() reads the tag index.
+     * 
+     * @param accountId the ID of the mentioned account
+     * @param beforeId only ids below this are returned; Integer.MAX_VALUE for the first page
+     * @param limit the maximum number of ids to return
+     * @return at most limit message ids, in descending order
+     */
+    public static List<Integer> getMessageIdsByMention(int accountId, int beforeId, int limit) {
+        return indexPage("MessageDAO.getMessageIdsByMention",
+                "SELECT t.message_id FROM message_mention t WHERE t.account_id = ? AND t.message_id < ? " + NOT_TOMBSTONED
+                        + " ORDER BY t.message_id DESC LIMIT ?",
+                accountId, beforeId, limit);
+    }
+
+    private static List<Integer> indexPage(String operation, String sql, Object key, int beforeId, int limit) {
+        List<Integer> ids = new ArrayList<>();
+        for (int shard = 0; shard < ShardRouter.shardCount(); shard++) {
+            try (Connection conn = ShardRouter.getReadConnection(shard);
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+                 ps.setObject(1, key);
+                 ps.setInt(2, beforeId);
+                 ps.setInt(3, limit);
+                 try (ResultSet rs = ps.executeQuery()) {
+                     while (rs.next()) {
+                         ids.add(rs.getInt(1));
+                     }
+                 }
+            } catch (SQLException e) {
+                throw DataAccessException.from(operation, e);
+            }
+        }
+        ids.sort(Comparator.reverseOrder());
+        return ids.size() <= limit ? ids : new ArrayList<>(ids.subList(0, limit));
+    }
+
+    static void insertIndex(Connection conn, int messageId, Collection<String> tags,
+            Collection<Integer> mentions) throws SQLException {
+        if (!tags.isEmpty()) {
+            try (PreparedStatement ps = conn.prepareStatement(INSERT_TAG)) {
+                for (String tag : tags) {
+                    ps.setString(1, tag);
+                    ps.setInt(2, messageId);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        }
+        if (!mentions.isEmpty()) {
+            try (PreparedStatement ps = conn.prepareStatement(INSERT_MENTION)) {
+                for (int accountId : mentions) {
+                    ps.setInt(1, accountId);
+                    ps.setInt(2, messageId);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        }
+    }
+
+    private static void deleteIndex(Connection conn, int messageId) throws SQLException {
+        try (PreparedStatement tags = conn.prepareStatement(DELETE_TAGS);
+             PreparedStatement mentions = conn.prepareStatement(DELETE_MENTIONS)) {
+            tags.setInt(1, messageId);
+            tags.executeUpdate();
+            mentions.setInt(1, messageId);
+            mentions.executeUpdate();
+        }
+    }
+
+    /**
+     * Deletes the tag and mention index entries of several messages at once.
+     */
+    static void deleteIndex(Connection conn, Integer[] messageIds) throws SQLException {
+        try (PreparedStatement tags = conn.prepareStatement("DELETE FROM message_tag WHERE message_id = ANY(?)");
+             PreparedStatement mentions = conn.prepareStatement("DELETE FROM message_mention WHERE message_id = ANY(?)")) {
+            tags.setArray(1, conn.createArrayOf("INTEGER", messageIds));
+            tags.executeUpdate();
+            mentions.setArray(1, conn.createArrayOf("INTEGER", messageIds));
+            mentions.executeUpdate();
+        }
+    }
+
+    /**
+     * Records for the shard's read followers that a message's index entries were replaced.
+     */
+    static void recordIndexReplaced(int shard, int messageId, Collection<String> tags, Collection<Integer> mentions) {
+        ShardRouter.recordWrite(shard, DELETE_TAGS, messageId);
+        ShardRouter.recordWrite(shard, DELETE_MENTIONS, messageId);
+        recordIndex(shard, messageId, tags, mentions);
+    }
+
+    private static void recordIndex(int shard, int messageId, Collection<String> tags, Collection<Integer> mentions) {
+        for (String tag : tags) {
+            ShardRouter.recordWrite(shard, INSERT_TAG, tag, messageId);
+        }
+        for (int accountId : mentions) {
+            ShardRouter.recordWrite(shard, INSERT_MENTION, accountId, messageId);
+        }
+    }
+
+    private static Message selectMessage(Connection conn, int messageId) throws SQLException {
+        String sql = SELECT_MESSAGE + " AND m.message_id = ?";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, messageId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? mapMessage(rs) : null;
+            }
+        }
+    }
+
+    /**
+     * Drops the cached list results a committed write to the messages of these authors made stale.
+     *
+     * @param postedBy the posted_by values of the messages written
+     */
+    static void invalidateQueries(Collection<Integer> postedBy) {
+        QUERIES.invalidate(MESSAGE_TAG);
+        for (int author : postedBy) {
+            QUERIES.invalidate(postedByTag(author));
+        }
+    }
+
+    /**
+     * Drops every cached list result, for writes too broad to tag such as a bulk import.
+     */
+    static void clearQueries() {
+        QUERIES.clear();
+    }
+
+    /**
+     * @return the cache of list results, for its counters
+     */
+    public static QueryCache<List<Message>> queryCache() {
+        return QUERIES;
+    }
+
+    private static String postedByTag(int userId) {
+        return MESSAGE_TAG + ".posted_by=" + userId;
+    }
+
+    /**
+     * Answers a list query from the cache, or runs it and caches a copy of the result. The caller gets messages it
+     * owns either way.
+     *
+     * The query is given, per shard, the sequence number a follower must have applied to serve it. A result about
+     * to be cached must reflect every write whose invalidation came before its stamp, or a lagging follower would
+     * put back what the invalidation dropped, so it is read at or past each shard's latest write, taken after the
+     * stamp. Uncached reads only need the request's own writes and get zeros.
+     */
+    private static List<Message> cachedQuery(String key, List<String> tags, boolean cacheable,
+            Function<long[], List<Message>> query) {
+        long[] minSeqs = new long[ShardRouter.shardCount()];
+        if (!cacheable) {
+            return query.apply(minSeqs);
+        }
+        List<Message> cached = QUERIES.get(key);
+        if (cached != null) {
+            List<Message> copy = new ArrayList<>(cached.size());
+            for (Message message : cached) {
+                copy.add(copyOf(message));
+            }
+            return copy;
+        }
+        long stamp = QUERIES.stamp();
+        for (int shard = 0; shard < minSeqs.length; shard++) {
+            minSeqs[shard] = ShardRouter.lastSeq(shard);
+        }
+        List<Message> loaded = query.apply(minSeqs);
+        List<Message> copy = new ArrayList<>(loaded.size());
+        for (Message message : loaded) {
+            copy.add(copyOf(message));
+        }
+        QUERIES.put(key, copy, weigh(copy), tags, stamp);
+        return loaded;
+    }
+
+    private static boolean shardCacheable(int shard) {
+        return RequestContext.minSeqFor(shard) == 0;
+    }
+
+    private static boolean allShardsCacheable() {
+        for (int shard = 0; shard < ShardRouter.shardCount(); shard++) {
+            if (!shardCacheable(shard)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the approximate heap footprint of a list of messages, in bytes
+     */
+    private static long weigh(List<Message> messages) {
+        long bytes = 16 + 4L * messages.size();
+        for (Message message : messages) {
+            String text = message.getMessage_text();
+            bytes += 80 + (text == null ? 0 : 40 + 2L * text.length());
+        }
+        return bytes;
+    }
+
+    private static Message copyOf(Message message) {
+        Message copy = new Message(message.getMessage_id(), message.getPosted_by(), message.getMessage_text(),
+                message.getTime_posted_epoch());
+        copy.setLike_count(message.getLike_count());
+        copy.setReply_count(message.getReply_count());
+        copy.setVersion(message.getVersion());
+        return copy;
+    }
+
+    /**
+     * Switches H2's lazy query execution, which produces rows as the result set is read instead of all at once.
+     */
+    private static void setLazy(Connection conn, boolean lazy) throws SQLException {
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("SET LAZY_QUERY_EXECUTION " + (lazy ? "TRUE" : "FALSE"));
+        }
+    }
+
+    private static Message mapMessage(ResultSet rs) throws SQLException {
+        Message message = new Message(
+            rs.getInt("message_id"),
+            rs.getInt("posted_by"),
+            rs.getString("message_text"),
+            rs.getLong("time_posted_epoch")
+        );
+        message.setLike_count(rs.getLong("like_count"));
+        message.setReply_count(rs.getLong("reply_count"));
+        message.setVersion(rs.getLong("version"));
+        return message;
+    }
+
+    /**
+     * K-way merges lists that are each already sorted by the given order.
+     * 
+     * @param sortedLists the sorted lists, eg one per shard
+     * @param order the order every list is sorted in
+     * @param limit the maximum number of messages to return
+     * @return the merged list
+     */
+    public static List<Message> mergeById(List<List<Message>> sortedLists, Comparator<Message> order, int limit) {
+        if (sortedLists.size() == 1) {
+            List<Message> only = sortedLists.get(0);
+            return only.size() <= limit ? only : new ArrayList<>(only.subList(0, limit));
+        }
+        int total = 0;
+        PriorityQueue<int[]> heads = new PriorityQueue<>(
+                (a, b) -> order.compare(sortedLists.get(a[0]).get(a[1]), sortedLists.get(b[0]).get(b[1])));
+        for (int i = 0; i < sortedLists.size(); i++) {
+            total += sortedLists.get(i).size();
+            if (!sortedLists.get(i).isEmpty()) {
+                heads.add(new int[] { i, 0 });
+            }
+        }
+        List<Message> merged = new ArrayList<>(Math.min(total, limit));
+        while (!heads.isEmpty() && merged.size() < limit) {
+            int[] head = heads.poll();
+            List<Message> list = sortedLists.get(head[0]);
+            merged.add(list.get(head[1]));
+            if (++head[1] < list.size()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
 }
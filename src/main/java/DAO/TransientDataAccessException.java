@@ -0,0 +1,15 @@
+package DAO;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown when a failure may succeed on retry, eg a lock timeout or no pooled connection being available in time.
+ */
+public class TransientDataAccessException extends DataAccessException {
+
+    private static final long serialVersionUID = 1L;
+
+    public TransientDataAccessException(String operation, SQLException cause) {
+        super(operation, cause);
+    }
+}
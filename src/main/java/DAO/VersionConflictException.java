@@ -0,0 +1,29 @@
+package DAO;
+
+import Model.Message;
+
+/**
+ * Thrown when a conditional update names a version that is no longer the row's current version, ie someone else
+ * changed it first. Unlike the other DAO exceptions nothing failed in the database, so it carries no SQLException.
+ */
+public class VersionConflictException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Message current;
+
+    /**
+     * @param current the message as it is now, with its current version
+     */
+    public VersionConflictException(Message current) {
+        super("Message " + current.getMessage_id() + " is at version " + current.getVersion());
+        this.current = current;
+    }
+
+    /**
+     * @return the message as it is now
+     */
+    public Message getCurrent() {
+        return current;
+    }
+}
@@ -1,14 +1,27 @@
 import Controller.SocialMediaController;
+import Util.AppConfig;
 import io.javalin.Javalin;
 
 /**
  * This class is provided with a main method to allow you to manually run and test your application. This class will not
  * affect your program in any way and you may write whatever code you like here.
+ *
+ * On startup the app is warmed up before /health/ready reports true, and a shutdown hook drains in-flight requests
+ * (up to shutdown.drain.timeout.ms) before the server and connection pool are closed.
  */
 public class Main {
     public static void main(String[] args) {
+        int port = AppConfig.getInt("server.port", 8080);
+        long drainTimeoutMs = AppConfig.getLong("shutdown.drain.timeout.ms", 10000);
+
         SocialMediaController controller = new SocialMediaController();
         Javalin app = controller.startAPI();
-        app.start(8080);
+        app.start(port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> controller.shutdown(app, drainTimeoutMs)));
+
+        controller.warmUp(port,
+                AppConfig.getInt("warmup.connections", 8),
+                AppConfig.getInt("warmup.recent.messages", 1000),
+                AppConfig.getInt("warmup.iterations", 200));
     }
 }
@@ -0,0 +1,149 @@
+package Model;
+
+/**
+ * One entry of the change feed: a create, update or delete of a message or account, numbered in the order it was
+ * committed on its shard. The fields after changed_at carry the row as it was written and are null where they do
+ * not apply; an account event never carries the password.
+ */
+public class ChangeEvent {
+    /**
+     * The position of this event on its shard, starting at 1 and going up by one per event.
+     */
+    public long seq;
+    /**
+     * The shard the change was committed on.
+     */
+    public int shard;
+    /**
+     * "message" or "account".
+     */
+    public String entity;
+    /**
+     * The message_id or account_id of the changed row.
+     */
+    public int entity_id;
+    /**
+     * "create", "update" or "delete".
+     */
+    public String operation;
+    /**
+     * When the change was committed, in epoch milliseconds.
+     */
+    public long changed_at;
+    public Integer posted_by;
+    public String message_text;
+    public Long time_posted_epoch;
+    public Long version;
+    public String username;
+
+    public ChangeEvent() {
+    }
+
+    public ChangeEvent(int shard, String entity, int entity_id, String operation, long changed_at) {
+        this.shard = shard;
+        this.entity = entity;
+        this.entity_id = entity_id;
+        this.operation = operation;
+        this.changed_at = changed_at;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(long seq) {
+        this.seq = seq;
+    }
+
+    public int getShard() {
+        return shard;
+    }
+
+    public void setShard(int shard) {
+        this.shard = shard;
+    }
+
+    public String getEntity() {
+        return entity;
+    }
+
+    public void setEntity(String entity) {
+        this.entity = entity;
+    }
+
+    public int getEntity_id() {
+        return entity_id;
+    }
+
+    public void setEntity_id(int entity_id) {
+        this.entity_id = entity_id;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public void setOperation(String operation) {
+        this.operation = operation;
+    }
+
+    public long getChanged_at() {
+        return changed_at;
+    }
+
+    public void setChanged_at(long changed_at) {
+        this.changed_at = changed_at;
+    }
+
+    public Integer getPosted_by() {
+        return posted_by;
+    }
+
+    public void setPosted_by(Integer posted_by) {
+        this.posted_by = posted_by;
+    }
+
+    public String getMessage_text() {
+        return message_text;
+    }
+
+    public void setMessage_text(String message_text) {
+        this.message_text = message_text;
+    }
+
+    public Long getTime_posted_epoch() {
+        return time_posted_epoch;
+    }
+
+    public void setTime_posted_epoch(Long time_posted_epoch) {
+        this.time_posted_epoch = time_posted_epoch;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeEvent{" +
+                "seq=" + seq +
+                ", shard=" + shard +
+                ", entity='" + entity + '\'' +
+                ", entity_id=" + entity_id +
+                ", operation='" + operation + '\'' +
+                ", changed_at=" + changed_at +
+                '}';
+    }
+}
@@ -24,6 +24,18 @@ public class Message {
      * to store this number. We will assume that this number is provided by the front-end of this application.
      */
     public long time_posted_epoch;
+    /**
+     * The number of likes this message has received, including likes not yet flushed to the database.
+     */
+    public long like_count;
+    /**
+     * The number of replies posted to this message, including replies not yet flushed to the database.
+     */
+    public long reply_count;
+    /**
+     * Starts at 1 and goes up by one on every edit of message_text. It is the message's ETag.
+     */
+    public long version;
     /**
      * A default, no-args constructor, as well as correctly formatted getters and setters, are needed for
      * Jackson Objectmapper to work.
@@ -112,6 +124,48 @@ public class Message {
     public void setTime_posted_epoch(long time_posted_epoch) {
         this.time_posted_epoch = time_posted_epoch;
     }
+    /**
+     * Properly named getters and setters are necessary for Jackson ObjectMapper to work. You may use them as well.
+     * @return like_count
+     */
+    public long getLike_count() {
+        return like_count;
+    }
+    /**
+     * Properly named getters and setters are necessary for Jackson ObjectMapper to work. You may use them as well.
+     * @param like_count
+     */
+    public void setLike_count(long like_count) {
+        this.like_count = like_count;
+    }
+    /**
+     * Properly named getters and setters are necessary for Jackson ObjectMapper to work. You may use them as well.
+     * @return reply_count
+     */
+    public long getReply_count() {
+        return reply_count;
+    }
+    /**
+     * Properly named getters and setters are necessary for Jackson ObjectMapper to work. You may use them as well.
+     * @param reply_count
+     */
+    public void setReply_count(long reply_count) {
+        this.reply_count = reply_count;
+    }
+    /**
+     * Properly named getters and setters are necessary for Jackson ObjectMapper to work. You may use them as well.
+     * @return version
+     */
+    public long getVersion() {
+        return version;
+    }
+    /**
+     * Properly named getters and setters are necessary for Jackson ObjectMapper to work. You may use them as well.
+     * @param version
+     */
+    public void setVersion(long version) {
+        this.version = version;
+    }
     /**
      * Overriding the default equals() method adds functionality to tell when two objects are identical, allowing
      * Assert.assertEquals and List.contains to function.
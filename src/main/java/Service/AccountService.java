@@ -2,9 +2,31 @@ package Service;
 
 import DAO.AccountDAO;
 import Model.Account;
+import Util.AppConfig;
+import Util.EntityCache;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * Account use cases. Lookups go through caches by username and by id; only accounts that exist are cached. No API
+ * route changes an account once created, but a bulk import can overwrite any of them, so it calls invalidateAll().
+ * Entries also expire after cache.ttl.ms, which bounds how stale one read from a lagging follower can be.
+ */
 public class AccountService {
 
+    private final EntityCache<String, Account> byUsername;
+    private final EntityCache<Integer, Account> byId;
+
+    public AccountService() {
+        int maxEntries = AppConfig.getInt("cache.accounts.max", 100000);
+        long ttlMs = AppConfig.getLong("cache.ttl.ms", 10000);
+        this.byUsername = new EntityCache<>(maxEntries, ttlMs);
+        this.byId = new EntityCache<>(maxEntries, ttlMs);
+    }
+
     /**
      * Authenticates a user by verifying the provided account credentials.
      * 
@@ -15,6 +37,16 @@ public class AccountService {
         return AccountDAO.loginAccount(account);
     }
 
+    /**
+     * Authenticates a user without blocking the calling thread on the database.
+     * 
+     * @param account the account object containing username and password
+     * @return a future of the authenticated account, or of null if the credentials are not valid
+     */
+    public CompletableFuture<Account> loginAsync(Account account) {
+        return DbExecutor.supply(() -> login(account));
+    }
+
     /**
      * Retrieves an account by its username.
      * 
@@ -22,7 +54,99 @@ public class AccountService {
      * @return the account object if found, otherwise null
      */
     public Account getAccountByUsername(String username) {
-        return AccountDAO.getAccountByUsername(username);
+        Account account = byUsername.get(username);
+        if (account == null) {
+            account = AccountDAO.getAccountByUsername(username);
+            if (account != null) {
+                cache(account);
+            }
+        }
+        return account;
+    }
+
+    /**
+     * Retrieves an account by its username, from the cache on the calling thread or else on the database executor.
+     * 
+     * @param username the username to search for
+     * @return a future of the account, or of null if not found
+     */
+    public CompletableFuture<Account> getAccountByUsernameAsync(String username) {
+        Account cached = byUsername.get(username);
+        return cached != null ? CompletableFuture.completedFuture(cached)
+                : DbExecutor.supply(() -> getAccountByUsername(username));
+    }
+
+    /**
+     * Retrieves several accounts by username: cached accounts first, then one query per shard for the rest.
+     * 
+     * @param usernames the usernames to search for, in the order wanted
+     * @return one entry per requested username, in request order, null where the account does not exist
+     */
+    public List<Account> getAccountsByUsernames(List<String> usernames) {
+        Map<String, Account> resolved = new HashMap<>();
+        List<String> misses = new ArrayList<>();
+        for (String username : usernames) {
+            Account account = byUsername.get(username);
+            if (account == null) {
+                misses.add(username);
+            } else {
+                resolved.put(username, account);
+            }
+        }
+        if (!misses.isEmpty()) {
+            for (Account account : AccountDAO.getAccountsByUsernames(misses).values()) {
+                cache(account);
+                resolved.put(account.getUsername(), account);
+            }
+        }
+        List<Account> accounts = new ArrayList<>(usernames.size());
+        for (String username : usernames) {
+            accounts.add(resolved.get(username));
+        }
+        return accounts;
+    }
+
+    /**
+     * Retrieves several accounts by ID: cached accounts first, then one query per shard for the rest.
+     * 
+     * @param accountIds the IDs to search for, in the order wanted
+     * @return one entry per requested ID, in request order, null where the account does not exist
+     */
+    public List<Account> getAccountsByIds(List<Integer> accountIds) {
+        Map<Integer, Account> resolved = new HashMap<>();
+        List<Integer> misses = new ArrayList<>();
+        for (int accountId : accountIds) {
+            Account account = byId.get(accountId);
+            if (account == null) {
+                misses.add(accountId);
+            } else {
+                resolved.put(accountId, account);
+            }
+        }
+        if (!misses.isEmpty()) {
+            for (Account account : AccountDAO.getAccountsByIds(misses).values()) {
+                cache(account);
+                resolved.put(account.getAccount_id(), account);
+            }
+        }
+        List<Account> accounts = new ArrayList<>(accountIds.size());
+        for (int accountId : accountIds) {
+            accounts.add(resolved.get(accountId));
+        }
+        return accounts;
+    }
+
+    /**
+     * Drops every cached account, for after a bulk import has overwritten accounts.
+     */
+    public void invalidateAll() {
+        byUsername.invalidateAll();
+        byId.invalidateAll();
+    }
+
+    private void cache(Account account) {
+        byUsername.put(account.getUsername(), account, byUsername.stamp(account.getUsername()));
+        byId.put(account.getAccount_id(), account, byId.stamp(account.getAccount_id()));
     }
 
     /**
@@ -45,4 +169,14 @@ public class AccountService {
         }
         return AccountDAO.createAccount(account);
     }
+
+    /**
+     * Registers a new account without blocking the calling thread on the database.
+     * 
+     * @param account the account object containing username and password
+     * @return a future of the new account, failed with IllegalArgumentException as registerUser() would throw
+     */
+    public CompletableFuture<Account> registerUserAsync(Account account) {
+        return DbExecutor.supply(() -> registerUser(account));
+    }
 }
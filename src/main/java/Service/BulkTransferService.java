@@ -0,0 +1,94 @@
+package Service;
+
+import DAO.BulkTransferDAO;
+import Util.MessageTextPolicy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class BulkTransferService {
+
+    private final AccountService accounts;
+    private final MessageService messages;
+    private final MessageTextPolicy textPolicy;
+
+    /**
+     * @param accounts the service whose account caches an import invalidates
+     * @param messages the service whose message cache an import invalidates
+     */
+    public BulkTransferService(AccountService accounts, MessageService messages) {
+        this(accounts, messages, MessageTextPolicy.fromConfig());
+    }
+
+    /**
+     * @param accounts the service whose account caches an import invalidates
+     * @param messages the service whose message cache an import invalidates
+     * @param textPolicy the rules imported message text must pass; messages that fail are skipped
+     */
+    public BulkTransferService(AccountService accounts, MessageService messages, MessageTextPolicy textPolicy) {
+        this.accounts = accounts;
+        this.messages = messages;
+        this.textPolicy = textPolicy;
+    }
+
+    /**
+     * Streams every account and message to the output in the bulk export format.
+     * 
+     * @param out where the export is written
+     * @return row counts and throughput for the export
+     * @throws IOException if writing to the stream fails
+     */
+    public Map<String, Object> exportAll(OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        BulkTransferDAO.Result result = BulkTransferDAO.exportAll(out);
+        return summarize(result, System.nanoTime() - start);
+    }
+
+    /**
+     * Imports an export produced by exportAll, upserting rows by primary key. Message text goes through the same
+     * policy as new messages, and messages that fail it are counted as rejected instead of imported; the hashtags
+     * and mentions of those imported are indexed like a new message's. The account and message caches are dropped
+     * afterwards, even if the import failed part way, since committed batches may have overwritten cached rows.
+     * 
+     * @param in the export to read
+     * @param batchSize the number of rows per JDBC batch
+     * @return row counts and throughput for the import
+     * @throws IOException if the stream is not a valid export
+     */
+    public Map<String, Object> importAll(InputStream in, int batchSize) throws IOException {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        long start = System.nanoTime();
+        BulkTransferDAO.Result result;
+        try {
+            result = BulkTransferDAO.importAll(in, batchSize, textPolicy::apply, BulkTransferService::indexOf);
+        } finally {
+            accounts.invalidateAll();
+            messages.invalidateAll();
+        }
+        return summarize(result, System.nanoTime() - start);
+    }
+
+    /**
+     * Finds the hashtags and mentions of an imported text the way MessageService does for a new message.
+     */
+    private static BulkTransferDAO.MessageIndex indexOf(String text) {
+        MessageService.Entities entities = MessageService.Entities.scan(text);
+        return new BulkTransferDAO.MessageIndex(entities.tags, MessageService.mentionedAccounts(entities.usernames));
+    }
+
+    private Map<String, Object> summarize(BulkTransferDAO.Result result, long elapsedNanos) {
+        long rows = result.accounts + result.messages;
+        double minutes = elapsedNanos / 60_000_000_000.0;
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("accounts", result.accounts);
+        summary.put("messages", result.messages);
+        summary.put("messages_rejected", result.rejectedMessages);
+        summary.put("elapsed_ms", elapsedNanos / 1_000_000);
+        summary.put("rows_per_minute", minutes == 0 ? 0 : (long) (rows / minutes));
+        return summary;
+    }
+}
@@ -0,0 +1,89 @@
+package Service;
+
+import DAO.ChangeEventDAO;
+import DAO.CursorExpiredException;
+import Model.ChangeEvent;
+import Util.ShardRouter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The change feed for downstream consumers: every create, update and delete of messages and accounts, in commit
+ * order per shard, read from the outbox the DAOs append to (see {@link ChangeEventDAO}).
+ *
+ * A consumer pages through the feed with a cursor, the last sequence number it has read on each shard, comma
+ * separated; with one shard that is just a number. Each page returns the cursor for the next. A consumer that is
+ * caught up can wait for the next change instead of polling; the wait holds no thread.
+ *
+ * Old events are purged after a while. A cursor left behind by the purge no longer describes a position in the feed,
+ * so polling with it fails with {@link CursorExpiredException} rather than silently skipping what was purged.
+ */
+public class ChangeFeedService {
+
+    /**
+     * Retrieves the changes after a cursor, waiting for one if there are none yet.
+     *
+     * @param cursor the "next" value of the previous page, or null or empty to start from the beginning
+     * @param limit the maximum number of events to return
+     * @param waitMs how long to wait for a change when there are none after the cursor, 0 to answer at once
+     * @return a future of the page: "events", oldest first, and "next", the cursor to continue from; failed with
+     *         IllegalArgumentException if the cursor is malformed, or CursorExpiredException if events after it have
+     *         been purged
+     */
+    public CompletableFuture<Map<String, Object>> poll(String cursor, int limit, long waitMs) {
+        long[] since;
+        try {
+            since = parseCursor(cursor);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        // taken before reading, so a change committed after the read still wakes the wait
+        CompletableFuture<Void> nextAppend = ChangeEventDAO.nextAppend();
+        return DbExecutor.supply(() -> ChangeEventDAO.getChangesSince(since, limit)).thenCompose(events -> {
+            if (!events.isEmpty() || waitMs <= 0) {
+                return CompletableFuture.completedFuture(page(events, since));
+            }
+            return nextAppend.thenApply(appended -> true)
+                    .completeOnTimeout(false, waitMs, TimeUnit.MILLISECONDS)
+                    .thenCompose(appended -> appended
+                            ? DbExecutor.supply(() -> page(ChangeEventDAO.getChangesSince(since, limit), since))
+                            : CompletableFuture.completedFuture(page(events, since)));
+        });
+    }
+
+    private static Map<String, Object> page(List<ChangeEvent> events, long[] since) {
+        long[] next = since.clone();
+        for (ChangeEvent event : events) {
+            next[event.getShard()] = Math.max(next[event.getShard()], event.getSeq());
+        }
+        StringBuilder cursor = new StringBuilder();
+        for (int i = 0; i < next.length; i++) {
+            cursor.append(i > 0 ? "," : "").append(next[i]);
+        }
+        Map<String, Object> page = new LinkedHashMap<>();
+        page.put("events", events);
+        page.put("next", cursor.toString());
+        return page;
+    }
+
+    private static long[] parseCursor(String cursor) {
+        long[] since = new long[ShardRouter.shardCount()];
+        if (cursor == null || cursor.isEmpty()) {
+            return since;
+        }
+        String[] parts = cursor.split(",");
+        if (parts.length > since.length) {
+            throw new IllegalArgumentException("Cursor has more positions than there are shards");
+        }
+        for (int i = 0; i < parts.length; i++) {
+            since[i] = Long.parseLong(parts[i].trim());
+            if (since[i] < 0) {
+                throw new IllegalArgumentException("Cursor positions cannot be negative");
+            }
+        }
+        return since;
+    }
+}
@@ -0,0 +1,273 @@
+package Service;
+
+import DAO.DataAccessException;
+import DAO.MessageCounterDAO;
+import DAO.MessageDAO;
+import Model.Message;
+import Util.AppConfig;
+import Util.ShardRouter;
+import Util.StructuredLogger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+
+/**
+ * Like and reply counters. Increments land in a per-message cell of {@link LongAdder}s, which stripe contended
+ * updates across CPU-local slots, so a hot post takes thousands of likes a second without a lock or a row update
+ * each. Every counters.flush.interval.ms the accumulated deltas are added to message_counter in one batch per
+ * shard.
+ *
+ * Reads take the persisted counts from the database and add the delta still held in memory, including a delta that
+ * is being flushed. A shard's flush holds that shard's flush lock for writing from its commit until the delta it
+ * committed is released, and reads add the in-memory delta under the lock for reading, so no read sees the new
+ * persisted counts with the flushed delta still added on top. A cell that stays idle for two flushes is dropped, so memory tracks recently active messages
+ * only.
+ */
+public class CounterService {
+
+    private static final int IDLE_FLUSHES_BEFORE_RETIRING = 2;
+
+    /**
+     * Unflushed counts of one message.
+     */
+    private static class Cell {
+        final LongAdder likes = new LongAdder();
+        final LongAdder replies = new LongAdder();
+        // taken out of the adders but not yet committed; guarded by the cell's monitor
+        long flushingLikes;
+        long flushingReplies;
+        // only touched by the flushing thread
+        int idleFlushes;
+    }
+
+    private final Map<Integer, Cell> cells = new ConcurrentHashMap<>();
+    private final Map<Integer, Cell> retiring = new HashMap<>();
+    private final Map<Integer, ReadWriteLock> flushLocks = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private final List<IntConsumer> flushListeners = new CopyOnWriteArrayList<>();
+
+    public CounterService() {
+        this(AppConfig.getLong("counters.flush.interval.ms", 1000));
+    }
+
+    /**
+     * @param flushIntervalMs the time between flushes to the database
+     */
+    public CounterService(long flushIntervalMs) {
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "counter-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Registers a callback run with each message id whose counts were just committed, before the in-memory delta
+     * of that flush is released, under the shard's flush lock. Caches holding persisted counts use it to invalidate;
+     * it must not read counts itself.
+     * 
+     * @param listener receives the message id
+     */
+    public void onFlushed(IntConsumer listener) {
+        flushListeners.add(listener);
+    }
+
+    /**
+     * Counts a like.
+     * 
+     * @param messageId the message being liked
+     * @return false if the message does not exist
+     */
+    public boolean like(int messageId) {
+        Cell cell = cells.get(messageId);
+        if (cell == null) {
+            if (MessageDAO.getMessageById(messageId) == null) {
+                return false;
+            }
+            cell = cells.computeIfAbsent(messageId, id -> new Cell());
+        }
+        cell.likes.increment();
+        return true;
+    }
+
+    /**
+     * Counts a reply. The caller has already checked that the message exists.
+     * 
+     * @param messageId the message being replied to
+     */
+    public void reply(int messageId) {
+        cells.computeIfAbsent(messageId, id -> new Cell()).replies.increment();
+    }
+
+    /**
+     * Drops the unflushed counts of a deleted message.
+     * 
+     * @param messageId the deleted message
+     */
+    public void forget(int messageId) {
+        cells.remove(messageId);
+    }
+
+    /**
+     * Adds the unflushed counts to a message read from the database.
+     * 
+     * @param message a message with its persisted counts, or null
+     * @return the same message
+     */
+    public Message withCounts(Message message) {
+        if (message != null) {
+            Cell cell = cells.get(message.getMessage_id());
+            if (cell != null) {
+                Lock flushLock = flushLock(ShardRouter.shardFor(message.getMessage_id())).readLock();
+                flushLock.lock();
+                try {
+                    synchronized (cell) {
+                        message.setLike_count(message.getLike_count() + cell.likes.sum() + cell.flushingLikes);
+                        message.setReply_count(message.getReply_count() + cell.replies.sum() + cell.flushingReplies);
+                    }
+                } finally {
+                    flushLock.unlock();
+                }
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Adds the unflushed counts to each message of a list.
+     * 
+     * @param messages messages with their persisted counts
+     * @return the same list
+     */
+    public List<Message> withCounts(List<Message> messages) {
+        if (!cells.isEmpty()) {
+            for (Message message : messages) {
+                withCounts(message);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Writes every unflushed delta to the database. A shard whose write fails is logged and keeps its deltas in
+     * memory for the next flush.
+     */
+    public synchronized void flush() {
+        List<Map<Integer, long[]>> perShard = new ArrayList<>();
+        List<Map<Integer, Cell>> taken = new ArrayList<>();
+        for (int shard = 0; shard < ShardRouter.shardCount(); shard++) {
+            perShard.add(new HashMap<>());
+            taken.add(new HashMap<>());
+        }
+        // increments that raced with retirement last time
+        for (Map.Entry<Integer, Cell> entry : retiring.entrySet()) {
+            long likes = entry.getValue().likes.sum();
+            long replies = entry.getValue().replies.sum();
+            if (likes != 0 || replies != 0) {
+                perShard.get(ShardRouter.shardFor(entry.getKey())).put(entry.getKey(), new long[] { likes, replies });
+            }
+        }
+        retiring.clear();
+        for (Map.Entry<Integer, Cell> entry : cells.entrySet()) {
+            Cell cell = entry.getValue();
+            long likes;
+            long replies;
+            synchronized (cell) {
+                likes = cell.likes.sum();
+                replies = cell.replies.sum();
+                cell.likes.add(-likes);
+                cell.replies.add(-replies);
+                cell.flushingLikes += likes;
+                cell.flushingReplies += replies;
+            }
+            if (likes == 0 && replies == 0) {
+                if (++cell.idleFlushes >= IDLE_FLUSHES_BEFORE_RETIRING && cells.remove(entry.getKey(), cell)) {
+                    retiring.put(entry.getKey(), cell);
+                }
+                continue;
+            }
+            cell.idleFlushes = 0;
+            int shard = ShardRouter.shardFor(entry.getKey());
+            long[] delta = perShard.get(shard).computeIfAbsent(entry.getKey(), id -> new long[2]);
+            delta[0] += likes;
+            delta[1] += replies;
+            taken.get(shard).put(entry.getKey(), cell);
+        }
+        for (int shard = 0; shard < perShard.size(); shard++) {
+            if (!perShard.get(shard).isEmpty()) {
+                flushShard(shard, perShard.get(shard), taken.get(shard));
+            }
+        }
+    }
+
+    /**
+     * Stops the periodic flush and writes out what is left.
+     */
+    public void shutdown() {
+        if (!flusher.isShutdown()) {
+            flusher.shutdown();
+            flush();
+        }
+    }
+
+    private ReadWriteLock flushLock(int shard) {
+        return flushLocks.computeIfAbsent(shard, s -> new ReentrantReadWriteLock());
+    }
+
+    private void flushShard(int shard, Map<Integer, long[]> deltas, Map<Integer, Cell> taken) {
+        Lock flushLock = flushLock(shard).writeLock();
+        flushLock.lock();
+        try {
+            commitShard(shard, deltas, taken);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void commitShard(int shard, Map<Integer, long[]> deltas, Map<Integer, Cell> taken) {
+        boolean committed = false;
+        try {
+            MessageCounterDAO.addCounts(shard, deltas);
+            committed = true;
+        } catch (DataAccessException e) {
+            StructuredLogger.event("error")
+                    .field("operation", "CounterService.flush")
+                    .field("shard", shard)
+                    .error(e)
+                    .log();
+        }
+        for (Map.Entry<Integer, long[]> delta : deltas.entrySet()) {
+            if (committed) {
+                for (IntConsumer listener : flushListeners) {
+                    listener.accept(delta.getKey());
+                }
+            }
+            Cell cell = taken.get(delta.getKey());
+            if (cell == null && !committed) {
+                cell = cells.computeIfAbsent(delta.getKey(), id -> new Cell());
+            }
+            if (cell != null) {
+                synchronized (cell) {
+                    if (!committed) {
+                        cell.likes.add(delta.getValue()[0]);
+                        cell.replies.add(delta.getValue()[1]);
+                    }
+                    cell.flushingLikes = 0;
+                    cell.flushingReplies = 0;
+                }
+            }
+        }
+    }
+}
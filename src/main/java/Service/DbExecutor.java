@@ -0,0 +1,71 @@
+package Service;
+
+import DAO.TransientDataAccessException;
+import Util.AppConfig;
+import Util.RequestContext;
+import java.sql.SQLTransientException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * The thread pool the services' async methods run blocking database work on, so request threads are not held while
+ * H2 works. It has one thread per pooled connection (db.pool.size times db.shards, or db.executor.threads), since
+ * more threads would only queue inside the connection pool, and a bounded queue (db.executor.queue). When the queue
+ * is full a task fails at once with a TransientDataAccessException, which handlers answer with 503 and Retry-After,
+ * rather than waiting without bound.
+ *
+ * Tasks run with the submitting request's read-your-writes tracking. The threads are daemons, so the pool never
+ * holds the JVM open.
+ */
+public class DbExecutor {
+
+    private static final ThreadPoolExecutor EXECUTOR = create();
+
+    /**
+     * Runs blocking work on the pool.
+     *
+     * @param task the work, typically one or more DAO calls
+     * @return a future completed with the task's result or exception, on a pool thread
+     */
+    public static <T> CompletableFuture<T> supply(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(RequestContext.propagate(task), EXECUTOR);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new TransientDataAccessException("DbExecutor.supply",
+                    new SQLTransientException("Database executor queue is full")));
+        }
+    }
+
+    /**
+     * @return the number of tasks waiting for a thread
+     */
+    public static int queued() {
+        return EXECUTOR.getQueue().size();
+    }
+
+    /**
+     * @return the number of tasks running
+     */
+    public static int active() {
+        return EXECUTOR.getActiveCount();
+    }
+
+    private static ThreadPoolExecutor create() {
+        int threads = AppConfig.getInt("db.executor.threads",
+                AppConfig.getInt("db.pool.size", 16) * AppConfig.getInt("db.shards", 1));
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(AppConfig.getInt("db.executor.queue", 1024)), runnable -> {
+                    Thread thread = new Thread(runnable, "db-executor-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
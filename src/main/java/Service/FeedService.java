@@ -0,0 +1,278 @@
+package Service;
+
+import DAO.AccountDAO;
+import DAO.FollowDAO;
+import DAO.MessageDAO;
+import Model.Message;
+import Util.AppConfig;
+import Util.EntityCache;
+import Util.FollowGraph;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Follows and home timelines. The follow graph is loaded from the follow table into a {@link FollowGraph} when the
+ * service is created and kept in step with every follow and unfollow.
+ *
+ * Timelines are hybrid. A post by an account with at most feed.fanout.max.followers followers is pushed into the
+ * inbox of each follower (fan-out on write). Posts by accounts with more followers than that are pulled when the
+ * feed is read (fan-out on read), so one popular post does not turn into millions of inbox writes. A feed read
+ * merges the inbox with the pulled timelines on a heap, newest message first.
+ *
+ * An inbox is built from the database the first time its owner reads the feed, holds the newest feed.inbox.size
+ * message ids, and is dropped when its owner follows or unfollows someone. At most feed.inboxes.max inboxes are
+ * kept, the least recently read going first, and each is rebuilt after feed.inbox.ttl.ms, so readers who stop
+ * coming back do not hold memory for good. Inboxes hold ids only, so edits and deletes show up without touching
+ * them; the messages are read through {@link MessageService#getMessagesByIds}, from its cache where it can.
+ */
+public class FeedService {
+
+    private static final Comparator<Message> NEWEST_FIRST = Comparator.comparingInt(Message::getMessage_id).reversed();
+
+    private final FollowGraph graph = new FollowGraph();
+    private final EntityCache<Integer, Inbox> inboxes;
+    private final CounterService counters;
+    private final MessageService messages;
+    private final int fanOutMaxFollowers;
+    private final int inboxSize;
+
+    /**
+     * @param counters the like and reply counters added to every message returned
+     * @param messages the service inbox messages are read through
+     */
+    public FeedService(CounterService counters, MessageService messages) {
+        this(counters, messages, AppConfig.getInt("feed.fanout.max.followers", 1000),
+                AppConfig.getInt("feed.inbox.size", 200), AppConfig.getInt("feed.inboxes.max", 100000),
+                AppConfig.getLong("feed.inbox.ttl.ms", 10 * 60 * 1000L));
+    }
+
+    /**
+     * @param counters the like and reply counters added to every message returned
+     * @param messages the service inbox messages are read through
+     * @param fanOutMaxFollowers the largest follower count whose posts are pushed into inboxes
+     * @param inboxSize the number of message ids kept per inbox
+     * @param maxInboxes the largest number of inboxes kept
+     * @param inboxTtlMs how long an inbox is used before it is rebuilt
+     */
+    public FeedService(CounterService counters, MessageService messages, int fanOutMaxFollowers, int inboxSize,
+            int maxInboxes, long inboxTtlMs) {
+        this.counters = counters;
+        this.messages = messages;
+        this.fanOutMaxFollowers = fanOutMaxFollowers;
+        this.inboxSize = inboxSize;
+        this.inboxes = new EntityCache<>(maxInboxes, inboxTtlMs);
+        FollowDAO.forEachFollow(graph::add);
+    }
+
+    /**
+     * Makes one account follow another.
+     * 
+     * @param followerId the account that follows
+     * @param followeeId the account to follow
+     * @return false if it already followed that account
+     * @throws IllegalArgumentException if the ids are equal or either account does not exist
+     */
+    public boolean follow(int followerId, int followeeId) {
+        requireDistinctAccounts(followerId, followeeId);
+        boolean added = FollowDAO.follow(followerId, followeeId);
+        if (added) {
+            graph.add(followerId, followeeId);
+            inboxes.invalidate(followerId);
+        }
+        return added;
+    }
+
+    /**
+     * Makes one account stop following another.
+     * 
+     * @param followerId the account that follows
+     * @param followeeId the account to unfollow
+     * @return false if it was not following that account
+     */
+    public boolean unfollow(int followerId, int followeeId) {
+        boolean removed = FollowDAO.unfollow(followerId, followeeId);
+        if (removed) {
+            graph.remove(followerId, followeeId);
+            inboxes.invalidate(followerId);
+        }
+        return removed;
+    }
+
+    /**
+     * @param userId an account id
+     * @return the ids of the accounts it follows, in ascending order
+     */
+    public int[] getFollowing(int userId) {
+        return graph.following(userId);
+    }
+
+    /**
+     * @param userId an account id
+     * @return the ids of the accounts following it
+     */
+    public int[] getFollowers(int userId) {
+        int[] followers = graph.followers(userId);
+        Arrays.sort(followers);
+        return followers;
+    }
+
+    /**
+     * Pushes a new message into the materialized inboxes of its author's followers, unless the author has too
+     * many followers, in which case readers pull it instead.
+     * 
+     * @param message a message that has just been created
+     */
+    public void onMessagePosted(Message message) {
+        if (isPulled(message.getPosted_by())) {
+            return;
+        }
+        for (int follower : graph.followers(message.getPosted_by())) {
+            Inbox inbox = inboxes.get(follower);
+            if (inbox != null) {
+                inbox.add(message.getMessage_id());
+            }
+        }
+    }
+
+    /**
+     * Builds the home timeline of an account: the newest messages from the accounts it follows.
+     * 
+     * @param userId the account reading its feed
+     * @param limit the maximum number of messages to return
+     * @return at most limit messages, newest first
+     */
+    public List<Message> getFeed(int userId, int limit) {
+        int[] followees = graph.following(userId);
+        List<List<Message>> timelines = new ArrayList<>();
+        // already carrying their counts, from MessageService
+        timelines.add(inboxFor(userId, followees).resolve(messages, limit));
+        for (int followee : followees) {
+            if (isPulled(followee)) {
+                timelines.add(counters.withCounts(MessageDAO.getRecentMessagesByUserId(followee, limit)));
+            }
+        }
+        List<Message> merged = MessageDAO.mergeById(timelines, NEWEST_FIRST, Integer.MAX_VALUE);
+        List<Message> feed = new ArrayList<>(Math.min(limit, merged.size()));
+        for (Message message : merged) {
+            if (feed.size() == limit) {
+                break;
+            }
+            // an author who just crossed the fan-out threshold can be in the inbox and pulled as well
+            if (feed.isEmpty() || feed.get(feed.size() - 1).getMessage_id() != message.getMessage_id()) {
+                feed.add(message);
+            }
+        }
+        return feed;
+    }
+
+    private boolean isPulled(int authorId) {
+        return graph.followerCount(authorId) > fanOutMaxFollowers;
+    }
+
+    private Inbox inboxFor(int userId, int[] followees) {
+        Inbox inbox = inboxes.get(userId);
+        if (inbox != null) {
+            return inbox;
+        }
+        Inbox created = new Inbox(inboxSize);
+        // registered before loading, so messages posted while it loads are pushed into it too; a follow or
+        // unfollow while it loads drops it again
+        inboxes.put(userId, created, inboxes.stamp(userId));
+        try {
+            for (int followee : followees) {
+                if (!isPulled(followee)) {
+                    for (Message message : MessageDAO.getRecentMessagesByUserId(followee, inboxSize)) {
+                        created.add(message.getMessage_id());
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            inboxes.invalidate(userId);
+            throw e;
+        }
+        return created;
+    }
+
+    private void requireDistinctAccounts(int followerId, int followeeId) {
+        if (followerId == followeeId) {
+            throw new IllegalArgumentException("Accounts cannot follow themselves");
+        }
+        if (AccountDAO.getAccountById(followerId) == null || AccountDAO.getAccountById(followeeId) == null) {
+            throw new IllegalArgumentException("User not in DB");
+        }
+    }
+
+    /**
+     * The newest message ids pushed to one reader, kept sorted newest first and capped at a fixed size. It is shared
+     * by every reader of the cache entry, so it synchronizes its own changes.
+     */
+    private static class Inbox {
+        private final int[] ids;
+        private int size;
+
+        Inbox(int capacity) {
+            this.ids = new int[capacity];
+        }
+
+        synchronized void add(int messageId) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (ids[mid] > messageId) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            if (low == ids.length || (low < size && ids[low] == messageId)) {
+                return;
+            }
+            int moved = Math.min(size, ids.length - 1) - low;
+            System.arraycopy(ids, low, ids, low + 1, moved);
+            ids[low] = messageId;
+            size = Math.min(size + 1, ids.length);
+        }
+
+        synchronized void remove(int messageId) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == messageId) {
+                    System.arraycopy(ids, i + 1, ids, i, --size - i);
+                    return;
+                }
+            }
+        }
+
+        synchronized int[] snapshot() {
+            return Arrays.copyOf(ids, size);
+        }
+
+        /**
+         * Loads the newest limit messages still present, dropping ids whose message has been deleted. The ids are
+         * read limit at a time with one multi-get each, so deletes only cost another round.
+         */
+        List<Message> resolve(MessageService service, int limit) {
+            int[] ids = snapshot();
+            List<Message> messages = new ArrayList<>(Math.min(limit, ids.length));
+            for (int from = 0; from < ids.length && messages.size() < limit; ) {
+                int to = Math.min(ids.length, from + limit - messages.size());
+                List<Integer> wanted = new ArrayList<>(to - from);
+                for (int i = from; i < to; i++) {
+                    wanted.add(ids[i]);
+                }
+                List<Message> found = service.getMessagesByIds(wanted);
+                for (int i = 0; i < found.size(); i++) {
+                    if (found.get(i) == null) {
+                        remove(wanted.get(i));
+                    } else {
+                        messages.add(found.get(i));
+                    }
+                }
+                from = to;
+            }
+            return messages;
+        }
+    }
+}
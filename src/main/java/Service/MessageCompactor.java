@@ -0,0 +1,112 @@
+package Service;
+
+import DAO.ChangeEventDAO;
+import DAO.DataAccessException;
+import DAO.MessageDAO;
+import Util.AppConfig;
+import Util.ShardRouter;
+import Util.StructuredLogger;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Purges message tombstones in the background. Every compaction.interval.ms it removes tombstones older than
+ * compaction.grace.ms from each shard, compaction.batch.size rows per transaction, so purging and the index upkeep
+ * that comes with it never run on a request thread. The same runs prune the change feed's outbox of events older
+ * than changes.retention.ms.
+ */
+public class MessageCompactor {
+
+    private final long graceMs;
+    private final int batchSize;
+    private final long changeRetentionMs = AppConfig.getLong("changes.retention.ms", 7 * 24 * 60 * 60 * 1000L);
+    private final ScheduledExecutorService scheduler;
+
+    public MessageCompactor() {
+        this(AppConfig.getLong("compaction.interval.ms", 60000), AppConfig.getLong("compaction.grace.ms", 300000),
+                AppConfig.getInt("compaction.batch.size", 500));
+    }
+
+    /**
+     * @param intervalMs the time between compaction runs, or 0 to only compact when compact() is called
+     * @param graceMs how long a tombstone is kept before it may be purged
+     * @param batchSize the number of messages purged per transaction
+     */
+    public MessageCompactor(long intervalMs, long graceMs, int batchSize) {
+        this.graceMs = graceMs;
+        this.batchSize = batchSize;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (intervalMs > 0) {
+            scheduler.scheduleWithFixedDelay(this::compactQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Purges every tombstone past the grace period, one batch at a time.
+     * 
+     * @return the number of messages purged
+     */
+    public synchronized int compact() {
+        long cutoff = System.currentTimeMillis() - graceMs;
+        int purged = 0;
+        for (int shard = 0; shard < ShardRouter.shardCount(); shard++) {
+            List<Integer> batch;
+            do {
+                batch = MessageDAO.purgeDeleted(shard, cutoff, batchSize);
+                purged += batch.size();
+            } while (batch.size() == batchSize);
+        }
+        return purged;
+    }
+
+    /**
+     * Prunes every change event past the retention period, one batch at a time.
+     *
+     * @return the number of events pruned
+     */
+    public synchronized int pruneChanges() {
+        long cutoff = System.currentTimeMillis() - changeRetentionMs;
+        int pruned = 0;
+        for (int shard = 0; shard < ShardRouter.shardCount(); shard++) {
+            int batch;
+            do {
+                batch = ChangeEventDAO.purgeBefore(shard, cutoff, batchSize);
+                pruned += batch;
+            } while (batch == batchSize);
+        }
+        return pruned;
+    }
+
+    /**
+     * Stops the scheduled runs. A run already in progress finishes its current batch.
+     */
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    private void compactQuietly() {
+        try {
+            long start = System.nanoTime();
+            int purged = compact();
+            int pruned = pruneChanges();
+            if (purged > 0 || pruned > 0) {
+                StructuredLogger.event("compaction")
+                        .field("purged", purged)
+                        .field("changes_pruned", pruned)
+                        .field("elapsed_ms", (System.nanoTime() - start) / 1_000_000.0)
+                        .log();
+            }
+        } catch (DataAccessException e) {
+            StructuredLogger.event("error")
+                    .field("operation", "MessageCompactor.compact")
+                    .error(e)
+                    .log();
+        }
+    }
+}
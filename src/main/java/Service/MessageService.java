@@ -4,17 +4,179 @@ import DAO.AccountDAO;
 import DAO.MessageDAO;
 import Model.Account;
 import Model.Message;
+import Util.AppConfig;
+import Util.HotKeySketch;
+import Util.MessageStore;
+import Util.MessageTextPolicy;
+import Util.RequestContext;
+import Util.ShardRouter;
+import Util.SingleFlight;
+import Util.TrendingTerms;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+/**
+ * Message use cases. Lookups by id go through a read-through, columnar cache of messages with their persisted counts
+ * (see {@link MessageStore}); the unflushed part of the counts is added on the way out. Cache entries are invalidated
+ * by updates, deletes and counter flushes, and a request that must read its own earlier writes goes to the database
+ * instead.
+ *
+ * Cache misses for the same message are coalesced, so a burst of reads of a message that has just expired costs one
+ * query rather than one per request. Lookups by id are also counted in a {@link HotKeySketch}; messages it finds hot
+ * are pinned in the cache and reported by hotMessages().
+ *
+ * Hashtags and @mentions are extracted from the text on every create and edit and indexed with the message (see
+ * {@link MessageDAO}), backing the tag and mention pages; the hashtags of new messages also feed the trending
+ * windows (see {@link TrendingTerms}).
+ *
+ * The ...Async variants return at once and run their database work on the {@link DbExecutor}; a lookup answered
+ * from the cache completes without leaving the calling thread.
+ */
 public class MessageService {
 
+    private final CounterService counters;
+    private final MessageStore cache;
+    private final SingleFlight<Integer, Message> loads = new SingleFlight<>();
+    private final HotKeySketch hotKeys;
+    private final MessageTextPolicy textPolicy;
+    private final TrendingTerms trending;
+
+    public MessageService() {
+        this(new CounterService());
+    }
+
+    /**
+     * @param counters the like and reply counters added to every message returned
+     */
+    public MessageService(CounterService counters) {
+        this(counters, MessageTextPolicy.fromConfig());
+    }
+
+    /**
+     * @param counters the like and reply counters added to every message returned
+     * @param textPolicy the rules new and edited message text must pass
+     */
+    public MessageService(CounterService counters, MessageTextPolicy textPolicy) {
+        this.counters = counters;
+        this.textPolicy = textPolicy;
+        this.cache = new MessageStore(AppConfig.getInt("cache.messages.max", 100000), AppConfig.getLong("cache.ttl.ms", 10000));
+        this.hotKeys = new HotKeySketch(AppConfig.getInt("hotkeys.max", 32), AppConfig.getInt("hotkeys.threshold", 200),
+                AppConfig.getLong("hotkeys.window.ms", 10000), System::currentTimeMillis);
+        hotKeys.onChange(cache::pin, cache::unpin);
+        this.trending = new TrendingTerms(AppConfig.getInt("trending.k", 10), System::currentTimeMillis);
+        counters.onFlushed(this::invalidate);
+    }
+
     /**
      * Retrieves all messages from the database.
      * 
      * @return a list of all messages
      */
     public List<Message> getAllMessages() {
-        return MessageDAO.getAllMessages();
+        return counters.withCounts(MessageDAO.getAllMessages());
+    }
+
+    /**
+     * Retrieves a message by its ID.
+     * 
+     * @param messageId the ID of the message to retrieve
+     * @return the message object if found, otherwise null
+     */
+    public Message getMessageById(int messageId) {
+        Message cached = cachedMessage(messageId);
+        return cached != null ? cached : loadMessage(messageId);
+    }
+
+    /**
+     * Retrieves a message by its ID without blocking the calling thread on the database. A caller that arrives while
+     * the same message is being loaded shares that load's future, so a burst of requests for one message holds one
+     * executor thread rather than one each.
+     * 
+     * @param messageId the ID of the message to retrieve
+     * @return a future of the message, or of null if it does not exist
+     */
+    public CompletableFuture<Message> getMessageByIdAsync(int messageId) {
+        Message cached = cachedMessage(messageId);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        if (!cacheable(messageId)) {
+            return DbExecutor.supply(() -> counters.withCounts(MessageDAO.getMessageById(messageId)));
+        }
+        return loads.loadAsync(messageId, () -> DbExecutor.supply(() -> readThrough(messageId)))
+                .thenApply(message -> message == null ? null : counters.withCounts(copyOf(message)));
+    }
+
+    /**
+     * Retrieves all messages without blocking the calling thread on the database.
+     * 
+     * @return a future of all messages, ordered by message_id
+     */
+    public CompletableFuture<List<Message>> getAllMessagesAsync() {
+        return DbExecutor.supply(this::getAllMessages);
+    }
+
+    /**
+     * Retrieves several messages by ID: cached messages first, then one query per shard for the rest.
+     * 
+     * @param messageIds the IDs of the messages to retrieve, in the order wanted
+     * @return one entry per requested ID, in request order, null where the message does not exist
+     */
+    public List<Message> getMessagesByIds(List<Integer> messageIds) {
+        Map<Integer, Message> resolved = new HashMap<>();
+        Map<Integer, Long> stamps = new HashMap<>();
+        for (int messageId : messageIds) {
+            Message cached = cacheable(messageId) ? cache.get(messageId) : null;
+            if (cached != null) {
+                resolved.put(messageId, cached);
+            } else {
+                stamps.put(messageId, cache.stamp(messageId));
+            }
+        }
+        if (!stamps.isEmpty()) {
+            for (Message message : MessageDAO.getMessagesByIds(stamps.keySet()).values()) {
+                if (cacheable(message.getMessage_id())) {
+                    cache.put(message, stamps.get(message.getMessage_id()));
+                }
+                resolved.put(message.getMessage_id(), message);
+            }
+        }
+        List<Message> messages = new ArrayList<>(messageIds.size());
+        Set<Integer> seen = new HashSet<>();
+        for (int messageId : messageIds) {
+            Message message = resolved.get(messageId);
+            // a repeated id gets its own copy, so its counts are not added twice
+            messages.add(message != null && !seen.add(messageId) ? copyOf(message) : message);
+        }
+        for (Message message : messages) {
+            counters.withCounts(message);
+        }
+        return messages;
+    }
+
+    /**
+     * Reads the most recent messages so their pages are resident before traffic arrives.
+     * 
+     * @param limit the number of recent messages to load
+     * @return the number of messages loaded
+     */
+    public int primeRecentMessages(int limit) {
+        List<Message> recent = MessageDAO.getRecentMessages(limit);
+        for (Message message : recent) {
+            cache.put(message, cache.stamp(message.getMessage_id()));
+        }
+        return recent.size();
     }
 
     /**
@@ -22,20 +184,84 @@ public class MessageService {
      * 
      * @param message the message object to be created
      * @return the newly created message object
-     * @throws IllegalArgumentException if message text is blank, too long, or the user does not exist
+     * @throws IllegalArgumentException if message text fails the text policy, or the user does not exist
      */
     public Message createMessage(Message message) {
-        if(message.getMessage_text() == null || message.getMessage_text().trim().isEmpty()){
-            throw new IllegalArgumentException("Message text cannot be blank");
+        message.setMessage_text(textPolicy.apply(message.getMessage_text()));
+        return insertMessage(message, AccountDAO.getAccountById(message.getPosted_by()));
+    }
+
+    /**
+     * Creates a new message without blocking the calling thread on the database. The text is checked on the calling
+     * thread; the author check and the insert run on the database executor.
+     * 
+     * @param message the message object to be created
+     * @return a future of the created message, failed with IllegalArgumentException as createMessage() would throw
+     */
+    public CompletableFuture<Message> createMessageAsync(Message message) {
+        try {
+            message.setMessage_text(textPolicy.apply(message.getMessage_text()));
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
         }
-        if(message.getMessage_text().length() > 255){
-            throw new IllegalArgumentException("Message text too long");
+        return DbExecutor.supply(() -> insertMessage(message, AccountDAO.getAccountById(message.getPosted_by())));
+    }
+
+    /**
+     * Creates a reply to an existing message and counts it on the parent.
+     * 
+     * @param parentId the ID of the message being replied to
+     * @param reply the reply to be created
+     * @return the newly created reply
+     * @throws IllegalArgumentException if the parent does not exist or the reply fails createMessage's checks
+     */
+    public Message createReply(int parentId, Message reply) {
+        if (MessageDAO.getMessageById(parentId) == null) {
+            throw new IllegalArgumentException("Message not in DB");
         }
-        Account account = AccountDAO.getAccountById(message.getPosted_by());
-        if(account == null){
-            throw new IllegalArgumentException("User not in DB");
+        Message created = createMessage(reply);
+        counters.reply(parentId);
+        return created;
+    }
+
+    /**
+     * Creates a reply without blocking the calling thread on the database. The parent and the author are looked up
+     * in parallel; the insert runs once both are known to exist.
+     * 
+     * @param parentId the ID of the message being replied to
+     * @param reply the reply to be created
+     * @return a future of the created reply, failed with IllegalArgumentException as createReply() would throw
+     */
+    public CompletableFuture<Message> createReplyAsync(int parentId, Message reply) {
+        try {
+            reply.setMessage_text(textPolicy.apply(reply.getMessage_text()));
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
         }
-        return MessageDAO.createMessage(message);
+        CompletableFuture<Message> parent = DbExecutor.supply(() -> MessageDAO.getMessageById(parentId));
+        CompletableFuture<Account> author = DbExecutor.supply(() -> AccountDAO.getAccountById(reply.getPosted_by()));
+        // bound to this request's read-your-writes tracking now, as the callback below runs on a pool thread
+        Supplier<Message> insert = RequestContext.propagate(() -> {
+            Message created = insertMessage(reply, author.join());
+            counters.reply(parentId);
+            return created;
+        });
+        return parent.thenCombine(author, (parentMessage, account) -> {
+            if (parentMessage == null) {
+                throw new IllegalArgumentException("Message not in DB");
+            }
+            return parentMessage;
+        }).thenCompose(parentMessage -> DbExecutor.supply(insert));
+    }
+
+    /**
+     * Likes a message.
+     * 
+     * @param messageId the ID of the message to like
+     * @return the message with its updated counts, or null if it does not exist
+     */
+    public Message likeMessage(int messageId) {
+        return counters.like(messageId) ? getMessageById(messageId) : null;
     }
 
     /**
@@ -45,7 +271,10 @@ public class MessageService {
      * @return the deleted message object if successful, otherwise null
      */
     public Message deleteMessage(int messageId) {
-        return MessageDAO.deleteMessage(messageId);
+        Message deleted = counters.withCounts(MessageDAO.deleteMessage(messageId));
+        invalidate(messageId);
+        counters.forget(messageId);
+        return deleted;
     }
 
     /**
@@ -55,7 +284,49 @@ public class MessageService {
      * @return a list of messages posted by the specified user
      */
     public List<Message> getMessagesByUserId(int userId) {
-        return MessageDAO.getMessagesByUserId(userId);
+        return counters.withCounts(MessageDAO.getMessagesByUserId(userId));
+    }
+
+    /**
+     * Retrieves all messages posted by a specific user without blocking the calling thread on the database.
+     * 
+     * @param userId the ID of the user whose messages are to be retrieved
+     * @return a future of the user's messages
+     */
+    public CompletableFuture<List<Message>> getMessagesByUserIdAsync(int userId) {
+        return DbExecutor.supply(() -> getMessagesByUserId(userId));
+    }
+
+    /**
+     * Streams the messages posted by a specific user, newest first, on the database executor. They are read in
+     * chunks of at most chunkSize messages, each its own query, so streaming a long history never holds one
+     * connection for an unbounded scan.
+     *
+     * @param userId the ID of the user whose messages are to be streamed
+     * @param beforeId only messages with a lower message_id are streamed
+     * @param limit the maximum number of messages to stream, or Integer.MAX_VALUE for all of them
+     * @param chunkSize the maximum number of messages read by one query
+     * @param visitor receives each message with its current counts, on an executor thread
+     * @return a future of the number of messages streamed, completed once the visitor has seen the last
+     */
+    public CompletableFuture<Long> streamMessagesByUserIdAsync(int userId, int beforeId, int limit, int chunkSize,
+            Consumer<Message> visitor) {
+        return DbExecutor.supply(() -> {
+            int[] cursor = {beforeId};
+            long streamed = 0;
+            while (streamed < limit) {
+                int chunk = (int) Math.min(chunkSize, limit - streamed);
+                long read = MessageDAO.forEachMessageByUserId(userId, cursor[0], chunk, message -> {
+                    cursor[0] = message.getMessage_id();
+                    visitor.accept(counters.withCounts(message));
+                });
+                streamed += read;
+                if (read < chunk) {
+                    break;
+                }
+            }
+            return streamed;
+        });
     }
 
     /**
@@ -66,6 +337,266 @@ public class MessageService {
      * @return the updated message object if successful, otherwise null
      */
     public Message updateMessageText(int messageId, String newText) {
-        return MessageDAO.updateMessageText(messageId, newText);
+        return updateMessageText(messageId, newText, -1);
+    }
+
+    /**
+     * Updates the text of a message only if it is still at the version the caller last read.
+     * 
+     * @param messageId the ID of the message to be updated
+     * @param newText the new message text
+     * @param expectedVersion the expected current version, or -1 for an unconditional update
+     * @return the updated message object if successful, otherwise null
+     * @throws IllegalArgumentException if the new text fails the text policy
+     * @throws DAO.VersionConflictException if the message has moved past expectedVersion
+     */
+    public Message updateMessageText(int messageId, String newText, long expectedVersion) {
+        String text = textPolicy.apply(newText);
+        Entities entities = Entities.scan(text);
+        Message updated = MessageDAO.updateMessageText(messageId, text, expectedVersion, entities.tags,
+                mentionedAccounts(entities.usernames));
+        invalidate(messageId);
+        return counters.withCounts(updated);
+    }
+
+    /**
+     * Retrieves a page of the messages carrying a hashtag, newest first. Only the tag index is searched; the
+     * messages themselves are then read by id, through the cache.
+     * 
+     * @param tag the hashtag, with or without its '#', in any case
+     * @param beforeId the message_id to continue below, from the last message of the previous page; Integer.MAX_VALUE
+     *        for the first page
+     * @param limit the maximum number of messages to return
+     * @return the page of messages
+     */
+    public List<Message> getMessagesByTag(String tag, int beforeId, int limit) {
+        String normalized = (tag.startsWith("#") ? tag.substring(1) : tag).toLowerCase(Locale.ROOT);
+        return present(getMessagesByIds(MessageDAO.getMessageIdsByTag(normalized, beforeId, limit)));
+    }
+
+    /**
+     * Retrieves a page of the messages carrying a hashtag without blocking the calling thread on the database.
+     * 
+     * @return a future of the page getMessagesByTag() would return
+     */
+    public CompletableFuture<List<Message>> getMessagesByTagAsync(String tag, int beforeId, int limit) {
+        return DbExecutor.supply(() -> getMessagesByTag(tag, beforeId, limit));
+    }
+
+    /**
+     * Retrieves a page of the messages mentioning an account, newest first, from the mention index.
+     * 
+     * @param accountId the ID of the mentioned account
+     * @param beforeId the message_id to continue below; Integer.MAX_VALUE for the first page
+     * @param limit the maximum number of messages to return
+     * @return the page of messages
+     */
+    public List<Message> getMentions(int accountId, int beforeId, int limit) {
+        return present(getMessagesByIds(MessageDAO.getMessageIdsByMention(accountId, beforeId, limit)));
+    }
+
+    /**
+     * Retrieves a page of the messages mentioning an account without blocking the calling thread on the database.
+     * 
+     * @return a future of the page getMentions() would return
+     */
+    public CompletableFuture<List<Message>> getMentionsAsync(int accountId, int beforeId, int limit) {
+        return DbExecutor.supply(() -> getMentions(accountId, beforeId, limit));
+    }
+
+    /**
+     * @return the most used hashtags of new messages over each trending window, keyed by window name, each with its
+     *         estimated uses, most used first
+     */
+    public Map<String, Map<String, Integer>> trendingTags() {
+        return trending.topAll();
+    }
+
+    /**
+     * @param window a trending window name, eg "5m", "1h" or "24h"
+     * @return the most used hashtags of new messages over the window, most used first; null for an unknown window
+     */
+    public Map<String, Integer> trendingTags(String window) {
+        return trending.top(window);
+    }
+
+    /**
+     * @return the messages currently hot, with their estimated reads in the last window or so, hottest first
+     */
+    public Map<Integer, Integer> hotMessages() {
+        return hotKeys.hotKeys();
+    }
+
+    /**
+     * @return cache hits and misses for lookups by id, the database loads run for the misses, and the misses that
+     *         shared a load already running
+     */
+    public Map<String, Long> loadStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("loads", loads.loads());
+        stats.put("coalesced", loads.coalesced());
+        stats.put("cache_hits", cache.hits());
+        stats.put("cache_misses", cache.misses());
+        return stats;
+    }
+
+    /**
+     * Answers a lookup by id from the cache, counting it towards hot-key detection.
+     * 
+     * @return the cached message with its counts, or null if it must be loaded
+     */
+    private Message cachedMessage(int messageId) {
+        hotKeys.record(messageId);
+        Message cached = cacheable(messageId) ? cache.get(messageId) : null;
+        return cached == null ? null : counters.withCounts(cached);
+    }
+
+    /**
+     * Loads a message the cache did not have, sharing the load with concurrent misses for the same id.
+     */
+    private Message loadMessage(int messageId) {
+        if (!cacheable(messageId)) {
+            return counters.withCounts(MessageDAO.getMessageById(messageId));
+        }
+        Message message = loads.load(messageId, () -> readThrough(messageId));
+        // the loaded object may be shared with coalesced callers, so counts go on a copy
+        return message == null ? null : counters.withCounts(copyOf(message));
+    }
+
+    /**
+     * Reads a message from the database and caches it, unless it changed while being read.
+     */
+    private Message readThrough(int messageId) {
+        long stamp = cache.stamp(messageId);
+        Message loaded = MessageDAO.getMessageById(messageId);
+        if (loaded != null) {
+            cache.put(loaded, stamp);
+        }
+        return loaded;
+    }
+
+    /**
+     * Inserts a message whose text has passed the policy, once its author has been looked up.
+     */
+    private Message insertMessage(Message message, Account author) {
+        if (author == null) {
+            throw new IllegalArgumentException("User not in DB");
+        }
+        message.setLike_count(0);
+        message.setReply_count(0);
+        Entities entities = Entities.scan(message.getMessage_text());
+        Message created = MessageDAO.createMessage(message, entities.tags, mentionedAccounts(entities.usernames));
+        for (String tag : entities.tags) {
+            trending.record(tag);
+        }
+        return created;
+    }
+
+    /**
+     * Resolves mentioned usernames to account ids; names with no account are not mentions.
+     */
+    static Set<Integer> mentionedAccounts(Set<String> usernames) {
+        if (usernames.isEmpty()) {
+            return Set.of();
+        }
+        Set<Integer> accountIds = new LinkedHashSet<>();
+        for (Account account : AccountDAO.getAccountsByUsernames(usernames).values()) {
+            accountIds.add(account.getAccount_id());
+        }
+        return accountIds;
+    }
+
+    /**
+     * Drops every cached message, for after a bulk import has overwritten messages.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Drops a cached message and detaches any load of it in progress, so later reads see the change.
+     */
+    private void invalidate(int messageId) {
+        cache.invalidate(messageId);
+        loads.forget(messageId);
+    }
+
+    /**
+     * Drops the messages deleted between reading an index and reading the messages.
+     */
+    private static List<Message> present(List<Message> messages) {
+        messages.removeIf(Objects::isNull);
+        return messages;
+    }
+
+    /**
+     * The hashtags and mentioned usernames of a message text, found in one pass over it. A '#' or '@' starts an
+     * entity only at the start of a word, so "a#b" and "me@example.com" have none. A hashtag runs over letters,
+     * digits and '_', needs at least one non-digit and is at most 64 characters; it is lower-cased. A username may
+     * also contain '.' and '-', though not at its end, and keeps its case. Both are deduplicated, in text order.
+     */
+    static final class Entities {
+        static final int MAX_TAG_LENGTH = 64;
+
+        final Set<String> tags = new LinkedHashSet<>();
+        final Set<String> usernames = new LinkedHashSet<>();
+
+        static Entities scan(String text) {
+            Entities entities = new Entities();
+            int length = text.length();
+            int i = 0;
+            boolean wordBefore = false;
+            while (i < length) {
+                int c = text.codePointAt(i);
+                if ((c == '#' || c == '@') && !wordBefore) {
+                    boolean tag = c == '#';
+                    int start = i + 1;
+                    int end = start;
+                    int lastWordEnd = start;
+                    boolean digitsOnly = true;
+                    while (end < length) {
+                        int d = text.codePointAt(end);
+                        if (isWordChar(d)) {
+                            digitsOnly &= Character.isDigit(d);
+                            end += Character.charCount(d);
+                            lastWordEnd = end;
+                        } else if (!tag && (d == '.' || d == '-')) {
+                            end++;
+                        } else {
+                            break;
+                        }
+                    }
+                    if (tag && lastWordEnd > start && !digitsOnly && lastWordEnd - start <= MAX_TAG_LENGTH) {
+                        entities.tags.add(text.substring(start, lastWordEnd).toLowerCase(Locale.ROOT));
+                    } else if (!tag && lastWordEnd > start) {
+                        entities.usernames.add(text.substring(start, lastWordEnd));
+                    }
+                    // whatever followed the entity continues the word, so "#a#b" has just one tag
+                    i = end;
+                    wordBefore = end > start;
+                    continue;
+                }
+                wordBefore = isWordChar(c);
+                i += Character.charCount(c);
+            }
+            return entities;
+        }
+
+        private static boolean isWordChar(int c) {
+            return Character.isLetterOrDigit(c) || c == '_';
+        }
+    }
+
+    private boolean cacheable(int messageId) {
+        return RequestContext.minSeqFor(ShardRouter.shardFor(messageId)) == 0;
+    }
+
+    private static Message copyOf(Message message) {
+        Message copy = new Message(message.getMessage_id(), message.getPosted_by(), message.getMessage_text(),
+                message.getTime_posted_epoch());
+        copy.setLike_count(message.getLike_count());
+        copy.setReply_count(message.getReply_count());
+        copy.setVersion(message.getVersion());
+        return copy;
     }
 }
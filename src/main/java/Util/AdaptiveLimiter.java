@@ -0,0 +1,123 @@
+package Util;
+
+/**
+ * A concurrency limit that adapts to latency, in the style of a gradient (Vegas-like) limiter. Requests take a slot
+ * with tryAcquire() and give it back with release(), reporting the time they spent in the database and waiting for a
+ * write lock or a pooled connection. Time outside the database, such as writing to a slow client, is left out, since
+ * a lower limit would not shorten it. Two moving averages of those samples are kept: a short one that follows
+ * current latency and a long one that serves as the baseline. While the short average stays within tolerance times
+ * the baseline the limit grows by about its square root; once it rises above, the limit shrinks in proportion, by at
+ * most half per adjustment. Each adjustment is smoothed, and the limit stays between minLimit and maxLimit.
+ *
+ * The limit only grows while at least half of it is in use, so an idle period does not leave it too high to protect
+ * anything. A baseline far above current latency, left over from a slow period, is pulled back down.
+ *
+ * Over the limit, tryAcquire() fails at once rather than queueing, so callers can shed the request cheaply.
+ */
+public class AdaptiveLimiter {
+
+    private static final double SHORT_ALPHA = 0.1;
+    private static final double LONG_ALPHA = 0.002;
+    private static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private double limit;
+    private double shortNanos;
+    private double longNanos;
+    private int inFlight;
+    private long shed;
+
+    /**
+     * @param initialLimit the limit before any latency has been measured
+     * @param minLimit the lowest the limit may fall
+     * @param maxLimit the highest the limit may rise
+     * @param tolerance how many times the baseline latency may be reached before the limit shrinks, eg 2.0
+     */
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Builds a limiter from settings limiter.&lt;group&gt;.initial, .min and .max and limiter.tolerance.
+     *
+     * @param group the route group, eg "read"
+     * @return the configured limiter
+     */
+    public static AdaptiveLimiter fromConfig(String group) {
+        return new AdaptiveLimiter(AppConfig.getInt("limiter." + group + ".initial", 256),
+                AppConfig.getInt("limiter." + group + ".min", 4),
+                AppConfig.getInt("limiter." + group + ".max", 1024),
+                Double.parseDouble(AppConfig.get("limiter.tolerance", "2.0")));
+    }
+
+    /**
+     * Takes a slot if one is free.
+     *
+     * @return true if the caller may proceed and must later call release(); false if it should be shed
+     */
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            shed++;
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * Gives back a slot and adjusts the limit to the latency measured while holding it.
+     *
+     * @param latencyNanos the request's database and wait time, or 0 if it made no database calls, which leaves the
+     *        limit alone
+     */
+    public synchronized void release(long latencyNanos) {
+        int inFlightBefore = inFlight--;
+        if (latencyNanos <= 0) {
+            return;
+        }
+        if (longNanos == 0) {
+            shortNanos = latencyNanos;
+            longNanos = latencyNanos;
+            return;
+        }
+        // one pause (a GC, a slow disk write) is capped so it cannot swing the averages on its own
+        double sample = Math.min(latencyNanos, 2 * tolerance * longNanos);
+        shortNanos += (sample - shortNanos) * SHORT_ALPHA;
+        longNanos += (sample - longNanos) * LONG_ALPHA;
+        if (longNanos > shortNanos * 2) {
+            longNanos *= 0.95;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * longNanos / shortNanos));
+        if (gradient == 1.0 && inFlightBefore < limit / 2) {
+            return;
+        }
+        double target = limit * gradient + (gradient == 1.0 ? Math.sqrt(limit) : 0);
+        limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + target * SMOOTHING));
+    }
+
+    /**
+     * @return the current limit
+     */
+    public synchronized int limit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return the slots taken
+     */
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return the requests refused since the limiter was created
+     */
+    public synchronized long shed() {
+        return shed;
+    }
+}
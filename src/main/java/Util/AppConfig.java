@@ -0,0 +1,105 @@
+package Util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * The AppConfig class resolves runtime settings for the application. A setting is looked up as a JVM system
+ * property first (eg -Dshutdown.drain.timeout.ms=5000), then as an environment variable using the upper-cased,
+ * underscore form of the key (eg SHUTDOWN_DRAIN_TIMEOUT_MS), then in the settings file, and finally falls back to
+ * the supplied default.
+ *
+ * The settings file is a properties file named by config.file (a system property or CONFIG_FILE), app.properties
+ * in the working directory by default. It is read once, on first use, and is optional unless config.file is set.
+ */
+public class AppConfig {
+
+    private static final Properties FILE = loadFile();
+
+    /**
+     * Looks up a setting by key.
+     *
+     * @param key the dotted setting key
+     * @param defaultValue the value to use when the setting is not provided
+     * @return the configured value, or the default if none is set
+     */
+    public static String get(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = System.getenv(toEnvName(key));
+        }
+        if (value == null) {
+            value = FILE.getProperty(key);
+        }
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    /**
+     * Looks up an integer setting by key.
+     *
+     * @param key the dotted setting key
+     * @param defaultValue the value to use when the setting is missing or malformed
+     * @return the configured value, or the default
+     */
+    public static int getInt(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(get(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Looks up a long setting by key.
+     *
+     * @param key the dotted setting key
+     * @param defaultValue the value to use when the setting is missing or malformed
+     * @return the configured value, or the default
+     */
+    public static long getLong(String key, long defaultValue) {
+        try {
+            return Long.parseLong(get(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Looks up a boolean setting by key.
+     *
+     * @param key the dotted setting key
+     * @param defaultValue the value to use when the setting is missing
+     * @return the configured value, or the default
+     */
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        return Boolean.parseBoolean(get(key, String.valueOf(defaultValue)));
+    }
+
+    private static Properties loadFile() {
+        String configured = System.getProperty("config.file", System.getenv("CONFIG_FILE"));
+        boolean required = configured != null && !configured.trim().isEmpty();
+        Path path = Paths.get(required ? configured.trim() : "app.properties");
+        Properties properties = new Properties();
+        if (!required && !Files.exists(path)) {
+            return properties;
+        }
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read settings file " + path, e);
+        }
+        return properties;
+    }
+
+    private static String toEnvName(String key) {
+        return key.toUpperCase().replace('.', '_').replace('-', '_');
+    }
+}
@@ -0,0 +1,291 @@
+package Util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reader and writer for the bulk export format. A file is the magic bytes "SMBX", a version byte, then one section
+ * per table. A section is a tag byte ('A' for account, 'M' for message) followed by length-prefixed records and a
+ * zero length that ends the section.
+ *
+ * Integers are unsigned LEB128 varints, time_posted_epoch is stored as a zig-zag varint delta from the previous
+ * message, and strings are a varint byte length followed by UTF-8 bytes. Records are encoded into a reusable
+ * buffer, so memory use does not grow with the number of rows.
+ *
+ * The reader treats its input as untrusted: a record length outside 1..MAX_RECORD_BYTES, or a field that runs past
+ * the end of its record, fails with an IOException rather than allocating or reading whatever the file claims.
+ */
+public class BulkFormat {
+
+    public static final byte[] MAGIC = { 'S', 'M', 'B', 'X' };
+    public static final int VERSION = 1;
+    public static final int ACCOUNT_SECTION = 'A';
+    public static final int MESSAGE_SECTION = 'M';
+    /**
+     * The largest record the reader accepts, far above a row with every column at its limit in 4-byte UTF-8.
+     */
+    public static final int MAX_RECORD_BYTES = 64 * 1024;
+
+    /**
+     * Writes records to a stream. Call begin/end around each section.
+     */
+    public static class Writer {
+        private final OutputStream out;
+        private byte[] record = new byte[512];
+        private int length;
+        private long previousEpoch;
+
+        public Writer(OutputStream out) throws IOException {
+            this.out = out;
+            out.write(MAGIC);
+            out.write(VERSION);
+        }
+
+        public void beginSection(int tag) throws IOException {
+            out.write(tag);
+            previousEpoch = 0;
+        }
+
+        public void endSection() throws IOException {
+            out.write(0);
+        }
+
+        public void writeAccount(int accountId, String username, String password) throws IOException {
+            length = 0;
+            putVarLong(accountId & 0xFFFFFFFFL);
+            putString(username);
+            putString(password);
+            flushRecord();
+        }
+
+        public void writeMessage(int messageId, int postedBy, String text, long timePostedEpoch) throws IOException {
+            length = 0;
+            putVarLong(messageId & 0xFFFFFFFFL);
+            putVarLong(postedBy & 0xFFFFFFFFL);
+            putVarLong(zigZag(timePostedEpoch - previousEpoch));
+            putString(text);
+            previousEpoch = timePostedEpoch;
+            flushRecord();
+        }
+
+        public void finish() throws IOException {
+            out.flush();
+        }
+
+        private void flushRecord() throws IOException {
+            writeVarLong(out, length);
+            out.write(record, 0, length);
+        }
+
+        private void putString(String value) {
+            byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+            putVarLong(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, record, length, bytes.length);
+            length += bytes.length;
+        }
+
+        private void putVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                record[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            record[length++] = (byte) value;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > record.length) {
+                byte[] grown = new byte[Math.max(record.length * 2, length + extra)];
+                System.arraycopy(record, 0, grown, 0, length);
+                record = grown;
+            }
+        }
+    }
+
+    /**
+     * Reads records back from a stream. Fields of the current record are exposed through the getters.
+     */
+    public static class Reader {
+        private final InputStream in;
+        private byte[] record = new byte[512];
+        private int position;
+        private int limit;
+        private long previousEpoch;
+
+        private int id;
+        private int postedBy;
+        private long timePostedEpoch;
+        private String first;
+        private String second;
+
+        public Reader(InputStream in) throws IOException {
+            this.in = in;
+            byte[] magic = new byte[MAGIC.length];
+            readFully(magic, magic.length);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (magic[i] != MAGIC[i]) {
+                    throw new IOException("Not a bulk export file");
+                }
+            }
+            int version = in.read();
+            if (version != VERSION) {
+                throw new IOException("Unsupported bulk export version " + version);
+            }
+        }
+
+        /**
+         * @return the tag of the next section, or -1 at the end of the file
+         */
+        public int nextSection() throws IOException {
+            previousEpoch = 0;
+            return in.read();
+        }
+
+        /**
+         * Reads the next account record of the current section.
+         *
+         * @return false when the section has ended
+         */
+        public boolean nextAccount() throws IOException {
+            if (!loadRecord()) {
+                return false;
+            }
+            id = (int) getVarLong();
+            first = getString();
+            second = getString();
+            return true;
+        }
+
+        /**
+         * Reads the next message record of the current section.
+         *
+         * @return false when the section has ended
+         */
+        public boolean nextMessage() throws IOException {
+            if (!loadRecord()) {
+                return false;
+            }
+            id = (int) getVarLong();
+            postedBy = (int) getVarLong();
+            timePostedEpoch = previousEpoch + unZigZag(getVarLong());
+            previousEpoch = timePostedEpoch;
+            first = getString();
+            return true;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getUsername() {
+            return first;
+        }
+
+        public String getPassword() {
+            return second;
+        }
+
+        public int getPostedBy() {
+            return postedBy;
+        }
+
+        public String getMessageText() {
+            return first;
+        }
+
+        public long getTimePostedEpoch() {
+            return timePostedEpoch;
+        }
+
+        private boolean loadRecord() throws IOException {
+            long length = readVarLong(in);
+            if (length == 0) {
+                return false;
+            }
+            if (length < 0 || length > MAX_RECORD_BYTES) {
+                throw new IOException("Invalid record length " + length);
+            }
+            if (length > record.length) {
+                record = new byte[(int) Math.max(length, record.length * 2)];
+            }
+            readFully(record, (int) length);
+            position = 0;
+            limit = (int) length;
+            return true;
+        }
+
+        private long getVarLong() throws IOException {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (position >= limit || shift > 63) {
+                    throw new IOException("Malformed record");
+                }
+                b = record[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        private String getString() throws IOException {
+            long length = getVarLong();
+            if (length < 0 || length > limit - position) {
+                throw new IOException("Malformed record");
+            }
+            String value = new String(record, position, (int) length, StandardCharsets.UTF_8);
+            position += (int) length;
+            return value;
+        }
+
+        private void readFully(byte[] buffer, int length) throws IOException {
+            int read = 0;
+            while (read < length) {
+                int n = in.read(buffer, read, length - read);
+                if (n < 0) {
+                    throw new EOFException("Truncated bulk export file");
+                }
+                read += n;
+            }
+        }
+    }
+
+    static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated bulk export file");
+            }
+            if (shift > 63) {
+                throw new IOException("Malformed varint");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,273 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+/**
+ * A small, bounded pool of physical JDBC connections. Callers receive a proxy whose close() hands the physical
+ * connection back to the pool instead of closing it, so the DAO classes can keep using try-with-resources while
+ * H2 keeps its session (and its page cache) open between requests.
+ *
+ * Each physical connection also keeps up to db.statement.cache.size prepared statements open (see
+ * {@link StatementCache}); 0 turns statement caching off.
+ *
+ * Every getConnection() is recorded as a {@link FlightEvents.ConnectionAcquire} event, and every prepared statement
+ * execution as a {@link FlightEvents.DatabaseStatement} event, while a flight recording has them enabled.
+ */
+public class ConnectionPool {
+
+    private final DataSource dataSource;
+    private final BlockingQueue<Connection> idle;
+    private final AtomicInteger open = new AtomicInteger();
+    private final int maxSize;
+    private final long acquireTimeoutMs;
+    private final int statementCacheSize;
+    private final Map<Connection, StatementCache> statementCaches = new ConcurrentHashMap<>();
+    private final String name;
+
+    /**
+     * @param dataSource the source of physical connections
+     * @param maxSize the maximum number of physical connections held open at once
+     * @param acquireTimeoutMs how long a caller waits for a connection when the pool is exhausted
+     */
+    public ConnectionPool(DataSource dataSource, int maxSize, long acquireTimeoutMs) {
+        this(dataSource, maxSize, acquireTimeoutMs, AppConfig.getInt("db.statement.cache.size", 64));
+    }
+
+    /**
+     * @param dataSource the source of physical connections
+     * @param maxSize the maximum number of physical connections held open at once
+     * @param acquireTimeoutMs how long a caller waits for a connection when the pool is exhausted
+     * @param statementCacheSize the number of prepared statements kept open per connection, 0 for none
+     */
+    public ConnectionPool(DataSource dataSource, int maxSize, long acquireTimeoutMs, int statementCacheSize) {
+        this.dataSource = dataSource;
+        this.maxSize = Math.max(1, maxSize);
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.statementCacheSize = statementCacheSize;
+        this.idle = new ArrayBlockingQueue<>(this.maxSize);
+        this.name = nameOf(dataSource);
+    }
+
+    /**
+     * Borrows a connection from the pool, opening a new physical connection if the pool has room. The time taken is
+     * added to the current request's wait time (see {@link RequestContext}).
+     *
+     * @return a pooled connection; closing it returns it to the pool
+     * @throws SQLException if no connection becomes available within the acquire timeout
+     */
+    public Connection getConnection() throws SQLException {
+        FlightEvents.ConnectionAcquire event = new FlightEvents.ConnectionAcquire();
+        event.begin();
+        event.pool = name;
+        long start = System.nanoTime();
+        try {
+            return acquire(event);
+        } finally {
+            RequestContext.recordWaitTime(System.nanoTime() - start);
+            event.openConnections = open.get();
+            event.commit();
+        }
+    }
+
+    private Connection acquire(FlightEvents.ConnectionAcquire event) throws SQLException {
+        Connection physical = idle.poll();
+        if (physical == null) {
+            if (open.incrementAndGet() <= maxSize) {
+                event.opened = true;
+                try {
+                    physical = dataSource.getConnection();
+                } catch (SQLException e) {
+                    open.decrementAndGet();
+                    throw e;
+                }
+            } else {
+                open.decrementAndGet();
+                event.waited = true;
+                try {
+                    physical = idle.poll(acquireTimeoutMs, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (physical == null) {
+                    event.timedOut = true;
+                    throw new SQLTransientConnectionException("Timed out waiting for a pooled connection");
+                }
+            }
+        }
+        if (physical.isClosed()) {
+            open.decrementAndGet();
+            statementCaches.remove(physical);
+            return acquire(event);
+        }
+        return wrap(physical);
+    }
+
+    /**
+     * Opens physical connections up front so the first requests do not pay for connection setup.
+     *
+     * @param count the number of connections to have open, capped at the pool size
+     * @return the number of connections now open
+     */
+    public int prewarm(int count) {
+        int target = Math.min(count, maxSize);
+        while (open.get() < target) {
+            if (open.incrementAndGet() > maxSize) {
+                open.decrementAndGet();
+                break;
+            }
+            try {
+                idle.offer(dataSource.getConnection());
+            } catch (SQLException e) {
+                open.decrementAndGet();
+                break;
+            }
+        }
+        return open.get();
+    }
+
+    /**
+     * @return the number of physical connections currently open, whether idle or borrowed
+     */
+    public int openConnections() {
+        return open.get();
+    }
+
+    /**
+     * @return the number of physical connections sitting idle in the pool
+     */
+    public int idleConnections() {
+        return idle.size();
+    }
+
+    /**
+     * Closes every idle physical connection. Borrowed connections are closed when they are returned.
+     */
+    public void close() {
+        Connection physical;
+        while ((physical = idle.poll()) != null) {
+            open.decrementAndGet();
+            statementCaches.remove(physical);
+            try {
+                physical.close();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @return the database url without its settings for an H2 data source, which is what every pool here uses
+     */
+    private static String nameOf(DataSource dataSource) {
+        if (!(dataSource instanceof JdbcDataSource)) {
+            return dataSource.getClass().getSimpleName();
+        }
+        String url = ((JdbcDataSource) dataSource).getURL();
+        int options = url.indexOf(';');
+        return options < 0 ? url : url.substring(0, options);
+    }
+
+    private void release(Connection physical) {
+        StatementCache statements = statementCaches.get(physical);
+        if (statements != null) {
+            statements.releaseAll();
+        }
+        try {
+            if (physical.isClosed()) {
+                open.decrementAndGet();
+                statementCaches.remove(physical);
+                return;
+            }
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            if (!idle.offer(physical)) {
+                open.decrementAndGet();
+                statementCaches.remove(physical);
+                physical.close();
+            }
+        } catch (SQLException e) {
+            open.decrementAndGet();
+            statementCaches.remove(physical);
+            try {
+                physical.close();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    private Connection wrap(Connection physical) {
+        StatementCache statements = statementCacheSize <= 0 ? null
+                : statementCaches.computeIfAbsent(physical, c -> new StatementCache(c, statementCacheSize));
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new PooledConnectionHandler(physical, statements));
+    }
+
+    /**
+     * Routes every call to the physical connection except close() and isClosed(), which track the logical lease,
+     * and prepareStatement(), which goes through the connection's statement cache when it has one and is traced
+     * while a recording has statement events enabled (see {@link TracedStatement}). The length of the lease is added
+     * to the current request's database time (see {@link RequestContext}).
+     */
+    private class PooledConnectionHandler implements InvocationHandler {
+        private final Connection physical;
+        private final StatementCache statements;
+        private final long leasedAt = System.nanoTime();
+        private boolean closed;
+
+        PooledConnectionHandler(Connection physical, StatementCache statements) {
+            this.physical = physical;
+            this.statements = statements;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                if (!closed) {
+                    closed = true;
+                    release(physical);
+                    RequestContext.recordDbTime(System.nanoTime() - leasedAt);
+                }
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return closed || physical.isClosed();
+            }
+            if (closed) {
+                throw new SQLException("Connection has been returned to the pool");
+            }
+            Object result;
+            if (statements != null && name.equals("prepareStatement")) {
+                result = statements.prepare((Connection) proxy, method, args);
+            } else {
+                try {
+                    result = method.invoke(physical, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+            if (name.equals("prepareStatement") && TracedStatement.enabled()) {
+                return TracedStatement.wrap((PreparedStatement) result, (String) args[0]);
+            }
+            return result;
+        }
+    }
+}
@@ -1,27 +1,35 @@
 package Util;
 
-import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.h2.jdbcx.JdbcDataSource;
 import org.h2.tools.RunScript;
 
 /**
- * The ConnectionUtil class will be utilized to create an active connection to
- * our database. This class utilizes the singleton design pattern. We will be
- * utilizing an in-memory called h2database for the sql demos.
+ * The ConnectionUtil class hands out connections to shard 0's h2 database from a
+ * process-wide {@link ConnectionPool}. The database is opened with the storage
+ * profile chosen by db.profile, at db.path. Other shards are reached through
+ * {@link ShardRouter}.
  *
- * DO NOT CHANGE ANYTHING IN THIS CLASS
+ * Tests call resetTestDatabase() to recreate the tables, and caches over those
+ * tables register with onReset() to be cleared along with them.
  */
 public class ConnectionUtil {
 
 	/**
-	 * url will represent our connection string. Since this is an in-memory db, we
-	 * will represent a file location to store the data
+	 * The storage settings, chosen with db.profile (see {@link StorageProfile}).
 	 */
-	private static String url = "jdbc:h2:./h2/db;";
+	private static StorageProfile profile = StorageProfile.fromConfig();
+	/**
+	 * url will represent our connection string: the database at db.path, on disk or in memory as the profile says,
+	 * with the profile's settings
+	 */
+	private static String url = profile.url(AppConfig.get("db.path", "./h2/db"));
 	/**
 	 * Default username for connecting to h2
 	 */
@@ -32,30 +40,70 @@ public class ConnectionUtil {
 	private static String password = "sa";
 
 	/**
-	 * DataSource for pooling. Pooling enables the creation of multiple connections when connections are closed.
+	 * DataSource that opens the physical connections handed out by the pool.
+	 */
+	private static JdbcDataSource dataSource = new JdbcDataSource();
+
+	/**
+	 * Pool of physical connections. Closing a pooled connection returns it here instead of closing the H2 session.
+	 */
+	private static ConnectionPool pool;
+
+	/**
+	 * Callbacks run after the test database is reset.
 	 */
-	private static JdbcDataSource pool = new JdbcDataSource();
+	private static final List<Runnable> resetListeners = new CopyOnWriteArrayList<>();
 
 	/**
 	 * static initialization block to establish credentials for DataSoure Pool
 	 */
 	static {
-		pool.setURL(url);
-		pool.setUser(username);
-		pool.setPassword(password);
+		dataSource.setURL(url);
+		dataSource.setUser(username);
+		dataSource.setPassword(password);
+		pool = new ConnectionPool(dataSource, AppConfig.getInt("db.pool.size", 16),
+				AppConfig.getLong("db.pool.acquire.timeout.ms", 5000));
 	}
 
 	/**
 	 * @return an active connection to the database
+	 * @throws SQLException if no connection could be opened or borrowed in time
 	 */
-	public static Connection getConnection() {
-		try {
-			return pool.getConnection();
-		} catch (SQLException e) {
-			e.printStackTrace();
-		}
+	public static Connection getConnection() throws SQLException {
+		return pool.getConnection();
+	}
+
+	/**
+	 * @return the storage settings the databases are opened with
+	 */
+	public static StorageProfile storageProfile() {
+		return profile;
+	}
+
+	/**
+	 * Opens pooled connections ahead of traffic so the first requests do not pay for session setup.
+	 *
+	 * @param count the number of connections to open
+	 * @return the number of connections now open
+	 */
+	public static int prewarm(int count) {
+		return pool.prewarm(count);
+	}
 
-		return null;
+	/**
+	 * Closes the idle pooled connections. Used on shutdown once in-flight requests have drained.
+	 */
+	public static void shutdown() {
+		pool.close();
+	}
+
+	/**
+	 * Registers a callback run after every resetTestDatabase(), for caches over the tables it rewrites.
+	 *
+	 * @param listener the callback
+	 */
+	public static void onReset(Runnable listener) {
+		resetListeners.add(listener);
 	}
 
 	/**
@@ -64,11 +112,13 @@ public class ConnectionUtil {
 	 * file in resources. This will be performed before every test.
 	 */
 	public static void resetTestDatabase() {
-		try {
-			FileReader sqlReader = new FileReader("src/main/resources/SocialMedia.sql");
-			RunScript.execute(getConnection(), sqlReader);
-		} catch (SQLException | FileNotFoundException e) {
-			e.printStackTrace();
+		try (FileReader sqlReader = new FileReader("src/main/resources/SocialMedia.sql");
+				Connection conn = getConnection()) {
+			RunScript.execute(conn, sqlReader);
+		} catch (SQLException | IOException e) {
+			StructuredLogger.event("error").field("operation", "ConnectionUtil.resetTestDatabase").error(e).log();
+			return;
 		}
+		resetListeners.forEach(Runnable::run);
 	}
 }
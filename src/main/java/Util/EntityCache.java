@@ -0,0 +1,157 @@
+package Util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded read-through cache split into independently locked segments, each an access-ordered LRU map. Entries
+ * expire after a fixed time, which bounds how stale a value loaded from a lagging read follower can get.
+ *
+ * Loads follow a stamp protocol so an invalidation cannot be lost to a slow load: take stamp() before reading the
+ * database and pass it to put(), which drops the value if the key's segment was invalidated in between.
+ *
+ * @param <K> the key type
+ * @param <V> the cached value type; callers must not mutate values they get back
+ */
+public class EntityCache<K, V> {
+
+    private static final int SEGMENTS = 64;
+
+    private static class CachedValue<V> {
+        final V value;
+        final long expiresAt;
+
+        CachedValue(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class Segment<K, V> extends LinkedHashMap<K, CachedValue<V>> {
+        private static final long serialVersionUID = 1L;
+
+        final int capacity;
+        long invalidations;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, CachedValue<V>> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    private final Segment<K, V>[] segments;
+    private final long ttlMs;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxEntries the largest number of entries kept
+     * @param ttlMs how long an entry is served after it was loaded
+     */
+    @SuppressWarnings("unchecked")
+    public EntityCache(int maxEntries, long ttlMs) {
+        this.segments = (Segment<K, V>[]) new Segment<?, ?>[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<>(Math.max(1, maxEntries / SEGMENTS));
+        }
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * @param key the key to look up
+     * @return the cached value, or null if absent or expired
+     */
+    public V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            CachedValue<V> entry = segment.get(key);
+            if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+                hits.increment();
+                return entry.value;
+            }
+            if (entry != null) {
+                segment.remove(key);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * @param key the key about to be loaded
+     * @return the stamp to pass to put() once the value is loaded
+     */
+    public long stamp(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.invalidations;
+        }
+    }
+
+    /**
+     * Caches a loaded value unless the key's segment has been invalidated since the stamp was taken.
+     *
+     * @param key the key
+     * @param value the value loaded from the database
+     * @param stamp the result of stamp() taken before the load
+     */
+    public void put(K key, V value, long stamp) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            if (segment.invalidations == stamp) {
+                segment.put(key, new CachedValue<>(value, System.currentTimeMillis() + ttlMs));
+            }
+        }
+    }
+
+    /**
+     * Drops a key and fails any load of its segment that is in progress.
+     *
+     * @param key the key whose value changed
+     */
+    public void invalidate(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.invalidations++;
+            segment.remove(key);
+        }
+    }
+
+    /**
+     * Drops every entry and fails every load in progress, for when the data behind the cache was rewritten in bulk.
+     */
+    public void invalidateAll() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.invalidations++;
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * @return the number of get() calls answered from the cache
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of get() calls that found nothing
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return segments[(h * 0x9E3779B9 >>> 26) & (SEGMENTS - 1)];
+    }
+}
@@ -0,0 +1,106 @@
+package Util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The application's JDK Flight Recorder events, shown under "Social Media" in JDK Mission Control next to the JVM's
+ * own events. Each is timed with begin() and commit(); when no recording has the event enabled both are no-ops the
+ * JIT removes, so the instrumented paths cost nothing outside a recording.
+ *
+ * None of them carries a stack trace, and the per-statement and per-acquire events are only kept past a threshold,
+ * so a recording left running does not fill with the thousands of sub-millisecond ones each second brings.
+ * {@link FlightRecording} lets the thresholds be lowered to see every one.
+ *
+ * See {@link FlightRecording} for starting, stopping and dumping a recording at runtime.
+ */
+public final class FlightEvents {
+
+    private FlightEvents() {
+    }
+
+    /**
+     * One HTTP request, from the first before handler to the last after handler.
+     */
+    @Name("socialmedia.HttpRequest")
+    @Label("HTTP Request")
+    @Category({ "Social Media", "HTTP" })
+    @StackTrace(false)
+    public static class HttpRequest extends Event {
+        @Label("Request Id")
+        public String requestId;
+
+        @Label("Method")
+        public String method;
+
+        @Label("Route")
+        @Description("The matched route pattern, eg /messages/{messageId}")
+        public String route;
+
+        @Label("Status")
+        public int status;
+
+        @Label("Database Time")
+        @Description("Time the request held pooled connections, in milliseconds")
+        public long dbMillis;
+    }
+
+    /**
+     * One execution of a prepared statement by a DAO method, until its update count is returned or its result set is
+     * closed.
+     */
+    @Name("socialmedia.DatabaseStatement")
+    @Label("Database Statement")
+    @Category({ "Social Media", "Database" })
+    @StackTrace(false)
+    @Threshold("1 ms")
+    public static class DatabaseStatement extends Event {
+        @Label("Operation")
+        @Description("The DAO method that ran the statement, eg MessageDAO.getMessageById")
+        public String operation;
+
+        @Label("SQL Id")
+        @Description("A short hash of the SQL text, the same for every execution of the statement")
+        public String sqlId;
+
+        @Label("SQL")
+        public String sql;
+
+        @Label("Rows")
+        @Description("Rows read from the result set, or rows changed by an update")
+        public long rows;
+    }
+
+    /**
+     * One connection borrowed from a {@link ConnectionPool}, including any wait for a free one.
+     */
+    @Name("socialmedia.ConnectionAcquire")
+    @Label("Connection Acquire")
+    @Category({ "Social Media", "Database" })
+    @StackTrace(false)
+    @Threshold("1 ms")
+    public static class ConnectionAcquire extends Event {
+        @Label("Pool")
+        @Description("The database the pool connects to")
+        public String pool;
+
+        @Label("Opened")
+        @Description("Whether a new physical connection was opened")
+        public boolean opened;
+
+        @Label("Waited")
+        @Description("Whether the pool was exhausted and the caller waited for a connection")
+        public boolean waited;
+
+        @Label("Timed Out")
+        public boolean timedOut;
+
+        @Label("Open Connections")
+        public int openConnections;
+    }
+}
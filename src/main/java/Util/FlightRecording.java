@@ -0,0 +1,124 @@
+package Util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * Starts, stops and dumps one JDK Flight Recorder recording at runtime, for the admin endpoints. The recording uses
+ * one of the JDK's settings files, "default" (about 1% overhead, meant to be left on) or "profile" (more detail,
+ * for a short look at a hot path), plus the application's events in {@link FlightEvents}.
+ *
+ * A running recording keeps the last jfr.max.age.ms and at most jfr.max.size.bytes of data on disk. Statements and
+ * connection acquires are only recorded when they take at least jfr.statement.threshold.ms and
+ * jfr.acquire.threshold.ms (1 by default; 0 records every one). A stopped recording can still be dumped until the
+ * next one is started.
+ */
+public class FlightRecording {
+
+    private Recording recording;
+
+    /**
+     * Starts a recording, replacing a stopped one.
+     *
+     * @param settings the name of a JDK settings file, "default" or "profile"
+     * @return the new recording's status
+     * @throws IllegalStateException if a recording is already running
+     * @throws IllegalArgumentException if there is no settings file by that name
+     */
+    public synchronized Map<String, Object> start(String settings) {
+        if (recording != null && recording.getState() == RecordingState.RUNNING) {
+            throw new IllegalStateException("A recording is already running");
+        }
+        Configuration configuration;
+        try {
+            configuration = Configuration.getConfiguration(settings);
+        } catch (IOException | ParseException e) {
+            throw new IllegalArgumentException("Unknown recording settings: " + settings);
+        }
+        close();
+        recording = new Recording(configuration);
+        recording.setName("socialmedia-" + settings);
+        recording.setToDisk(true);
+        recording.setMaxAge(Duration.ofMillis(AppConfig.getLong("jfr.max.age.ms", 15 * 60 * 1000L)));
+        recording.setMaxSize(AppConfig.getLong("jfr.max.size.bytes", 256L * 1024 * 1024));
+        recording.enable(FlightEvents.HttpRequest.class);
+        recording.enable(FlightEvents.DatabaseStatement.class)
+                .withThreshold(Duration.ofMillis(AppConfig.getLong("jfr.statement.threshold.ms", 1)))
+                .withoutStackTrace();
+        recording.enable(FlightEvents.ConnectionAcquire.class)
+                .withThreshold(Duration.ofMillis(AppConfig.getLong("jfr.acquire.threshold.ms", 1)))
+                .withoutStackTrace();
+        recording.start();
+        return status();
+    }
+
+    /**
+     * Stops the running recording; its data stays available to dump().
+     *
+     * @return the stopped recording's status
+     * @throws IllegalStateException if no recording is running
+     */
+    public synchronized Map<String, Object> stop() {
+        if (recording == null || recording.getState() != RecordingState.RUNNING) {
+            throw new IllegalStateException("No recording is running");
+        }
+        recording.stop();
+        return status();
+    }
+
+    /**
+     * Writes the data recorded so far, in the .jfr format JDK Mission Control and the jfr tool read.
+     *
+     * @param out the stream to write to; it is not closed
+     * @throws IllegalStateException if no recording has been started
+     * @throws IOException if the data could not be written
+     */
+    public synchronized void dump(OutputStream out) throws IOException {
+        if (recording == null) {
+            throw new IllegalStateException("No recording has been started");
+        }
+        Path file = Files.createTempFile("socialmedia", ".jfr");
+        try {
+            recording.dump(file);
+            Files.copy(file, out);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * @return the recording's name, state, start time and size, or just the state "none" before the first start
+     */
+    public synchronized Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        if (recording == null) {
+            status.put("state", "none");
+            return status;
+        }
+        status.put("name", recording.getName());
+        status.put("state", recording.getState().name().toLowerCase());
+        status.put("started", recording.getStartTime() == null ? null : recording.getStartTime().toString());
+        status.put("size_bytes", recording.getSize());
+        return status;
+    }
+
+    /**
+     * Stops the recording if it is running and deletes its data.
+     */
+    public synchronized void close() {
+        if (recording != null) {
+            recording.close();
+            recording = null;
+        }
+    }
+}
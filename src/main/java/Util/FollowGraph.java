@@ -0,0 +1,200 @@
+package Util;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory follow graph kept as primitive int arrays indexed by account id: one array of followees and one of
+ * followers per account, with no boxing and no per-edge objects, so an edge costs about eight bytes.
+ *
+ * Followee lists are kept sorted, which makes "does a follow b" a binary search and lets add() reject duplicate
+ * edges. Follower lists are append-only and unsorted, because a popular account can have millions of followers and
+ * keeping that list sorted would make every new follow a large array shift.
+ */
+public class FollowGraph {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private int[][] following = new int[16][];
+    private int[] followingSize = new int[16];
+    private int[][] followers = new int[16][];
+    private int[] followersSize = new int[16];
+    private long edges;
+
+    /**
+     * Adds an edge.
+     *
+     * @param follower the account that follows
+     * @param followee the account being followed
+     * @return false if the edge was already present
+     */
+    public boolean add(int follower, int followee) {
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(Math.max(follower, followee));
+            int position = Arrays.binarySearch(list(following, follower), 0, followingSize[follower], followee);
+            if (position >= 0) {
+                return false;
+            }
+            int outSize = followingSize[follower];
+            following[follower] = insertAt(following[follower], outSize, -position - 1, followee);
+            followingSize[follower] = outSize + 1;
+            int inSize = followersSize[followee];
+            followers[followee] = insertAt(followers[followee], inSize, inSize, follower);
+            followersSize[followee] = inSize + 1;
+            edges++;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes an edge.
+     *
+     * @param follower the account that follows
+     * @param followee the account being followed
+     * @return false if the edge was not present
+     */
+    public boolean remove(int follower, int followee) {
+        lock.writeLock().lock();
+        try {
+            if (follower < 0 || follower >= following.length || followee < 0 || followee >= following.length) {
+                return false;
+            }
+            int position = Arrays.binarySearch(list(following, follower), 0, followingSize[follower], followee);
+            if (position < 0) {
+                return false;
+            }
+            int[] out = following[follower];
+            System.arraycopy(out, position + 1, out, position, --followingSize[follower] - position);
+            int[] in = followers[followee];
+            for (int i = 0; i < followersSize[followee]; i++) {
+                if (in[i] == follower) {
+                    in[i] = in[--followersSize[followee]];
+                    break;
+                }
+            }
+            edges--;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param follower the account that follows
+     * @param followee the account being followed
+     * @return true if the edge is present
+     */
+    public boolean follows(int follower, int followee) {
+        lock.readLock().lock();
+        try {
+            return follower >= 0 && follower < following.length
+                    && Arrays.binarySearch(list(following, follower), 0, followingSize[follower], followee) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param account an account id
+     * @return a copy of the ids the account follows, in ascending order
+     */
+    public int[] following(int account) {
+        lock.readLock().lock();
+        try {
+            return account < 0 || account >= following.length
+                    ? EMPTY : Arrays.copyOf(list(following, account), followingSize[account]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param account an account id
+     * @return a copy of the ids following the account, in no particular order
+     */
+    public int[] followers(int account) {
+        lock.readLock().lock();
+        try {
+            return account < 0 || account >= followers.length
+                    ? EMPTY : Arrays.copyOf(list(followers, account), followersSize[account]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param account an account id
+     * @return the number of accounts following it
+     */
+    public int followerCount(int account) {
+        lock.readLock().lock();
+        try {
+            return account < 0 || account >= followersSize.length ? 0 : followersSize[account];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of edges in the graph
+     */
+    public long edgeCount() {
+        lock.readLock().lock();
+        try {
+            return edges;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the approximate heap size of the adjacency arrays, in bytes
+     */
+    public long memoryBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 4L * (followingSize.length + followersSize.length) + 8L * (following.length + followers.length);
+            for (int i = 0; i < following.length; i++) {
+                bytes += following[i] == null ? 0 : 16 + 4L * following[i].length;
+                bytes += followers[i] == null ? 0 : 16 + 4L * followers[i].length;
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static int[] list(int[][] lists, int account) {
+        int[] list = lists[account];
+        return list == null ? EMPTY : list;
+    }
+
+    private static int[] insertAt(int[] list, int size, int position, int value) {
+        if (list == null) {
+            list = new int[4];
+        } else if (size == list.length) {
+            list = Arrays.copyOf(list, size + (size >> 1) + 1);
+        }
+        System.arraycopy(list, position, list, position + 1, size - position);
+        list[position] = value;
+        return list;
+    }
+
+    private void ensureCapacity(int account) {
+        if (account < 0) {
+            throw new IllegalArgumentException("Account ids must not be negative");
+        }
+        if (account >= following.length) {
+            int capacity = Math.max(account + 1, following.length * 2);
+            following = Arrays.copyOf(following, capacity);
+            followingSize = Arrays.copyOf(followingSize, capacity);
+            followers = Arrays.copyOf(followers, capacity);
+            followersSize = Arrays.copyOf(followersSize, capacity);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package Util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Finds the most requested keys of a stream in fixed memory. Every access is counted in a Count-Min sketch: DEPTH
+ * rows of WIDTH counters, each row indexed by its own hash of the key. A key's estimate is the smallest of its
+ * counters, which can only overcount, and only by the traffic of keys that collide with it in every row.
+ *
+ * A key whose estimate reaches the threshold becomes hot, up to maxHot keys; once the hot set is full a newcomer
+ * must beat the coolest hot key, which it then replaces. Every window the counters are halved, so estimates follow
+ * recent traffic, and hot keys that have fallen below half the threshold are dropped. Listeners hear about keys
+ * becoming hot and cold, which is how the message cache pins them.
+ *
+ * record() takes no lock; promotions, demotions and decay are serialized on the sketch.
+ */
+public class HotKeySketch {
+
+    private static final int DEPTH = 4;
+    private static final int WIDTH_BITS = 12;
+    private static final int WIDTH = 1 << WIDTH_BITS;
+    private static final int[] SEEDS = { 0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F };
+
+    private final AtomicIntegerArray counters = new AtomicIntegerArray(DEPTH * WIDTH);
+    private final int maxHot;
+    private final int threshold;
+    private final long windowMs;
+    private final LongSupplier clock;
+    private final AtomicLong nextDecayAt;
+    private final Set<Integer> hot = new LinkedHashSet<>();
+    private volatile int[] hotSnapshot = new int[0];
+    private IntConsumer onHot = key -> { };
+    private IntConsumer onCold = key -> { };
+
+    /**
+     * @param maxHot the largest number of keys reported hot at once
+     * @param threshold the estimated accesses per window at which a key becomes hot
+     * @param windowMs how often counts are halved
+     * @param clock the time source in milliseconds, normally System::currentTimeMillis
+     */
+    public HotKeySketch(int maxHot, int threshold, long windowMs, LongSupplier clock) {
+        this.maxHot = maxHot;
+        this.threshold = Math.max(2, threshold);
+        this.windowMs = windowMs;
+        this.clock = clock;
+        this.nextDecayAt = new AtomicLong(clock.getAsLong() + windowMs);
+    }
+
+    /**
+     * @param onHot called with a key when it becomes hot
+     * @param onCold called with a key when it stops being hot
+     */
+    public synchronized void onChange(IntConsumer onHot, IntConsumer onCold) {
+        this.onHot = onHot;
+        this.onCold = onCold;
+    }
+
+    /**
+     * Counts one access to a key.
+     *
+     * @param key the key accessed
+     */
+    public void record(int key) {
+        long now = clock.getAsLong();
+        long due = nextDecayAt.get();
+        if (now >= due && nextDecayAt.compareAndSet(due, now + windowMs)) {
+            decay();
+        }
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, counters.incrementAndGet(index(row, key)));
+        }
+        if (estimate >= threshold && !isHot(key)) {
+            promote(key, estimate);
+        }
+    }
+
+    /**
+     * @param key any key
+     * @return an upper bound on the key's accesses, decayed by half per window
+     */
+    public int estimate(int key) {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, counters.get(index(row, key)));
+        }
+        return estimate;
+    }
+
+    /**
+     * @param key any key
+     * @return whether the key is currently hot
+     */
+    public boolean isHot(int key) {
+        for (int hotKey : hotSnapshot) {
+            if (hotKey == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the hot keys and their current estimates, hottest first
+     */
+    public Map<Integer, Integer> hotKeys() {
+        List<Map.Entry<Integer, Integer>> entries = new ArrayList<>();
+        for (int key : hotSnapshot) {
+            entries.add(Map.entry(key, estimate(key)));
+        }
+        entries.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+        Map<Integer, Integer> result = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Integer> entry : entries) {
+            result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    private synchronized void promote(int key, int estimate) {
+        if (hot.contains(key)) {
+            return;
+        }
+        if (hot.size() >= maxHot) {
+            int coolest = 0;
+            int coolestEstimate = Integer.MAX_VALUE;
+            for (int hotKey : hot) {
+                int hotEstimate = estimate(hotKey);
+                if (hotEstimate < coolestEstimate) {
+                    coolest = hotKey;
+                    coolestEstimate = hotEstimate;
+                }
+            }
+            if (coolestEstimate >= estimate) {
+                return;
+            }
+            hot.remove(coolest);
+            onCold.accept(coolest);
+        }
+        hot.add(key);
+        onHot.accept(key);
+        publish();
+    }
+
+    /**
+     * Halves every counter and drops hot keys that have cooled below half the threshold.
+     */
+    private synchronized void decay() {
+        for (int i = 0; i < counters.length(); i++) {
+            int value;
+            do {
+                value = counters.get(i);
+            } while (value != 0 && !counters.compareAndSet(i, value, value >>> 1));
+        }
+        List<Integer> cooled = new ArrayList<>();
+        for (int key : hot) {
+            if (estimate(key) < threshold / 2) {
+                cooled.add(key);
+            }
+        }
+        for (int key : cooled) {
+            hot.remove(key);
+            onCold.accept(key);
+        }
+        publish();
+    }
+
+    private void publish() {
+        int[] snapshot = new int[hot.size()];
+        int i = 0;
+        for (int key : hot) {
+            snapshot[i++] = key;
+        }
+        hotSnapshot = snapshot;
+    }
+
+    private static int index(int row, int key) {
+        return row * WIDTH + ((key * SEEDS[row]) >>> (32 - WIDTH_BITS));
+    }
+}
@@ -0,0 +1,219 @@
+package Util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the responses to requests that carried an idempotency key, so a retried request is answered with the
+ * first attempt's response instead of being executed again.
+ *
+ * The first request with a key claims it and must complete() the claim with its response. A duplicate that arrives
+ * while the first is still running gets the same claim and waits on its response; one that arrives later gets the
+ * stored response at once. Each claim also keeps a fingerprint of the request body, its SHA-256 digest, so reusing
+ * a key for a different request can be refused.
+ *
+ * Responses with a 5xx status are handed to the duplicates already waiting but are not kept, so a later retry runs
+ * again. Entries expire ttlMs after they were claimed. The store is split into independently locked segments like
+ * {@link EntityCache}; a full segment first drops its expired entries, then its oldest completed one. A claim still
+ * in flight is never dropped, since a retry would then run alongside the first attempt, so a segment whose entries
+ * are all in flight grows past its share until one completes. Completed entries dropped before they expired are
+ * counted by evictions(); if that keeps rising, maxEntries is too small for the TTL and the request rate.
+ */
+public class IdempotencyStore {
+
+    private static final int SEGMENTS = 64;
+
+    /**
+     * A response as the controller sent it, enough to send it again.
+     */
+    public static final class Response {
+        public final int status;
+        public final String contentType;
+        public final String etag;
+        public final String body;
+
+        public Response(int status, String contentType, String etag, String body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.body = body;
+        }
+    }
+
+    /**
+     * A request's hold on its key.
+     */
+    public static final class Claim {
+        private final String key;
+        private final byte[] fingerprint;
+        private final long expiresAt;
+        private final boolean first;
+        private final CompletableFuture<Response> response;
+
+        private Claim(String key, byte[] fingerprint, long expiresAt) {
+            this.key = key;
+            this.fingerprint = fingerprint;
+            this.expiresAt = expiresAt;
+            this.first = true;
+            this.response = new CompletableFuture<>();
+        }
+
+        private Claim(Claim original) {
+            this.key = original.key;
+            this.fingerprint = original.fingerprint;
+            this.expiresAt = original.expiresAt;
+            this.first = false;
+            this.response = original.response;
+        }
+
+        /**
+         * @return true if this request is the first with the key and must run, then complete the claim
+         */
+        public boolean isFirst() {
+            return first;
+        }
+
+        /**
+         * @param fingerprint the fingerprint of a duplicate's body
+         * @return whether the duplicate sent the same body as the first request
+         */
+        public boolean matches(byte[] fingerprint) {
+            return MessageDigest.isEqual(this.fingerprint, fingerprint);
+        }
+
+        /**
+         * @return the first request's response, completed once it has been sent
+         */
+        public CompletableFuture<Response> response() {
+            return response;
+        }
+    }
+
+    private static class Segment extends LinkedHashMap<String, Claim> {
+        private static final long serialVersionUID = 1L;
+
+        final int capacity;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+        }
+    }
+
+    private final Segment[] segments;
+    private final long ttlMs;
+    private final LongAdder replays = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxEntries the largest number of keys remembered
+     * @param ttlMs how long a key is remembered after it was first used
+     */
+    public IdempotencyStore(int maxEntries, long ttlMs) {
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, maxEntries / SEGMENTS));
+        }
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * @param body a request body
+     * @return the body's fingerprint for claim() and Claim.matches()
+     */
+    public static byte[] fingerprint(byte[] body) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(body);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Claims a key, or joins the claim already made on it.
+     *
+     * @param key the idempotency key, scoped by the caller to the client and the route
+     * @param fingerprint the fingerprint of the request body
+     * @return a first claim if the key was free or had expired, otherwise a duplicate's view of the existing claim
+     */
+    public Claim claim(String key, byte[] fingerprint) {
+        Segment segment = segmentFor(key);
+        long now = System.currentTimeMillis();
+        synchronized (segment) {
+            Claim existing = segment.get(key);
+            if (existing != null && existing.expiresAt > now) {
+                replays.increment();
+                return new Claim(existing);
+            }
+            if (existing != null) {
+                segment.remove(key);
+            } else if (segment.size() >= segment.capacity) {
+                makeRoom(segment, now);
+            }
+            Claim claim = new Claim(key, fingerprint, now + ttlMs);
+            segment.put(key, claim);
+            return claim;
+        }
+    }
+
+    /**
+     * Drops a full segment's expired entries, or failing that its oldest completed one. Entries are kept in claim
+     * order, and all live for ttlMs, so the expired ones come first.
+     */
+    private void makeRoom(Segment segment, long now) {
+        boolean freed = false;
+        Iterator<Claim> claims = segment.values().iterator();
+        while (claims.hasNext()) {
+            Claim claim = claims.next();
+            if (claim.expiresAt <= now) {
+                claims.remove();
+                freed = true;
+            } else if (freed) {
+                return;
+            } else if (claim.response.isDone()) {
+                claims.remove();
+                evictions.increment();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Records the response to a first claim and hands it to any duplicates waiting.
+     *
+     * @param claim the claim returned by claim()
+     * @param response the response sent
+     */
+    public void complete(Claim claim, Response response) {
+        if (response.status >= 500) {
+            Segment segment = segmentFor(claim.key);
+            synchronized (segment) {
+                segment.remove(claim.key, claim);
+            }
+        }
+        claim.response.complete(response);
+    }
+
+    /**
+     * @return the number of requests answered, or waiting to be answered, with an earlier request's response
+     */
+    public long replays() {
+        return replays.sum();
+    }
+
+    /**
+     * @return the number of completed entries dropped to make room before they expired
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    private Segment segmentFor(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return segments[(h * 0x9E3779B9 >>> 26) & (SEGMENTS - 1)];
+    }
+}
@@ -0,0 +1,483 @@
+package Util;
+
+import Model.Message;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded message cache that keeps messages in columns instead of objects. Each segment holds parallel primitive
+ * arrays (id, posted_by, time, counts, version, expiry) indexed by slot, an open-addressing id-to-slot table, and a
+ * direct ByteBuffer arena with the UTF-8 text of every slot, addressed by offset and length. A cached message costs
+ * a few dozen bytes plus its text, against an object header, a String and a byte[] per message when objects are
+ * cached; the arena also keeps the bulk of the bytes out of the garbage collector's way.
+ *
+ * Message objects are only built by get(), as a fresh view the caller owns. Full segments evict with the CLOCK
+ * algorithm (an approximate LRU that needs one reference byte per slot), and replaced or evicted text is reclaimed
+ * by copying the live text into a new arena once enough of the old one is garbage.
+ *
+ * Pinned messages are passed over by eviction for as long as they are fresh, so a small set of hot messages stays
+ * resident however much cold traffic streams through. Pinning does not extend the TTL or survive invalidation: a
+ * pinned message is reloaded like any other, and is pinned again when it is put back.
+ *
+ * The API and the stamp protocol are those of {@link EntityCache}: take stamp() before reading the database and
+ * pass it to put(), which drops the value if the message's segment was invalidated in between.
+ */
+public class MessageStore {
+
+    private static final int SEGMENTS = 64;
+    private static final int INITIAL_SLOTS = 64;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final long ttlMs;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxEntries the largest number of messages kept
+     * @param ttlMs how long a message is served after it was loaded
+     */
+    public MessageStore(int maxEntries, long ttlMs) {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, maxEntries / SEGMENTS));
+        }
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * @param messageId the message to look up
+     * @return a new Message built from the cached columns, or null if absent or expired
+     */
+    public Message get(int messageId) {
+        Segment segment = segmentFor(messageId);
+        Message message;
+        synchronized (segment) {
+            message = segment.get(messageId, System.currentTimeMillis());
+        }
+        if (message == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return message;
+    }
+
+    /**
+     * @param messageId the message about to be loaded
+     * @return the stamp to pass to put() once the message is loaded
+     */
+    public long stamp(int messageId) {
+        Segment segment = segmentFor(messageId);
+        synchronized (segment) {
+            return segment.invalidations;
+        }
+    }
+
+    /**
+     * Copies a loaded message into the columns unless its segment has been invalidated since the stamp was taken.
+     * The message object is not retained.
+     *
+     * @param message the message loaded from the database
+     * @param stamp the result of stamp() taken before the load
+     */
+    public void put(Message message, long stamp) {
+        byte[] text = message.getMessage_text() == null ? null : message.getMessage_text().getBytes(StandardCharsets.UTF_8);
+        if (text != null && text.length > Short.MAX_VALUE) {
+            return;
+        }
+        Segment segment = segmentFor(message.getMessage_id());
+        synchronized (segment) {
+            if (segment.invalidations == stamp) {
+                segment.put(message, text, System.currentTimeMillis() + ttlMs);
+            }
+        }
+    }
+
+    /**
+     * Drops a message and fails any load of its segment that is in progress.
+     *
+     * @param messageId the message that changed
+     */
+    public void invalidate(int messageId) {
+        Segment segment = segmentFor(messageId);
+        synchronized (segment) {
+            segment.invalidations++;
+            segment.remove(messageId);
+        }
+    }
+
+    /**
+     * Drops every message and fails every load in progress, for when the messages behind the store were rewritten
+     * in bulk.
+     */
+    public void invalidateAll() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.invalidations++;
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Keeps a message, now and whenever it is put again, out of eviction until it is unpinned.
+     *
+     * @param messageId the message to pin
+     */
+    public void pin(int messageId) {
+        Segment segment = segmentFor(messageId);
+        synchronized (segment) {
+            segment.pinned.add(messageId);
+        }
+    }
+
+    /**
+     * @param messageId the message to make evictable again
+     */
+    public void unpin(int messageId) {
+        Segment segment = segmentFor(messageId);
+        synchronized (segment) {
+            segment.pinned.remove(messageId);
+        }
+    }
+
+    /**
+     * @return the number of messages currently cached
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return bytes held on the heap by the columns and index tables
+     */
+    public long heapBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                bytes += segment.heapBytes();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return bytes reserved off the heap by the text arenas
+     */
+    public long offHeapBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                bytes += segment.arena.capacity();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the number of get() calls answered from the store
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of get() calls that found nothing
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    private Segment segmentFor(int messageId) {
+        return segments[(messageId * 0x9E3779B9 >>> 26) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * One independently locked slice of the store. Slots are allocated from a free list, or past the high-water mark
+     * while the columns have room; the columns double in size up to the segment's capacity. A slot whose expiry is
+     * 0 is free. A null text is stored with length -1.
+     */
+    private static final class Segment {
+        final int capacity;
+        final Set<Integer> pinned = new HashSet<>();
+        long invalidations;
+
+        int[] table;
+        int[] ids;
+        int[] postedBy;
+        long[] timePosted;
+        long[] likeCount;
+        long[] replyCount;
+        long[] version;
+        long[] expiresAt;
+        int[] textOffset;
+        short[] textLength;
+        byte[] referenced;
+        int[] free;
+        int freeCount;
+        int highWater;
+        int size;
+        int hand;
+
+        ByteBuffer arena;
+        int arenaEnd;
+        int garbage;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            resize(Math.min(capacity, INITIAL_SLOTS));
+            this.table = new int[tableSizeFor(ids.length)];
+            this.arena = ByteBuffer.allocateDirect(ids.length * 64);
+        }
+
+        Message get(int messageId, long now) {
+            int slot = find(messageId);
+            if (slot < 0) {
+                return null;
+            }
+            if (expiresAt[slot] <= now) {
+                release(slot);
+                return null;
+            }
+            referenced[slot] = 1;
+            String text = null;
+            if (textLength[slot] >= 0) {
+                byte[] bytes = new byte[textLength[slot]];
+                arena.position(textOffset[slot]);
+                arena.get(bytes);
+                text = new String(bytes, StandardCharsets.UTF_8);
+            }
+            Message message = new Message(ids[slot], postedBy[slot], text, timePosted[slot]);
+            message.setLike_count(likeCount[slot]);
+            message.setReply_count(replyCount[slot]);
+            message.setVersion(version[slot]);
+            return message;
+        }
+
+        void put(Message message, byte[] text, long expiry) {
+            int slot = find(message.getMessage_id());
+            if (slot >= 0) {
+                freeText(slot);
+            } else {
+                slot = allocate();
+                ids[slot] = message.getMessage_id();
+                insert(slot);
+                size++;
+            }
+            postedBy[slot] = message.getPosted_by();
+            timePosted[slot] = message.getTime_posted_epoch();
+            likeCount[slot] = message.getLike_count();
+            replyCount[slot] = message.getReply_count();
+            version[slot] = message.getVersion();
+            expiresAt[slot] = expiry;
+            referenced[slot] = 0;
+            if (text == null) {
+                textLength[slot] = -1;
+            } else {
+                reserveText(text.length);
+                arena.position(arenaEnd);
+                arena.put(text);
+                textOffset[slot] = arenaEnd;
+                textLength[slot] = (short) text.length;
+                arenaEnd += text.length;
+            }
+        }
+
+        void remove(int messageId) {
+            int slot = find(messageId);
+            if (slot >= 0) {
+                release(slot);
+            }
+        }
+
+        void clear() {
+            for (int slot = 0; slot < highWater; slot++) {
+                if (expiresAt[slot] != 0) {
+                    release(slot);
+                }
+            }
+        }
+
+        long heapBytes() {
+            long perSlot = 4 + 4 + 8 + 8 + 8 + 8 + 8 + 4 + 2 + 1 + 4;
+            return ids.length * perSlot + table.length * 4L;
+        }
+
+        private int allocate() {
+            if (freeCount > 0) {
+                return free[--freeCount];
+            }
+            if (highWater < ids.length) {
+                return highWater++;
+            }
+            if (ids.length < capacity) {
+                resize(Math.min(capacity, ids.length * 2));
+                rehash(tableSizeFor(ids.length));
+                return highWater++;
+            }
+            return evict();
+        }
+
+        /**
+         * Advances the clock hand until it finds a slot that is expired or has not been read since the hand last
+         * passed it, clearing reference bits on the way, and frees that slot for reuse. Fresh pinned slots are
+         * skipped for two full turns of the hand, after which a segment holding nothing but pinned messages evicts
+         * one anyway.
+         */
+        private int evict() {
+            long now = System.currentTimeMillis();
+            for (int step = 0; ; step++) {
+                int slot = hand;
+                hand = (hand + 1) % highWater;
+                if (expiresAt[slot] == 0) {
+                    continue;
+                }
+                boolean fresh = expiresAt[slot] > now;
+                if (fresh && step < 2 * highWater && !pinned.isEmpty() && pinned.contains(ids[slot])) {
+                    continue;
+                }
+                if (referenced[slot] != 0 && fresh) {
+                    referenced[slot] = 0;
+                    continue;
+                }
+                release(slot);
+                freeCount--;
+                return slot;
+            }
+        }
+
+        private void release(int slot) {
+            delete(slot);
+            freeText(slot);
+            expiresAt[slot] = 0;
+            free[freeCount++] = slot;
+            size--;
+        }
+
+        private void freeText(int slot) {
+            if (textLength[slot] > 0) {
+                garbage += textLength[slot];
+            }
+            textLength[slot] = -1;
+        }
+
+        /**
+         * Makes room for len more bytes of text. When the arena is full its live text is copied into a new arena,
+         * which grows by half whenever the live text would leave less than a quarter of it free.
+         */
+        private void reserveText(int len) {
+            if (arenaEnd + len <= arena.capacity()) {
+                return;
+            }
+            int live = arenaEnd - garbage;
+            int newCapacity = arena.capacity();
+            while ((live + len) * 4L > newCapacity * 3L) {
+                newCapacity += newCapacity / 2;
+            }
+            ByteBuffer fresh = ByteBuffer.allocateDirect(newCapacity);
+            for (int slot = 0; slot < highWater; slot++) {
+                if (expiresAt[slot] != 0 && textLength[slot] > 0) {
+                    arena.limit(textOffset[slot] + textLength[slot]).position(textOffset[slot]);
+                    textOffset[slot] = fresh.position();
+                    fresh.put(arena);
+                    arena.clear();
+                }
+            }
+            arenaEnd = fresh.position();
+            garbage = 0;
+            arena = fresh;
+        }
+
+        private int find(int messageId) {
+            int mask = table.length - 1;
+            for (int i = mix(messageId) & mask; ; i = (i + 1) & mask) {
+                int entry = table[i];
+                if (entry == 0) {
+                    return -1;
+                }
+                if (ids[entry - 1] == messageId) {
+                    return entry - 1;
+                }
+            }
+        }
+
+        private void insert(int slot) {
+            int mask = table.length - 1;
+            int i = mix(ids[slot]) & mask;
+            while (table[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            table[i] = slot + 1;
+        }
+
+        /**
+         * Removes a slot from the linear-probing table, shifting later entries of the same run back so lookups
+         * never need tombstones.
+         */
+        private void delete(int slot) {
+            int mask = table.length - 1;
+            int i = mix(ids[slot]) & mask;
+            while (table[i] != slot + 1) {
+                i = (i + 1) & mask;
+            }
+            int gap = i;
+            for (int j = (gap + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+                int home = mix(ids[table[j] - 1]) & mask;
+                if (((j - home) & mask) >= ((j - gap) & mask)) {
+                    table[gap] = table[j];
+                    gap = j;
+                }
+            }
+            table[gap] = 0;
+        }
+
+        private void rehash(int tableSize) {
+            table = new int[tableSize];
+            for (int slot = 0; slot < highWater; slot++) {
+                if (expiresAt[slot] != 0) {
+                    insert(slot);
+                }
+            }
+        }
+
+        private void resize(int slots) {
+            ids = grow(ids, slots);
+            postedBy = grow(postedBy, slots);
+            timePosted = grow(timePosted, slots);
+            likeCount = grow(likeCount, slots);
+            replyCount = grow(replyCount, slots);
+            version = grow(version, slots);
+            expiresAt = grow(expiresAt, slots);
+            textOffset = grow(textOffset, slots);
+            textLength = textLength == null ? new short[slots] : Arrays.copyOf(textLength, slots);
+            referenced = referenced == null ? new byte[slots] : Arrays.copyOf(referenced, slots);
+            free = grow(free, slots);
+        }
+
+        private static int[] grow(int[] column, int slots) {
+            return column == null ? new int[slots] : Arrays.copyOf(column, slots);
+        }
+
+        private static long[] grow(long[] column, int slots) {
+            return column == null ? new long[slots] : Arrays.copyOf(column, slots);
+        }
+
+        private static int tableSizeFor(int slots) {
+            return Integer.highestOneBit(Math.max(2, slots) * 2 - 1) << 1;
+        }
+
+        private static int mix(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
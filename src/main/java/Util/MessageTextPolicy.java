@@ -0,0 +1,255 @@
+package Util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.Normalizer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+
+/**
+ * The single set of rules message text must pass, shared by creates, updates and imports. In order:
+ *
+ * 1. not null and not blank, checked without allocating (trim() copies the string);
+ * 2. Unicode normalization, by default NFC, so canonically equal texts are stored alike; skipped when the text is
+ *    already normalized, which plain ASCII always is;
+ * 3. at most MAX_CODE_POINTS code points, counted after normalization so an emoji counts once, not as two UTF-16
+ *    units; message_text is varchar(510), which H2 counts in UTF-16 units, so any text that passes fits;
+ * 4. no blocked term, found in one pass with an Aho-Corasick automaton compiled when the policy is built.
+ *
+ * Blocked terms match case-insensitively and only as whole words, so blocking "ass" does not reject "class".
+ * A policy is immutable and safe to share between threads.
+ */
+public class MessageTextPolicy {
+
+    /**
+     * The most code points a message may have.
+     */
+    public static final int MAX_CODE_POINTS = 255;
+
+    private final Normalizer.Form form;
+    private final BlockedTerms blockedTerms;
+
+    /**
+     * @param form the normalization form applied to text, or null to store text as given
+     * @param blockedTerms words and phrases that make a message invalid; may be empty
+     */
+    public MessageTextPolicy(Normalizer.Form form, Collection<String> blockedTerms) {
+        this.form = form;
+        this.blockedTerms = blockedTerms.isEmpty() ? null : new BlockedTerms(blockedTerms);
+    }
+
+    /**
+     * Builds the policy from settings: message.text.normalization (NFC, NFKC, NFD, NFKD or none; default NFC),
+     * message.text.blocked (comma-separated terms) and message.text.blocked.file (a file of terms, one per line).
+     *
+     * @return the configured policy
+     */
+    public static MessageTextPolicy fromConfig() {
+        String normalization = AppConfig.get("message.text.normalization", "NFC");
+        Normalizer.Form form = normalization.equalsIgnoreCase("none") ? null
+                : Normalizer.Form.valueOf(normalization.toUpperCase(Locale.ROOT));
+        List<String> terms = new ArrayList<>();
+        for (String term : AppConfig.get("message.text.blocked", "").split(",")) {
+            terms.add(term);
+        }
+        String file = AppConfig.get("message.text.blocked.file", null);
+        if (file != null) {
+            try {
+                terms.addAll(Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read blocked terms from " + file, e);
+            }
+        }
+        terms.removeIf(MessageTextPolicy::isBlank);
+        return new MessageTextPolicy(form, terms);
+    }
+
+    /**
+     * Checks a message text against every rule.
+     *
+     * @param text the text as submitted
+     * @return the text to store, normalized
+     * @throws IllegalArgumentException naming the first rule the text breaks
+     */
+    public String apply(String text) {
+        if (text == null || isBlank(text)) {
+            throw new IllegalArgumentException("Message text cannot be blank");
+        }
+        if (form != null && !Normalizer.isNormalized(text, form)) {
+            text = Normalizer.normalize(text, form);
+        }
+        if (text.length() > MAX_CODE_POINTS && text.codePointCount(0, text.length()) > MAX_CODE_POINTS) {
+            throw new IllegalArgumentException("Message text too long");
+        }
+        if (blockedTerms != null && blockedTerms.foundIn(text)) {
+            throw new IllegalArgumentException("Message text contains a blocked term");
+        }
+        return text;
+    }
+
+    /**
+     * @param text any text
+     * @return whether it has nothing but whitespace and control characters
+     */
+    public static boolean isBlank(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c > ' ' && !Character.isWhitespace(c) && !Character.isSpaceChar(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * An Aho-Corasick automaton over the lower-cased terms, compiled to a dense transition table. Characters are
+     * first mapped to a class: one per distinct character used by the terms, and class 0 for every other character;
+     * for ASCII the mapping is a table that folds case as well.
+     * Failure links are folded into the table at build time, so matching is one array lookup per character of the
+     * text and allocates nothing.
+     */
+    private static final class BlockedTerms {
+        private final char[] alphabet;
+        private final int[] asciiClass = new int[128];
+        private final int classes;
+        private final int[] next;
+        private final int[][] matchLengths;
+        private final boolean[] matches;
+
+        BlockedTerms(Collection<String> terms) {
+            TreeSet<Character> chars = new TreeSet<>();
+            List<String> lowered = new ArrayList<>();
+            for (String term : terms) {
+                String word = lower(term.trim());
+                lowered.add(word);
+                for (int i = 0; i < word.length(); i++) {
+                    chars.add(word.charAt(i));
+                }
+            }
+            alphabet = new char[chars.size()];
+            int n = 0;
+            for (char c : chars) {
+                alphabet[n++] = c;
+            }
+            classes = alphabet.length + 1;
+            for (char c = 0; c < 128; c++) {
+                int index = Arrays.binarySearch(alphabet, Character.toLowerCase(c));
+                asciiClass[c] = index < 0 ? 0 : index + 1;
+            }
+
+            // trie, with -1 for a missing edge
+            List<int[]> edges = new ArrayList<>();
+            List<int[]> outputs = new ArrayList<>();
+            edges.add(newRow());
+            outputs.add(new int[0]);
+            for (String word : lowered) {
+                int state = 0;
+                for (int i = 0; i < word.length(); i++) {
+                    int c = classOf(word.charAt(i));
+                    if (edges.get(state)[c] < 0) {
+                        edges.get(state)[c] = edges.size();
+                        edges.add(newRow());
+                        outputs.add(new int[0]);
+                    }
+                    state = edges.get(state)[c];
+                }
+                outputs.set(state, append(outputs.get(state), word.length()));
+            }
+
+            // breadth-first: fill missing edges from the failure state and inherit its outputs
+            int states = edges.size();
+            next = new int[states * classes];
+            matchLengths = new int[states][];
+            int[] fail = new int[states];
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            for (int c = 0; c < classes; c++) {
+                int child = edges.get(0)[c];
+                next[c] = Math.max(child, 0);
+                if (child > 0) {
+                    queue.add(child);
+                }
+            }
+            matches = new boolean[states];
+            matchLengths[0] = outputs.get(0);
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                matchLengths[state] = concat(outputs.get(state), matchLengths[fail[state]]);
+                matches[state] = matchLengths[state].length > 0;
+                for (int c = 0; c < classes; c++) {
+                    int child = edges.get(state)[c];
+                    if (child < 0) {
+                        next[state * classes + c] = next[fail[state] * classes + c];
+                    } else {
+                        fail[child] = next[fail[state] * classes + c];
+                        next[state * classes + c] = child;
+                        queue.add(child);
+                    }
+                }
+            }
+        }
+
+        boolean foundIn(String text) {
+            int state = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                state = next[state * classes + (c < 128 ? asciiClass[c] : classOf(Character.toLowerCase(c)))];
+                if (!matches[state]) {
+                    continue;
+                }
+                for (int length : matchLengths[state]) {
+                    int start = i - length + 1;
+                    if ((start == 0 || !Character.isLetterOrDigit(text.charAt(start - 1)))
+                            && (i + 1 == text.length() || !Character.isLetterOrDigit(text.charAt(i + 1)))) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private int classOf(char c) {
+            if (c < 128) {
+                return asciiClass[c];
+            }
+            int index = Arrays.binarySearch(alphabet, c);
+            return index < 0 ? 0 : index + 1;
+        }
+
+        private int[] newRow() {
+            int[] row = new int[classes];
+            Arrays.fill(row, -1);
+            return row;
+        }
+
+        private static String lower(String term) {
+            char[] chars = term.toCharArray();
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = Character.toLowerCase(chars[i]);
+            }
+            return new String(chars);
+        }
+
+        private static int[] append(int[] values, int value) {
+            int[] result = Arrays.copyOf(values, values.length + 1);
+            result[values.length] = value;
+            return result;
+        }
+
+        private static int[] concat(int[] a, int[] b) {
+            if (b.length == 0) {
+                return a;
+            }
+            int[] result = Arrays.copyOf(a, a.length + b.length);
+            System.arraycopy(b, 0, result, a.length, b.length);
+            return result;
+        }
+    }
+}
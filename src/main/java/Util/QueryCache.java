@@ -0,0 +1,213 @@
+package Util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches query results by key, each tagged with what it was read from: a table, or one value of a column such as
+ * one account's messages. A write invalidates the tags it touched and only the results carrying one of them are
+ * dropped, so results over data the write did not touch stay cached.
+ *
+ * Memory is bounded by weight rather than entry count: each result is put with its estimated size and, once the
+ * total passes maxWeight, the least recently used results are evicted until it fits again. A result heavier than
+ * an eighth of maxWeight is not cached at all, so one large result cannot flush everything else. Entries also
+ * expire ttlMs after they were loaded, as a backstop for writes made without invalidating, such as rows changed by
+ * hand in the database. A replica read is not such a case: callers must load from a follower that has applied
+ * every write up to the time of the stamp (see ShardRouter.getReadConnection(int, long)).
+ *
+ * Loads follow the stamp protocol of {@link EntityCache}: take stamp() before reading the database and pass it to
+ * put(), which drops the result if one of its tags was invalidated in between. Invalidations are recorded per
+ * stripe of tags rather than per tag, so the record stays bounded; a tag sharing a stripe with an invalidated one
+ * only costs a dropped put.
+ *
+ * @param <V> the cached result type; callers must not mutate results they get back
+ */
+public class QueryCache<V> {
+
+    private static final int STRIPES = 1024;
+
+    private static class Entry<V> {
+        final V value;
+        final long weight;
+        final long expiresAt;
+        final Collection<String> tags;
+
+        Entry(V value, long weight, long expiresAt, Collection<String> tags) {
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+            this.tags = tags;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Set<String>> keysByTag = new HashMap<>();
+    private final long[] invalidatedAt = new long[STRIPES];
+    private final long maxWeight;
+    private final long ttlMs;
+    private long version;
+    private long weight;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxWeight the largest total weight kept, in the unit callers weigh results in, eg estimated bytes
+     * @param ttlMs how long a result is served after it was loaded
+     */
+    public QueryCache(long maxWeight, long ttlMs) {
+        this.maxWeight = maxWeight;
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * @param key the query key
+     * @return the cached result, or null if absent or expired
+     */
+    public V get(String key) {
+        synchronized (this) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+                hits.increment();
+                return entry.value;
+            }
+            if (entry != null) {
+                remove(key, entry);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * @return the stamp to pass to put() once the result is loaded
+     */
+    public synchronized long stamp() {
+        return version;
+    }
+
+    /**
+     * Caches a loaded result unless one of its tags has been invalidated since the stamp was taken, or it weighs
+     * more than an eighth of maxWeight.
+     *
+     * @param key the query key
+     * @param value the result loaded from the database
+     * @param weight the result's estimated size
+     * @param tags what the result was read from
+     * @param stamp the result of stamp() taken before the load
+     */
+    public synchronized void put(String key, V value, long weight, Collection<String> tags, long stamp) {
+        if (weight > maxWeight / 8) {
+            return;
+        }
+        for (String tag : tags) {
+            if (invalidatedAt[stripe(tag)] > stamp) {
+                return;
+            }
+        }
+        Entry<V> previous = entries.get(key);
+        if (previous != null) {
+            remove(key, previous);
+        }
+        entries.put(key, new Entry<>(value, weight, System.currentTimeMillis() + ttlMs, tags));
+        for (String tag : tags) {
+            keysByTag.computeIfAbsent(tag, t -> new HashSet<>()).add(key);
+        }
+        this.weight += weight;
+        Iterator<Map.Entry<String, Entry<V>>> eldest = entries.entrySet().iterator();
+        while (this.weight > maxWeight && eldest.hasNext()) {
+            Map.Entry<String, Entry<V>> evicted = eldest.next();
+            eldest.remove();
+            unindex(evicted.getKey(), evicted.getValue());
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Drops every result carrying the tag and fails any load of one in progress.
+     *
+     * @param tag what a write touched
+     */
+    public synchronized void invalidate(String tag) {
+        invalidatedAt[stripe(tag)] = ++version;
+        Set<String> keys = keysByTag.remove(tag);
+        if (keys != null) {
+            for (String key : keys) {
+                Entry<V> entry = entries.get(key);
+                if (entry != null) {
+                    remove(key, entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops every result and fails every load in progress, for writes too broad to tag.
+     */
+    public synchronized void clear() {
+        version++;
+        Arrays.fill(invalidatedAt, version);
+        entries.clear();
+        keysByTag.clear();
+        weight = 0;
+    }
+
+    /**
+     * @return the total weight of the cached results
+     */
+    public synchronized long weight() {
+        return weight;
+    }
+
+    /**
+     * @return the number of get() calls answered from the cache
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of get() calls that found nothing
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of results evicted to stay within maxWeight
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    private void remove(String key, Entry<V> entry) {
+        entries.remove(key);
+        unindex(key, entry);
+    }
+
+    private void unindex(String key, Entry<V> entry) {
+        weight -= entry.weight;
+        for (String tag : entry.tags) {
+            Set<String> keys = keysByTag.get(tag);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    keysByTag.remove(tag);
+                }
+            }
+        }
+    }
+
+    private static int stripe(String tag) {
+        int h = tag.hashCode();
+        h ^= h >>> 16;
+        return (h * 0x9E3779B9 >>> 22) & (STRIPES - 1);
+    }
+}
@@ -0,0 +1,287 @@
+package Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+/**
+ * The read followers of one shard. Followers start as a copy of the primary taken with SCRIPT / RUNSCRIPT, then
+ * stay current by replaying a change log: every DAO write appends its statement and parameters with a sequence
+ * number, and a shipper thread applies the log to each follower in batches, in sequence order.
+ *
+ * Each follower records the last sequence number it applied. A read that must see a given write asks for a
+ * follower at or past that sequence number and falls back to the primary when none has caught up.
+ *
+ * A follower that fails to apply a change is taken out of rotation and, db.replica.resync.ms later, copied from the
+ * primary again by the shipper thread. The copy is taken under the shard's write lock, so it holds exactly the
+ * changes up to the last sequence number logged, and the follower rejoins from there; changes at or before that
+ * number still waiting in the log are skipped for it.
+ */
+public class ReplicaSet {
+
+    /**
+     * One logged write: the statement to replay and its bound parameters.
+     */
+    private static class Change {
+        final long seq;
+        final String sql;
+        final Object[] params;
+
+        Change(long seq, String sql, Object[] params) {
+            this.seq = seq;
+            this.sql = sql;
+            this.params = params;
+        }
+    }
+
+    /**
+     * Applied sequence number of a follower that failed to apply a change. It is not read from until resynced.
+     */
+    private static final long FAILED = -1;
+
+    private final int shard;
+    private final List<ConnectionPool> followers = new ArrayList<>();
+    private final AtomicLongArray appliedSeq;
+    private final long[] resyncAt;
+    private final AtomicLong lastSeq = new AtomicLong();
+    private final AtomicInteger nextFollower = new AtomicInteger();
+    private final BlockingQueue<Change> log;
+    private final Thread shipper;
+    private volatile boolean running = true;
+
+    /**
+     * Creates the followers and copies the primary's current contents into each of them.
+     *
+     * @param shard the shard being replicated
+     * @param count the number of followers
+     * @param urlPrefix JDBC url prefix for the followers; shard and follower numbers are appended
+     * @param logCapacity the largest number of unshipped changes before writers wait for the shipper
+     */
+    public ReplicaSet(int shard, int count, String urlPrefix, int logCapacity) {
+        this.shard = shard;
+        this.appliedSeq = new AtomicLongArray(count);
+        this.resyncAt = new long[count];
+        this.log = new LinkedBlockingQueue<>(logCapacity);
+        for (int i = 0; i < count; i++) {
+            JdbcDataSource dataSource = new JdbcDataSource();
+            dataSource.setURL(urlPrefix + shard + "-" + i + ";DB_CLOSE_DELAY=-1");
+            dataSource.setUser("sa");
+            dataSource.setPassword("sa");
+            ConnectionPool follower = new ConnectionPool(dataSource, AppConfig.getInt("db.pool.size", 16),
+                    AppConfig.getLong("db.pool.acquire.timeout.ms", 5000));
+            try {
+                restore(follower, snapshot(shard));
+            } catch (Exception e) {
+                throw new IllegalStateException("Could not copy the primary into a follower", e);
+            }
+            followers.add(follower);
+        }
+        this.shipper = new Thread(this::shipLoop, "replica-shipper-" + shard);
+        this.shipper.setDaemon(true);
+        this.shipper.start();
+    }
+
+    /**
+     * Appends a write that has just been committed on the primary. Callers hold the shard's write lock, so log
+     * order matches commit order.
+     *
+     * @param sql the statement to replay
+     * @param params its parameters
+     * @return the sequence number of the change
+     */
+    public long append(String sql, Object... params) {
+        long seq = lastSeq.incrementAndGet();
+        try {
+            log.put(new Change(seq, sql, params));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return seq;
+    }
+
+    /**
+     * Borrows a connection to a working follower that has applied at least minSeq.
+     *
+     * @param minSeq the sequence number the read must observe
+     * @return a follower connection, or null if no follower has caught up
+     * @throws SQLException if borrowing the connection fails
+     */
+    public Connection readConnection(long minSeq) throws SQLException {
+        int count = followers.size();
+        int start = Math.floorMod(nextFollower.getAndIncrement(), count);
+        for (int i = 0; i < count; i++) {
+            int candidate = (start + i) % count;
+            if (appliedSeq.get(candidate) >= minSeq) {
+                return followers.get(candidate).getConnection();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the sequence number of the latest change appended
+     */
+    public long lastSeq() {
+        return lastSeq.get();
+    }
+
+    /**
+     * @return how many changes the slowest working follower is behind the primary
+     */
+    public long lag() {
+        long slowest = lastSeq.get();
+        for (int i = 0; i < followers.size(); i++) {
+            if (appliedSeq.get(i) != FAILED) {
+                slowest = Math.min(slowest, appliedSeq.get(i));
+            }
+        }
+        return lastSeq.get() - slowest;
+    }
+
+    /**
+     * Stops shipping and closes the followers.
+     */
+    public void close() {
+        running = false;
+        shipper.interrupt();
+        for (ConnectionPool follower : followers) {
+            follower.close();
+        }
+    }
+
+    private void shipLoop() {
+        List<Change> batch = new ArrayList<>();
+        while (running) {
+            try {
+                resyncFailed();
+                Change first = log.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                log.drainTo(batch, 999);
+                for (int i = 0; i < followers.size(); i++) {
+                    if (appliedSeq.get(i) != FAILED) {
+                        apply(i, batch);
+                    }
+                }
+                batch.clear();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void apply(int follower, List<Change> batch) {
+        long applied = appliedSeq.get(follower);
+        if (batch.get(batch.size() - 1).seq <= applied) {
+            return;
+        }
+        try (Connection conn = followers.get(follower).getConnection()) {
+            conn.setAutoCommit(false);
+            for (Change change : batch) {
+                if (change.seq <= applied) {
+                    continue;
+                }
+                try (PreparedStatement ps = conn.prepareStatement(change.sql)) {
+                    for (int p = 0; p < change.params.length; p++) {
+                        ps.setObject(p + 1, change.params[p]);
+                    }
+                    ps.executeUpdate();
+                }
+            }
+            conn.commit();
+            appliedSeq.set(follower, batch.get(batch.size() - 1).seq);
+        } catch (SQLException e) {
+            failed(follower, "ReplicaSet.apply", e);
+        }
+    }
+
+    /**
+     * Copies the primary into each failed follower whose resync time has come and puts it back in rotation.
+     */
+    private void resyncFailed() throws InterruptedException {
+        for (int i = 0; i < followers.size(); i++) {
+            if (appliedSeq.get(i) != FAILED || System.currentTimeMillis() < resyncAt[i]) {
+                continue;
+            }
+            Lock writeLock = ShardRouter.writeLock(shard);
+            // a writer holding the lock may be waiting for room in the log, which only this thread makes
+            if (!writeLock.tryLock(100, TimeUnit.MILLISECONDS)) {
+                continue;
+            }
+            long seq;
+            File snapshot;
+            try {
+                seq = lastSeq.get();
+                snapshot = snapshot(shard);
+            } catch (Exception e) {
+                failed(i, "ReplicaSet.resync", e);
+                continue;
+            } finally {
+                writeLock.unlock();
+            }
+            try {
+                restore(followers.get(i), snapshot);
+            } catch (Exception e) {
+                failed(i, "ReplicaSet.resync", e);
+                continue;
+            }
+            appliedSeq.set(i, seq);
+            StructuredLogger.event("replica_resync")
+                    .field("shard", shard)
+                    .field("follower", i)
+                    .field("seq", seq)
+                    .log();
+        }
+    }
+
+    private void failed(int follower, String operation, Exception e) {
+        appliedSeq.set(follower, FAILED);
+        resyncAt[follower] = System.currentTimeMillis() + AppConfig.getLong("db.replica.resync.ms", 5000);
+        StructuredLogger.event("error")
+                .field("operation", operation)
+                .field("shard", shard)
+                .field("follower", follower)
+                .error(e)
+                .log();
+    }
+
+    /**
+     * @return a file holding a SCRIPT of the primary's current contents
+     */
+    private static File snapshot(int shard) throws IOException, SQLException {
+        File snapshot = File.createTempFile("replica-snapshot", ".sql");
+        snapshot.deleteOnExit();
+        try (Connection conn = ShardRouter.getConnection(shard); Statement statement = conn.createStatement()) {
+            statement.execute("SCRIPT TO '" + snapshot.getAbsolutePath().replace("'", "''") + "'");
+        }
+        return snapshot;
+    }
+
+    /**
+     * Replaces a follower's contents with a snapshot and deletes the snapshot.
+     */
+    private static void restore(ConnectionPool follower, File snapshot) throws SQLException {
+        try (Connection conn = follower.getConnection(); Statement statement = conn.createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+            statement.execute("RUNSCRIPT FROM '" + snapshot.getAbsolutePath().replace("'", "''") + "'");
+        } finally {
+            snapshot.delete();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package Util;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Per-request read-your-writes tracking. Each write records the replication sequence number it was given on its
+ * shard, and reads on that shard then only use followers that have applied at least that far.
+ *
+ * The positions travel between requests as a consistency token (one sequence number per shard, comma separated),
+ * which the controller returns in the X-Consistency-Token header and accepts back on later requests.
+ *
+ * The request also adds up the time its pooled database connections were leased, which is how long it spent in
+ * DAO calls, and separately the time it waited for a pooled connection or a shard's write lock. The controller
+ * reports the first with each request's flight recorder event and feeds both to the concurrency limiters.
+ *
+ * Tracking is per thread. Work a request hands to another thread carries it along with propagate(), and
+ * current()/resume() move it to whichever thread finishes the request.
+ */
+public class RequestContext {
+
+    private static final ThreadLocal<Tracking> CURRENT = new ThreadLocal<>();
+
+    private static final class Tracking {
+        final long[] minSeq;
+        final LongAdder dbNanos = new LongAdder();
+        final LongAdder waitNanos = new LongAdder();
+
+        Tracking(long[] minSeq) {
+            this.minSeq = minSeq;
+        }
+    }
+
+    /**
+     * Starts tracking for the request on the current thread.
+     *
+     * @param token a consistency token from an earlier response, or null
+     */
+    public static void begin(String token) {
+        long[] seqs = new long[ShardRouter.shardCount()];
+        if (token != null && !token.isEmpty()) {
+            String[] parts = token.split(",");
+            for (int i = 0; i < parts.length && i < seqs.length; i++) {
+                try {
+                    seqs[i] = Long.parseLong(parts[i].trim());
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        CURRENT.set(new Tracking(seqs));
+    }
+
+    /**
+     * Records that the current request wrote to a shard.
+     *
+     * @param shard the shard written to
+     * @param seq the replication sequence number of the write
+     */
+    public static void recordWrite(int shard, long seq) {
+        long[] seqs = minSeqs();
+        if (seqs != null && shard < seqs.length) {
+            seqs[shard] = Math.max(seqs[shard], seq);
+        }
+    }
+
+    /**
+     * Adds the time a database connection was leased to the current request.
+     *
+     * @param nanos the lease time
+     */
+    public static void recordDbTime(long nanos) {
+        Tracking tracking = CURRENT.get();
+        if (tracking != null) {
+            tracking.dbNanos.add(nanos);
+        }
+    }
+
+    /**
+     * @return the time the current request has held database connections so far, in nanoseconds
+     */
+    public static long dbNanos() {
+        Tracking tracking = CURRENT.get();
+        return tracking == null ? 0 : tracking.dbNanos.sum();
+    }
+
+    /**
+     * Adds time spent waiting for a pooled connection or a shard's write lock to the current request.
+     *
+     * @param nanos the wait time
+     */
+    public static void recordWaitTime(long nanos) {
+        Tracking tracking = CURRENT.get();
+        if (tracking != null) {
+            tracking.waitNanos.add(nanos);
+        }
+    }
+
+    /**
+     * @return the time the current request has waited for connections and write locks so far, in nanoseconds
+     */
+    public static long waitNanos() {
+        Tracking tracking = CURRENT.get();
+        return tracking == null ? 0 : tracking.waitNanos.sum();
+    }
+
+    /**
+     * @param shard the shard being read
+     * @return the sequence number a follower must have applied to serve the read
+     */
+    public static long minSeqFor(int shard) {
+        long[] seqs = minSeqs();
+        return seqs == null || shard >= seqs.length ? 0 : seqs[shard];
+    }
+
+    /**
+     * @return the token describing everything this request must be able to read, or null if it is empty
+     */
+    public static String token() {
+        long[] seqs = minSeqs();
+        if (seqs == null) {
+            return null;
+        }
+        StringBuilder token = new StringBuilder();
+        boolean any = false;
+        for (int i = 0; i < seqs.length; i++) {
+            if (i > 0) {
+                token.append(',');
+            }
+            token.append(seqs[i]);
+            any |= seqs[i] > 0;
+        }
+        return any ? token.toString() : null;
+    }
+
+    /**
+     * @return a handle on the current thread's tracking for resume(), or null if none has begun
+     */
+    public static Object current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Makes tracking captured with current() on another thread current on this one. Both threads then share it, so
+     * writes recorded here show up in the other thread's token.
+     *
+     * @param handle the result of current(), or null to stop tracking on this thread
+     */
+    public static void resume(Object handle) {
+        if (handle == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set((Tracking) handle);
+        }
+    }
+
+    /**
+     * Wraps a task so that, wherever it runs, it reads and records writes as the current thread's request does.
+     *
+     * @param task work to run on another thread
+     * @return the task bound to this thread's tracking
+     */
+    public static <T> Supplier<T> propagate(Supplier<T> task) {
+        Tracking tracking = CURRENT.get();
+        return () -> {
+            Tracking previous = CURRENT.get();
+            resume(tracking);
+            try {
+                return task.get();
+            } finally {
+                resume(previous);
+            }
+        };
+    }
+
+    /**
+     * Stops tracking for the request on the current thread.
+     */
+    public static void end() {
+        CURRENT.remove();
+    }
+
+    private static long[] minSeqs() {
+        Tracking tracking = CURRENT.get();
+        return tracking == null ? null : tracking.minSeq;
+    }
+}
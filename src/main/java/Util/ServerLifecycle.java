@@ -0,0 +1,103 @@
+package Util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks whether the server is warmed up and ready for traffic, how many requests are in flight, and whether it is
+ * draining for shutdown. The controller reports request start and finish, and Main flips the ready and draining
+ * states around warm-up and the JVM shutdown hook.
+ *
+ * The draining flag and the in-flight count share one atomic word, so tryStart() checks the one and counts the
+ * request in a single compare-and-set. A request is therefore either counted before drain() sets the flag, and
+ * waited for, or turned away; none can slip in after drain() has seen zero requests in flight.
+ */
+public class ServerLifecycle {
+
+    private static final int DRAINING = 1 << 30;
+
+    // the DRAINING bit plus the number of requests in flight
+    private final AtomicInteger state = new AtomicInteger();
+    private volatile boolean ready;
+
+    /**
+     * Marks warm-up as finished so the readiness probe starts reporting true.
+     */
+    public void markReady() {
+        ready = true;
+    }
+
+    /**
+     * @return true once warm-up has finished and the server is not draining
+     */
+    public boolean isReady() {
+        return ready && !isDraining();
+    }
+
+    /**
+     * @return true once shutdown has begun and new requests should be turned away
+     */
+    public boolean isDraining() {
+        return (state.get() & DRAINING) != 0;
+    }
+
+    /**
+     * Records the start of a request unless the server is draining.
+     *
+     * @return true if the request was counted and must later call requestFinished(); false if it must be refused
+     */
+    public boolean tryStart() {
+        while (true) {
+            int current = state.get();
+            if ((current & DRAINING) != 0) {
+                return false;
+            }
+            if (state.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Records the start of a request even while draining, for the health probes that must keep answering.
+     */
+    public void requestStarted() {
+        state.incrementAndGet();
+    }
+
+    /**
+     * Records the end of a request previously reported through tryStart() or requestStarted().
+     */
+    public void requestFinished() {
+        state.decrementAndGet();
+    }
+
+    /**
+     * @return the number of requests currently being handled
+     */
+    public int inFlight() {
+        return state.get() & ~DRAINING;
+    }
+
+    /**
+     * Stops accepting new requests and waits for the in-flight ones to finish.
+     *
+     * @param timeoutMs the longest time to wait for in-flight requests
+     * @return true if every in-flight request finished before the timeout
+     */
+    public boolean drain(long timeoutMs) {
+        state.getAndUpdate(current -> current | DRAINING);
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (inFlight() > 0) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,354 @@
+package Util;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.h2.tools.RunScript;
+
+/**
+ * Routes DAO calls to one of db.shards H2 databases, each with its own connection pool. Shard 0 is the database
+ * behind ConnectionUtil; shard i above 0 lives at db.shard.url.prefix + i, next to shard 0 by default. Every shard,
+ * shard 0 included, has Schema.sql run on it when the router is configured, which creates missing tables and
+ * columns before any DAO reads them. Every shard is opened with the same {@link StorageProfile}.
+ *
+ * An account and all of its messages live on the same shard, so a message is routed by posted_by and an account by
+ * account_id. Ids are allocated so that id mod shardCount is the owning shard, which lets any message or account be
+ * found from its id alone. Message ids are also kept in posting order across shards: a new message gets the
+ * smallest id of its shard above every message id allocated so far on any shard (see messageIdFloor()), so
+ * merging shards by message_id, and paging with a message_id cursor, follow posting order even when one shard is
+ * far busier than another. That spends up to shardCount ids per message. With the default of one shard every id
+ * routes to shard 0 and ids are allocated exactly as before.
+ *
+ * Each shard can also have db.replicas read followers (see {@link ReplicaSet}). Read-only DAO methods borrow their
+ * connection through getReadConnection(), which picks a follower that has caught up with the request's own writes
+ * and otherwise falls back to the primary.
+ */
+public class ShardRouter {
+
+    private static int shardCount;
+    private static ConnectionPool[] pools;
+    private static Lock[] writeLocks;
+    private static ReplicaSet[] replicas;
+    private static final int NOT_LOADED = Integer.MIN_VALUE;
+    private static final AtomicInteger highestMessageId = new AtomicInteger(NOT_LOADED);
+
+    static {
+        ConnectionUtil.onReset(ShardRouter::reloadMessageIds);
+        String defaultPrefix = ConnectionUtil.storageProfile().urlPrefix(AppConfig.get("db.path", "./h2/db") + "-shard");
+        configure(AppConfig.getInt("db.shards", 1), AppConfig.get("db.shard.url.prefix", defaultPrefix),
+                AppConfig.getInt("db.replicas", 0), AppConfig.get("db.replica.url.prefix", "jdbc:h2:mem:replica"));
+    }
+
+    /**
+     * Sets the number of shards and where the extra shards live, without read followers. Intended for startup code
+     * and benchmarks; call it before any DAO is used.
+     *
+     * @param count the number of shards, at least 1
+     * @param urlPrefix the JDBC url prefix for shards above 0; the shard number is appended
+     */
+    public static synchronized void configure(int count, String urlPrefix) {
+        configure(count, urlPrefix, 0, "");
+    }
+
+    /**
+     * Sets the number of shards and of read followers per shard. Followers are copied from their primary when they
+     * are created, so call this while nothing is writing.
+     *
+     * @param count the number of shards, at least 1
+     * @param urlPrefix the JDBC url prefix for shards above 0; the shard number is appended
+     * @param followers the number of read followers per shard, 0 for none
+     * @param followerUrlPrefix the JDBC url prefix for followers; shard and follower numbers are appended
+     */
+    public static synchronized void configure(int count, String urlPrefix, int followers, String followerUrlPrefix) {
+        shutdown();
+        int shards = Math.max(1, count);
+        ConnectionPool[] created = new ConnectionPool[shards];
+        createSchema(null, 0);
+        for (int i = 1; i < shards; i++) {
+            JdbcDataSource dataSource = new JdbcDataSource();
+            dataSource.setURL(urlPrefix + i + ConnectionUtil.storageProfile().urlOptions());
+            dataSource.setUser("sa");
+            dataSource.setPassword("sa");
+            created[i] = new ConnectionPool(dataSource, AppConfig.getInt("db.pool.size", 16),
+                    AppConfig.getLong("db.pool.acquire.timeout.ms", 5000));
+            createSchema(created[i], i);
+        }
+        Lock[] locks = new Lock[shards];
+        for (int i = 0; i < shards; i++) {
+            locks[i] = new WaitTimedLock();
+        }
+        writeLocks = locks;
+        pools = created;
+        shardCount = shards;
+        reloadMessageIds();
+        replicas = new ReplicaSet[shards];
+        if (followers > 0) {
+            for (int i = 0; i < shards; i++) {
+                replicas[i] = new ReplicaSet(i, followers, followerUrlPrefix,
+                        AppConfig.getInt("db.replica.log.capacity", 100000));
+            }
+        }
+    }
+
+    /**
+     * @return the number of shards
+     */
+    public static int shardCount() {
+        return shardCount;
+    }
+
+    /**
+     * @param key an account_id, a posted_by value or a message_id
+     * @return the shard that owns the key
+     */
+    public static int shardFor(int key) {
+        return Math.floorMod(key, shardCount);
+    }
+
+    /**
+     * Splits ids by the shard that owns them, dropping duplicates.
+     *
+     * @param ids message, account or posted_by ids
+     * @return the ids of each shard, keyed by shard
+     */
+    public static Map<Integer, List<Integer>> groupByShard(Collection<Integer> ids) {
+        Map<Integer, List<Integer>> byShard = new HashMap<>();
+        for (Integer id : new LinkedHashSet<>(ids)) {
+            byShard.computeIfAbsent(shardFor(id), shard -> new ArrayList<>()).add(id);
+        }
+        return byShard;
+    }
+
+    /**
+     * Picks the shard for a new account from a hash of its username.
+     *
+     * @param username the username of the account being created
+     * @return the shard the account will live on
+     */
+    public static int shardForUsername(String username) {
+        int h = username == null ? 0 : username.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return Math.floorMod(h, shardCount);
+    }
+
+    /**
+     * Gives the id of the first row on an empty shard. Later rows add shardCount to the shard's largest id, so every
+     * id on a shard is congruent to the shard number and shardFor() on the id finds the shard again.
+     *
+     * @param shard the shard the row is being inserted into
+     * @return the id for the first row on that shard
+     */
+    public static int firstId(int shard) {
+        return shard == 0 ? shardCount : shard;
+    }
+
+    /**
+     * Gives the smallest id a new message on a shard may take so message ids stay in posting order across shards:
+     * the first id congruent to the shard number above the highest message id allocated on any shard. The insert
+     * still takes one past the shard's own largest id if that is higher, as it can be when another process wrote.
+     *
+     * @param shard the shard the message is being inserted into
+     * @return the lowest id the insert may use
+     * @throws SQLException if the highest id had to be read from the shards and could not be
+     */
+    public static int messageIdFloor(int shard) throws SQLException {
+        int highest = highestMessageId.get();
+        if (highest == NOT_LOADED) {
+            highest = loadHighestMessageId();
+        }
+        return Math.max(firstId(shard), highest + 1 + Math.floorMod(shard - (highest + 1), shardCount));
+    }
+
+    /**
+     * Raises the floor of later message ids past one just allocated or imported.
+     *
+     * @param messageId the id of a message now stored
+     */
+    public static void messageIdAllocated(int messageId) {
+        highestMessageId.accumulateAndGet(messageId, Math::max);
+    }
+
+    /**
+     * Forgets the highest message id, so the next messageIdFloor() reads it from the shards again; for when the
+     * tables were rewritten underneath the router.
+     */
+    public static void reloadMessageIds() {
+        highestMessageId.set(NOT_LOADED);
+    }
+
+    private static synchronized int loadHighestMessageId() throws SQLException {
+        int highest = 0;
+        for (int shard = 0; shard < shardCount; shard++) {
+            try (Connection conn = getConnection(shard);
+                 PreparedStatement ps = conn.prepareStatement("SELECT COALESCE(MAX(message_id), 0) FROM message");
+                 ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                highest = Math.max(highest, rs.getInt(1));
+            }
+        }
+        // NOT_LOADED is the smallest int, so ids allocated while loading are kept
+        return highestMessageId.accumulateAndGet(highest, Math::max);
+    }
+
+    /**
+     * Serializes writes on a shard within this process. Inserts hold it so concurrent inserts do not compute the
+     * same "largest id plus shardCount" and collide, and every write holds it so the replication log records
+     * changes in commit order.
+     *
+     * @param shard the shard being written
+     * @return the lock to hold around the write and its recordWrite() call
+     */
+    public static Lock writeLock(int shard) {
+        return writeLocks[shard];
+    }
+
+    /**
+     * A write lock that adds the time lock() spends waiting for another writer to the current request's wait time
+     * (see {@link RequestContext}).
+     */
+    private static class WaitTimedLock extends ReentrantLock {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void lock() {
+            if (tryLock()) {
+                return;
+            }
+            long start = System.nanoTime();
+            super.lock();
+            RequestContext.recordWaitTime(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records a committed write so followers replay it and the current request can read it back. Does nothing
+     * when the shard has no followers.
+     *
+     * @param shard the shard written to
+     * @param sql a statement that reproduces the write on a follower
+     * @param params its parameters
+     */
+    public static void recordWrite(int shard, String sql, Object... params) {
+        ReplicaSet set = replicas[shard];
+        if (set != null) {
+            RequestContext.recordWrite(shard, set.append(sql, params));
+        }
+    }
+
+    /**
+     * Borrows a connection for a read-only query: a follower that has applied the current request's writes, or
+     * the primary when the shard has no followers or none has caught up.
+     *
+     * @param shard the shard to read
+     * @return a pooled connection
+     * @throws SQLException if no connection could be opened or borrowed in time
+     */
+    public static Connection getReadConnection(int shard) throws SQLException {
+        return getReadConnection(shard, 0);
+    }
+
+    /**
+     * Borrows a connection for a read-only query that must also observe every write up to minSeq, eg one whose
+     * result is cached for other requests: a follower that has applied both, or the primary.
+     *
+     * @param shard the shard to read
+     * @param minSeq the sequence number the read must observe, from lastSeq()
+     * @return a pooled connection
+     * @throws SQLException if no connection could be opened or borrowed in time
+     */
+    public static Connection getReadConnection(int shard, long minSeq) throws SQLException {
+        ReplicaSet set = replicas[shard];
+        if (set != null) {
+            Connection follower = set.readConnection(Math.max(minSeq, RequestContext.minSeqFor(shard)));
+            if (follower != null) {
+                return follower;
+            }
+        }
+        return getConnection(shard);
+    }
+
+    /**
+     * @param shard the shard
+     * @return the sequence number of the shard's latest recorded write, or 0 when it has no followers
+     */
+    public static long lastSeq(int shard) {
+        ReplicaSet set = replicas[shard];
+        return set == null ? 0 : set.lastSeq();
+    }
+
+    /**
+     * @return the replication lag of the slowest follower across all shards, in changes
+     */
+    public static long replicaLag() {
+        long lag = 0;
+        for (ReplicaSet set : replicas) {
+            if (set != null) {
+                lag = Math.max(lag, set.lag());
+            }
+        }
+        return lag;
+    }
+
+    /**
+     * @param shard the shard to connect to
+     * @return a pooled connection to that shard
+     * @throws SQLException if no connection could be opened or borrowed in time
+     */
+    public static Connection getConnection(int shard) throws SQLException {
+        if (shard == 0) {
+            return ConnectionUtil.getConnection();
+        }
+        return pools[shard].getConnection();
+    }
+
+    /**
+     * Closes the followers and the idle connections of every shard above 0. Shard 0 is closed through
+     * ConnectionUtil.
+     */
+    public static synchronized void shutdown() {
+        if (replicas != null) {
+            for (ReplicaSet set : replicas) {
+                if (set != null) {
+                    set.close();
+                }
+            }
+        }
+        if (pools != null) {
+            for (ConnectionPool pool : pools) {
+                if (pool != null) {
+                    pool.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs Schema.sql on a shard, through ConnectionUtil for shard 0 and through the shard's new pool otherwise.
+     */
+    private static void createSchema(ConnectionPool pool, int shard) {
+        try (Connection conn = shard == 0 ? ConnectionUtil.getConnection() : pool.getConnection();
+             Reader schema = new InputStreamReader(
+                     ShardRouter.class.getClassLoader().getResourceAsStream("Schema.sql"), StandardCharsets.UTF_8)) {
+            RunScript.execute(conn, schema);
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not create the schema on shard " + shard, e);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package Util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent loads of the same key. The first caller for a key runs the loader; callers that arrive while
+ * it is running wait for and share its result instead of running their own. Once the load finishes the key is
+ * forgotten, so nothing is cached here: a later call loads again. forget() detaches a running load early, for when
+ * the data behind the key changes mid-load and later callers must not be handed a result read before the change.
+ *
+ * A loader's exception is rethrown to every caller that shared the load. loadAsync() coalesces the same way without
+ * blocking: callers that arrive during a load get a future of its result rather than waiting on a thread, and sync
+ * and async callers of a key share one load.
+ *
+ * @param <K> the key type
+ * @param <V> the loaded value type
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * @param key the key being loaded
+     * @param loader loads the value; run at most once per key at a time
+     * @return the loaded value, which may be shared with other callers
+     */
+    public V load(K key, Supplier<V> loader) {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            coalesced.increment();
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                throw unwrap(e);
+            }
+        }
+        loads.increment();
+        try {
+            V value = loader.get();
+            mine.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * @param key the key being loaded
+     * @param loader starts loading the value and returns its future; run at most once per key at a time
+     * @return a future of the loaded value, which may be shared with other callers; failed with the loader's
+     *         exception if the load failed
+     */
+    public CompletableFuture<V> loadAsync(K key, Supplier<CompletableFuture<V>> loader) {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            coalesced.increment();
+            return running.copy();
+        }
+        loads.increment();
+        CompletableFuture<V> loading;
+        try {
+            loading = loader.get();
+        } catch (RuntimeException | Error e) {
+            loading = CompletableFuture.failedFuture(e);
+        }
+        loading.whenComplete((value, failure) -> {
+            inFlight.remove(key, mine);
+            if (failure == null) {
+                mine.complete(value);
+            } else {
+                mine.completeExceptionally(failure instanceof CompletionException && failure.getCause() != null
+                        ? failure.getCause() : failure);
+            }
+        });
+        // callers get a copy, so one cancelling or completing it cannot change what the others see
+        return mine.copy();
+    }
+
+    /**
+     * Makes the next call for a key start a new load even if one is running. Callers already waiting still get the
+     * running load's result.
+     *
+     * @param key the key whose data changed
+     */
+    public void forget(K key) {
+        inFlight.remove(key);
+    }
+
+    /**
+     * @return the number of loads actually run
+     */
+    public long loads() {
+        return loads.sum();
+    }
+
+    /**
+     * @return the number of calls that shared a load already running
+     */
+    public long coalesced() {
+        return coalesced.sum();
+    }
+
+    private static RuntimeException unwrap(CompletionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return e;
+    }
+}
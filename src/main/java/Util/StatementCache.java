@@ -0,0 +1,238 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Prepared statements kept open on one physical connection, keyed by SQL text and the prepareStatement() options,
+ * so the DAO classes' constant queries are parsed and planned by H2 once per connection instead of once per call.
+ *
+ * prepareStatement() hands out a proxy whose close() clears the parameters and keeps the statement for the next
+ * caller. A statement that is still open when the same SQL is prepared again, or whose fetch size or other settings
+ * were changed, is not shared and is closed for real. The least recently used statement is closed once the cache
+ * holds more than its limit. Only the thread holding the connection uses its cache, so nothing here is locked.
+ *
+ * Hit, miss and eviction counts are summed over every connection in the process.
+ */
+public class StatementCache {
+
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static final LongAdder EVICTIONS = new LongAdder();
+
+    /**
+     * Statement methods that change how later executions behave. A statement they were called on is not reused.
+     */
+    private static final Set<String> SETTINGS = Set.of("setFetchSize", "setFetchDirection", "setMaxRows",
+            "setLargeMaxRows", "setMaxFieldSize", "setQueryTimeout", "setEscapeProcessing", "setCursorName",
+            "setPoolable", "closeOnCompletion");
+
+    private static class CachedStatement {
+        final String key;
+        final PreparedStatement statement;
+        Lease lease;
+        boolean evicted;
+
+        CachedStatement(String key, PreparedStatement statement) {
+            this.key = key;
+            this.statement = statement;
+        }
+    }
+
+    private final Connection physical;
+    private final LinkedHashMap<String, CachedStatement> statements;
+
+    /**
+     * @param physical the connection the statements belong to
+     * @param maxSize the largest number of statements kept open
+     */
+    StatementCache(Connection physical, int maxSize) {
+        this.physical = physical;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() <= maxSize) {
+                    return false;
+                }
+                EVICTIONS.increment();
+                CachedStatement entry = eldest.getValue();
+                entry.evicted = true;
+                if (entry.lease == null) {
+                    closeQuietly(entry.statement);
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns a cached statement for the arguments of a Connection.prepareStatement() call, preparing one on a miss.
+     *
+     * @param logical the pooled connection the caller holds, returned by getConnection() on the statement
+     * @param prepare the prepareStatement() overload that was called
+     * @param args its arguments, the SQL text first
+     * @return a statement whose close() gives it back to the cache
+     * @throws Throwable whatever preparing the statement throws
+     */
+    PreparedStatement prepare(Connection logical, Method prepare, Object[] args) throws Throwable {
+        String key = args.length == 1 ? (String) args[0] : (String) args[0] + '\0' + Arrays.deepToString(
+                Arrays.copyOfRange(args, 1, args.length));
+        CachedStatement entry = statements.get(key);
+        if (entry != null && entry.lease == null && entry.statement.isClosed()) {
+            statements.remove(key);
+            entry = null;
+        }
+        if (entry != null && entry.lease == null) {
+            HITS.increment();
+        } else {
+            MISSES.increment();
+            PreparedStatement statement = (PreparedStatement) invoke(prepare, physical, args);
+            if (entry != null) {
+                // the cached statement is still open in an enclosing call; this one is used once and closed
+                return statement;
+            }
+            entry = new CachedStatement(key, statement);
+            statements.put(key, entry);
+        }
+        entry.lease = new Lease(entry, logical);
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class }, entry.lease);
+    }
+
+    /**
+     * Takes back every statement the connection's last holder left open. Called when the connection returns to the
+     * pool.
+     */
+    void releaseAll() {
+        for (CachedStatement entry : new ArrayList<>(statements.values())) {
+            if (entry.lease != null) {
+                entry.lease.release();
+            }
+        }
+    }
+
+    /**
+     * @return the number of statements currently cached on this connection
+     */
+    int size() {
+        return statements.size();
+    }
+
+    /**
+     * @return prepareStatement() calls answered from a cache, across every connection
+     */
+    public static long hits() {
+        return HITS.sum();
+    }
+
+    /**
+     * @return prepareStatement() calls that had to prepare a new statement, across every connection
+     */
+    public static long misses() {
+        return MISSES.sum();
+    }
+
+    /**
+     * @return statements closed because their cache was full, across every connection
+     */
+    public static long evictions() {
+        return EVICTIONS.sum();
+    }
+
+    /**
+     * @return hits as a fraction of all prepareStatement() calls, or 0 before the first call
+     */
+    public static double hitRate() {
+        long hits = HITS.sum();
+        long total = hits + MISSES.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    /**
+     * One caller's use of a cached statement, from prepareStatement() to close().
+     */
+    private class Lease implements InvocationHandler {
+        private final CachedStatement entry;
+        private final Connection logical;
+        private boolean closed;
+        private boolean reusable = true;
+        private boolean batched;
+
+        Lease(CachedStatement entry, Connection logical) {
+            this.entry = entry;
+            this.logical = logical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                release();
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return closed || entry.statement.isClosed();
+            }
+            if (closed) {
+                throw new SQLException("Statement has been closed");
+            }
+            if (name.equals("getConnection")) {
+                return logical;
+            }
+            if (SETTINGS.contains(name)) {
+                reusable = false;
+            } else if (name.equals("addBatch")) {
+                batched = true;
+            }
+            return StatementCache.invoke(method, entry.statement, args);
+        }
+
+        void release() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            entry.lease = null;
+            try {
+                if (reusable && !entry.evicted && !entry.statement.isClosed()) {
+                    entry.statement.clearParameters();
+                    if (batched) {
+                        entry.statement.clearBatch();
+                    }
+                    return;
+                }
+            } catch (SQLException ignored) {
+            }
+            closeQuietly(entry.statement);
+            if (!entry.evicted) {
+                statements.remove(entry.key);
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package Util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A named set of H2 storage settings, chosen with db.profile:
+ *
+ *   standard    on disk with H2's own settings, as the database was opened before profiles existed: commits
+ *               written out within half a second (WRITE_DELAY=500), so a crash can lose that much; the default
+ *   durable     on disk, every commit written out at once (WRITE_DELAY=0), at the cost of slower writes
+ *   throughput  on disk with a larger cache and larger pages, commits written out in batches every second, so a
+ *               crash can lose up to the last second of commits
+ *   memory      in memory only, for tests; nothing survives the JVM
+ *
+ * Each setting can be overridden on its own: db.cache.size.kb, db.write.delay.ms, db.lock.timeout.ms, db.page.size
+ * (only applied when the database file is created), db.compress and db.in.memory. The database itself lives at
+ * db.path, ./h2/db by default, or under the same name in memory.
+ */
+public class StorageProfile {
+
+    private static final Map<String, StorageProfile> PROFILES = new LinkedHashMap<>();
+
+    static {
+        PROFILES.put("standard", new StorageProfile("standard", false, 16384, 500, 2000, 0, false));
+        PROFILES.put("durable", new StorageProfile("durable", false, 65536, 0, 10000, 0, false));
+        PROFILES.put("throughput", new StorageProfile("throughput", false, 262144, 1000, 2000, 16384, false));
+        PROFILES.put("memory", new StorageProfile("memory", true, 65536, 0, 10000, 0, false));
+    }
+
+    public final String name;
+    public final boolean inMemory;
+    public final int cacheSizeKb;
+    public final int writeDelayMs;
+    public final int lockTimeoutMs;
+    /**
+     * The page split size in bytes, or 0 for H2's default.
+     */
+    public final int pageSize;
+    public final boolean compress;
+
+    private StorageProfile(String name, boolean inMemory, int cacheSizeKb, int writeDelayMs, int lockTimeoutMs,
+                           int pageSize, boolean compress) {
+        this.name = name;
+        this.inMemory = inMemory;
+        this.cacheSizeKb = cacheSizeKb;
+        this.writeDelayMs = writeDelayMs;
+        this.lockTimeoutMs = lockTimeoutMs;
+        this.pageSize = pageSize;
+        this.compress = compress;
+    }
+
+    /**
+     * @param name a profile name
+     * @return the profile's settings, without overrides, or null if there is no such profile
+     */
+    public static StorageProfile named(String name) {
+        return PROFILES.get(name);
+    }
+
+    /**
+     * @return the profile names, in the order listed above
+     */
+    public static Iterable<String> names() {
+        return PROFILES.keySet();
+    }
+
+    /**
+     * Resolves the configured profile with its per-setting overrides applied.
+     *
+     * @return the profile to open the databases with
+     * @throws IllegalStateException if db.profile names no profile
+     */
+    public static StorageProfile fromConfig() {
+        String name = AppConfig.get("db.profile", "standard");
+        StorageProfile base = named(name);
+        if (base == null) {
+            throw new IllegalStateException("Unknown db.profile " + name + ", expected one of " + PROFILES.keySet());
+        }
+        return new StorageProfile(name,
+                AppConfig.getBoolean("db.in.memory", base.inMemory),
+                AppConfig.getInt("db.cache.size.kb", base.cacheSizeKb),
+                AppConfig.getInt("db.write.delay.ms", base.writeDelayMs),
+                AppConfig.getInt("db.lock.timeout.ms", base.lockTimeoutMs),
+                AppConfig.getInt("db.page.size", base.pageSize),
+                AppConfig.getBoolean("db.compress", base.compress));
+    }
+
+    /**
+     * @param path the database's file path, eg ./h2/db; in memory its file name is used as the database name
+     * @return the JDBC url of the database with this profile's settings
+     */
+    public String url(String path) {
+        return urlPrefix(path) + urlOptions();
+    }
+
+    /**
+     * @param path the database's file path
+     * @return the JDBC url of the database without settings, for appending a shard number to
+     */
+    public String urlPrefix(String path) {
+        if (!inMemory) {
+            return "jdbc:h2:" + path;
+        }
+        int slash = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'));
+        return "jdbc:h2:mem:" + path.substring(slash + 1);
+    }
+
+    /**
+     * @return this profile's settings as url options, starting with ';'
+     */
+    public String urlOptions() {
+        StringBuilder options = new StringBuilder();
+        if (inMemory) {
+            // keep the database alive while no connection is open, as a file would be
+            options.append(";DB_CLOSE_DELAY=-1");
+        } else {
+            options.append(";WRITE_DELAY=").append(writeDelayMs);
+            if (pageSize > 0) {
+                options.append(";PAGE_SIZE=").append(pageSize);
+            }
+            if (compress) {
+                options.append(";COMPRESS=TRUE");
+            }
+        }
+        options.append(";CACHE_SIZE=").append(cacheSizeKb);
+        options.append(";LOCK_TIMEOUT=").append(lockTimeoutMs);
+        return options.toString();
+    }
+
+    @Override
+    public String toString() {
+        return name + urlOptions();
+    }
+}
@@ -0,0 +1,249 @@
+package Util;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous JSON-lines logger. Request threads format an event and publish it into a fixed-size ring buffer;
+ * a single background thread drains the ring into a buffered writer. A full ring drops the event and counts it
+ * rather than blocking the request, so a storm of failures cannot turn into contention on stderr.
+ *
+ * Output goes to the file named by log.file, or stdout when unset. The ring size is log.buffer.size.
+ */
+public class StructuredLogger {
+
+    private static final StructuredLogger INSTANCE = new StructuredLogger(
+            AppConfig.getInt("log.buffer.size", 8192), openWriter(AppConfig.get("log.file", "")));
+
+    private final AtomicReferenceArray<String> ring;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long consumed;
+    private volatile boolean running = true;
+    private final Writer out;
+    private final Thread writerThread;
+
+    /**
+     * Starts a logger of its own, apart from the process-wide one; its events are built with new Event(logger, type).
+     *
+     * @param capacity the ring size, rounded up to a power of two
+     * @param out where formatted lines are written
+     */
+    public StructuredLogger(int capacity, Writer out) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.out = out;
+        this.writerThread = new Thread(this::drainLoop, "structured-logger");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * @return the process-wide logger
+     */
+    public static StructuredLogger get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts a new log event of the given type, eg "access" or "error".
+     *
+     * @param type the event type
+     * @return a builder; call log() to publish it
+     */
+    public static Event event(String type) {
+        return new Event(INSTANCE, type);
+    }
+
+    /**
+     * @return the number of events dropped because the ring was full
+     */
+    public long droppedEvents() {
+        return dropped.get();
+    }
+
+    /**
+     * Publishes a formatted line without blocking. Drops the line if the ring is full.
+     *
+     * @param line one JSON object, without a trailing newline
+     */
+    void publish(String line) {
+        long seq;
+        do {
+            seq = claimed.get();
+            if (seq - consumed >= ring.length()) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!claimed.compareAndSet(seq, seq + 1));
+        ring.set((int) (seq & mask), line);
+        if (seq == consumed) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    /**
+     * Writes out whatever is buffered, including the count of events dropped, and stops the background thread.
+     *
+     * @param timeoutMs the longest time to wait for the ring to drain
+     */
+    public void shutdown(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (consumed < claimed.get() && System.currentTimeMillis() < deadline) {
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(1_000_000);
+        }
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(Math.max(1, deadline - System.currentTimeMillis()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainLoop() {
+        long reportedDrops = 0;
+        while (running || consumed < claimed.get()) {
+            long seq = consumed;
+            int slot = (int) (seq & mask);
+            String line = ring.get(slot);
+            if (line == null) {
+                reportedDrops = flush(reportedDrops);
+                if (seq == claimed.get()) {
+                    LockSupport.parkNanos(50_000_000);
+                } else {
+                    Thread.onSpinWait();
+                }
+                continue;
+            }
+            ring.set(slot, null);
+            consumed = seq + 1;
+            try {
+                out.write(line);
+                out.write('\n');
+            } catch (IOException ignored) {
+            }
+        }
+        flush(reportedDrops);
+    }
+
+    /**
+     * Writes a line counting the events dropped since the last one was written, if any, and flushes the writer.
+     *
+     * @param reportedDrops the drop count the last such line brought the total to
+     * @return the drop count reported now
+     */
+    private long flush(long reportedDrops) {
+        try {
+            long drops = dropped.get();
+            if (drops != reportedDrops) {
+                out.write("{\"type\":\"logger\",\"dropped_events\":" + (drops - reportedDrops) + "}\n");
+                reportedDrops = drops;
+            }
+            out.flush();
+        } catch (IOException ignored) {
+        }
+        return reportedDrops;
+    }
+
+    private static Writer openWriter(String file) {
+        if (!file.isEmpty()) {
+            try {
+                return new BufferedWriter(new FileWriter(file, StandardCharsets.UTF_8, true), 1 << 16);
+            } catch (IOException e) {
+                System.err.println("Cannot open log file " + file + ", logging to stdout");
+            }
+        }
+        return new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    /**
+     * Builds one JSON object. Fields are written in the order they are added.
+     */
+    public static class Event {
+        private final StructuredLogger logger;
+        private final StringBuilder json = new StringBuilder(128);
+
+        /**
+         * @param logger the logger to publish to
+         * @param type the event type
+         */
+        public Event(StructuredLogger logger, String type) {
+            this.logger = logger;
+            json.append("{\"ts\":").append(System.currentTimeMillis());
+            field("type", type);
+        }
+
+        public Event field(String name, String value) {
+            json.append(",\"").append(name).append("\":");
+            if (value == null) {
+                json.append("null");
+            } else {
+                json.append('"');
+                escape(value);
+                json.append('"');
+            }
+            return this;
+        }
+
+        public Event field(String name, long value) {
+            json.append(",\"").append(name).append("\":").append(value);
+            return this;
+        }
+
+        public Event field(String name, double value) {
+            json.append(",\"").append(name).append("\":").append(value);
+            return this;
+        }
+
+        /**
+         * Records the class and message of a failure, plus its root cause class when it wraps another exception.
+         */
+        public Event error(Throwable e) {
+            field("error_class", e.getClass().getName());
+            field("error_message", e.getMessage());
+            Throwable root = e;
+            while (root.getCause() != null && root.getCause() != root) {
+                root = root.getCause();
+            }
+            if (root != e) {
+                field("root_cause", root.getClass().getName());
+            }
+            return this;
+        }
+
+        public void log() {
+            json.append('}');
+            logger.publish(json.toString());
+        }
+
+        private void escape(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"': json.append("\\\""); break;
+                    case '\\': json.append("\\\\"); break;
+                    case '\n': json.append("\\n"); break;
+                    case '\r': json.append("\\r"); break;
+                    case '\t': json.append("\\t"); break;
+                    default:
+                        if (c < 0x20) {
+                            json.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            json.append(c);
+                        }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+/**
+ * Records each execution of a prepared statement as a {@link FlightEvents.DatabaseStatement} event, tagged with the
+ * DAO method that prepared it. An update is recorded when it returns, with the rows it changed; a query when its
+ * result set is closed, with the rows read, so the event's duration covers reading the rows as well as running the
+ * query.
+ *
+ * Statements are only wrapped while a recording has the event enabled, so outside a recording the pool hands out
+ * statements exactly as before. The DAO method is only looked up for executions slow enough to pass the event's
+ * threshold, so the fast majority cost a timestamp each.
+ */
+class TracedStatement implements InvocationHandler {
+
+    private final PreparedStatement statement;
+    private final String sql;
+    private final String sqlId;
+    private FlightEvents.DatabaseStatement pending;
+    private long rows;
+
+    private TracedStatement(PreparedStatement statement, String sql) {
+        this.statement = statement;
+        this.sql = sql;
+        this.sqlId = String.format("%08x", sql.hashCode());
+    }
+
+    /**
+     * @return whether a running recording has statement events enabled
+     */
+    static boolean enabled() {
+        return new FlightEvents.DatabaseStatement().isEnabled();
+    }
+
+    /**
+     * @param statement the statement the pool prepared
+     * @param sql its SQL text
+     * @return a statement recording an event for each execution
+     */
+    static PreparedStatement wrap(PreparedStatement statement, String sql) {
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class }, new TracedStatement(statement, sql));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (name.equals("close")) {
+            finish();
+            return invoke(method, statement, args);
+        }
+        if (!name.startsWith("execute")) {
+            return invoke(method, statement, args);
+        }
+        finish();
+        FlightEvents.DatabaseStatement event = new FlightEvents.DatabaseStatement();
+        event.begin();
+        Object result;
+        try {
+            result = invoke(method, statement, args);
+        } catch (Throwable e) {
+            commit(event);
+            throw e;
+        }
+        if (result instanceof ResultSet) {
+            ResultSet results = (ResultSet) result;
+            pending = event;
+            rows = 0;
+            return Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+                    (resultsProxy, resultsMethod, resultsArgs) -> readResults(results, resultsMethod, resultsArgs));
+        }
+        if (result instanceof Number) {
+            event.rows = ((Number) result).longValue();
+        } else if (result instanceof int[]) {
+            for (int count : (int[]) result) {
+                event.rows += Math.max(count, 0);
+            }
+        } else if (result instanceof long[]) {
+            for (long count : (long[]) result) {
+                event.rows += Math.max(count, 0);
+            }
+        } else if (Boolean.FALSE.equals(result)) {
+            event.rows = Math.max(statement.getUpdateCount(), 0);
+        }
+        commit(event);
+        return result;
+    }
+
+    private Object readResults(ResultSet results, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (name.equals("close")) {
+            finish();
+        }
+        Object result = invoke(method, results, args);
+        if (name.equals("next") && Boolean.TRUE.equals(result)) {
+            rows++;
+        }
+        return result;
+    }
+
+    /**
+     * Commits the event of the last query once its result set is closed, or its statement is closed or executed
+     * again without closing it.
+     */
+    private void finish() {
+        if (pending != null) {
+            pending.rows = rows;
+            commit(pending);
+            pending = null;
+        }
+    }
+
+    /**
+     * Fills in and commits the event if it passed its threshold. Called from the DAO method's own execute or close,
+     * so that method is still on the stack.
+     */
+    private void commit(FlightEvents.DatabaseStatement event) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation();
+            event.sqlId = sqlId;
+            event.sql = sql;
+            event.commit();
+        }
+    }
+
+    /**
+     * @return the first caller outside this package and the JDK and H2 classes, as Class.method; in practice the DAO
+     *         method that prepared the statement
+     */
+    private static String operation() {
+        return StackWalker.getInstance().walk(frames -> frames
+                .filter(frame -> !isInfrastructure(frame.getClassName()))
+                .findFirst()
+                .map(frame -> simpleName(frame.getClassName()) + "." + methodName(frame.getMethodName()))
+                .orElse("unknown"));
+    }
+
+    private static boolean isInfrastructure(String className) {
+        return className.startsWith("Util.") || className.startsWith("java.") || className.startsWith("jdk.")
+                || className.startsWith("com.sun.") || className.startsWith("org.h2.");
+    }
+
+    private static String simpleName(String className) {
+        return className.substring(className.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * @return the method name, or for a lambda the name of the method it is declared in
+     */
+    private static String methodName(String methodName) {
+        if (!methodName.startsWith("lambda$")) {
+            return methodName;
+        }
+        int end = methodName.indexOf('$', 7);
+        return end < 0 ? methodName : methodName.substring(7, end);
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package Util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.LongSupplier;
+
+/**
+ * The most used terms over sliding windows of the last 5 minutes, hour and 24 hours, in fixed memory.
+ *
+ * Each window is a ring of buckets, each bucket a Count-Min sketch of the terms recorded while it was current
+ * (DEPTH rows of WIDTH counters, as in {@link HotKeySketch}), plus a running total of the live buckets. Recording a
+ * term adds to the current bucket and to the total; when the clock moves into a new bucket the oldest one is
+ * subtracted from the total and cleared. A term's estimate over a window is the smallest of its total counters, so
+ * it can only overcount, and the window is exact to within one bucket.
+ *
+ * Sketches cannot list their keys, so every window also keeps a min-heap of candidate terms, at most
+ * CANDIDATES_PER_K times k. A term enters when there is room or when its estimate beats the weakest candidate,
+ * which it replaces. The candidates are re-estimated whenever a bucket expires and when they are read, so terms
+ * that have gone quiet sink and leave.
+ *
+ * Memory depends only on the number of buckets and k, never on the number of terms or messages. Methods are
+ * synchronized; a record is a few dozen array updates.
+ */
+public class TrendingTerms {
+
+    private static final int DEPTH = 4;
+    private static final int WIDTH_BITS = 10;
+    private static final int WIDTH = 1 << WIDTH_BITS;
+    private static final int[] SEEDS = { 0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F };
+    private static final int CANDIDATES_PER_K = 4;
+
+    private final int k;
+    private final LongSupplier clock;
+    private final Map<String, Window> windows = new LinkedHashMap<>();
+
+    /**
+     * @param k the number of top terms reported per window
+     * @param clock the time source in milliseconds, normally System::currentTimeMillis
+     */
+    public TrendingTerms(int k, LongSupplier clock) {
+        this.k = k;
+        this.clock = clock;
+        long now = clock.getAsLong();
+        windows.put("5m", new Window(10, 30_000, now));
+        windows.put("1h", new Window(12, 5 * 60_000, now));
+        windows.put("24h", new Window(24, 60 * 60_000, now));
+    }
+
+    /**
+     * Counts one use of a term in every window.
+     *
+     * @param term the term, already normalized
+     */
+    public synchronized void record(String term) {
+        long now = clock.getAsLong();
+        int hash = term.hashCode();
+        for (Window window : windows.values()) {
+            window.advance(now);
+            window.record(term, hash);
+        }
+    }
+
+    /**
+     * @param window a window name, one of windows()
+     * @return the top terms of the window with their estimated uses, most used first; null for an unknown window
+     */
+    public synchronized Map<String, Integer> top(String window) {
+        Window found = windows.get(window);
+        if (found == null) {
+            return null;
+        }
+        found.advance(clock.getAsLong());
+        return found.top();
+    }
+
+    /**
+     * @return the top terms of every window, keyed by window name, shortest window first
+     */
+    public synchronized Map<String, Map<String, Integer>> topAll() {
+        Map<String, Map<String, Integer>> result = new LinkedHashMap<>();
+        for (String window : windows.keySet()) {
+            result.put(window, top(window));
+        }
+        return result;
+    }
+
+    /**
+     * @return the window names, shortest first
+     */
+    public List<String> windows() {
+        return new ArrayList<>(windows.keySet());
+    }
+
+    private static int index(int row, int hash) {
+        return row * WIDTH + ((hash * SEEDS[row]) >>> (32 - WIDTH_BITS));
+    }
+
+    private static final class Candidate {
+        final String term;
+        int estimate;
+
+        Candidate(String term, int estimate) {
+            this.term = term;
+            this.estimate = estimate;
+        }
+    }
+
+    private final class Window {
+        private final int[][] buckets;
+        private final int[] total = new int[DEPTH * WIDTH];
+        private final long bucketMs;
+        private long current;
+        private final Map<String, Candidate> candidates = new HashMap<>();
+        private final PriorityQueue<Candidate> weakest = new PriorityQueue<>((a, b) -> Integer.compare(a.estimate, b.estimate));
+
+        Window(int bucketCount, long bucketMs, long now) {
+            this.buckets = new int[bucketCount][DEPTH * WIDTH];
+            this.bucketMs = bucketMs;
+            this.current = now / bucketMs;
+        }
+
+        /**
+         * Expires the buckets the clock has moved past, then re-estimates the candidates.
+         */
+        void advance(long now) {
+            long bucket = now / bucketMs;
+            if (bucket <= current) {
+                return;
+            }
+            long steps = Math.min(bucket - current, buckets.length);
+            for (long step = 1; step <= steps; step++) {
+                int[] expired = buckets[(int) ((bucket - steps + step) % buckets.length)];
+                for (int i = 0; i < expired.length; i++) {
+                    total[i] -= expired[i];
+                }
+                Arrays.fill(expired, 0);
+            }
+            current = bucket;
+            refresh();
+        }
+
+        void record(String term, int hash) {
+            int[] bucket = buckets[(int) (current % buckets.length)];
+            int estimate = Integer.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++) {
+                int index = index(row, hash);
+                bucket[index]++;
+                estimate = Math.min(estimate, ++total[index]);
+            }
+            Candidate candidate = candidates.get(term);
+            if (candidate != null) {
+                weakest.remove(candidate);
+                candidate.estimate = estimate;
+                weakest.add(candidate);
+                return;
+            }
+            if (candidates.size() >= k * CANDIDATES_PER_K) {
+                if (weakest.peek().estimate >= estimate) {
+                    return;
+                }
+                candidates.remove(weakest.poll().term);
+            }
+            candidate = new Candidate(term, estimate);
+            candidates.put(term, candidate);
+            weakest.add(candidate);
+        }
+
+        Map<String, Integer> top() {
+            refresh();
+            List<Candidate> ranked = new ArrayList<>(candidates.values());
+            ranked.sort((a, b) -> a.estimate != b.estimate ? Integer.compare(b.estimate, a.estimate)
+                    : a.term.compareTo(b.term));
+            Map<String, Integer> result = new LinkedHashMap<>();
+            for (Candidate candidate : ranked.subList(0, Math.min(k, ranked.size()))) {
+                result.put(candidate.term, candidate.estimate);
+            }
+            return result;
+        }
+
+        /**
+         * Re-estimates every candidate, since a candidate's estimate is only updated when it is recorded, and drops
+         * those with nothing left in the window.
+         */
+        private void refresh() {
+            weakest.clear();
+            candidates.values().removeIf(candidate -> (candidate.estimate = estimate(candidate.term.hashCode())) == 0);
+            weakest.addAll(candidates.values());
+        }
+
+        private int estimate(int hash) {
+            int estimate = Integer.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++) {
+                estimate = Math.min(estimate, total[index(row, hash)]);
+            }
+            return estimate;
+        }
+    }
+}
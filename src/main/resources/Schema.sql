@@ -0,0 +1,57 @@
+create table if not exists account (
+    account_id int primary key auto_increment,
+    username varchar(255) unique,
+    password varchar(255)
+);
+create table if not exists message (
+    message_id int primary key auto_increment,
+    posted_by int,
+    message_text varchar(510),
+    time_posted_epoch bigint,
+    deleted boolean default false not null,
+    deleted_at bigint,
+    version bigint default 1 not null,
+    foreign key (posted_by) references  account(account_id)
+);
+alter table message add column if not exists deleted boolean default false not null;
+alter table message add column if not exists deleted_at bigint;
+alter table message add column if not exists version bigint default 1 not null;
+alter table message alter column message_text set data type varchar(510);
+create index if not exists message_deleted_at on message (deleted_at);
+create index if not exists message_posted_by_id on message (posted_by, message_id desc);
+create table if not exists follow (
+    follower_id int,
+    followee_id int,
+    primary key (follower_id, followee_id),
+    foreign key (follower_id) references  account(account_id)
+);
+create table if not exists message_counter (
+    message_id int primary key,
+    like_count bigint,
+    reply_count bigint
+);
+create table if not exists message_tag (
+    tag varchar(64),
+    message_id int,
+    primary key (tag, message_id)
+);
+create index if not exists message_tag_message on message_tag (message_id);
+create table if not exists message_mention (
+    account_id int,
+    message_id int,
+    primary key (account_id, message_id)
+);
+create index if not exists message_mention_message on message_mention (message_id);
+create table if not exists change_event (
+    seq bigint primary key,
+    entity varchar(16) not null,
+    entity_id int not null,
+    operation varchar(8) not null,
+    changed_at bigint not null,
+    posted_by int,
+    message_text varchar(510),
+    time_posted_epoch bigint,
+    version bigint,
+    username varchar(255)
+);
+create index if not exists change_event_changed_at on change_event (changed_at);
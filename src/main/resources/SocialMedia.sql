@@ -1,3 +1,8 @@
+drop table if exists change_event;
+drop table if exists message_mention;
+drop table if exists message_tag;
+drop table if exists message_counter;
+drop table if exists follow;
 drop table if exists message;
 drop table if exists account;
 create table account (
@@ -8,10 +13,51 @@ create table account (
 create table message (
     message_id int primary key auto_increment,
     posted_by int,
-    message_text varchar(255),
+    message_text varchar(510),
     time_posted_epoch bigint,
+    deleted boolean default false not null,
+    deleted_at bigint,
+    version bigint default 1 not null,
     foreign key (posted_by) references  account(account_id)
 );
+create index message_deleted_at on message (deleted_at);
+create index message_posted_by_id on message (posted_by, message_id desc);
+create table follow (
+    follower_id int,
+    followee_id int,
+    primary key (follower_id, followee_id),
+    foreign key (follower_id) references  account(account_id)
+);
+create table message_counter (
+    message_id int primary key,
+    like_count bigint,
+    reply_count bigint
+);
+create table message_tag (
+    tag varchar(64),
+    message_id int,
+    primary key (tag, message_id)
+);
+create index message_tag_message on message_tag (message_id);
+create table message_mention (
+    account_id int,
+    message_id int,
+    primary key (account_id, message_id)
+);
+create index message_mention_message on message_mention (message_id);
+create table change_event (
+    seq bigint primary key,
+    entity varchar(16) not null,
+    entity_id int not null,
+    operation varchar(8) not null,
+    changed_at bigint not null,
+    posted_by int,
+    message_text varchar(510),
+    time_posted_epoch bigint,
+    version bigint,
+    username varchar(255)
+);
+create index change_event_changed_at on change_event (changed_at);
 
 insert into account (username, password) values ('testuser1', 'password');
 insert into message (posted_by, message_text, time_posted_epoch) values (1,'test message 1',1669947792);
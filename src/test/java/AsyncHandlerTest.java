@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class AsyncHandlerTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web. The write limit is held at 256, above the burst below, since the queueing
+     * the burst causes would otherwise shed some of it.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("limiter.write.min", "256");
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("limiter.write.min");
+    }
+
+    /**
+     * Sending http requests to POST localhost:8080/messages/1/replies, whose parent and author lookups run in
+     * parallel, with a valid reply, to a parent that does not exist, and from an author that does not exist
+     *
+     * Expected Response:
+     *  Status Code: 200 with the reply, then 400 with an empty body twice
+     */
+    @Test
+    public void replyLooksUpParentAndAuthor() throws IOException, InterruptedException {
+        HttpResponse<String> created = post("/messages/1/replies",
+                "{\"posted_by\":1,\"message_text\":\"a reply\",\"time_posted_epoch\":1669947800}");
+        Assert.assertEquals(200, created.statusCode());
+        Message reply = objectMapper.readValue(created.body(), Message.class);
+        Assert.assertEquals("a reply", reply.getMessage_text());
+        Assert.assertEquals(1, reply.getPosted_by());
+
+        HttpResponse<String> noParent = post("/messages/999/replies",
+                "{\"posted_by\":1,\"message_text\":\"a reply\",\"time_posted_epoch\":1669947800}");
+        Assert.assertEquals(400, noParent.statusCode());
+        Assert.assertEquals("", noParent.body());
+
+        HttpResponse<String> noAuthor = post("/messages/1/replies",
+                "{\"posted_by\":999,\"message_text\":\"a reply\",\"time_posted_epoch\":1669947800}");
+        Assert.assertEquals(400, noAuthor.statusCode());
+        Assert.assertEquals("", noAuthor.body());
+    }
+
+    /**
+     * Sending 200 http requests to POST localhost:8080/messages at once, then GET localhost:8080/accounts/1/messages
+     *
+     * Expected Response:
+     *  Status Code: 200 for every post, each with its own message id, and all 200 messages are listed afterwards
+     */
+    @Test
+    public void concurrentPostsAllComplete() throws Exception {
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString(
+                            "{\"posted_by\":1,\"message_text\":\"burst " + i + "\",\"time_posted_epoch\":1669947800}"))
+                    .header("Content-Type", "application/json")
+                    .build();
+            responses.add(webClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+        }
+        Set<Integer> ids = new HashSet<>();
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            Assert.assertEquals(200, response.get().statusCode());
+            ids.add(objectMapper.readValue(response.get().body(), Message.class).getMessage_id());
+        }
+        Assert.assertEquals(200, ids.size());
+
+        HttpResponse<String> listed = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/1/messages")).build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, listed.statusCode());
+        Assert.assertEquals(201, objectMapper.readValue(listed.body(), Message[].class).length);
+    }
+
+    private HttpResponse<String> post(String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
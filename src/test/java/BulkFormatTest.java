@@ -0,0 +1,80 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.BulkFormat;
+
+public class BulkFormatTest {
+
+    /**
+     * Writing an account section and a message section, then reading them back
+     *
+     * Expected Result:
+     *  Every field comes back as written, including a time_posted_epoch earlier than the previous message's
+     */
+    @Test
+    public void roundTripsRecords() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BulkFormat.Writer writer = new BulkFormat.Writer(out);
+        writer.beginSection(BulkFormat.ACCOUNT_SECTION);
+        writer.writeAccount(7, "user", "p\u00e4ssword");
+        writer.endSection();
+        writer.beginSection(BulkFormat.MESSAGE_SECTION);
+        writer.writeMessage(3, 7, "first", 1669947800);
+        writer.writeMessage(4, 7, "", 1669947700);
+        writer.endSection();
+        writer.finish();
+
+        BulkFormat.Reader reader = new BulkFormat.Reader(new ByteArrayInputStream(out.toByteArray()));
+        Assert.assertEquals(BulkFormat.ACCOUNT_SECTION, reader.nextSection());
+        Assert.assertTrue(reader.nextAccount());
+        Assert.assertEquals(7, reader.getId());
+        Assert.assertEquals("p\u00e4ssword", reader.getPassword());
+        Assert.assertFalse(reader.nextAccount());
+        Assert.assertEquals(BulkFormat.MESSAGE_SECTION, reader.nextSection());
+        Assert.assertTrue(reader.nextMessage());
+        Assert.assertTrue(reader.nextMessage());
+        Assert.assertEquals("", reader.getMessageText());
+        Assert.assertEquals(1669947700, reader.getTimePostedEpoch());
+        Assert.assertFalse(reader.nextMessage());
+        Assert.assertEquals(-1, reader.nextSection());
+    }
+
+    /**
+     * Reading account records whose length prefix is huge, wraps to a negative int, or is cut off by the end of the
+     * file, and records whose fields run past the record
+     *
+     * Expected Result:
+     *  Each is refused with an IOException, without allocating the claimed length or re-reading an earlier record
+     */
+    @Test
+    public void rejectsMalformedRecords() {
+        assertRejected(0x80, 0x80, 0x80, 0x80, 0x80, 0x20);
+        assertRejected(0x80, 0x80, 0x80, 0x80, 0x08);
+        assertRejected(0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0x01);
+        assertRejected(10, 1, 2, 3);
+        assertRejected(1, 0x80);
+        assertRejected(3, 1, 50, 'x');
+        assertRejected(2, 1, 0);
+    }
+
+    private static void assertRejected(int... record) {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        file.writeBytes(BulkFormat.MAGIC);
+        file.write(BulkFormat.VERSION);
+        file.write(BulkFormat.ACCOUNT_SECTION);
+        for (int b : record) {
+            file.write(b);
+        }
+        try {
+            BulkFormat.Reader reader = new BulkFormat.Reader(new ByteArrayInputStream(file.toByteArray()));
+            reader.nextSection();
+            reader.nextAccount();
+            Assert.fail("accepted a malformed record");
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,307 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Account;
+import Model.Message;
+import Util.BulkFormat;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class BulkTransferTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("admin.token", "test-admin-token");
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("admin.token");
+    }
+
+    /**
+     * Exporting through GET localhost:8080/admin/export, wiping the message table, and importing the file through
+     * POST localhost:8080/admin/import restores the original messages
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON row counts for the import
+     */
+    @Test
+    public void exportThenImportRestoresMessages() throws IOException, InterruptedException {
+        HttpRequest exportRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/admin/export"))
+                .header("X-Admin-Token", "test-admin-token")
+                .build();
+        HttpResponse<byte[]> exportResponse = webClient.send(exportRequest, HttpResponse.BodyHandlers.ofByteArray());
+        Assert.assertEquals(200, exportResponse.statusCode());
+
+        removeAllMessages();
+
+        HttpRequest importRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/admin/import?batch=2"))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(exportResponse.body()))
+                .header("Content-Type", "application/octet-stream")
+                .header("X-Admin-Token", "test-admin-token")
+                .build();
+        HttpResponse<String> importResponse = webClient.send(importRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, importResponse.statusCode());
+        Map<String, Object> summary = objectMapper.readValue(importResponse.body(), new TypeReference<Map<String, Object>>(){});
+        Assert.assertEquals(1, summary.get("accounts"));
+        Assert.assertEquals(1, summary.get("messages"));
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(expectedResult, actualResult);
+    }
+
+    /**
+     * Sending http requests to POST localhost:8080/admin/import with a body that is not an export, with an export
+     * whose account record is cut short, with a section the format does not have, and with a non-numeric batch size
+     * 
+     * Expected Response:
+     *  Status Code: 400 for each, and the stored messages are untouched
+     */
+    @Test
+    public void importRejectsInvalidFile() throws IOException, InterruptedException {
+        Assert.assertEquals(400, importFile("not an export".getBytes(), "").statusCode());
+        Assert.assertEquals(400, importFile(new byte[] { 'S', 'M', 'B', 'X', 1, 'A', 2, 5, (byte) 0x80 }, "").statusCode());
+
+        ByteArrayOutputStream unknownSection = new ByteArrayOutputStream();
+        BulkFormat.Writer writer = new BulkFormat.Writer(unknownSection);
+        writer.beginSection('Z');
+        writer.endSection();
+        writer.finish();
+        Assert.assertEquals(400, importFile(unknownSection.toByteArray(), "").statusCode());
+
+        Assert.assertEquals(400, importFile(exportWith(new Message(2, 1, "fine", 1669947800)), "?batch=many").statusCode());
+        Assert.assertEquals(1, storedMessages().size());
+    }
+
+    /**
+     * Importing messages where one has blank text, then a message posted by an account that does not exist
+     * 
+     * Expected Response:
+     *  Status Code: 200 for the first file, counting the blank message as rejected and storing the other; 400 for
+     *  the second, which stores nothing
+     */
+    @Test
+    public void importSkipsRejectedTextAndRefusesOrphans() throws IOException, InterruptedException {
+        HttpResponse<String> imported = importFile(exportWith(new Message(2, 1, "  ", 1669947800),
+                new Message(3, 1, "kept", 1669947801)), "");
+        Assert.assertEquals(200, imported.statusCode());
+        Map<String, Object> summary = objectMapper.readValue(imported.body(), new TypeReference<Map<String, Object>>(){});
+        Assert.assertEquals(1, summary.get("messages"));
+        Assert.assertEquals(1, summary.get("messages_rejected"));
+
+        Assert.assertEquals(400, importFile(exportWith(new Message(4, 99, "orphan", 1669947802)), "").statusCode());
+        List<Message> stored = storedMessages();
+        Assert.assertEquals(2, stored.size());
+        Assert.assertEquals("kept", stored.get(1).getMessage_text());
+    }
+
+    /**
+     * Sending GET localhost:8080/admin/export without the admin token, with a wrong one, and with no admin.token
+     * configured at all
+     *
+     * Expected Response:
+     *  Status Code: 401 without the header or with a wrong token; 403 for every admin route, even with a header,
+     *  while admin.token is unset
+     */
+    @Test
+    public void adminRoutesRequireToken() throws IOException, InterruptedException {
+        HttpRequest.Builder export = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/admin/export"));
+        Assert.assertEquals(401, webClient.send(export.build(), HttpResponse.BodyHandlers.ofString()).statusCode());
+        Assert.assertEquals(401, webClient.send(export.header("X-Admin-Token", "wrong").build(),
+                HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        System.clearProperty("admin.token");
+        for (String path : List.of("/admin/export", "/admin/metrics", "/admin/jfr/dump")) {
+            HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path))
+                    .header("X-Admin-Token", "").build();
+            Assert.assertEquals(path, 403, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+        }
+        HttpRequest importRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/admin/import"))
+                .POST(HttpRequest.BodyPublishers.ofString("not an export"))
+                .build();
+        Assert.assertEquals(403, webClient.send(importRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    /**
+     * Reading account 1 through GET localhost:8080/accounts/testuser1 so it is cached, importing a file that renames
+     * it, then reading it through POST localhost:8080/accounts/batch by id
+     *
+     * Expected Response:
+     *  Status Code: 200. The batch read returns the imported username, not the cached one
+     */
+    @Test
+    public void importRefreshesCachedAccounts() throws IOException, InterruptedException {
+        HttpResponse<String> before = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/testuser1")).build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, before.statusCode());
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        BulkFormat.Writer writer = new BulkFormat.Writer(file);
+        writer.beginSection(BulkFormat.ACCOUNT_SECTION);
+        writer.writeAccount(1, "renamed", "password");
+        writer.endSection();
+        writer.finish();
+        Assert.assertEquals(200, importFile(file.toByteArray(), "").statusCode());
+
+        HttpResponse<String> after = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"ids\":[1]}"))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, after.statusCode());
+        List<Account> accounts = objectMapper.readValue(after.body(), new TypeReference<List<Account>>(){});
+        Assert.assertEquals("renamed", accounts.get(0).getUsername());
+    }
+
+    /**
+     * Reading message 1 so it is cached and its ETag is known, importing a new text for it, then patching it with
+     * the ETag read before the import
+     *
+     * Expected Response:
+     *  The read after the import returns the imported text with the next version as its ETag, instead of the cached
+     *  message; the patch gets 412; the import's change event carries the new version
+     */
+    @Test
+    public void importMovesMessagesToTheirNextVersion() throws IOException, InterruptedException {
+        HttpResponse<String> before = get("/messages/1");
+        Assert.assertEquals("\"1\"", before.headers().firstValue("ETag").orElse(null));
+
+        Assert.assertEquals(200, importFile(exportWith(new Message(1, 1, "imported text", 1669947792)), "").statusCode());
+
+        HttpResponse<String> after = get("/messages/1");
+        Assert.assertEquals("imported text", objectMapper.readValue(after.body(), Message.class).getMessage_text());
+        Assert.assertEquals("\"2\"", after.headers().firstValue("ETag").orElse(null));
+        HttpResponse<String> patch = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\":\"stale edit\"}"))
+                .header("Content-Type", "application/json")
+                .header("If-Match", "\"1\"")
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(412, patch.statusCode());
+
+        JsonNode events = objectMapper.readTree(get("/changes?wait_ms=0").body()).get("events");
+        JsonNode upsert = events.get(events.size() - 1);
+        Assert.assertEquals("upsert", upsert.get("operation").asText());
+        Assert.assertEquals(2, upsert.get("version").asLong());
+    }
+
+    /**
+     * Posting a message tagged #old that mentions testuser1, then importing a new text for it tagged #new and a
+     * second message tagged #new that mentions testuser1, and reading the tag and mention pages
+     *
+     * Expected Response:
+     *  #old finds nothing, #new finds both messages, and the mentions of account 1 hold only the second message
+     */
+    @Test
+    public void importReplacesTagAndMentionIndex() throws IOException, InterruptedException {
+        HttpResponse<String> posted = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"posted_by\":1,\"message_text\":\"#old news for @testuser1\",\"time_posted_epoch\":1669947800}"))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.ofString());
+        int postedId = objectMapper.readValue(posted.body(), Message.class).getMessage_id();
+        Assert.assertEquals(1, objectMapper.readValue(get("/tags/old/messages").body(), Message[].class).length);
+
+        Assert.assertEquals(200, importFile(exportWith(new Message(postedId, 1, "#new news", 1669947800),
+                new Message(postedId + 100, 1, "more #new for @testuser1", 1669947801)), "").statusCode());
+
+        Assert.assertEquals(0, objectMapper.readValue(get("/tags/old/messages").body(), Message[].class).length);
+        Message[] tagged = objectMapper.readValue(get("/tags/new/messages").body(), Message[].class);
+        Assert.assertEquals(2, tagged.length);
+        Assert.assertEquals(postedId + 100, tagged[0].getMessage_id());
+        Assert.assertEquals(postedId, tagged[1].getMessage_id());
+        Message[] mentions = objectMapper.readValue(get("/accounts/1/mentions").body(), Message[].class);
+        Assert.assertEquals(1, mentions.length);
+        Assert.assertEquals(postedId + 100, mentions[0].getMessage_id());
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return webClient.send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> importFile(byte[] file, String query) throws IOException, InterruptedException {
+        return webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/admin/import" + query))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(file))
+                .header("X-Admin-Token", "test-admin-token")
+                .build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static byte[] exportWith(Message... messages) throws IOException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        BulkFormat.Writer writer = new BulkFormat.Writer(file);
+        writer.beginSection(BulkFormat.MESSAGE_SECTION);
+        for (Message message : messages) {
+            writer.writeMessage(message.getMessage_id(), message.getPosted_by(), message.getMessage_text(),
+                    message.getTime_posted_epoch());
+        }
+        writer.endSection();
+        writer.finish();
+        return file.toByteArray();
+    }
+
+    private List<Message> storedMessages() throws IOException, InterruptedException {
+        HttpResponse<String> response = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages")).build(), HttpResponse.BodyHandlers.ofString());
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    private void removeAllMessages() {
+        try (Connection conn = ConnectionUtil.getConnection();
+             PreparedStatement ps = conn.prepareStatement("delete from message")) {
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
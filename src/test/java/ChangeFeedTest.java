@@ -0,0 +1,200 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.BulkTransferDAO;
+import DAO.ChangeEventDAO;
+import Model.Message;
+import Util.BulkFormat;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ChangeFeedTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Registering an account, then creating, editing and deleting a message, then paging through
+     * GET localhost:8080/changes
+     *
+     * Expected Response:
+     *  Status Code: 200. One event per change in commit order, numbered from 1, the account event without the
+     *  password; since and limit page through them, and a malformed cursor is refused with 400
+     */
+    @Test
+    public void recordsEveryChangeInOrder() throws IOException, InterruptedException {
+        Assert.assertEquals(200, post("/register", "{\"username\":\"carol\",\"password\":\"password\"}").statusCode());
+        HttpResponse<String> created = post("/messages",
+                "{\"posted_by\":1,\"message_text\":\"draft\",\"time_posted_epoch\":1669947800}");
+        Message message = objectMapper.readValue(created.body(), Message.class);
+        HttpRequest patch = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + message.getMessage_id()))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\":\"final\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(patch, HttpResponse.BodyHandlers.ofString()).statusCode());
+        HttpRequest delete = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + message.getMessage_id()))
+                .DELETE()
+                .build();
+        Assert.assertEquals(200, webClient.send(delete, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        JsonNode page = changes("/changes?wait_ms=0");
+        JsonNode events = page.get("events");
+        Assert.assertEquals(4, events.size());
+        Assert.assertEquals("4", page.get("next").asText());
+        String[] operations = { "create", "create", "update", "delete" };
+        for (int i = 0; i < events.size(); i++) {
+            Assert.assertEquals(i + 1, events.get(i).get("seq").asLong());
+            Assert.assertEquals(operations[i], events.get(i).get("operation").asText());
+        }
+        Assert.assertEquals("account", events.get(0).get("entity").asText());
+        Assert.assertEquals("carol", events.get(0).get("username").asText());
+        Assert.assertFalse(events.get(0).has("password"));
+        Assert.assertEquals("message", events.get(1).get("entity").asText());
+        Assert.assertEquals(message.getMessage_id(), events.get(1).get("entity_id").asInt());
+        Assert.assertEquals("draft", events.get(1).get("message_text").asText());
+        Assert.assertEquals("final", events.get(2).get("message_text").asText());
+        Assert.assertEquals(2, events.get(2).get("version").asLong());
+
+        page = changes("/changes?since=1&limit=2&wait_ms=0");
+        Assert.assertEquals(2, page.get("events").size());
+        Assert.assertEquals(2, page.get("events").get(0).get("seq").asLong());
+        Assert.assertEquals("3", page.get("next").asText());
+        page = changes("/changes?since=4&wait_ms=0");
+        Assert.assertEquals(0, page.get("events").size());
+        Assert.assertEquals("4", page.get("next").asText());
+
+        Assert.assertEquals(400, get("/changes?since=x&wait_ms=0").statusCode());
+        Assert.assertEquals(400, get("/changes?limit=0").statusCode());
+    }
+
+    /**
+     * Long polling GET localhost:8080/changes while caught up, then posting a message
+     *
+     * Expected Response:
+     *  Status Code: 200. The waiting poll returns the new message's event as soon as it is posted, well before its
+     *  wait runs out
+     */
+    @Test
+    public void longPollWakesOnChange() throws Exception {
+        CompletableFuture<HttpResponse<String>> poll = webClient.sendAsync(
+                HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/changes?wait_ms=20000")).build(),
+                HttpResponse.BodyHandlers.ofString());
+        Thread.sleep(500);
+        Assert.assertFalse(poll.isDone());
+
+        long start = System.currentTimeMillis();
+        Assert.assertEquals(200, post("/messages",
+                "{\"posted_by\":1,\"message_text\":\"wake up\",\"time_posted_epoch\":1669947800}").statusCode());
+        HttpResponse<String> response = poll.get();
+        Assert.assertTrue(System.currentTimeMillis() - start < 10000);
+        Assert.assertEquals(200, response.statusCode());
+        JsonNode events = objectMapper.readTree(response.body()).get("events");
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals("wake up", events.get(0).get("message_text").asText());
+    }
+
+    /**
+     * Importing an account and two messages, one of them already stored, then reading GET localhost:8080/changes;
+     * then purging every event but the last and reading with the old cursor and without one
+     *
+     * Expected Response:
+     *  Status Code: 200 with an upsert event per imported row, each message with the version it was left at: 1
+     *  for the new one, 2 for the replaced one. After the purge,
+     *  410 for the cursor whose next events are gone, and 200 with only the kept event when starting over
+     */
+    @Test
+    public void importsAppearInFeedAndPurgedCursorsExpire() throws IOException, InterruptedException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        BulkFormat.Writer writer = new BulkFormat.Writer(file);
+        writer.beginSection(BulkFormat.ACCOUNT_SECTION);
+        writer.writeAccount(7, "imported", "password");
+        writer.endSection();
+        writer.beginSection(BulkFormat.MESSAGE_SECTION);
+        writer.writeMessage(5, 7, "imported message", 1669947800);
+        writer.writeMessage(1, 1, "replaced message", 1669947801);
+        writer.endSection();
+        writer.finish();
+        BulkTransferDAO.importAll(new ByteArrayInputStream(file.toByteArray()), 1, text -> text,
+                text -> new BulkTransferDAO.MessageIndex(List.of(), List.of()));
+
+        JsonNode events = changes("/changes?wait_ms=0").get("events");
+        Assert.assertEquals(3, events.size());
+        Assert.assertEquals("account", events.get(0).get("entity").asText());
+        Assert.assertEquals("imported", events.get(0).get("username").asText());
+        Assert.assertEquals(5, events.get(1).get("entity_id").asInt());
+        Assert.assertEquals("replaced message", events.get(2).get("message_text").asText());
+        for (int i = 0; i < events.size(); i++) {
+            Assert.assertEquals(i + 1, events.get(i).get("seq").asLong());
+            Assert.assertEquals("upsert", events.get(i).get("operation").asText());
+        }
+        Assert.assertEquals(1, events.get(1).get("version").asLong());
+        Assert.assertEquals(2, events.get(2).get("version").asLong());
+
+        Assert.assertEquals(2, ChangeEventDAO.purgeBefore(0, Long.MAX_VALUE, 100));
+        Assert.assertEquals(410, get("/changes?since=1&wait_ms=0").statusCode());
+        Assert.assertEquals(1, changes("/changes?since=2&wait_ms=0").get("events").size());
+        events = changes("/changes?wait_ms=0").get("events");
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals(3, events.get(0).get("seq").asLong());
+    }
+
+    private JsonNode changes(String path) throws IOException, InterruptedException {
+        HttpResponse<String> response = get(path);
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readTree(response.body());
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return webClient.send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> post(String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
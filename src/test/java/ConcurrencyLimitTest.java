@@ -0,0 +1,177 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.AdaptiveLimiter;
+import Util.ConnectionUtil;
+import Util.RequestContext;
+import Util.ShardRouter;
+import io.javalin.Javalin;
+
+public class ConcurrencyLimitTest {
+    Javalin app;
+
+    @After
+    public void tearDown() {
+        if (app != null) {
+            app.stop();
+        }
+        System.clearProperty("limiter.write.initial");
+        System.clearProperty("limiter.write.max");
+        System.clearProperty("admin.token");
+    }
+
+    /**
+     * Feeding a limiter steady 1ms samples while it is busy, then 10ms samples, then 1ms samples again
+     *
+     * Expected Result:
+     *  The limit grows to its maximum while latency holds, falls to its minimum once latency passes the tolerance,
+     *  and grows again when latency recovers; at the limit tryAcquire() refuses and counts the request as shed
+     */
+    @Test
+    public void adaptsLimitToLatency() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(10, 2, 50, 2.0);
+        feed(limiter, 1_000_000, 500);
+        Assert.assertEquals(50, limiter.limit());
+
+        feed(limiter, 10_000_000, 200);
+        Assert.assertEquals(2, limiter.limit());
+
+        long shed = limiter.shed();
+        Assert.assertTrue(limiter.tryAcquire());
+        Assert.assertTrue(limiter.tryAcquire());
+        Assert.assertFalse(limiter.tryAcquire());
+        Assert.assertEquals(shed + 1, limiter.shed());
+        limiter.release(0);
+        limiter.release(0);
+        Assert.assertEquals(0, limiter.inFlight());
+
+        feed(limiter, 1_000_000, 200);
+        Assert.assertEquals(50, limiter.limit());
+    }
+
+    /**
+     * Sending 100 http requests to POST localhost:8080/messages at once with a write limit of 1, together with
+     * GET localhost:8080/messages/1, then reading GET localhost:8080/admin/metrics
+     *
+     * Expected Response:
+     *  Each post gets 200 or 503 with Retry-After, and some get 503; a shed post stores nothing; every read gets 200,
+     *  since reads have their own limit; afterwards no write slot is left taken
+     */
+    @Test
+    public void shedsWritesWithoutStallingReads() throws Exception {
+        System.setProperty("limiter.write.initial", "1");
+        System.setProperty("limiter.write.max", "1");
+        ConnectionUtil.resetTestDatabase();
+        app = new SocialMediaController().startAPI();
+        app.start(8080);
+        Thread.sleep(1000);
+
+        HttpClient webClient = HttpClient.newHttpClient();
+        List<CompletableFuture<HttpResponse<String>>> writes = new ArrayList<>();
+        List<CompletableFuture<HttpResponse<String>>> reads = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            writes.add(webClient.sendAsync(HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString(
+                            "{\"posted_by\":1,\"message_text\":\"burst " + i + "\",\"time_posted_epoch\":1669947800}"))
+                    .header("Content-Type", "application/json")
+                    .build(), HttpResponse.BodyHandlers.ofString()));
+            if (i % 10 == 0) {
+                reads.add(webClient.sendAsync(HttpRequest.newBuilder()
+                        .uri(URI.create("http://localhost:8080/messages/1")).build(), HttpResponse.BodyHandlers.ofString()));
+            }
+        }
+        int shed = 0;
+        for (CompletableFuture<HttpResponse<String>> write : writes) {
+            HttpResponse<String> response = write.get();
+            if (response.statusCode() == 503) {
+                Assert.assertEquals("1", response.headers().firstValue("Retry-After").orElse(null));
+                shed++;
+            } else {
+                Assert.assertEquals(200, response.statusCode());
+            }
+        }
+        Assert.assertTrue(shed > 0);
+        for (CompletableFuture<HttpResponse<String>> read : reads) {
+            Assert.assertEquals(200, read.get().statusCode());
+        }
+        HttpResponse<String> stored = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/1/messages")).build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(1 + 100 - shed, new ObjectMapper().readValue(stored.body(), List.class).size());
+
+        System.setProperty("admin.token", "test-admin-token");
+        HttpResponse<String> metrics = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/admin/metrics")).header("X-Admin-Token", "test-admin-token").build(),
+                HttpResponse.BodyHandlers.ofString());
+        Map<?, ?> values = new ObjectMapper().readValue(metrics.body(), Map.class);
+        Assert.assertEquals(0, values.get("limiter_write_in_flight"));
+        Assert.assertEquals(shed, ((Number) values.get("limiter_write_shed")).intValue());
+    }
+
+    /**
+     * Timing a request that waits 100ms for a shard's write lock held by another thread, then spends 100ms outside
+     * the database
+     *
+     * Expected Result:
+     *  The lock wait is counted as wait time, the time outside the database is not counted at all, and a request
+     *  that makes no database calls reports none, so it leaves the limiter alone
+     */
+    @Test
+    public void samplesOnlyDatabaseAndLockWaitTime() throws Exception {
+        ConnectionUtil.resetTestDatabase();
+        RequestContext.begin(null);
+        try {
+            Assert.assertEquals(0, RequestContext.dbNanos() + RequestContext.waitNanos());
+            CountDownLatch held = new CountDownLatch(1);
+            Thread writer = new Thread(() -> {
+                ShardRouter.writeLock(0).lock();
+                try {
+                    held.countDown();
+                    Thread.sleep(100);
+                } catch (InterruptedException ignored) {
+                } finally {
+                    ShardRouter.writeLock(0).unlock();
+                }
+            });
+            writer.start();
+            held.await();
+            ShardRouter.writeLock(0).lock();
+            ShardRouter.writeLock(0).unlock();
+            writer.join();
+            long waited = RequestContext.waitNanos();
+            Assert.assertTrue(waited >= 50_000_000);
+
+            Thread.sleep(100);
+            Assert.assertEquals(waited, RequestContext.waitNanos());
+            Assert.assertEquals(0, RequestContext.dbNanos());
+        } finally {
+            RequestContext.end();
+        }
+    }
+
+    private static void feed(AdaptiveLimiter limiter, long latencyNanos, int samples) {
+        for (int i = 0; i < samples; i++) {
+            int taken = 0;
+            while (limiter.tryAcquire()) {
+                taken++;
+            }
+            for (int j = 0; j < taken; j++) {
+                limiter.release(j == 0 ? latencyNanos : 0);
+            }
+        }
+    }
+}
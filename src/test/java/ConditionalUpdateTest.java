@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ConditionalUpdateTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Reading message 1, patching it with If-Match set to the ETag read, then patching again with the same stale ETag
+     * 
+     * Expected Response:
+     *  The first PATCH returns 200 and the next ETag, the second returns 412 with the current ETag and leaves the
+     *  text alone
+     */
+    @Test
+    public void patchWithStaleETagIsRejected() throws IOException, InterruptedException {
+        HttpResponse<String> read = send("GET", "/messages/1", null, null);
+        Assert.assertEquals("\"1\"", read.headers().firstValue("ETag").orElse(null));
+
+        HttpResponse<String> first = send("PATCH", "/messages/1", "\"1\"", "{\"message_text\":\"first edit\"}");
+        Assert.assertEquals(200, first.statusCode());
+        Assert.assertEquals("\"2\"", first.headers().firstValue("ETag").orElse(null));
+        Assert.assertEquals(2, objectMapper.readValue(first.body(), Message.class).getVersion());
+
+        HttpResponse<String> stale = send("PATCH", "/messages/1", "\"1\"", "{\"message_text\":\"second edit\"}");
+        Assert.assertEquals(412, stale.statusCode());
+        Assert.assertEquals("\"2\"", stale.headers().firstValue("ETag").orElse(null));
+        Assert.assertEquals("first edit",
+                objectMapper.readValue(send("GET", "/messages/1", null, null).body(), Message.class).getMessage_text());
+    }
+
+    /**
+     * Patching message 1 with If-Match values that are not a single strong ETag of the message: a weak ETag, a list,
+     * an unquoted or negative version, and *; then patching a missing and a deleted message with its old ETag
+     * 
+     * Expected Response:
+     *  412 with the current ETag for every malformed or weak value, leaving the text alone; 200 for * and for no
+     *  header; 400 for the missing and the deleted message, with no ETag to leak
+     */
+    @Test
+    public void ifMatchEdgeCases() throws IOException, InterruptedException {
+        for (String ifMatch : new String[] { "W/\"1\"", "\"1\", \"2\"", "1", "\"-1\"", "\"\"" }) {
+            HttpResponse<String> rejected = send("PATCH", "/messages/1", ifMatch, "{\"message_text\":\"malformed\"}");
+            Assert.assertEquals(ifMatch, 412, rejected.statusCode());
+            Assert.assertEquals("\"1\"", rejected.headers().firstValue("ETag").orElse(null));
+        }
+        Assert.assertEquals("test message 1",
+                objectMapper.readValue(send("GET", "/messages/1", null, null).body(), Message.class).getMessage_text());
+
+        Assert.assertEquals(200, send("PATCH", "/messages/1", "*", "{\"message_text\":\"any version\"}").statusCode());
+        Assert.assertEquals(200, send("PATCH", "/messages/1", null, "{\"message_text\":\"no precondition\"}").statusCode());
+
+        Assert.assertEquals(400, send("PATCH", "/messages/100", "\"1\"", "{\"message_text\":\"missing\"}").statusCode());
+        Assert.assertEquals(200, send("DELETE", "/messages/1", null, null).statusCode());
+        HttpResponse<String> deleted = send("PATCH", "/messages/1", "\"3\"", "{\"message_text\":\"deleted\"}");
+        Assert.assertEquals(400, deleted.statusCode());
+        Assert.assertFalse(deleted.headers().firstValue("ETag").isPresent());
+    }
+
+    /**
+     * Sending ten concurrent PATCH requests that all carry If-Match "1"
+     * 
+     * Expected Response:
+     *  Exactly one succeeds; the others get 412
+     */
+    @Test
+    public void concurrentEditorsOnlyOneWins() {
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages/1"))
+                    .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\":\"edit " + i + "\"}"))
+                    .header("Content-Type", "application/json")
+                    .header("If-Match", "\"1\"")
+                    .build();
+            responses.add(webClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+        }
+        int ok = 0;
+        int conflicts = 0;
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            int status = response.join().statusCode();
+            if (status == 200) {
+                ok++;
+            } else if (status == 412) {
+                conflicts++;
+            }
+        }
+        Assert.assertEquals(1, ok);
+        Assert.assertEquals(9, conflicts);
+    }
+
+    private HttpResponse<String> send(String method, String path, String ifMatch, String body) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json");
+        if (ifMatch != null) {
+            request.header("If-Match", ifMatch);
+        }
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,150 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import DAO.DataAccessException;
+import DAO.DataIntegrityException;
+import DAO.DuplicateKeyException;
+import DAO.TransientDataAccessException;
+import Util.AppConfig;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class DataAccessFailureTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient for interacting
+     * locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    /**
+     * Translating SQLExceptions with each family of SQL state
+     *
+     * Expected Result:
+     *  23505 is a duplicate key and any other 23xxx an integrity violation; 08xxx, 40001, HYT00 and any
+     *  SQLTransientException are transient; anything else, including no state at all, is a plain DataAccessException
+     */
+    @Test
+    public void translatesSqlStates() {
+        Assert.assertEquals(DuplicateKeyException.class, from("23505").getClass());
+        Assert.assertEquals(DataIntegrityException.class, from("23506").getClass());
+        Assert.assertEquals(DataIntegrityException.class, from("23513").getClass());
+        Assert.assertEquals(TransientDataAccessException.class, from("08001").getClass());
+        Assert.assertEquals(TransientDataAccessException.class, from("40001").getClass());
+        Assert.assertEquals(TransientDataAccessException.class, from("HYT00").getClass());
+        Assert.assertEquals(TransientDataAccessException.class,
+                DataAccessException.from("Test.op", new SQLTimeoutException("timeout", "S1000")).getClass());
+        Assert.assertEquals(DataAccessException.class, from("42S02").getClass());
+        Assert.assertEquals(DataAccessException.class, from(null).getClass());
+        Assert.assertEquals("Test.op", from("42S02").getOperation());
+    }
+
+    /**
+     * Sending http requests to POST localhost:8080/messages that break a check constraint, that find the message
+     * table missing, and to PATCH localhost:8080/messages/1 while another session holds the row's lock and the
+     * pooled sessions wait 200 ms for locks
+     *
+     * Expected Response:
+     *  Status Code: 400 for the constraint, 500 for the missing table, and 503 with Retry-After for the lock
+     *  timeout
+     */
+    @Test
+    public void answersFailuresBySqlState() throws Exception {
+        try (Connection conn = ConnectionUtil.getConnection(); Statement statement = conn.createStatement()) {
+            statement.execute("alter table message add constraint no_forbidden check (message_text <> 'forbidden')");
+        }
+        Assert.assertEquals(400, postMessage("forbidden").statusCode());
+        Assert.assertEquals(200, postMessage("allowed").statusCode());
+
+        setLockTimeout(200);
+        try (Connection conn = ConnectionUtil.getConnection(); Statement statement = conn.createStatement()) {
+            conn.setAutoCommit(false);
+            statement.execute("update message set message_text = message_text where message_id = 1");
+            HttpResponse<String> locked = webClient.send(HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages/1"))
+                    .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\":\"waits\"}"))
+                    .header("Content-Type", "application/json")
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals(503, locked.statusCode());
+            Assert.assertEquals("1", locked.headers().firstValue("Retry-After").orElse(null));
+            conn.rollback();
+        } finally {
+            setLockTimeout(ConnectionUtil.storageProfile().lockTimeoutMs);
+        }
+
+        try (Connection conn = ConnectionUtil.getConnection(); Statement statement = conn.createStatement()) {
+            statement.execute("alter table message rename to message_moved");
+        }
+        HttpResponse<String> missing = postMessage("lost");
+        try (Connection conn = ConnectionUtil.getConnection(); Statement statement = conn.createStatement()) {
+            statement.execute("alter table message_moved rename to message");
+        }
+        Assert.assertEquals(500, missing.statusCode());
+        Assert.assertEquals("Internal server error", missing.body());
+    }
+
+    /**
+     * Sets the lock timeout of every pooled session, by borrowing them all at once.
+     */
+    private static void setLockTimeout(int ms) throws SQLException {
+        List<Connection> sessions = new ArrayList<>();
+        try {
+            for (int i = 0; i < AppConfig.getInt("db.pool.size", 16); i++) {
+                Connection conn = ConnectionUtil.getConnection();
+                sessions.add(conn);
+                try (Statement statement = conn.createStatement()) {
+                    statement.execute("set lock_timeout " + ms);
+                }
+            }
+        } finally {
+            for (Connection conn : sessions) {
+                conn.close();
+            }
+        }
+    }
+
+    private static DataAccessException from(String state) {
+        return DataAccessException.from("Test.op", new SQLException("failed", state));
+    }
+
+    private HttpResponse<String> postMessage(String text) throws IOException, InterruptedException {
+        return webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1,\"message_text\":\"" + text + "\"}"))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
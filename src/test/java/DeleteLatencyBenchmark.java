@@ -0,0 +1,112 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Account;
+import Model.Message;
+import Service.MessageCompactor;
+import Util.ConnectionUtil;
+
+/**
+ * Measures delete latency on the request path and the throughput of the background compaction that follows. Not run by the test suite; run it with
+ *
+ *   mvn test-compile exec:java -Dexec.mainClass=DeleteLatencyBenchmark -Dexec.classpathScope=test
+ *
+ * Arguments: [messages] [mode], defaulting to 200000 and "tombstone". The benchmark wipes and reseeds the database
+ * behind ConnectionUtil, deletes every other message in random order, then purges the tombstones in batches of 500.
+ * Mode "hard" instead deletes each row the way deletes worked before tombstones, reading the row and then deleting
+ * it and its counter row, plus appending the change event every write now appends, in one transaction: a baseline
+ * on the same database settings.
+ */
+public class DeleteLatencyBenchmark {
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        boolean hard = args.length > 1 && args[1].equals("hard");
+        ConnectionUtil.resetTestDatabase();
+        wipe();
+        int[] accounts = new int[100];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = AccountDAO.createAccount(new Account("bench" + i, "password")).getAccount_id();
+        }
+        int[] ids = new int[messages];
+        for (int i = 0; i < messages; i++) {
+            ids[i] = MessageDAO.createMessage(new Message(accounts[i % accounts.length], "benchmark message", i)).getMessage_id();
+        }
+        shuffle(ids);
+
+        int deletes = messages / 2;
+        long[] micros = new long[deletes];
+        long start = System.nanoTime();
+        for (int i = 0; i < deletes; i++) {
+            long t = System.nanoTime();
+            if (hard) {
+                hardDelete(ids[i]);
+            } else {
+                MessageDAO.deleteMessage(ids[i]);
+            }
+            micros[i] = (System.nanoTime() - t) / 1000;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Arrays.sort(micros);
+        System.out.printf("mode=%s deletes=%d p50_us=%d p99_us=%d p999_us=%d deletes_per_second=%.0f%n", hard ? "hard" : "tombstone", deletes,
+                micros[deletes / 2], micros[deletes * 99 / 100], micros[deletes * 999 / 1000], deletes / seconds);
+
+        if (hard) {
+            ConnectionUtil.resetTestDatabase();
+            return;
+        }
+        MessageCompactor compactor = new MessageCompactor(0, 0, 500);
+        start = System.nanoTime();
+        int purged = compactor.compact();
+        seconds = (System.nanoTime() - start) / 1e9;
+        compactor.shutdown();
+        System.out.printf("compaction purged=%d in %.2fs (%.0f rows/s)%n", purged, seconds, purged / seconds);
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    private static void hardDelete(int messageId) throws SQLException {
+        try (Connection conn = ConnectionUtil.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement select = conn.prepareStatement(
+                    "SELECT message_id, posted_by, message_text, time_posted_epoch FROM message WHERE message_id = ?")) {
+                select.setInt(1, messageId);
+                select.executeQuery().close();
+            }
+            try (PreparedStatement counters = conn.prepareStatement("DELETE FROM message_counter WHERE message_id = ?");
+                 PreparedStatement message = conn.prepareStatement("DELETE FROM message WHERE message_id = ?")) {
+                counters.setInt(1, messageId);
+                counters.executeUpdate();
+                message.setInt(1, messageId);
+                message.executeUpdate();
+            }
+            try (PreparedStatement event = conn.prepareStatement("INSERT INTO change_event (seq, entity, entity_id, "
+                    + "operation, changed_at) SELECT COALESCE(MAX(seq), 0) + 1, 'message', ?, 'delete', ? FROM change_event")) {
+                event.setInt(1, messageId);
+                event.setLong(2, System.currentTimeMillis());
+                event.executeUpdate();
+            }
+            conn.commit();
+        }
+    }
+
+    private static void shuffle(int[] ids) {
+        java.util.Random random = new java.util.Random(42);
+        for (int i = ids.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = ids[i];
+            ids[i] = ids[j];
+            ids[j] = swap;
+        }
+    }
+
+    private static void wipe() throws SQLException {
+        try (Connection conn = ConnectionUtil.getConnection(); Statement statement = conn.createStatement()) {
+            statement.execute("delete from message");
+            statement.execute("delete from account");
+        }
+    }
+}
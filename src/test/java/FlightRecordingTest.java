@@ -0,0 +1,136 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class FlightRecordingTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient for interacting
+     * locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("admin.token", "test-admin-token");
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("admin.token");
+        System.clearProperty("jfr.statement.threshold.ms");
+        System.clearProperty("jfr.acquire.threshold.ms");
+    }
+
+    /**
+     * Starting a recording through POST localhost:8080/admin/jfr/start with the statement and acquire thresholds at
+     * 0, posting a message, stopping the recording and reading GET localhost:8080/admin/jfr/dump
+     *
+     * Expected Response:
+     *  Status Code: 200 for each call. The dump is a JFR file holding the POST /messages request with its route and
+     *  status, the insert MessageDAO.createMessage ran with its SQL id and one row, and connection acquires
+     */
+    @Test
+    public void recordsRequestsStatementsAndAcquires() throws IOException, InterruptedException {
+        System.setProperty("jfr.statement.threshold.ms", "0");
+        System.setProperty("jfr.acquire.threshold.ms", "0");
+        List<RecordedEvent> events = recordMessagePost();
+
+        Assert.assertTrue(events.stream().anyMatch(event -> event.getEventType().getName().equals("socialmedia.HttpRequest")
+                && event.getString("method").equals("POST") && event.getString("route").equals("/messages")
+                && event.getInt("status") == 200));
+        Assert.assertTrue(events.stream().anyMatch(event -> event.getEventType().getName().equals("socialmedia.DatabaseStatement")
+                && event.getString("operation").equals("MessageDAO.createMessage")
+                && event.getString("sql").contains("INSERT INTO message ")
+                && event.getString("sqlId").length() == 8 && event.getLong("rows") == 1
+                && event.getStackTrace() == null));
+        Assert.assertTrue(events.stream().anyMatch(event -> event.getEventType().getName().equals("socialmedia.ConnectionAcquire")));
+    }
+
+    /**
+     * Recording a message post with the statement and acquire thresholds far above anything the post takes
+     *
+     * Expected Response:
+     *  The request is recorded, but none of its statements or connection acquires are
+     */
+    @Test
+    public void dropsStatementsUnderThreshold() throws IOException, InterruptedException {
+        System.setProperty("jfr.statement.threshold.ms", "60000");
+        System.setProperty("jfr.acquire.threshold.ms", "60000");
+        List<RecordedEvent> events = recordMessagePost();
+
+        Assert.assertTrue(events.stream().anyMatch(event -> event.getEventType().getName().equals("socialmedia.HttpRequest")));
+        Assert.assertFalse(events.stream().anyMatch(event -> event.getEventType().getName().equals("socialmedia.DatabaseStatement")
+                || event.getEventType().getName().equals("socialmedia.ConnectionAcquire")));
+    }
+
+    /**
+     * Calling the recording endpoints out of order and with unknown settings
+     *
+     * Expected Response:
+     *  Status Code: 404 for a dump before any recording; 409 for a stop with none running and for a second start;
+     *  400 for settings the JDK does not have
+     */
+    @Test
+    public void rejectsCallsOutOfOrder() throws IOException, InterruptedException {
+        Assert.assertEquals(404, send("GET", "/admin/jfr/dump").statusCode());
+        Assert.assertEquals(409, send("POST", "/admin/jfr/stop").statusCode());
+        Assert.assertEquals(400, send("POST", "/admin/jfr/start?settings=nonexistent").statusCode());
+        Assert.assertEquals(200, send("POST", "/admin/jfr/start?settings=profile").statusCode());
+        Assert.assertEquals(409, send("POST", "/admin/jfr/start").statusCode());
+        Assert.assertEquals(200, send("POST", "/admin/jfr/stop").statusCode());
+    }
+
+    private List<RecordedEvent> recordMessagePost() throws IOException, InterruptedException {
+        Assert.assertEquals(200, send("POST", "/admin/jfr/start").statusCode());
+        HttpResponse<String> posted = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1,\"message_text\":\"recorded message\"}"))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, posted.statusCode());
+        Assert.assertEquals(200, send("POST", "/admin/jfr/stop").statusCode());
+
+        HttpResponse<byte[]> dump = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/admin/jfr/dump")).header("X-Admin-Token", "test-admin-token").build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        Assert.assertEquals(200, dump.statusCode());
+        Path file = Files.createTempFile("recording", ".jfr");
+        Files.write(file, dump.body());
+        List<RecordedEvent> events = new ArrayList<>(RecordingFile.readAllEvents(file));
+        Files.delete(file);
+        return events;
+    }
+
+    private HttpResponse<String> send(String method, String path) throws IOException, InterruptedException {
+        return webClient.send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path))
+                .header("X-Admin-Token", "test-admin-token")
+                .method(method, HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,151 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Random;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Service.CounterService;
+import Service.FeedService;
+import Service.MessageService;
+import Util.ConnectionUtil;
+import Util.FollowGraph;
+
+/**
+ * Measures the follow graph and home timelines at 1M follow edges. Not run by the test suite; run it with
+ *
+ *   mvn test-compile exec:java -Dexec.mainClass=FollowFeedBenchmark -Dexec.classpathScope=test
+ *
+ * Arguments: [accounts] [edges] [feed reads], defaulting to 50000 accounts, 1000000 edges and 2000 reads. A fifth
+ * of all follows go to 100 popular accounts, so they end up with thousands of followers each. The benchmark wipes
+ * and reseeds the database behind ConnectionUtil.
+ */
+public class FollowFeedBenchmark {
+
+    private static final int POPULAR_ACCOUNTS = 100;
+
+    public static void main(String[] args) throws Exception {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int edges = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        int reads = args.length > 2 ? Integer.parseInt(args[2]) : 2_000;
+        int[][] generated = generateEdges(accounts, edges, new Random(42));
+
+        FollowGraph graph = new FollowGraph();
+        long start = System.nanoTime();
+        for (int i = 0; i < edges; i++) {
+            graph.add(generated[0][i], generated[1][i]);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("graph: %d edges in %.2fs (%.0f edges/s), %.1f bytes/edge%n",
+                graph.edgeCount(), seconds, graph.edgeCount() / seconds, (double) graph.memoryBytes() / graph.edgeCount());
+
+        Random random = new Random(7);
+        start = System.nanoTime();
+        long hits = 0;
+        for (int i = 0; i < 1_000_000; i++) {
+            hits += graph.follows(1 + random.nextInt(accounts), 1 + random.nextInt(accounts)) ? 1 : 0;
+        }
+        System.out.printf("graph: follows() %.0f ns/op (%d hits)%n", (System.nanoTime() - start) / 1e6, hits);
+
+        seed(accounts, generated);
+        System.out.println("threshold,load_ms,post_us,feed_cold_p50_us,feed_cold_p99_us,feed_warm_p50_us,feed_warm_p99_us");
+        for (int threshold : new int[] { Integer.MAX_VALUE, 1000, 0 }) {
+            start = System.nanoTime();
+            CounterService counters = new CounterService();
+            FeedService feeds = new FeedService(counters, new MessageService(counters), threshold, 200, accounts,
+                    60 * 60 * 1000L);
+            long loadMs = (System.nanoTime() - start) / 1_000_000;
+
+            int[] readers = new int[reads];
+            for (int i = 0; i < reads; i++) {
+                readers[i] = POPULAR_ACCOUNTS + 1 + random.nextInt(accounts - POPULAR_ACCOUNTS);
+            }
+            long[] cold = timeFeeds(feeds, readers);
+
+            start = System.nanoTime();
+            for (int i = 0; i < reads; i++) {
+                int author = 1 + random.nextInt(accounts);
+                feeds.onMessagePosted(MessageDAO.createMessage(new Message(author, "benchmark post", i)));
+            }
+            double postUs = (System.nanoTime() - start) / 1e3 / reads;
+            long[] warm = timeFeeds(feeds, readers);
+
+            System.out.printf("%s,%d,%.1f,%d,%d,%d,%d%n", threshold == Integer.MAX_VALUE ? "push-all" : String.valueOf(threshold),
+                    loadMs, postUs, percentile(cold, 0.5), percentile(cold, 0.99), percentile(warm, 0.5), percentile(warm, 0.99));
+        }
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    private static int[][] generateEdges(int accounts, int edges, Random random) {
+        int[] followers = new int[edges];
+        int[] followees = new int[edges];
+        FollowGraph seen = new FollowGraph();
+        for (int i = 0; i < edges; ) {
+            int follower = 1 + random.nextInt(accounts);
+            int followee = random.nextInt(5) == 0 ? 1 + random.nextInt(POPULAR_ACCOUNTS) : 1 + random.nextInt(accounts);
+            if (follower != followee && seen.add(follower, followee)) {
+                followers[i] = follower;
+                followees[i] = followee;
+                i++;
+            }
+        }
+        return new int[][] { followers, followees };
+    }
+
+    private static void seed(int accounts, int[][] edges) throws SQLException {
+        ConnectionUtil.resetTestDatabase();
+        long start = System.nanoTime();
+        try (Connection conn = ConnectionUtil.getConnection()) {
+            conn.setAutoCommit(false);
+            try (Statement statement = conn.createStatement()) {
+                statement.execute("delete from message");
+                statement.execute("delete from account");
+            }
+            try (PreparedStatement account = conn.prepareStatement("insert into account (account_id, username, password) values (?, ?, 'password')");
+                 PreparedStatement message = conn.prepareStatement("insert into message (posted_by, message_text, time_posted_epoch) values (?, 'seed', 0)")) {
+                for (int id = 1; id <= accounts; id++) {
+                    account.setInt(1, id);
+                    account.setString(2, "bench" + id);
+                    account.addBatch();
+                    message.setInt(1, id);
+                    message.addBatch();
+                    message.addBatch();
+                }
+                account.executeBatch();
+                message.executeBatch();
+            }
+            try (PreparedStatement follow = conn.prepareStatement("insert into follow (follower_id, followee_id) values (?, ?)")) {
+                for (int i = 0; i < edges[0].length; i++) {
+                    follow.setInt(1, edges[0][i]);
+                    follow.setInt(2, edges[1][i]);
+                    follow.addBatch();
+                    if (i % 10_000 == 9_999) {
+                        follow.executeBatch();
+                    }
+                }
+                follow.executeBatch();
+            }
+            conn.commit();
+        }
+        System.out.printf("seeded %d accounts, %d messages, %d follows in %dms%n",
+                accounts, 2 * accounts, edges[0].length, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static long[] timeFeeds(FeedService feeds, int[] readers) {
+        long[] micros = new long[readers.length];
+        for (int i = 0; i < readers.length; i++) {
+            long start = System.nanoTime();
+            feeds.getFeed(readers[i], 20);
+            micros[i] = (System.nanoTime() - start) / 1000;
+        }
+        return micros;
+    }
+
+    private static long percentile(long[] values, double p) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class FollowFeedTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        startApp();
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("feed.fanout.max.followers");
+    }
+
+    private void startApp() throws InterruptedException {
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    /**
+     * With feed.fanout.max.followers set to 1, registering three accounts; the first follows testuser1 and the third,
+     * the second follows testuser1 too, and testuser1 and the third account post in turn; then sending an http
+     * request to GET localhost:8080/accounts/{id}/feed for the first
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: testuser1's messages, pulled at read time since it has two followers, merged with the third
+     *  account's message, pushed into the inbox since it has one, newest first and without repeats; the second
+     *  account's feed has only testuser1's messages
+     */
+    @Test
+    public void feedMergesPushedAndPulledAuthors() throws IOException, InterruptedException {
+        app.stop();
+        System.setProperty("feed.fanout.max.followers", "1");
+        startApp();
+
+        int follower = register("testuser2");
+        int otherFollower = register("testuser3");
+        int author = register("testuser4");
+        Assert.assertEquals(200, send("POST", "/accounts/" + follower + "/following/1").statusCode());
+        Assert.assertEquals(200, send("POST", "/accounts/" + follower + "/following/" + author).statusCode());
+        Assert.assertEquals(200, send("POST", "/accounts/" + otherFollower + "/following/1").statusCode());
+        Message first = post(1, "pulled first");
+        Message pushed = post(author, "pushed");
+        Message last = post(1, "pulled last");
+
+        List<Message> expected = new ArrayList<>();
+        expected.add(last);
+        expected.add(pushed);
+        expected.add(first);
+        expected.add(new Message(1, 1, "test message 1", 1669947792));
+        Assert.assertEquals(expected, feed(follower));
+        expected.remove(pushed);
+        Assert.assertEquals(expected, feed(otherFollower));
+    }
+
+    /**
+     * Following then unfollowing testuser1, then sending an http request to GET localhost:8080/accounts/2/feed
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: an empty list
+     */
+    @Test
+    public void unfollowEmptiesFeed() throws IOException, InterruptedException {
+        int follower = register("testuser2");
+        send("POST", "/accounts/" + follower + "/following/1");
+        Assert.assertEquals(1, feed(follower).size());
+
+        HttpResponse<String> response = send("DELETE", "/accounts/" + follower + "/following/1");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(feed(follower).isEmpty());
+        Assert.assertEquals("[]", send("GET", "/accounts/1/followers").body());
+    }
+
+    /**
+     * Following testuser1, posting three messages as testuser1, deleting the newest two, then sending an http
+     * request to GET localhost:8080/accounts/2/feed?limit=2
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the oldest new message and testuser1's original one; the deleted ids are skipped and the page
+     *  is still filled
+     */
+    @Test
+    public void feedSkipsDeletedMessages() throws IOException, InterruptedException {
+        int follower = register("testuser2");
+        send("POST", "/accounts/" + follower + "/following/1");
+        Assert.assertEquals(1, feed(follower).size());
+        Message kept = post(1, "kept message");
+        Message deleted = post(1, "deleted message");
+        Message newest = post(1, "newest message");
+        Assert.assertEquals(200, send("DELETE", "/messages/" + newest.getMessage_id()).statusCode());
+        Assert.assertEquals(200, send("DELETE", "/messages/" + deleted.getMessage_id()).statusCode());
+
+        HttpResponse<String> response = send("GET", "/accounts/" + follower + "/feed?limit=2");
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> expected = new ArrayList<>();
+        expected.add(kept);
+        expected.add(new Message(1, 1, "test message 1", 1669947792));
+        Assert.assertEquals(expected, objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){}));
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/accounts/1/following/1 and to an account that does not exist
+     * 
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void followRejectsSelfAndUnknownAccounts() throws IOException, InterruptedException {
+        Assert.assertEquals(400, send("POST", "/accounts/1/following/1").statusCode());
+        Assert.assertEquals(400, send("POST", "/accounts/1/following/99").statusCode());
+    }
+
+    private int register(String username) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\":\"" + username + "\",\"password\":\"password\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        return objectMapper.readValue(response.body(), Account.class).getAccount_id();
+    }
+
+    private Message post(int postedBy, String text) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":" + postedBy + ",\"message_text\":\"" + text
+                        + "\",\"time_posted_epoch\":1669947800}"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        return objectMapper.readValue(response.body(), Message.class);
+    }
+
+    private List<Message> feed(int userId) throws IOException, InterruptedException {
+        HttpResponse<String> response = send("GET", "/accounts/" + userId + "/feed");
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    private HttpResponse<String> send(String method, String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, HttpRequest.BodyPublishers.noBody())
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.MessageDAO;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class HashtagMentionTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Posting messages with hashtags and mentions, then paging through GET localhost:8080/tags/{tag}/messages and
+     * GET localhost:8080/accounts/{userId}/mentions
+     *
+     * Expected Response:
+     *  Status Code: 200. Tags match in any case, newest first, and limit and before page through them; unknown
+     *  usernames, e-mail addresses, numeric tags and '#' inside a word are not indexed
+     */
+    @Test
+    public void indexesTagsAndMentions() throws IOException, InterruptedException {
+        Assert.assertEquals(200, post("/register", "{\"username\":\"alice\",\"password\":\"password\"}").statusCode());
+        Message first = postMessage("Loving #Java and #h2, thanks @alice!");
+        Message second = postMessage("#java again for @alice and @testuser1 but not @nobody");
+        postMessage("mail me@example.com about #1 or a#b");
+
+        Message[] java = messages("/tags/JAVA/messages");
+        Assert.assertEquals(2, java.length);
+        Assert.assertEquals(second.getMessage_id(), java[0].getMessage_id());
+        Assert.assertEquals(first.getMessage_id(), java[1].getMessage_id());
+
+        Message[] page = messages("/tags/java/messages?limit=1");
+        Assert.assertEquals(1, page.length);
+        Assert.assertEquals(second.getMessage_id(), page[0].getMessage_id());
+        page = messages("/tags/java/messages?limit=1&before=" + page[0].getMessage_id());
+        Assert.assertEquals(1, page.length);
+        Assert.assertEquals(first.getMessage_id(), page[0].getMessage_id());
+        page = messages("/tags/java/messages?limit=1&before=" + page[0].getMessage_id());
+        Assert.assertEquals(0, page.length);
+
+        Assert.assertEquals(2, messages("/accounts/2/mentions").length);
+        Assert.assertEquals(1, messages("/accounts/1/mentions").length);
+        Assert.assertEquals(0, messages("/tags/1/messages").length);
+        Assert.assertEquals(0, messages("/tags/b/messages").length);
+        Assert.assertEquals(0, messages("/tags/example/messages").length);
+
+        Assert.assertEquals(400, get("/tags/java/messages?limit=0").statusCode());
+        Assert.assertEquals(400, get("/accounts/1/mentions?before=x").statusCode());
+    }
+
+    /**
+     * Editing and deleting indexed messages, then reading GET localhost:8080/tags/{tag}/messages and
+     * GET localhost:8080/accounts/{userId}/mentions
+     *
+     * Expected Response:
+     *  Status Code: 200. An edit moves the message from its old tags and mentions to its new ones; a deleted
+     *  message is no longer listed
+     */
+    @Test
+    public void keepsIndexesConsistentWithEditsAndDeletes() throws IOException, InterruptedException {
+        Message message = postMessage("first take on #caching with @testuser1");
+        Assert.assertEquals(1, messages("/tags/caching/messages").length);
+
+        HttpRequest patch = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + message.getMessage_id()))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\":\"second take on #sharding\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(patch, HttpResponse.BodyHandlers.ofString()).statusCode());
+        Assert.assertEquals(0, messages("/tags/caching/messages").length);
+        Assert.assertEquals(0, messages("/accounts/1/mentions").length);
+        Message[] sharding = messages("/tags/sharding/messages");
+        Assert.assertEquals(1, sharding.length);
+        Assert.assertEquals("second take on #sharding", sharding[0].getMessage_text());
+
+        HttpRequest delete = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + message.getMessage_id()))
+                .DELETE()
+                .build();
+        Assert.assertEquals(200, webClient.send(delete, HttpResponse.BodyHandlers.ofString()).statusCode());
+        Assert.assertEquals(0, messages("/tags/sharding/messages").length);
+    }
+
+    /**
+     * Deleting the newest of two tagged messages, paging GET localhost:8080/tags/{tag}/messages one at a time, then
+     * purging tombstones
+     *
+     * Expected Response:
+     *  Status Code: 200. The delete leaves the index entry behind, yet the first page of one already holds the older
+     *  message rather than coming back empty; purging the tombstone removes the entry
+     */
+    @Test
+    public void deleteLeavesIndexCleanupToCompaction() throws IOException, InterruptedException, SQLException {
+        Message older = postMessage("older #compaction note");
+        Message newer = postMessage("newer #compaction note");
+        HttpRequest delete = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + newer.getMessage_id()))
+                .DELETE()
+                .build();
+        Assert.assertEquals(200, webClient.send(delete, HttpResponse.BodyHandlers.ofString()).statusCode());
+        Assert.assertEquals(2, tagRows());
+
+        Message[] page = messages("/tags/compaction/messages?limit=1");
+        Assert.assertEquals(1, page.length);
+        Assert.assertEquals(older.getMessage_id(), page[0].getMessage_id());
+
+        MessageDAO.purgeDeleted(0, Long.MAX_VALUE, 100);
+        Assert.assertEquals(1, tagRows());
+    }
+
+    private int tagRows() throws SQLException {
+        try (Connection conn = ConnectionUtil.getConnection();
+             Statement statement = conn.createStatement();
+             ResultSet rs = statement.executeQuery("select count(*) from message_tag where tag = 'compaction'")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private Message postMessage(String text) throws IOException, InterruptedException {
+        HttpResponse<String> response = post("/messages",
+                "{\"posted_by\":1,\"message_text\":\"" + text + "\",\"time_posted_epoch\":1669947800}");
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), Message.class);
+    }
+
+    private Message[] messages(String path) throws IOException, InterruptedException {
+        HttpResponse<String> response = get(path);
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), Message[].class);
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return webClient.send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> post(String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
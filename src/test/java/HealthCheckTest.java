@@ -0,0 +1,151 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.ServerLifecycle;
+import io.javalin.Javalin;
+
+public class HealthCheckTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/health/ready before and after warm-up has run
+     * 
+     * Expected Response:
+     *  Status Code: 503 before warm-up and 200 after
+     *  The stored messages are untouched by warm-up
+     */
+    @Test
+    public void readyOnlyAfterWarmUp() throws IOException, InterruptedException {
+        Assert.assertEquals(503, get("/health/ready").statusCode());
+        socialMediaController.warmUp(8080, 2, 10, 2);
+        Assert.assertEquals(200, get("/health/ready").statusCode());
+
+        List<Message> messages = objectMapper.readValue(get("/messages").body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(1, messages.size());
+    }
+
+    /**
+     * Shutting down while a long poll of GET localhost:8080/changes is waiting, and sending requests during the drain
+     * 
+     * Expected Response:
+     *  While the poll is still waiting, /health/ready answers 503 and new requests get 503; the poll itself
+     *  completes with 200 and shutdown reports a full drain
+     */
+    @Test
+    public void shutdownWaitsForRequestsInFlight() throws Exception {
+        socialMediaController.warmUp(8080, 2, 10, 1);
+        CompletableFuture<HttpResponse<String>> poll = webClient.sendAsync(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/changes?wait_ms=2000")).build(), HttpResponse.BodyHandlers.ofString());
+        Thread.sleep(300);
+        CompletableFuture<Boolean> drained = CompletableFuture.supplyAsync(() -> socialMediaController.shutdown(app, 10000));
+        Thread.sleep(300);
+
+        Assert.assertFalse(poll.isDone());
+        Assert.assertEquals(503, get("/health/ready").statusCode());
+        Assert.assertEquals(503, get("/messages").statusCode());
+        Assert.assertEquals(200, poll.get().statusCode());
+        Assert.assertTrue(drained.get());
+    }
+
+    /**
+     * Shutting down with no requests in flight drains immediately and stops the server
+     */
+    @Test
+    public void shutdownDrainsIdleServer() throws IOException, InterruptedException {
+        socialMediaController.warmUp(8080, 2, 10, 1);
+        Assert.assertTrue(socialMediaController.shutdown(app, 1000));
+    }
+
+    /**
+     * Starting requests from several threads while draining, and checking a request counted before the drain
+     *
+     * Expected Result:
+     *  A request counted before the drain holds it open until it finishes, and none is counted once the drain has
+     *  begun, so no request starts after the drain has seen none in flight; health probes are still counted
+     */
+    @Test
+    public void noRequestStartsOnceDrainHasBegun() throws Exception {
+        ServerLifecycle lifecycle = new ServerLifecycle();
+        Assert.assertTrue(lifecycle.tryStart());
+        Assert.assertFalse(lifecycle.drain(50));
+        Assert.assertFalse(lifecycle.tryStart());
+        lifecycle.requestStarted();
+        Assert.assertEquals(2, lifecycle.inFlight());
+        lifecycle.requestFinished();
+        lifecycle.requestFinished();
+        Assert.assertTrue(lifecycle.drain(50));
+
+        ServerLifecycle racing = new ServerLifecycle();
+        AtomicBoolean drained = new AtomicBoolean();
+        AtomicInteger lateStarts = new AtomicInteger();
+        Thread[] clients = new Thread[4];
+        for (int t = 0; t < clients.length; t++) {
+            clients[t] = new Thread(() -> {
+                while (!drained.get()) {
+                    if (racing.tryStart()) {
+                        if (drained.get()) {
+                            lateStarts.incrementAndGet();
+                        }
+                        racing.requestFinished();
+                    }
+                }
+            });
+            clients[t].start();
+        }
+        Thread.sleep(20);
+        Assert.assertTrue(racing.drain(1000));
+        drained.set(true);
+        for (Thread client : clients) {
+            client.join();
+        }
+        Assert.assertEquals(0, lateStarts.get());
+        Assert.assertEquals(0, racing.inFlight());
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return webClient.send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,78 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Account;
+import Model.Message;
+import Service.MessageService;
+import Util.ConnectionUtil;
+
+/**
+ * Simulates a viral message: many threads read the same message id while its cache entry keeps expiring, and the
+ * benchmark reports how many database loads those reads cost, with and without coalescing. Not run by the test
+ * suite; run it with
+ *
+ *   mvn test-compile exec:java -Dexec.mainClass=HotKeyBenchmark -Dexec.classpathScope=test
+ *
+ * Arguments: [threads] [reads per thread], defaulting to 64 and 2000.
+ */
+public class HotKeyBenchmark {
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int reads = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        System.setProperty("cache.ttl.ms", "1");
+        ConnectionUtil.resetTestDatabase();
+        wipe();
+        int account = AccountDAO.createAccount(new Account("viral", "password")).getAccount_id();
+        int id = MessageDAO.createMessage(new Message(account, "gone viral", 1)).getMessage_id();
+
+        MessageService service = new MessageService();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int pass = 0; pass < 2; pass++) {
+            long loadsBefore = service.loadStats().get("loads");
+            long coalescedBefore = service.loadStats().get("coalesced");
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> done = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                done.add(pool.submit(() -> {
+                    start.await();
+                    for (int r = 0; r < reads; r++) {
+                        service.getMessageById(id);
+                    }
+                    return null;
+                }));
+            }
+            long t0 = System.nanoTime();
+            start.countDown();
+            for (Future<?> f : done) {
+                f.get();
+            }
+            long elapsed = System.nanoTime() - t0;
+            if (pass == 1) {
+                long loads = service.loadStats().get("loads") - loadsBefore;
+                long coalesced = service.loadStats().get("coalesced") - coalescedBefore;
+                long misses = loads + coalesced;
+                System.out.printf("threads=%d reads=%d cache_misses=%d db_loads=%d coalesced=%d reads_per_s=%.0f hot=%s%n",
+                        threads, threads * reads, misses, loads, coalesced, threads * reads / (elapsed / 1e9),
+                        service.hotMessages().keySet());
+            }
+        }
+        pool.shutdown();
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    private static void wipe() throws SQLException {
+        try (Connection conn = ConnectionUtil.getConnection(); Statement statement = conn.createStatement()) {
+            statement.execute("delete from message");
+            statement.execute("delete from account");
+        }
+    }
+}
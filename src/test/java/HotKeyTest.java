@@ -0,0 +1,210 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Model.Message;
+import Util.HotKeySketch;
+import Util.MessageStore;
+import Util.SingleFlight;
+
+public class HotKeyTest {
+
+    /**
+     * Sixteen threads loading the same key while the first load is held open, then the same with a failing loader
+     *
+     * Expected Result:
+     *  The loader runs once, every thread gets its value and fifteen are counted as coalesced; a loader's exception
+     *  reaches every thread that shared the load
+     */
+    @Test
+    public void coalescesConcurrentLoads() throws Exception {
+        SingleFlight<Integer, String> flight = new SingleFlight<>();
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            AtomicInteger runs = new AtomicInteger();
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                results.add(pool.submit(() -> flight.load(42, () -> {
+                    runs.incrementAndGet();
+                    await(release);
+                    return "loaded";
+                })));
+            }
+            waitFor(() -> flight.coalesced() == 15);
+            release.countDown();
+            for (Future<String> result : results) {
+                Assert.assertEquals("loaded", result.get(5, TimeUnit.SECONDS));
+            }
+            Assert.assertEquals(1, runs.get());
+            Assert.assertEquals(1, flight.loads());
+
+            CountDownLatch fail = new CountDownLatch(1);
+            List<Future<String>> failures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                failures.add(pool.submit(() -> flight.load(42, () -> {
+                    await(fail);
+                    throw new IllegalStateException("database down");
+                })));
+            }
+            waitFor(() -> flight.coalesced() == 18);
+            fail.countDown();
+            for (Future<String> failure : failures) {
+                try {
+                    failure.get(5, TimeUnit.SECONDS);
+                    Assert.fail("expected the loader's exception");
+                } catch (java.util.concurrent.ExecutionException e) {
+                    Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Sixteen async loads of the same key while the first load's future is still open, one of them cancelled by its
+     * caller, then a failing async load shared with a sync caller
+     *
+     * Expected Result:
+     *  The loader runs once and no thread waits on it; the other fifteen futures complete with its value when it
+     *  does, unaffected by the cancelled one. A failed load fails every shared future, and the sync caller gets the
+     *  loader's exception itself
+     */
+    @Test
+    public void coalescesAsyncLoadsWithoutBlocking() throws Exception {
+        SingleFlight<Integer, String> flight = new SingleFlight<>();
+        CompletableFuture<String> loading = new CompletableFuture<>();
+        AtomicInteger runs = new AtomicInteger();
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            results.add(flight.loadAsync(42, () -> {
+                runs.incrementAndGet();
+                return loading;
+            }));
+        }
+        Assert.assertEquals(1, runs.get());
+        Assert.assertEquals(15, flight.coalesced());
+        results.get(3).cancel(false);
+        loading.complete("loaded");
+        for (int i = 0; i < results.size(); i++) {
+            if (i != 3) {
+                Assert.assertEquals("loaded", results.get(i).getNow(null));
+            }
+        }
+
+        CompletableFuture<String> failing = new CompletableFuture<>();
+        CompletableFuture<String> shared = flight.loadAsync(42, () -> failing);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> sync = pool.submit(() -> flight.load(42, () -> "not run"));
+            waitFor(() -> flight.coalesced() == 16);
+            failing.completeExceptionally(new IllegalStateException("database down"));
+            try {
+                sync.get(5, TimeUnit.SECONDS);
+                Assert.fail("expected the loader's exception");
+            } catch (java.util.concurrent.ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+            Assert.assertTrue(shared.isCompletedExceptionally());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Feeding a sketch a stream where three keys get most of the traffic, then letting windows pass without them
+     *
+     * Expected Result:
+     *  Exactly the three heavy keys become hot and are reported hottest first; after a few idle windows they cool
+     *  down, and every key made hot is later reported cold
+     */
+    @Test
+    public void findsHeavyHittersAndForgetsThem() {
+        AtomicLong now = new AtomicLong(1_000_000);
+        HotKeySketch sketch = new HotKeySketch(8, 500, 10_000, now::get);
+        Set<Integer> pinned = new HashSet<>();
+        sketch.onChange(pinned::add, pinned::remove);
+
+        Random random = new Random(7);
+        for (int i = 0; i < 100_000; i++) {
+            int draw = random.nextInt(100);
+            int key = draw < 20 ? 1 : draw < 30 ? 2 : draw < 35 ? 3 : 1000 + random.nextInt(50_000);
+            sketch.record(key);
+            if (i % 1000 == 0) {
+                now.addAndGet(50);
+            }
+        }
+        Assert.assertEquals(Set.of(1, 2, 3), sketch.hotKeys().keySet());
+        Assert.assertEquals(List.of(1, 2, 3), new ArrayList<>(sketch.hotKeys().keySet()));
+        Assert.assertEquals(Set.of(1, 2, 3), pinned);
+        Assert.assertFalse(sketch.isHot(5000));
+
+        for (int window = 0; window < 10; window++) {
+            now.addAndGet(10_000);
+            sketch.record(99);
+        }
+        Assert.assertTrue(sketch.hotKeys().isEmpty());
+        Assert.assertTrue(pinned.isEmpty());
+    }
+
+    /**
+     * Streaming many more messages through a small store while two of them are pinned and never read
+     *
+     * Expected Result:
+     *  The pinned messages are still cached at the end, and an unpinned one is not; once unpinned, they are evicted
+     *  like any other
+     */
+    @Test
+    public void pinnedMessagesSurviveEviction() {
+        MessageStore store = new MessageStore(640, 60000);
+        for (int id : new int[] { 1, 2, 3 }) {
+            store.put(new Message(id, 1, "hot " + id, id), store.stamp(id));
+        }
+        store.pin(1);
+        store.pin(2);
+        for (int id = 100; id < 20000; id++) {
+            store.put(new Message(id, 1, "cold " + id, id), store.stamp(id));
+        }
+        Assert.assertEquals("hot 1", store.get(1).getMessage_text());
+        Assert.assertEquals("hot 2", store.get(2).getMessage_text());
+        Assert.assertNull(store.get(3));
+
+        store.unpin(1);
+        store.unpin(2);
+        for (int id = 20000; id < 40000; id++) {
+            store.put(new Message(id, 1, "cold " + id, id), store.stamp(id));
+        }
+        Assert.assertNull(store.get(1));
+        Assert.assertNull(store.get(2));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertTrue(condition.getAsBoolean());
+    }
+}
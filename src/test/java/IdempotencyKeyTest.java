@@ -0,0 +1,158 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class IdempotencyKeyTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending http requests to POST localhost:8080/messages and POST localhost:8080/register twice each with the
+     * same Idempotency-Key, then once more with the key and a different body
+     *
+     * Expected Response:
+     *  Status Code: 200 both times with the same body, the second marked Idempotent-Replayed and creating nothing;
+     *  422 for the different body, including one of the same length whose bytes have the same Arrays.hashCode
+     */
+    @Test
+    public void retriesReturnTheFirstResponse() throws IOException, InterruptedException {
+        String body = "{\"posted_by\":1,\"message_text\":\"sent twice\",\"time_posted_epoch\":1669947800}";
+        HttpResponse<String> first = post("/messages", body, "retry-1");
+        HttpResponse<String> second = post("/messages", body, "retry-1");
+        Assert.assertEquals(200, first.statusCode());
+        Assert.assertEquals(200, second.statusCode());
+        Assert.assertEquals(first.body(), second.body());
+        Assert.assertFalse(first.headers().firstValue("Idempotent-Replayed").isPresent());
+        Assert.assertEquals("true", second.headers().firstValue("Idempotent-Replayed").orElse(null));
+        Assert.assertEquals(2, userMessages().length);
+
+        Assert.assertEquals(422, post("/messages",
+                "{\"posted_by\":1,\"message_text\":\"something else\",\"time_posted_epoch\":1669947800}", "retry-1")
+                .statusCode());
+        Assert.assertEquals(200, post("/messages", body, "retry-2").statusCode());
+        Assert.assertEquals(3, userMessages().length);
+        // "Aa" and "BB" hash alike, so these bodies differ only in content, not in length or hash code
+        Assert.assertEquals(200, post("/messages",
+                "{\"posted_by\":1,\"message_text\":\"Aa\",\"time_posted_epoch\":1669947800}", "retry-3").statusCode());
+        Assert.assertEquals(422, post("/messages",
+                "{\"posted_by\":1,\"message_text\":\"BB\",\"time_posted_epoch\":1669947800}", "retry-3").statusCode());
+        Assert.assertEquals(4, userMessages().length);
+
+        String account = "{\"username\":\"retrier\",\"password\":\"password\"}";
+        HttpResponse<String> registered = post("/register", account, "register-1");
+        HttpResponse<String> again = post("/register", account, "register-1");
+        Assert.assertEquals(200, registered.statusCode());
+        Assert.assertEquals(200, again.statusCode());
+        Assert.assertEquals(registered.body(), again.body());
+        Assert.assertEquals(400, post("/register", account, null).statusCode());
+    }
+
+    /**
+     * Sending 20 http requests to POST localhost:8080/messages at once, all with the same Idempotency-Key
+     *
+     * Expected Response:
+     *  Status Code: 200 for every request, all with the same message, and only one message is created
+     */
+    @Test
+    public void concurrentDuplicatesShareOneAttempt() throws Exception {
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            responses.add(webClient.sendAsync(request("/messages",
+                    "{\"posted_by\":1,\"message_text\":\"once\",\"time_posted_epoch\":1669947800}", "burst-1"),
+                    HttpResponse.BodyHandlers.ofString()));
+        }
+        Integer messageId = null;
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            Assert.assertEquals(200, response.get().statusCode());
+            int id = objectMapper.readValue(response.get().body(), Message.class).getMessage_id();
+            if (messageId == null) {
+                messageId = id;
+            }
+            Assert.assertEquals((int) messageId, id);
+        }
+        Assert.assertEquals(2, userMessages().length);
+    }
+
+    /**
+     * Sending a POST localhost:8080/messages that fails validation twice with the same Idempotency-Key, then using
+     * that key for a valid post to POST localhost:8080/messages/1/replies
+     *
+     * Expected Response:
+     *  Status Code: 400 both times, the second replayed; the key is scoped to the route, so the reply still runs and
+     *  gets 200
+     */
+    @Test
+    public void keysAreScopedToTheRouteAndClientErrorsReplay() throws IOException, InterruptedException {
+        String blank = "{\"posted_by\":1,\"message_text\":\"\",\"time_posted_epoch\":1669947800}";
+        Assert.assertEquals(400, post("/messages", blank, "shared-1").statusCode());
+        HttpResponse<String> replayed = post("/messages", blank, "shared-1");
+        Assert.assertEquals(400, replayed.statusCode());
+        Assert.assertEquals("true", replayed.headers().firstValue("Idempotent-Replayed").orElse(null));
+
+        HttpResponse<String> reply = post("/messages/1/replies",
+                "{\"posted_by\":1,\"message_text\":\"reply\",\"time_posted_epoch\":1669947800}", "shared-1");
+        Assert.assertEquals(200, reply.statusCode());
+        Assert.assertFalse(reply.headers().firstValue("Idempotent-Replayed").isPresent());
+    }
+
+    private Message[] userMessages() throws IOException, InterruptedException {
+        HttpResponse<String> response = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/1/messages")).build(), HttpResponse.BodyHandlers.ofString());
+        return objectMapper.readValue(response.body(), Message[].class);
+    }
+
+    private HttpResponse<String> post(String path, String body, String key) throws IOException, InterruptedException {
+        return webClient.send(request(path, body, key), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpRequest request(String path, String body, String key) {
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json");
+        if (key != null) {
+            request.header("Idempotency-Key", key);
+        }
+        return request.build();
+    }
+}
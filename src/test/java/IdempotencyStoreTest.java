@@ -0,0 +1,82 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.IdempotencyStore;
+
+public class IdempotencyStoreTest {
+
+    /**
+     * Claiming far more keys than the store holds while every claim is still in flight, then completing them and
+     * claiming as many new keys
+     *
+     * Expected Result:
+     *  No in-flight claim is dropped, so each key still joins its first claim; once completed, the old claims make
+     *  room for the new keys, and each one dropped before it expired is counted as an eviction
+     */
+    @Test
+    public void evictsOnlyCompletedClaims() {
+        IdempotencyStore store = new IdempotencyStore(64, 60000);
+        List<IdempotencyStore.Claim> claims = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            IdempotencyStore.Claim claim = store.claim("key " + i, fingerprint(i));
+            Assert.assertTrue(claim.isFirst());
+            claims.add(claim);
+        }
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertFalse(store.claim("key " + i, fingerprint(i)).isFirst());
+        }
+        Assert.assertEquals(0, store.evictions());
+
+        for (IdempotencyStore.Claim claim : claims) {
+            store.complete(claim, new IdempotencyStore.Response(200, null, null, "done"));
+        }
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(store.claim("new key " + i, fingerprint(i)).isFirst());
+        }
+        Assert.assertTrue(store.evictions() > 0);
+        int forgotten = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (store.claim("key " + i, fingerprint(i)).isFirst()) {
+                forgotten++;
+            }
+        }
+        Assert.assertTrue(forgotten > 0);
+    }
+
+    /**
+     * Completing one claim with a 500 and another with a 200, then claiming both keys again, and claiming a key in a
+     * store whose entries expire at once
+     *
+     * Expected Result:
+     *  The duplicate already waiting gets the 500, but the next request with that key runs again; the 200 is
+     *  replayed with the first request's fingerprint; an expired key is claimed afresh without counting an eviction
+     */
+    @Test
+    public void forgetsServerErrorsAndExpiredKeys() throws Exception {
+        IdempotencyStore store = new IdempotencyStore(1000, 60000);
+        IdempotencyStore.Claim failed = store.claim("failed", fingerprint(1));
+        IdempotencyStore.Claim waiting = store.claim("failed", fingerprint(1));
+        store.complete(failed, new IdempotencyStore.Response(500, null, null, "error"));
+        Assert.assertEquals(500, waiting.response().get().status);
+        Assert.assertTrue(store.claim("failed", fingerprint(1)).isFirst());
+
+        store.complete(store.claim("ok", fingerprint(1)), new IdempotencyStore.Response(200, null, null, "ok"));
+        IdempotencyStore.Claim replay = store.claim("ok", fingerprint(2));
+        Assert.assertFalse(replay.isFirst());
+        Assert.assertFalse(replay.matches(fingerprint(2)));
+        Assert.assertEquals("ok", replay.response().get().body);
+
+        IdempotencyStore expiring = new IdempotencyStore(1000, 0);
+        Assert.assertTrue(expiring.claim("expired", fingerprint(1)).isFirst());
+        Assert.assertTrue(expiring.claim("expired", fingerprint(1)).isFirst());
+        Assert.assertEquals(0, expiring.evictions());
+    }
+
+    private static byte[] fingerprint(int body) {
+        return IdempotencyStore.fingerprint(("body " + body).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,164 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.MessageDAO;
+import Model.Message;
+import Service.CounterService;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessageCountersTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app with a short counter flush interval, and create
+     * a new webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        System.setProperty("counters.flush.interval.ms", "100");
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("counters.flush.interval.ms");
+    }
+
+    /**
+     * Sending 50 concurrent http requests to POST localhost:8080/messages/1/likes and one reply to
+     * POST localhost:8080/messages/1/replies, then GET localhost:8080/messages/1 before and after a flush
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: message 1 with like_count 50 and reply_count 1 both times, and the flushed row in message_counter
+     */
+    @Test
+    public void likesAndRepliesAreCounted() throws Exception {
+        Thread[] likers = new Thread[10];
+        for (int t = 0; t < likers.length; t++) {
+            likers[t] = new Thread(() -> {
+                for (int i = 0; i < 5; i++) {
+                    try {
+                        Assert.assertEquals(200, send("/messages/1/likes", "").statusCode());
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            });
+            likers[t].start();
+        }
+        for (Thread liker : likers) {
+            liker.join();
+        }
+        HttpResponse<String> reply = send("/messages/1/replies",
+                "{\"posted_by\":1,\"message_text\":\"a reply\",\"time_posted_epoch\":1669947800}");
+        Assert.assertEquals(200, reply.statusCode());
+
+        Message beforeFlush = getMessage(1);
+        Assert.assertEquals(50, beforeFlush.getLike_count());
+        Assert.assertEquals(1, beforeFlush.getReply_count());
+
+        Thread.sleep(500);
+        try (Connection conn = ConnectionUtil.getConnection();
+             PreparedStatement ps = conn.prepareStatement("select like_count from message_counter where message_id = 1");
+             ResultSet rs = ps.executeQuery()) {
+            Assert.assertTrue(rs.next());
+            Assert.assertEquals(50, rs.getLong(1));
+        }
+        Message afterFlush = getMessage(1);
+        Assert.assertEquals(50, afterFlush.getLike_count());
+        Assert.assertEquals(1, afterFlush.getReply_count());
+        Assert.assertEquals(0, objectMapper.readValue(reply.body(), Message.class).getLike_count());
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages/100/likes and POST localhost:8080/messages/100/replies
+     * for a message that does not exist
+     * 
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void countersRejectMissingMessages() throws IOException, InterruptedException {
+        Assert.assertEquals(400, send("/messages/100/likes", "").statusCode());
+        Assert.assertEquals(400, send("/messages/100/replies",
+                "{\"posted_by\":1,\"message_text\":\"a reply\",\"time_posted_epoch\":1669947800}").statusCode());
+    }
+
+    private Message getMessage(int messageId) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + messageId))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), Message.class);
+    }
+
+    /**
+     * Liking message 1 ten times and flushing while a read of it runs in the gap between the flush's commit and the
+     * release of the flushed delta, held open by a slow flush listener
+     *
+     * Expected Result:
+     *  The read counts each like once: 10, not the 10 committed plus the 10 still being flushed
+     */
+    @Test
+    public void readDuringFlushCountsLikesOnce() throws Exception {
+        CounterService counters = new CounterService(60000);
+        CountDownLatch committed = new CountDownLatch(1);
+        counters.onFlushed(messageId -> {
+            committed.countDown();
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(counters.like(1));
+        }
+        Thread flusher = new Thread(counters::flush);
+        flusher.start();
+        committed.await();
+        Message read = counters.withCounts(MessageDAO.getMessageById(1));
+        flusher.join();
+        Assert.assertEquals(10, read.getLike_count());
+        Assert.assertEquals(10, counters.withCounts(MessageDAO.getMessageById(1)).getLike_count());
+        counters.shutdown();
+    }
+
+    private HttpResponse<String> send(String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
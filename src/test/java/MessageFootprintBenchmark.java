@@ -0,0 +1,64 @@
+
+import Model.Message;
+import Util.EntityCache;
+import Util.MessageStore;
+
+/**
+ * Measures the memory taken by cached messages, held either as Message objects in an {@link EntityCache} or as
+ * columns in a {@link MessageStore}. Not run by the test suite; run it once per layout, eg
+ *
+ *   java -Xmx4g -cp target/test-classes:target/classes:... MessageFootprintBenchmark 10000000 columns
+ *
+ * Arguments: [messages] [objects|columns], defaulting to 10000000 and columns. Texts are 20 to 120 ASCII
+ * characters, all distinct. Heap use is measured after a full collection; off-heap text is reported separately.
+ */
+public class MessageFootprintBenchmark {
+    public static void main(String[] args) {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        boolean columns = args.length < 2 || args[1].equals("columns");
+        long before = usedHeap();
+
+        Object cache;
+        long offHeap = 0;
+        long start = System.nanoTime();
+        if (columns) {
+            MessageStore store = new MessageStore(messages, Long.MAX_VALUE / 2);
+            for (int id = 1; id <= messages; id++) {
+                store.put(message(id), store.stamp(id));
+            }
+            offHeap = store.offHeapBytes();
+            cache = store;
+        } else {
+            EntityCache<Integer, Message> objects = new EntityCache<>(messages, Long.MAX_VALUE / 2);
+            for (int id = 1; id <= messages; id++) {
+                objects.put(id, message(id), objects.stamp(id));
+            }
+            cache = objects;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long heap = usedHeap() - before;
+        System.out.printf("layout=%s messages=%d heap_mb=%.0f off_heap_mb=%.0f bytes_per_message=%.1f load_s=%.1f%n",
+                columns ? "columns" : "objects", messages, heap / 1048576.0, offHeap / 1048576.0,
+                (heap + offHeap) / (double) messages, seconds);
+        System.out.println(cache.hashCode() != 0 ? "" : " ");
+    }
+
+    private static Message message(int id) {
+        StringBuilder text = new StringBuilder("message ").append(id).append(' ');
+        int length = 20 + (id * 31 % 101);
+        while (text.length() < length) {
+            text.append((char) ('a' + (text.length() * 7 + id) % 26));
+        }
+        Message message = new Message(id, id % 100000, text.toString(), 1669947792L + id);
+        message.setVersion(1);
+        return message;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,74 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import Model.Message;
+import Util.MessageStore;
+
+public class MessageStoreTest {
+
+    /**
+     * Caching messages, replacing one, invalidating another and reading them back
+     * 
+     * Expected Result:
+     *  get() returns equal copies, including counts, version and non-ASCII text; replaced and invalidated messages
+     *  read back as the new value and as null; a put with a stale stamp is dropped
+     */
+    @Test
+    public void roundTripsMessagesThroughColumns() {
+        MessageStore store = new MessageStore(1000, 60000);
+        Message message = new Message(7, 3, "h\u00e9llo w\u00f6rld \u2713", 1669947792);
+        message.setLike_count(5);
+        message.setReply_count(2);
+        message.setVersion(4);
+        store.put(message, store.stamp(7));
+        store.put(new Message(8, 3, "", 1), store.stamp(8));
+
+        Message cached = store.get(7);
+        Assert.assertEquals(message, cached);
+        Assert.assertNotSame(message, cached);
+        Assert.assertEquals(5, cached.getLike_count());
+        Assert.assertEquals(2, cached.getReply_count());
+        Assert.assertEquals(4, cached.getVersion());
+        Assert.assertEquals("", store.get(8).getMessage_text());
+
+        store.put(new Message(7, 3, "edited", 1669947792), store.stamp(7));
+        Assert.assertEquals("edited", store.get(7).getMessage_text());
+
+        long stamp = store.stamp(8);
+        store.invalidate(8);
+        store.put(new Message(8, 3, "stale", 1), stamp);
+        Assert.assertNull(store.get(8));
+        Assert.assertEquals(1, store.size());
+    }
+
+    /**
+     * Putting far more messages than the store holds, reading a small hot set all along
+     * 
+     * Expected Result:
+     *  The store stays within its bound, every message still cached reads back intact after the text arenas have
+     *  been compacted, and the hot set survives eviction
+     */
+    @Test
+    public void evictsColdMessagesAndCompactsText() {
+        MessageStore store = new MessageStore(6400, 60000);
+        for (int id = 1; id <= 100000; id++) {
+            store.put(new Message(id, id % 50, "message number " + id, id), store.stamp(id));
+            for (int hot = 1; hot <= 10; hot++) {
+                store.get(hot);
+            }
+        }
+        Assert.assertTrue(store.size() <= 6400);
+        for (int hot = 1; hot <= 10; hot++) {
+            Assert.assertEquals("message number " + hot, store.get(hot).getMessage_text());
+        }
+        int found = 0;
+        for (int id = 1; id <= 100000; id++) {
+            Message cached = store.get(id);
+            if (cached != null) {
+                Assert.assertEquals(new Message(id, id % 50, "message number " + id, id), cached);
+                found++;
+            }
+        }
+        Assert.assertEquals(store.size(), found);
+    }
+}
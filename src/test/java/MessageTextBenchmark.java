@@ -0,0 +1,76 @@
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import Util.MessageTextPolicy;
+
+/**
+ * Measures the text policy per message over a mix of typical texts: short and long ASCII, accented text that is
+ * already NFC, text that needs composing, and emoji, against a few hundred blocked terms. Not run by the test
+ * suite; run it with
+ *
+ *   mvn test-compile exec:java -Dexec.mainClass=MessageTextBenchmark -Dexec.classpathScope=test
+ *
+ * Arguments: [blocked terms], defaulting to 500.
+ */
+public class MessageTextBenchmark {
+    public static void main(String[] args) {
+        int termCount = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        Random random = new Random(42);
+        List<String> terms = new ArrayList<>();
+        for (int i = 0; i < termCount; i++) {
+            terms.add(word(random, 4 + random.nextInt(6)) + (i % 10 == 0 ? " " + word(random, 5) : ""));
+        }
+        MessageTextPolicy policy = new MessageTextPolicy(Normalizer.Form.NFC, terms);
+
+        String[] texts = new String[1024];
+        for (int i = 0; i < texts.length; i++) {
+            StringBuilder text = new StringBuilder();
+            int words = i % 4 == 0 ? 40 : 8;
+            for (int w = 0; w < words; w++) {
+                text.append(word(random, 2 + random.nextInt(8))).append(' ');
+            }
+            if (i % 8 == 1) {
+                text.append("cafe\u0301 cre\u0300me ");
+            } else if (i % 8 == 2) {
+                text.append("caf\u00e9 ");
+            } else if (i % 8 == 3) {
+                text.append("\uD83D\uDE00\uD83C\uDF89 ");
+            }
+            texts[i] = text.toString();
+        }
+
+        long chars = 0;
+        for (String text : texts) {
+            chars += text.length();
+        }
+        int rounds = 2000;
+        for (int pass = 0; pass < 3; pass++) {
+            long sink = 0;
+            long t = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                for (String text : texts) {
+                    try {
+                        sink += policy.apply(text).length();
+                    } catch (IllegalArgumentException e) {
+                        sink--;
+                    }
+                }
+            }
+            long elapsed = System.nanoTime() - t;
+            if (pass == 2) {
+                System.out.printf("terms=%d mean_chars=%d ns_per_message=%.0f (%d)%n", termCount,
+                        chars / texts.length, (double) elapsed / rounds / texts.length, sink % 10);
+            }
+        }
+    }
+
+    private static String word(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,67 @@
+import java.text.Normalizer;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.MessageTextPolicy;
+
+public class MessageTextPolicyTest {
+
+    /**
+     * Applying the default policy to blank, borderline-length and unnormalized texts
+     *
+     * Expected Result:
+     *  Whitespace of every kind is blank; length is counted in code points after normalization, so 255 emoji pass
+     *  and 256 do not; a decomposed accent is stored composed; text that needs nothing is returned as is
+     */
+    @Test
+    public void checksBlanknessLengthAndNormalization() {
+        MessageTextPolicy policy = new MessageTextPolicy(Normalizer.Form.NFC, List.of());
+        for (String blank : new String[] { "", " ", "\t\n\r", "\u3000 \u00a0 " }) {
+            assertRejected(policy, blank, "Message text cannot be blank");
+        }
+        assertRejected(policy, null, "Message text cannot be blank");
+
+        String emoji = "\uD83D\uDE00";
+        Assert.assertEquals(emoji.repeat(255), policy.apply(emoji.repeat(255)));
+        assertRejected(policy, emoji.repeat(256), "Message text too long");
+        Assert.assertEquals("a".repeat(255), policy.apply("a".repeat(255)));
+        assertRejected(policy, "a".repeat(256), "Message text too long");
+        // 255 letters plus 255 combining accents compose to 255 code points
+        Assert.assertEquals("\u00e9".repeat(255), policy.apply("e\u0301".repeat(255)));
+
+        String plain = "  hello world  ";
+        Assert.assertSame(plain, policy.apply(plain));
+        Assert.assertEquals("e\u0301", new MessageTextPolicy(null, List.of()).apply("e\u0301"));
+    }
+
+    /**
+     * Applying a policy with overlapping, multi-word and non-ASCII blocked terms
+     *
+     * Expected Result:
+     *  Terms are found anywhere in the text, in any case, but only as whole words
+     */
+    @Test
+    public void rejectsBlockedTermsAsWholeWords() {
+        MessageTextPolicy policy = new MessageTextPolicy(null,
+                List.of("he", "she", "hers", "ass", "Buy Now", "gr\u00fc\u00dfe"));
+        for (String blocked : new String[] { "she", "so SHE said", "is it hers?", "BUY NOW!!!", "buy now",
+                "viele Gr\u00fc\u00dfe", "he" }) {
+            assertRejected(policy, blocked, "Message text contains a blocked term");
+        }
+        for (String allowed : new String[] { "class", "ushers", "buy nowhere", "sheer", "the hen", "gr\u00fc\u00dfen",
+                "assignment" }) {
+            Assert.assertEquals(allowed, policy.apply(allowed));
+        }
+    }
+
+    private static void assertRejected(MessageTextPolicy policy, String text, String reason) {
+        try {
+            policy.apply(text);
+            Assert.fail("expected " + text + " to be rejected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals(reason, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,70 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+
+/**
+ * Compares N single-message lookups with one multi-get of the same N ids, both straight against the DAO so the
+ * cache plays no part. Not run by the test suite; run it with
+ *
+ *   mvn test-compile exec:java -Dexec.mainClass=MultiGetBenchmark -Dexec.classpathScope=test
+ *
+ * Arguments: [messages] [ids per lookup], defaulting to 100000 and 50.
+ */
+public class MultiGetBenchmark {
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int batch = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        ConnectionUtil.resetTestDatabase();
+        wipe();
+        int[] accounts = new int[100];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = AccountDAO.createAccount(new Account("bench" + i, "password")).getAccount_id();
+        }
+        int[] ids = new int[messages];
+        for (int i = 0; i < messages; i++) {
+            ids[i] = MessageDAO.createMessage(new Message(accounts[i % accounts.length], "benchmark message", i)).getMessage_id();
+        }
+
+        Random random = new Random(42);
+        int rounds = 2000;
+        for (int pass = 0; pass < 2; pass++) {
+            long singleNanos = 0;
+            long multiNanos = 0;
+            for (int r = 0; r < rounds; r++) {
+                List<Integer> wanted = new ArrayList<>(batch);
+                for (int i = 0; i < batch; i++) {
+                    wanted.add(ids[random.nextInt(ids.length)]);
+                }
+                long t = System.nanoTime();
+                for (int id : wanted) {
+                    MessageDAO.getMessageById(id);
+                }
+                singleNanos += System.nanoTime() - t;
+                t = System.nanoTime();
+                MessageDAO.getMessagesByIds(wanted);
+                multiNanos += System.nanoTime() - t;
+            }
+            if (pass == 1) {
+                System.out.printf("ids=%d single_us=%.0f multi_us=%.0f speedup=%.1fx%n", batch,
+                        singleNanos / 1e3 / rounds, multiNanos / 1e3 / rounds, (double) singleNanos / multiNanos);
+            }
+        }
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    private static void wipe() throws SQLException {
+        try (Connection conn = ConnectionUtil.getConnection(); Statement statement = conn.createStatement()) {
+            statement.execute("delete from message");
+            statement.execute("delete from account");
+        }
+    }
+}
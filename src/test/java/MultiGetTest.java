@@ -0,0 +1,114 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MultiGetTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?ids=100,1,1 after message 1 has been read once
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: [null, message 1, message 1], in request order
+     */
+    @Test
+    public void getMessagesByIdsKeepsOrderAndMarksMissing() throws IOException, InterruptedException {
+        send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/1")));
+
+        HttpResponse<String> response = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages?ids=100,1,1")));
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> expected = new ArrayList<>();
+        expected.add(null);
+        expected.add(new Message(1, 1, "test message 1", 1669947792));
+        expected.add(new Message(1, 1, "test message 1", 1669947792));
+        Assert.assertEquals(expected, objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){}));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?ids=1,x
+     * 
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void getMessagesByIdsRejectsInvalidIds() throws IOException, InterruptedException {
+        HttpResponse<String> response = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages?ids=1,x")));
+        Assert.assertEquals(400, response.statusCode());
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/accounts/batch by usernames and by ids
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the accounts in request order, null for the ones that do not exist
+     */
+    @Test
+    public void getAccountsInBatch() throws IOException, InterruptedException {
+        Account testuser1 = new Account(1, "testuser1", "password");
+        List<Account> expected = new ArrayList<>();
+        expected.add(testuser1);
+        expected.add(null);
+
+        HttpResponse<String> byUsername = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"usernames\":[\"testuser1\",\"nobody\"]}")));
+        Assert.assertEquals(200, byUsername.statusCode());
+        Assert.assertEquals(expected, objectMapper.readValue(byUsername.body(), new TypeReference<List<Account>>(){}));
+
+        HttpResponse<String> byId = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"ids\":[1,2]}")));
+        Assert.assertEquals(200, byId.statusCode());
+        Assert.assertEquals(expected, objectMapper.readValue(byId.body(), new TypeReference<List<Account>>(){}));
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return webClient.send(request.header("Content-Type", "application/json").build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
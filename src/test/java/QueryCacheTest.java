@@ -0,0 +1,94 @@
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import DAO.MessageCounterDAO;
+import DAO.MessageDAO;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.QueryCache;
+
+public class QueryCacheTest {
+
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    /**
+     * Caching results under tags, invalidating one tag, loading across an invalidation, and filling the cache past
+     * its weight
+     *
+     * Expected Result:
+     *  Only results carrying the invalidated tag are dropped; a load that raced an invalidation of its tag is not
+     *  cached; the least recently used results are evicted to stay within the weight, and a result over an eighth
+     *  of it is never cached
+     */
+    @Test
+    public void invalidatesByTagAndEvictsByWeight() {
+        QueryCache<String> cache = new QueryCache<>(800, 60000);
+        cache.put("a", "A", 100, List.of("message", "user=1"), cache.stamp());
+        cache.put("b", "B", 100, List.of("user=2"), cache.stamp());
+        cache.invalidate("user=1");
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals("B", cache.get("b"));
+
+        long stamp = cache.stamp();
+        cache.invalidate("user=3");
+        cache.put("c", "C", 100, List.of("user=3"), stamp);
+        Assert.assertNull(cache.get("c"));
+
+        for (int i = 0; i < 8; i++) {
+            cache.put("k" + i, "V" + i, 100, List.of("user=" + (10 + i)), cache.stamp());
+        }
+        Assert.assertTrue(cache.weight() <= 800);
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals("V7", cache.get("k7"));
+        Assert.assertTrue(cache.evictions() > 0);
+
+        cache.put("big", "BIG", 101, List.of("message"), cache.stamp());
+        Assert.assertNull(cache.get("big"));
+    }
+
+    /**
+     * Reading two accounts' messages through MessageDAO, then posting, editing and liking as one of them
+     *
+     * Expected Result:
+     *  The other account's list keeps being answered from the cache; the writer's list and the full list are
+     *  reloaded and show each change, including counts once they are flushed; a caller changing a returned message
+     *  does not change the cached one
+     */
+    @Test
+    public void writesInvalidateOnlyTheirAuthor() {
+        int other = AccountDAO.createAccount(new Account("other", "password")).getAccount_id();
+        MessageDAO.createMessage(new Message(other, "unrelated", 1669947800));
+        Assert.assertEquals(1, MessageDAO.getMessagesByUserId(1).size());
+        Assert.assertEquals(1, MessageDAO.getMessagesByUserId(other).size());
+        Assert.assertEquals(2, MessageDAO.getAllMessages().size());
+
+        long hits = MessageDAO.queryCache().hits();
+        Message posted = MessageDAO.createMessage(new Message(other, "another", 1669947801));
+        Assert.assertEquals(1, MessageDAO.getMessagesByUserId(1).size());
+        Assert.assertEquals(hits + 1, MessageDAO.queryCache().hits());
+        Assert.assertEquals(2, MessageDAO.getMessagesByUserId(other).size());
+        Assert.assertEquals(3, MessageDAO.getAllMessages().size());
+
+        MessageDAO.getMessagesByUserId(1).get(0).setMessage_text("mutated by a caller");
+        Assert.assertEquals("test message 1", MessageDAO.getMessagesByUserId(1).get(0).getMessage_text());
+        MessageDAO.updateMessageText(1, "edited");
+        Assert.assertEquals("edited", MessageDAO.getMessagesByUserId(1).get(0).getMessage_text());
+
+        MessageDAO.getMessagesByUserId(other);
+        MessageCounterDAO.addCounts(0, Map.of(posted.getMessage_id(), new long[] { 3, 0 }));
+        long likes = 0;
+        for (Message message : MessageDAO.getMessagesByUserId(other)) {
+            likes += message.getLike_count();
+        }
+        Assert.assertEquals(3, likes);
+    }
+}
@@ -0,0 +1,194 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.MessageDAO;
+import Model.Message;
+import Util.AppConfig;
+import Util.ConnectionUtil;
+import Util.ShardRouter;
+import io.javalin.Javalin;
+
+public class ReplicaRoutingTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, give it two in-memory read followers, restart the Javalin app, and
+     * create a new webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        ShardRouter.configure(1, AppConfig.get("db.shard.url.prefix", "jdbc:h2:./h2/db-shard"), 2, "jdbc:h2:mem:replica-test");
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("db.replica.resync.ms");
+        ShardRouter.configure(1, AppConfig.get("db.shard.url.prefix", "jdbc:h2:./h2/db-shard"));
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages, then GET localhost:8080/messages/{message_id} with
+     * the returned X-Consistency-Token
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the message just created, whether or not the followers have caught up
+     */
+    @Test
+    public void readYourOwnWrite() throws IOException, InterruptedException {
+        HttpRequest postRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1,\"message_text\":\"replicated\",\"time_posted_epoch\":1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> postResponse = webClient.send(postRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, postResponse.statusCode());
+        String token = postResponse.headers().firstValue("X-Consistency-Token").orElse(null);
+        Assert.assertNotNull(token);
+        Message created = objectMapper.readValue(postResponse.body(), Message.class);
+
+        HttpRequest getRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + created.getMessage_id()))
+                .header("X-Consistency-Token", token)
+                .build();
+        HttpResponse<String> getResponse = webClient.send(getRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, getResponse.statusCode());
+        Assert.assertEquals(created, objectMapper.readValue(getResponse.body(), Message.class));
+    }
+
+    /**
+     * Writing a row straight into the primary, bypassing the DAO change log, then sending an http request to
+     * GET localhost:8080/messages/{message_id} without a token
+     * 
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: empty, because the read is served by a follower that never received the row
+     */
+    @Test
+    public void readsWithoutTokenUseFollowers() throws IOException, InterruptedException, SQLException {
+        try (Connection conn = ConnectionUtil.getConnection();
+             PreparedStatement ps = conn.prepareStatement(
+                "insert into message (message_id, posted_by, message_text, time_posted_epoch) values (99, 1, 'unshipped', 0)")) {
+            ps.executeUpdate();
+        }
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/99"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("", response.body());
+    }
+
+    /**
+     * Renaming the message table on one follower so it fails to apply the next post, then posting twice more
+     *
+     * Expected Result:
+     *  The follower is copied from the primary again once db.replica.resync.ms has passed, and then holds the post
+     *  it failed on as well as the ones after it, and catches up to no lag
+     */
+    @Test
+    public void failedFollowerIsResynced() throws Exception {
+        System.setProperty("db.replica.resync.ms", "100");
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:replica-test0-0", "sa", "sa");
+             Statement statement = conn.createStatement()) {
+            statement.execute("alter table message rename to message_broken");
+        }
+        Message failedOn = MessageDAO.createMessage(new Message(1, "failed on", 1669947800));
+        Thread.sleep(500);
+        Message after = MessageDAO.createMessage(new Message(1, "after resync", 1669947801));
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!(followerHas(failedOn) && followerHas(after) && ShardRouter.replicaLag() == 0)) {
+            Assert.assertTrue("follower was not resynced", System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+    }
+
+    /**
+     * Holding a lock on message 1 in both followers so they stall applying the next change to it, editing its text,
+     * reading account 1's messages and a page of them, then releasing the followers
+     *
+     * Expected Result:
+     *  The edit is invalidated before the reads, so they fill the list cache; since the followers have not applied
+     *  it yet, the fills read the primary, and the new text is what stays cached once the followers catch up
+     */
+    @Test
+    public void cacheFillsSkipLaggingFollowers() throws Exception {
+        List<Connection> stalled = new ArrayList<>();
+        try {
+            for (int follower = 0; follower < 2; follower++) {
+                Connection conn = DriverManager.getConnection("jdbc:h2:mem:replica-test0-" + follower, "sa", "sa");
+                stalled.add(conn);
+                conn.setAutoCommit(false);
+                try (Statement statement = conn.createStatement()) {
+                    statement.execute("update message set message_text = message_text where message_id = 1");
+                }
+            }
+            MessageDAO.updateMessageText(1, "edited on the primary");
+            Assert.assertTrue(ShardRouter.replicaLag() > 0);
+
+            Assert.assertEquals("edited on the primary", MessageDAO.getMessagesByUserId(1).get(0).getMessage_text());
+            List<Message> page = new ArrayList<>();
+            MessageDAO.forEachMessageByUserId(1, Integer.MAX_VALUE, 10, page::add);
+            Assert.assertEquals("edited on the primary", page.get(0).getMessage_text());
+        } finally {
+            for (Connection conn : stalled) {
+                conn.rollback();
+                conn.close();
+            }
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (ShardRouter.replicaLag() > 0) {
+            Assert.assertTrue("followers did not catch up", System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+        long hits = MessageDAO.queryCache().hits();
+        Assert.assertEquals("edited on the primary", MessageDAO.getMessagesByUserId(1).get(0).getMessage_text());
+        Assert.assertEquals(hits + 1, MessageDAO.queryCache().hits());
+    }
+
+    private boolean followerHas(Message message) {
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:replica-test0-0", "sa", "sa");
+             PreparedStatement ps = conn.prepareStatement("select message_text from message where message_id = ?")) {
+            ps.setInt(1, message.getMessage_id());
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getString(1).equals(message.getMessage_text());
+            }
+        } catch (SQLException e) {
+            // the table is missing until the follower is resynced
+            return false;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.ShardRouter;
+
+/**
+ * Measures message write throughput as the shard count grows. Not run by the test suite; run it with
+ *
+ *   mvn test-compile exec:java -Dexec.mainClass=ShardWriteBenchmark -Dexec.classpathScope=test
+ *
+ * Arguments: [threads] [seconds per run] [shard counts...], defaulting to 8 threads, 5 seconds, shards 1 2 4 8.
+ * Each run uses fresh shard files in a temp directory and wipes the rows of shard 0.
+ */
+public class ShardWriteBenchmark {
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int[] shardCounts = { 1, 2, 4, 8 };
+        if (args.length > 2) {
+            shardCounts = new int[args.length - 2];
+            for (int i = 2; i < args.length; i++) {
+                shardCounts[i - 2] = Integer.parseInt(args[i]);
+            }
+        }
+        Path dir = Files.createTempDirectory("shard-bench");
+
+        System.out.println("shards,threads,messages,messages_per_second");
+        for (int shards : shardCounts) {
+            ConnectionUtil.resetTestDatabase();
+            wipeShardZero();
+            ShardRouter.configure(shards, "jdbc:h2:" + dir.resolve("run" + shards + "-shard").toAbsolutePath());
+
+            int[] accountIds = new int[threads * 8];
+            for (int i = 0; i < accountIds.length; i++) {
+                accountIds[i] = AccountDAO.createAccount(new Account("bench" + i, "password")).getAccount_id();
+            }
+
+            AtomicLong written = new AtomicLong();
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (System.nanoTime() < deadline) {
+                        int postedBy = accountIds[random.nextInt(accountIds.length)];
+                        MessageDAO.createMessage(new Message(postedBy, "benchmark message", System.currentTimeMillis()));
+                        written.incrementAndGet();
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            System.out.println(shards + "," + threads + "," + written.get() + "," + written.get() / seconds);
+        }
+        ShardRouter.configure(1, "jdbc:h2:" + dir.resolve("unused").toAbsolutePath());
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    private static void wipeShardZero() throws SQLException {
+        try (Connection conn = ConnectionUtil.getConnection(); Statement statement = conn.createStatement()) {
+            statement.execute("delete from message");
+            statement.execute("delete from account");
+        }
+    }
+}
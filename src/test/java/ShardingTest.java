@@ -0,0 +1,154 @@
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import DAO.DuplicateKeyException;
+import DAO.FollowDAO;
+import DAO.MessageDAO;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.ShardRouter;
+
+public class ShardingTest {
+    private static int databases;
+
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        ShardRouter.configure(1, "jdbc:h2:mem:sharding-test");
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    /**
+     * Dropping the follow table and a message column from shard 0, as on a database created before they existed,
+     * then configuring the router
+     *
+     * Expected Result:
+     *  The router runs Schema.sql on shard 0 too, so the missing table and column are back before any DAO uses them
+     */
+    @Test
+    public void migratesShardZero() throws Exception {
+        try (Connection conn = ConnectionUtil.getConnection(); Statement statement = conn.createStatement()) {
+            statement.execute("drop table follow");
+            statement.execute("alter table message drop column deleted_at");
+        }
+        ShardRouter.configure(1, "jdbc:h2:mem:sharding-test");
+        Assert.assertTrue(FollowDAO.follow(1, 1));
+        try (Connection conn = ConnectionUtil.getConnection(); Statement statement = conn.createStatement()) {
+            statement.executeQuery("select deleted_at from message").close();
+        }
+    }
+
+    /**
+     * Creating twelve accounts and a message for each with three shards
+     *
+     * Expected Result:
+     *  Every shard is used; each account id routes to the shard its username hashes to, each message id to its
+     *  author's shard, and both are found again by id
+     */
+    @Test
+    public void routesAccountsAndMessagesByShard() throws Exception {
+        configureShards(3);
+        boolean[] used = new boolean[3];
+        for (int i = 0; i < 12; i++) {
+            Account account = AccountDAO.createAccount(new Account("sharded" + i, "password"));
+            int shard = ShardRouter.shardFor(account.getAccount_id());
+            Assert.assertEquals(ShardRouter.shardForUsername("sharded" + i), shard);
+            Assert.assertEquals("sharded" + i, AccountDAO.getAccountById(account.getAccount_id()).getUsername());
+            Message message = MessageDAO.createMessage(new Message(account.getAccount_id(), "post " + i, 1669947800));
+            Assert.assertEquals(shard, ShardRouter.shardFor(message.getMessage_id()));
+            Assert.assertEquals("post " + i, MessageDAO.getMessageById(message.getMessage_id()).getMessage_text());
+            used[shard] = true;
+        }
+        Assert.assertArrayEquals(new boolean[] { true, true, true }, used);
+    }
+
+    /**
+     * Registering the same username twice with three shards
+     *
+     * Expected Result:
+     *  Both attempts go to the shard the username hashes to, so its unique key refuses the second
+     */
+    @Test
+    public void usernamesStayUniqueAcrossShards() throws Exception {
+        configureShards(3);
+        Account first = AccountDAO.createAccount(new Account("unique", "password"));
+        try {
+            AccountDAO.createAccount(new Account("unique", "other password"));
+            Assert.fail("created a second account named unique");
+        } catch (DuplicateKeyException expected) {
+        }
+        Assert.assertEquals(first.getAccount_id(), AccountDAO.getAccountByUsername("unique").getAccount_id());
+    }
+
+    /**
+     * Posting twenty tagged messages from an account on one shard, then one from an account on another shard, then
+     * one more from the first, and reading the newest messages and the tag's pages back
+     *
+     * Expected Result:
+     *  Message ids rise in posting order although one shard is far busier, so the merged newest-first list and the
+     *  tag pages, which page by message_id, return the messages in reverse posting order without gaps or repeats
+     */
+    @Test
+    public void messageIdsFollowPostingOrderAcrossShards() throws Exception {
+        configureShards(3);
+        Account busy = AccountDAO.createAccount(new Account("busy", "password"));
+        Account quiet = null;
+        for (int i = 0; quiet == null; i++) {
+            Account account = AccountDAO.createAccount(new Account("quiet" + i, "password"));
+            if (ShardRouter.shardFor(account.getAccount_id()) != ShardRouter.shardFor(busy.getAccount_id())) {
+                quiet = account;
+            }
+        }
+        List<Integer> posted = new ArrayList<>();
+        for (int i = 0; i < 22; i++) {
+            int author = i == 20 ? quiet.getAccount_id() : busy.getAccount_id();
+            Message message = MessageDAO.createMessage(new Message(author, "#merge " + i, 1669947800), Set.of("merge"), Set.of());
+            Assert.assertTrue(posted.isEmpty() || message.getMessage_id() > posted.get(posted.size() - 1));
+            posted.add(0, message.getMessage_id());
+        }
+
+        List<Integer> recent = new ArrayList<>();
+        for (Message message : MessageDAO.getRecentMessages(3)) {
+            recent.add(message.getMessage_id());
+        }
+        Assert.assertEquals(posted.subList(0, 3), recent);
+
+        List<Integer> paged = new ArrayList<>();
+        int before = Integer.MAX_VALUE;
+        while (true) {
+            List<Integer> page = MessageDAO.getMessageIdsByTag("merge", before, 5);
+            if (page.isEmpty()) {
+                break;
+            }
+            paged.addAll(page);
+            before = page.get(page.size() - 1);
+        }
+        Assert.assertEquals(posted, paged);
+    }
+
+    /**
+     * Empties the rows SocialMedia.sql puts on shard 0, whose ids only route there with one shard, and configures
+     * the router with fresh databases for the other shards.
+     */
+    private static void configureShards(int count) throws Exception {
+        try (Connection conn = ConnectionUtil.getConnection(); Statement statement = conn.createStatement()) {
+            statement.execute("delete from message");
+            statement.execute("delete from account");
+        }
+        ShardRouter.configure(count, "jdbc:h2:mem:sharding-test-" + ++databases + "-");
+    }
+}
@@ -0,0 +1,130 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import DAO.ChangeEventDAO;
+import DAO.MessageCounterDAO;
+import DAO.MessageDAO;
+import Model.Message;
+import Service.MessageCompactor;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class SoftDeleteTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient for interacting
+     * locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to DELETE localhost:8080/messages/1, then reading, updating and deleting it again
+     * 
+     * Expected Response:
+     *  The row stays behind as a tombstone, reads return nothing, the update is rejected with 400 and the second
+     *  delete returns an empty body
+     */
+    @Test
+    public void deleteLeavesTombstoneHiddenFromReads() throws IOException, InterruptedException, SQLException {
+        Assert.assertEquals(200, send("DELETE", "/messages/1", null).statusCode());
+
+        Assert.assertEquals("", send("GET", "/messages/1", null).body());
+        Assert.assertEquals("[]", send("GET", "/messages", null).body());
+        Assert.assertEquals("[]", send("GET", "/accounts/1/messages", null).body());
+        Assert.assertEquals(400, send("PATCH", "/messages/1", "{\"message_text\":\"edited\"}").statusCode());
+        Assert.assertEquals("", send("DELETE", "/messages/1", null).body());
+        Assert.assertEquals(1, count("select count(*) from message where message_id = 1 and deleted and deleted_at is not null"));
+    }
+
+    /**
+     * Deleting message 1 after it has a persisted like count, then running a compaction with no grace period
+     * 
+     * Expected Response:
+     *  The message row and its message_counter row are both purged
+     */
+    @Test
+    public void compactionPurgesTombstonesAndCounters() throws IOException, InterruptedException, SQLException {
+        try (Connection conn = ConnectionUtil.getConnection();
+             PreparedStatement ps = conn.prepareStatement("insert into message_counter values (1, 3, 0)")) {
+            ps.executeUpdate();
+        }
+        send("DELETE", "/messages/1", null);
+
+        MessageCompactor compactor = new MessageCompactor(0, 0, 1);
+        Assert.assertEquals(1, compactor.compact());
+        compactor.shutdown();
+
+        Assert.assertEquals(0, count("select count(*) from message"));
+        Assert.assertEquals(0, count("select count(*) from message_counter"));
+    }
+
+    private long count(String sql) throws SQLException {
+        try (Connection conn = ConnectionUtil.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * Deleting a liked message through MessageDAO twice
+     *
+     * Expected Result:
+     *  The first delete returns the message as it was, stored counts included, and appends one delete event; the
+     *  second finds no live message, returns null and appends nothing
+     */
+    @Test
+    public void deleteReturnsMessageAndAppendsOneEvent() {
+        MessageCounterDAO.addCounts(0, Map.of(1, new long[] { 2, 1 }));
+        Message deleted = MessageDAO.deleteMessage(1);
+        Assert.assertEquals("test message 1", deleted.getMessage_text());
+        Assert.assertEquals(2, deleted.getLike_count());
+        Assert.assertEquals(1, deleted.getReply_count());
+        Assert.assertNull(MessageDAO.deleteMessage(1));
+        long deletes = ChangeEventDAO.getChangesSince(new long[] { 0 }, 100).stream()
+                .filter(event -> event.getOperation().equals("delete"))
+                .count();
+        Assert.assertEquals(1, deletes);
+    }
+
+    private HttpResponse<String> send(String method, String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,70 @@
+import java.util.List;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Account;
+import Util.ConnectionUtil;
+import Util.StatementCache;
+
+/**
+ * Times MessageDAO.getMessageById and AccountDAO.getAccountByUsername with and without the prepared-statement cache,
+ * in the style of a JMH average-time benchmark: warm-up iterations first, then measured iterations reporting the
+ * mean and spread of ns/op. Not run by the test suite; run it once per setting, eg
+ *
+ *   java -Ddb.statement.cache.size=0 -cp target/test-classes:target/classes:... StatementCacheBenchmark
+ *   java -Ddb.statement.cache.size=64 -cp target/test-classes:target/classes:... StatementCacheBenchmark
+ *
+ * The mixed case runs ten different DAO reads per operation. H2 keeps its own per-session cache of the 8 most
+ * recently parsed queries, so a single repeated query is mostly served by that already; a realistic mix of more
+ * than 8 statements is where the statement cache pays off.
+ *
+ * Arguments: [operations per iteration], defaulting to 200000.
+ */
+public class StatementCacheBenchmark {
+    public static void main(String[] args) {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        ConnectionUtil.resetTestDatabase();
+        System.out.println("db.statement.cache.size=" + System.getProperty("db.statement.cache.size", "64"));
+        run("getMessageById", operations, i -> MessageDAO.getMessageById(1));
+        run("getAccountByUsername", operations, i -> AccountDAO.getAccountByUsername("testuser1"));
+        run("mixed (10 queries)", operations / 10, i -> {
+            MessageDAO.getMessageById(1);
+            AccountDAO.getAccountByUsername("testuser1");
+            AccountDAO.getAccountById(1);
+            AccountDAO.loginAccount(new Account("testuser1", "password"));
+            MessageDAO.getMessagesByUserId(1);
+            MessageDAO.getRecentMessagesByUserId(1, 10);
+            MessageDAO.getRecentMessages(10);
+            MessageDAO.getMessagesByIds(List.of(1, 2));
+            AccountDAO.getAccountsByIds(List.of(1, 2));
+            AccountDAO.getAccountsByUsernames(List.of("testuser1", "nobody"));
+        });
+        System.out.printf("statement cache hit rate %.4f%n", StatementCache.hitRate());
+    }
+
+    private static void run(String name, int operations, java.util.function.IntConsumer operation) {
+        for (int warmup = 0; warmup < 3; warmup++) {
+            for (int i = 0; i < operations; i++) {
+                operation.accept(i);
+            }
+        }
+        int iterations = 5;
+        double[] nsPerOp = new double[iterations];
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < operations; i++) {
+                operation.accept(i);
+            }
+            nsPerOp[iteration] = (System.nanoTime() - start) / (double) operations;
+        }
+        double mean = 0;
+        for (double value : nsPerOp) {
+            mean += value / iterations;
+        }
+        double variance = 0;
+        for (double value : nsPerOp) {
+            variance += (value - mean) * (value - mean) / (iterations - 1);
+        }
+        System.out.printf("%-22s %8.0f ns/op  (+- %.0f, %d x %d ops)%n", name, mean, Math.sqrt(variance), iterations, operations);
+    }
+}
@@ -0,0 +1,88 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Util.ConnectionUtil;
+import Util.StatementCache;
+
+public class StatementCacheTest {
+
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    /**
+     * Preparing the same query twice on one connection, then once more while the cached statement is still open
+     * 
+     * Expected Result:
+     *  The second prepare is a cache hit with its parameters cleared; the nested prepare is a miss that still works
+     */
+    @Test
+    public void reusesStatementsPerConnection() throws SQLException {
+        String sql = "select message_text from message where message_id = ?";
+        try (Connection conn = ConnectionUtil.getConnection()) {
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setInt(1, 1);
+                Assert.assertEquals("test message 1", single(ps));
+            }
+            long hits = StatementCache.hits();
+            long misses = StatementCache.misses();
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                Assert.assertEquals(hits + 1, StatementCache.hits());
+                Assert.assertThrows(SQLException.class, ps::executeQuery);
+                ps.setInt(1, 1);
+                try (PreparedStatement nested = conn.prepareStatement(sql)) {
+                    Assert.assertEquals(misses + 1, StatementCache.misses());
+                    nested.setInt(1, 1);
+                    Assert.assertEquals("test message 1", single(nested));
+                }
+                Assert.assertEquals("test message 1", single(ps));
+                Assert.assertSame(conn, ps.getConnection());
+            }
+        }
+    }
+
+    /**
+     * Changing the fetch size of a cached statement, and resetting the schema under a cached statement
+     * 
+     * Expected Result:
+     *  The modified statement is not handed out again, and a cached statement still runs after the tables it
+     *  reads were dropped and recreated
+     */
+    @Test
+    public void dropsModifiedStatementsAndSurvivesSchemaChanges() throws SQLException {
+        String sql = "select count(*) from message where posted_by = ?";
+        try (Connection conn = ConnectionUtil.getConnection()) {
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setFetchSize(10);
+                ps.setInt(1, 1);
+                single(ps);
+            }
+            long misses = StatementCache.misses();
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                Assert.assertEquals(misses + 1, StatementCache.misses());
+                ps.setInt(1, 1);
+                Assert.assertEquals("1", single(ps));
+            }
+        }
+        ConnectionUtil.resetTestDatabase();
+        try (Connection conn = ConnectionUtil.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, 1);
+            Assert.assertEquals("1", single(ps));
+        }
+    }
+
+    private static String single(PreparedStatement ps) throws SQLException {
+        try (ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+}
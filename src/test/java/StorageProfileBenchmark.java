@@ -0,0 +1,141 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.StorageProfile;
+
+/**
+ * Measures DAO write and read throughput under each storage profile. Not run by the test suite; run it with
+ *
+ *   mvn test-compile exec:java -Dexec.mainClass=StorageProfileBenchmark -Dexec.classpathScope=test
+ *
+ * Arguments: [threads] [seconds per phase] [profiles...], defaulting to 8 threads, 5 seconds and every profile.
+ * The database settings are fixed when ConnectionUtil is first loaded, so each profile runs in its own JVM, on a
+ * fresh database in a temp directory. Writes post messages through MessageDAO.createMessage; reads then mix
+ * getMessageById with getRecentMessagesByUserId over the messages written, as the API's read routes do.
+ */
+public class StorageProfileBenchmark {
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("run")) {
+            run(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+            return;
+        }
+        String threads = args.length > 0 ? args[0] : "8";
+        String seconds = args.length > 1 ? args[1] : "5";
+        List<String> profiles = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            profiles.add(args[i]);
+        }
+        if (profiles.isEmpty()) {
+            StorageProfile.names().forEach(profiles::add);
+        }
+        Path dir = Files.createTempDirectory("profile-bench");
+
+        System.out.println("profile,threads,writes_per_second,reads_per_second");
+        for (String profile : profiles) {
+            Process process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", classpath(),
+                    "-Ddb.profile=" + profile,
+                    "-Ddb.path=" + dir.resolve(profile).toAbsolutePath(),
+                    StorageProfileBenchmark.class.getName(), "run", threads, seconds)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            String row = null;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    if (line.startsWith(profile + ",")) {
+                        row = line;
+                    }
+                }
+            }
+            int exit = process.waitFor();
+            System.out.println(row != null ? row : profile + ",failed with exit code " + exit);
+        }
+        for (File file : dir.toFile().listFiles()) {
+            file.delete();
+        }
+    }
+
+    /**
+     * @return the classpath this class was loaded from; exec:java loads it through its own class loader rather than
+     *         from java.class.path
+     */
+    private static String classpath() throws Exception {
+        ClassLoader loader = StorageProfileBenchmark.class.getClassLoader();
+        if (!(loader instanceof URLClassLoader)) {
+            return System.getProperty("java.class.path");
+        }
+        StringBuilder classpath = new StringBuilder();
+        for (URL url : ((URLClassLoader) loader).getURLs()) {
+            classpath.append(classpath.length() > 0 ? File.pathSeparator : "").append(Paths.get(url.toURI()));
+        }
+        return classpath.toString();
+    }
+
+    private static void run(int threads, int seconds) throws Exception {
+        ConnectionUtil.resetTestDatabase();
+        int[] accounts = new int[threads * 8];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = AccountDAO.createAccount(new Account("bench" + i, "password")).getAccount_id();
+        }
+
+        List<Integer> written = new ArrayList<>();
+        long writes = phase(threads, seconds, random -> {
+            int postedBy = accounts[random % accounts.length];
+            Message message = MessageDAO.createMessage(new Message(postedBy, "benchmark message", System.currentTimeMillis()));
+            synchronized (written) {
+                written.add(message.getMessage_id());
+            }
+        });
+        Integer[] ids = written.toArray(new Integer[0]);
+        long reads = phase(threads, seconds, random -> {
+            if (random % 4 == 0) {
+                MessageDAO.getRecentMessagesByUserId(accounts[random % accounts.length], 20);
+            } else {
+                MessageDAO.getMessageById(ids[random % ids.length]);
+            }
+        });
+        System.out.println(ConnectionUtil.storageProfile().name + "," + threads + "," + writes / seconds + "," + reads / seconds);
+        ConnectionUtil.shutdown();
+    }
+
+    /**
+     * Runs an operation on every thread until the time is up.
+     *
+     * @return the number of operations completed
+     */
+    private static long phase(int threads, int seconds, IntConsumer operation) throws InterruptedException {
+        AtomicLong completed = new AtomicLong();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    operation.accept(random.nextInt(Integer.MAX_VALUE));
+                    completed.incrementAndGet();
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return completed.get();
+    }
+}
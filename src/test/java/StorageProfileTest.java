@@ -0,0 +1,70 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.StorageProfile;
+
+public class StorageProfileTest {
+
+    @After
+    public void tearDown() {
+        System.clearProperty("db.profile");
+        System.clearProperty("db.write.delay.ms");
+    }
+
+    /**
+     * Opening a database in a temp directory with every profile's url, then writing and reading a row
+     *
+     * Expected Result:
+     *  H2 accepts every profile's settings; the disk profiles create a database file and the memory profile does not
+     */
+    @Test
+    public void opensEveryProfile() throws Exception {
+        Path dir = Files.createTempDirectory("storage-profile");
+        for (String name : StorageProfile.names()) {
+            StorageProfile profile = StorageProfile.named(name);
+            String path = dir.resolve(name).toAbsolutePath().toString();
+            try (Connection conn = DriverManager.getConnection(profile.url(path), "sa", "sa");
+                 Statement statement = conn.createStatement()) {
+                statement.execute("create table t (id int primary key, v varchar(16))");
+                statement.execute("insert into t values (1, 'x')");
+                try (ResultSet rs = statement.executeQuery("select v from t where id = 1")) {
+                    Assert.assertTrue(rs.next());
+                    Assert.assertEquals("x", rs.getString(1));
+                }
+                statement.execute("drop table t");
+            }
+            Assert.assertEquals(name, !profile.inMemory, Files.exists(dir.resolve(name + ".mv.db")));
+        }
+    }
+
+    /**
+     * Resolving the configured profile with nothing set, with a setting overridden, and with an unknown profile name
+     *
+     * Expected Result:
+     *  The default keeps H2's half-second write delay; the override replaces just that setting of the named
+     *  profile; an unknown name is refused
+     */
+    @Test
+    public void appliesOverrides() {
+        Assert.assertTrue(StorageProfile.fromConfig().url("./h2/db").contains(";WRITE_DELAY=500"));
+
+        System.setProperty("db.profile", "throughput");
+        System.setProperty("db.write.delay.ms", "250");
+        StorageProfile profile = StorageProfile.fromConfig();
+        Assert.assertEquals("throughput", profile.name);
+        Assert.assertEquals(250, profile.writeDelayMs);
+        Assert.assertEquals(StorageProfile.named("throughput").cacheSizeKb, profile.cacheSizeKb);
+        Assert.assertTrue(profile.url("./h2/db").contains(";WRITE_DELAY=250"));
+
+        System.setProperty("db.profile", "fastest");
+        Assert.assertThrows(IllegalStateException.class, StorageProfile::fromConfig);
+    }
+}
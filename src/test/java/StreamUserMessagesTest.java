@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.MessageDAO;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class StreamUserMessagesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("stream.max.messages");
+    }
+
+    /**
+     * Posting 500 messages for user 1, then reading GET localhost:8080/accounts/1/messages whole and in pages
+     *
+     * Expected Response:
+     *  Status Code: 200. The whole list is streamed with chunked transfer encoding, newest first; limit and before
+     *  page through the same messages without gaps or repeats
+     */
+    @Test
+    public void streamsAndPagesMessages() throws IOException, InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            MessageDAO.createMessage(new Message(1, "streamed message " + i, 1669947800 + i));
+        }
+
+        HttpResponse<String> response = get("/accounts/1/messages");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertFalse(response.headers().firstValue("Content-Length").isPresent());
+        Assert.assertEquals("chunked", response.headers().firstValue("Transfer-Encoding").orElse(""));
+        Message[] all = objectMapper.readValue(response.body(), Message[].class);
+        Assert.assertEquals(501, all.length);
+        for (int i = 1; i < all.length; i++) {
+            Assert.assertTrue(all[i - 1].getMessage_id() > all[i].getMessage_id());
+        }
+        Assert.assertEquals("streamed message 499", all[0].getMessage_text());
+
+        int seen = 0;
+        String path = "/accounts/1/messages?limit=200";
+        while (true) {
+            Message[] page = objectMapper.readValue(get(path).body(), Message[].class);
+            if (page.length == 0) {
+                break;
+            }
+            for (Message message : page) {
+                Assert.assertEquals(all[seen++].getMessage_id(), message.getMessage_id());
+            }
+            path = "/accounts/1/messages?limit=200&before=" + page[page.length - 1].getMessage_id();
+        }
+        Assert.assertEquals(all.length, seen);
+    }
+
+    /**
+     * Sending GET localhost:8080/accounts/{userId}/messages with an empty result, with bad cursors, and with
+     * stream.max.messages set to 2 for a user with 3 messages
+     *
+     * Expected Response:
+     *  Status Code: 200 with an empty JSON list for a user without messages; 400 for a limit below 1, a limit above
+     *  stream.max.messages or a non-numeric before; without a limit, all 3 messages, read 2 at a time
+     */
+    @Test
+    public void rejectsBadCursors() throws IOException, InterruptedException {
+        HttpResponse<String> empty = get("/accounts/2/messages?limit=5");
+        Assert.assertEquals(200, empty.statusCode());
+        Assert.assertEquals("[]", empty.body());
+        Assert.assertEquals(400, get("/accounts/1/messages?limit=0").statusCode());
+        Assert.assertEquals(400, get("/accounts/1/messages?limit=1001").statusCode());
+        Assert.assertEquals(400, get("/accounts/1/messages?before=x").statusCode());
+
+        System.setProperty("stream.max.messages", "2");
+        MessageDAO.createMessage(new Message(1, "second", 1669947801));
+        MessageDAO.createMessage(new Message(1, "third", 1669947802));
+        Message[] all = objectMapper.readValue(get("/accounts/1/messages").body(), Message[].class);
+        Assert.assertEquals(3, all.length);
+        Assert.assertEquals("third", all[0].getMessage_text());
+        Assert.assertEquals(1, all[2].getMessage_id());
+        Message[] page = objectMapper.readValue(get("/accounts/1/messages?before=3&limit=2").body(), Message[].class);
+        Assert.assertEquals(2, page.length);
+        Assert.assertEquals(400, get("/accounts/1/messages?limit=3").statusCode());
+    }
+
+    /**
+     * Streaming GET localhost:8080/accounts/1/messages with stream.max.messages set to 2, after the first chunk was
+     * cached, while the message table is renamed so the query for the second chunk fails
+     *
+     * Expected Response:
+     *  The 200 status and the first messages were already sent, so the connection is aborted and the client fails
+     *  to read the body instead of getting a well-formed but incomplete list
+     */
+    @Test
+    public void failureAfterFirstChunkAbortsTheStream() throws Exception {
+        MessageDAO.createMessage(new Message(1, "second", 1669947801));
+        MessageDAO.createMessage(new Message(1, "third", 1669947802));
+        Assert.assertEquals(2, objectMapper.readValue(get("/accounts/1/messages?limit=2").body(), Message[].class).length);
+
+        System.setProperty("stream.max.messages", "2");
+        try (Connection conn = ConnectionUtil.getConnection(); Statement statement = conn.createStatement()) {
+            statement.execute("alter table message rename to message_moved");
+        }
+        try {
+            get("/accounts/1/messages");
+            Assert.fail("a stream that failed after its first chunk must not complete");
+        } catch (IOException expected) {
+        } finally {
+            try (Connection conn = ConnectionUtil.getConnection(); Statement statement = conn.createStatement()) {
+                statement.execute("alter table message_moved rename to message");
+            }
+        }
+        Assert.assertEquals(3, objectMapper.readValue(get("/accounts/1/messages").body(), Message[].class).length);
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return webClient.send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+}
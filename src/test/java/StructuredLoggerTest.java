@@ -0,0 +1,113 @@
+import java.io.StringWriter;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Util.StructuredLogger;
+
+public class StructuredLoggerTest {
+    ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Logging an event with string fields holding quotes, backslashes, line breaks, control and non-ASCII characters,
+     * a null, a long, a double and a wrapped exception
+     *
+     * Expected Result:
+     *  One line per event that parses as JSON, with the fields in the order added and every value as given
+     */
+    @Test
+    public void writesOneJsonObjectPerLine() throws Exception {
+        StringWriter out = new StringWriter();
+        StructuredLogger logger = new StructuredLogger(16, out);
+        String text = "say \"hi\"\\ back\nthen\ttab\r\u0001 caf\u00e9 \u2713";
+        new StructuredLogger.Event(logger, "test")
+                .field("text", text)
+                .field("missing", (String) null)
+                .field("count", 42L)
+                .field("ratio", 0.5)
+                .error(new IllegalStateException("outer", new SQLException("inner")))
+                .log();
+        new StructuredLogger.Event(logger, "second").log();
+        logger.shutdown(5000);
+
+        String[] lines = out.toString().split("\n");
+        Assert.assertEquals(2, lines.length);
+        JsonNode event = objectMapper.readTree(lines[0]);
+        Assert.assertEquals("test", event.get("type").asText());
+        Assert.assertEquals(text, event.get("text").asText());
+        Assert.assertTrue(event.get("missing").isNull());
+        Assert.assertEquals(42, event.get("count").asLong());
+        Assert.assertEquals(0.5, event.get("ratio").asDouble(), 0);
+        Assert.assertEquals("java.lang.IllegalStateException", event.get("error_class").asText());
+        Assert.assertEquals("outer", event.get("error_message").asText());
+        Assert.assertEquals("java.sql.SQLException", event.get("root_cause").asText());
+        Assert.assertTrue(lines[0].startsWith("{\"ts\":"));
+        Assert.assertTrue(lines[0].indexOf("\"text\"") < lines[0].indexOf("\"count\""));
+        Assert.assertEquals("second", objectMapper.readTree(lines[1]).get("type").asText());
+    }
+
+    /**
+     * Logging ten events into a ring of two while the writer is stuck on the first
+     *
+     * Expected Result:
+     *  Publishing never waits: the two that fit are kept, the other seven are dropped and counted, and once the
+     *  writer recovers the output holds the three kept events and a line reporting the seven dropped
+     */
+    @Test
+    public void dropsEventsWhenTheRingIsFull() throws Exception {
+        BlockingWriter out = new BlockingWriter();
+        StructuredLogger logger = new StructuredLogger(2, out);
+        new StructuredLogger.Event(logger, "event").field("n", 0L).log();
+        Assert.assertTrue(out.entered.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < 10; i++) {
+            new StructuredLogger.Event(logger, "event").field("n", i).log();
+        }
+        Assert.assertEquals(7, logger.droppedEvents());
+
+        out.release.countDown();
+        logger.shutdown(5000);
+        String[] lines = out.written.toString().split("\n");
+        Assert.assertEquals(4, lines.length);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(i, objectMapper.readTree(lines[i]).get("n").asInt());
+        }
+        JsonNode report = objectMapper.readTree(lines[3]);
+        Assert.assertEquals("logger", report.get("type").asText());
+        Assert.assertEquals(7, report.get("dropped_events").asLong());
+    }
+
+    /**
+     * A writer whose first write waits until released.
+     */
+    private static class BlockingWriter extends Writer {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final StringBuffer written = new StringBuffer();
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            written.append(buffer, offset, length);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,97 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.TrendingTerms;
+
+public class TrendingTermsTest {
+
+    private static final long MINUTE = 60_000;
+
+    /**
+     * Replaying two hours of posts on a simulated clock: one "steady" tag a minute throughout, and a "burst" tag
+     * five times a minute in the last twenty minutes; then letting a day pass with no posts
+     *
+     * Expected Result:
+     *  The burst leads the 5 minute and 1 hour windows and the steady tag leads the 24 hour window, with counts true
+     *  to within one bucket of each window; a day later every window is empty
+     */
+    @Test
+    public void ranksTermsPerWindow() {
+        AtomicLong clock = new AtomicLong(0);
+        TrendingTerms trending = new TrendingTerms(10, clock::get);
+        for (int minute = 0; minute < 120; minute++) {
+            clock.set(minute * MINUTE);
+            trending.record("steady");
+            if (minute >= 100) {
+                for (int i = 0; i < 5; i++) {
+                    trending.record("burst");
+                }
+            }
+        }
+        clock.set(120 * MINUTE);
+
+        Map<String, Integer> fiveMinutes = trending.top("5m");
+        Assert.assertEquals(List.of("burst", "steady"), new ArrayList<>(fiveMinutes.keySet()));
+        Assert.assertTrue(fiveMinutes.get("burst") >= 20 && fiveMinutes.get("burst") <= 25);
+        Assert.assertTrue(fiveMinutes.get("steady") >= 4 && fiveMinutes.get("steady") <= 5);
+
+        Map<String, Integer> hour = trending.top("1h");
+        Assert.assertEquals(List.of("burst", "steady"), new ArrayList<>(hour.keySet()));
+        Assert.assertEquals(100, (int) hour.get("burst"));
+        Assert.assertTrue(hour.get("steady") >= 55 && hour.get("steady") <= 60);
+
+        Map<String, Integer> day = trending.top("24h");
+        Assert.assertEquals(List.of("steady", "burst"), new ArrayList<>(day.keySet()));
+        Assert.assertEquals(120, (int) day.get("steady"));
+        Assert.assertEquals(100, (int) day.get("burst"));
+        Assert.assertNull(trending.top("1w"));
+
+        clock.set(26 * 60 * MINUTE);
+        for (Map<String, Integer> window : trending.topAll().values()) {
+            Assert.assertTrue(window.isEmpty());
+        }
+    }
+
+    /**
+     * Replaying a shuffled stream of 20000 tags seen once each, mixed with three tags seen 100, 80 and 60 times
+     *
+     * Expected Result:
+     *  The three heavy tags are the top three, in order, with estimates no lower than their true counts
+     */
+    @Test
+    public void findsHeavyTermsAmongManyDistinct() {
+        AtomicLong clock = new AtomicLong(0);
+        TrendingTerms trending = new TrendingTerms(3, clock::get);
+        List<String> stream = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            stream.add("tag" + i);
+        }
+        for (int i = 0; i < 100; i++) {
+            stream.add("first");
+            if (i < 80) {
+                stream.add("second");
+            }
+            if (i < 60) {
+                stream.add("third");
+            }
+        }
+        Collections.shuffle(stream, new Random(7));
+        for (int i = 0; i < stream.size(); i++) {
+            clock.set(i * 10L);
+            trending.record(stream.get(i));
+        }
+
+        Map<String, Integer> top = trending.top("1h");
+        Assert.assertEquals(List.of("first", "second", "third"), new ArrayList<>(top.keySet()));
+        Assert.assertTrue(top.get("first") >= 100);
+        Assert.assertTrue(top.get("second") >= 80);
+        Assert.assertTrue(top.get("third") >= 60);
+    }
+}
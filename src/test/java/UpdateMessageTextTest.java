@@ -139,4 +139,29 @@ public class UpdateMessageTextTest {
         Assert.assertEquals(400, status);        
         Assert.assertTrue(response.body().toString().isEmpty());
     }
+
+
+    /**
+     * Sending an http request to PATCH localhost:8080/messages/1 with 255 emoji, which is 255 code points but 510
+     * UTF-16 units, then 255 plain characters
+     * 
+     * Expected Response:
+     *  Status Code: 200 for both, each with the message as stored, the same limit as POST localhost:8080/messages
+     */
+    @Test
+    public void updateMessageAt255CodePoints() throws IOException, InterruptedException {
+        ObjectMapper om = new ObjectMapper();
+        for (String text : new String[] { "\uD83D\uDE00".repeat(255), "a".repeat(255) }) {
+            HttpRequest patchRequest = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages/1"))
+                    .method("PATCH", HttpRequest.BodyPublishers.ofString(om.writeValueAsString(
+                            java.util.Map.of("message_text", text))))
+                    .header("Content-Type", "application/json")
+                    .build();
+            HttpResponse<String> response = webClient.send(patchRequest, HttpResponse.BodyHandlers.ofString());
+
+            Assert.assertEquals(200, response.statusCode());
+            Assert.assertEquals(text, om.readValue(response.body(), Message.class).getMessage_text());
+        }
+    }
 }